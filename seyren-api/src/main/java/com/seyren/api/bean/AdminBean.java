@@ -18,9 +18,12 @@ import com.seyren.core.domain.SubscriptionPermissions;
 import com.seyren.core.security.UserManagement;
 import com.seyren.core.store.PermissionsStore;
 import com.seyren.core.util.config.SeyrenConfig;
+import com.seyren.core.util.metrics.MetricsRegistry;
 import org.springframework.security.core.userdetails.UserDetailsService;
 import org.springframework.security.core.userdetails.UsernameNotFoundException;
 
+import java.util.Map;
+
 import javax.annotation.Resource;
 import javax.inject.Inject;
 import javax.inject.Named;
@@ -30,15 +33,17 @@ import javax.ws.rs.core.Response;
 public class AdminBean implements AdminResource {
     private final SeyrenConfig seyrenConfig;
     private final PermissionsStore permissionsStore;
+    private final MetricsRegistry metricsRegistry;
     @Resource(name = "${authentication.service}UserManagement")
     private UserManagement userManagement;
     @Resource(name = "${authentication.service}")
     private UserDetailsService userDetailsService;
 
     @Inject
-    public AdminBean(SeyrenConfig seyrenConfig, PermissionsStore permissionsStore) {
+    public AdminBean(SeyrenConfig seyrenConfig, PermissionsStore permissionsStore, MetricsRegistry metricsRegistry) {
         this.seyrenConfig = seyrenConfig;
         this.permissionsStore = permissionsStore;
+        this.metricsRegistry = metricsRegistry;
     }
 
     @Override
@@ -72,5 +77,16 @@ public class AdminBean implements AdminResource {
         return Response.noContent().build();
     }
 
+    @Override
+    public Response getMetrics(String name) {
+        if (name == null) {
+            return Response.ok().entity(metricsRegistry.snapshot()).build();
+        }
+        Map<String, Object> metrics = metricsRegistry.snapshot(name);
+        if (metrics == null) {
+            return Response.status(Response.Status.NOT_FOUND).build();
+        }
+        return Response.ok().entity(metrics).build();
+    }
 
 }
\ No newline at end of file
@@ -17,20 +17,26 @@ import javax.inject.Inject;
 import javax.inject.Named;
 import javax.ws.rs.core.Response;
 
+import com.google.common.util.concurrent.Futures;
+
 import com.seyren.api.jaxrs.AlertsResource;
 import com.seyren.api.util.DateTimeParam;
 import com.seyren.core.domain.Alert;
 import com.seyren.core.domain.SeyrenResponse;
 import com.seyren.core.store.AlertsStore;
+import com.seyren.core.store.AsyncAlertsStore;
+import com.seyren.core.store.ReadPurpose;
 
 @Named
 public class AlertsBean implements AlertsResource {
     
     private AlertsStore alertsStore;
+    private AsyncAlertsStore asyncAlertsStore;
     
     @Inject
-    public AlertsBean(AlertsStore alertsStore) {
+    public AlertsBean(AlertsStore alertsStore, AsyncAlertsStore asyncAlertsStore) {
         this.alertsStore = alertsStore;
+        this.asyncAlertsStore = asyncAlertsStore;
     }
     
     @Override
@@ -38,7 +44,7 @@ public class AlertsBean implements AlertsResource {
         if (start < 0 || items < 0) {
             return Response.status(400).build();
         }
-        SeyrenResponse<Alert> response = alertsStore.getAlerts(checkId, start, items);
+        SeyrenResponse<Alert> response = Futures.getUnchecked(asyncAlertsStore.getAlerts(checkId, start, items, ReadPurpose.HISTORY));
         return Response.ok(response).build();
     }
     
@@ -53,7 +59,7 @@ public class AlertsBean implements AlertsResource {
         if (start < 0 || items < 0) {
             return Response.status(400).build();
         }
-        SeyrenResponse<Alert> response = alertsStore.getAlerts(start, items);
+        SeyrenResponse<Alert> response = Futures.getUnchecked(asyncAlertsStore.getAlerts(start, items));
         return Response.ok(response).build();
     }
     
@@ -17,34 +17,39 @@ import java.math.BigDecimal;
 
 import javax.inject.Inject;
 import javax.inject.Named;
+import javax.ws.rs.core.CacheControl;
+import javax.ws.rs.core.EntityTag;
 import javax.ws.rs.core.Response;
 import javax.ws.rs.core.Response.Status;
 
 import com.seyren.core.domain.OutlierCheck;
 import com.seyren.core.domain.ThresholdCheck;
+import org.joda.time.DateTime;
 import org.springframework.util.StringUtils;
 
 import com.seyren.api.jaxrs.ChartsResource;
 import com.seyren.core.domain.Check;
 import com.seyren.core.store.ChecksStore;
 import com.seyren.core.util.graphite.AxesState;
-import com.seyren.core.util.graphite.GraphiteHttpClient;
+import com.seyren.core.util.graphite.ChartCache;
+import com.seyren.core.util.graphite.ChartCache.Chart;
 import com.seyren.core.util.graphite.LegendState;
 
 @Named
 public class ChartsBean implements ChartsResource {
 
     private final ChecksStore checksStore;
-    private final GraphiteHttpClient graphiteHttpClient;
+    private final ChartCache chartCache;
 
     @Inject
-    public ChartsBean(ChecksStore checksStore, GraphiteHttpClient graphiteHttpClient) {
+    public ChartsBean(ChecksStore checksStore, ChartCache chartCache) {
         this.checksStore = checksStore;
-        this.graphiteHttpClient = graphiteHttpClient;
+        this.chartCache = chartCache;
     }
 
     @Override
-    public Response getChart(String checkId, int width, int height, String from, String to, boolean hideThresholds, boolean hideLegend, boolean hideAxes) {
+    public Response getChart(String checkId, int width, int height, String from, String to, boolean hideThresholds, boolean hideLegend, boolean hideAxes,
+                             String ifNoneMatch) {
 
         Check check = checksStore.getCheck(checkId);
         if (check == null)
@@ -56,19 +61,20 @@ public class ChartsBean implements ChartsResource {
 
         if (hideThresholds || check instanceof OutlierCheck)
         {
-            return getChart(check.getGraphiteBaseUrl(), target, width, height, from, to, null, null, hideLegend, hideAxes);
+            return getChart(check.getGraphiteBaseUrl(), target, width, height, from, to, null, null, hideLegend, hideAxes, ifNoneMatch);
         }
         else
         {
             ThresholdCheck thresholdCheck = (ThresholdCheck) check;
-            return getChart(check.getGraphiteBaseUrl(), target, width, height, from, to, thresholdCheck.getWarn(), thresholdCheck.getError(), hideLegend, hideAxes);
+            return getChart(check.getGraphiteBaseUrl(), target, width, height, from, to, thresholdCheck.getWarn(), thresholdCheck.getError(), hideLegend, hideAxes,
+                    ifNoneMatch);
         }
 
     }
 
     @Override
     public Response getCustomChart(String target, String graphiteBaseUrl, int width, int height, String from, String to, String warnThreshold,
-                                   String errorThreshold, boolean hideLegend, boolean hideAxes) {
+                                   String errorThreshold, boolean hideLegend, boolean hideAxes, String ifNoneMatch) {
 
         BigDecimal warn;
         if (StringUtils.isEmpty(warnThreshold)) {
@@ -84,12 +90,12 @@ public class ChartsBean implements ChartsResource {
             error = new BigDecimal(errorThreshold);
         }
 
-        return getChart(graphiteBaseUrl, target, width, height, from, to, warn, error, hideLegend, hideAxes);
+        return getChart(graphiteBaseUrl, target, width, height, from, to, warn, error, hideLegend, hideAxes, ifNoneMatch);
 
     }
 
     private Response getChart(String graphiteBaseUrl, String target, int width, int height, String from, String to, BigDecimal warnThreshold,
-                              BigDecimal errorThreshold, boolean hideLegend, boolean hideAxes) {
+                              BigDecimal errorThreshold, boolean hideLegend, boolean hideAxes, String ifNoneMatch) {
 
         LegendState legendState;
         if (hideLegend) {
@@ -106,12 +112,34 @@ public class ChartsBean implements ChartsResource {
         }
 
         try {
-            byte[] bytes = graphiteHttpClient.getChart(graphiteBaseUrl, target, width, height, from, to, legendState, axesState, warnThreshold, errorThreshold);
-            return Response.ok(bytes, "image/png").build();
+            Chart chart = chartCache.getChart(graphiteBaseUrl, target, width, height, from, to, legendState, axesState, warnThreshold, errorThreshold);
+            EntityTag eTag = new EntityTag(chart.getETag());
+            CacheControl cacheControl = new CacheControl();
+            cacheControl.setMaxAge((int) Math.max(0, (chart.getExpires() - new DateTime().getMillis()) / 1000));
+            if (matches(ifNoneMatch, eTag)) {
+                return Response.notModified(eTag).cacheControl(cacheControl).build();
+            }
+            return Response.ok(chart.getBytes(), "image/png").tag(eTag).cacheControl(cacheControl).build();
         } catch (Exception e) {
             return Response.serverError().build();
         }
 
     }
 
+    private static boolean matches(String ifNoneMatch, EntityTag eTag) {
+        if (ifNoneMatch == null) {
+            return false;
+        }
+        for (String tag : ifNoneMatch.split(",")) {
+            tag = tag.trim();
+            if (tag.startsWith("W/")) {
+                tag = tag.substring(2);
+            }
+            if (tag.equals("*") || tag.equals("\"" + eTag.getValue() + "\"")) {
+                return true;
+            }
+        }
+        return false;
+    }
+
 }
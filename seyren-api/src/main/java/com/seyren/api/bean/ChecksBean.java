@@ -26,12 +26,15 @@ import javax.ws.rs.core.Response.Status;
 
 import com.google.common.base.Function;
 import com.google.common.collect.Lists;
+import com.google.common.util.concurrent.Futures;
 import com.google.gson.Gson;
 import com.seyren.api.jaxrs.ChecksResource;
 import com.seyren.core.domain.AlertType;
 import com.seyren.core.domain.Check;
 import com.seyren.core.domain.SeyrenResponse;
+import com.seyren.core.store.AsyncChecksStore;
 import com.seyren.core.store.ChecksStore;
+import com.seyren.core.store.ReadPurpose;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -41,10 +44,12 @@ public class ChecksBean implements ChecksResource {
 
     private static final Logger LOGGER = LoggerFactory.getLogger(ChecksBean.class);
     private ChecksStore checksStore;
+    private AsyncChecksStore asyncChecksStore;
 
     @Inject
-    public ChecksBean(ChecksStore checksStore) {
+    public ChecksBean(ChecksStore checksStore, AsyncChecksStore asyncChecksStore) {
         this.checksStore = checksStore;
+        this.asyncChecksStore = asyncChecksStore;
     }
 
     @Override
@@ -55,7 +60,7 @@ public class ChecksBean implements ChecksResource {
             List<String> regexes) {
         SeyrenResponse<Check> checks;
         if (states != null && !states.isEmpty()) {
-            checks = checksStore.getChecksByState(states, enabled);
+            checks = Futures.getUnchecked(asyncChecksStore.getChecksByState(states, enabled));
         } else if (fields != null && !fields.isEmpty() && regexes != null && !regexes.isEmpty()) {
             List<Pattern> patterns = Lists.transform(regexes, new Function<String, Pattern>() {
                 @Override
@@ -64,9 +69,9 @@ public class ChecksBean implements ChecksResource {
                 }
             });
 
-            checks = checksStore.getChecksByPattern(fields, patterns, enabled);
+            checks = Futures.getUnchecked(asyncChecksStore.getChecksByPattern(fields, patterns, enabled));
         } else {
-            checks = checksStore.getChecks(enabled, null);
+            checks = Futures.getUnchecked(asyncChecksStore.getChecks(enabled, null, ReadPurpose.LISTING));
         }
         return Response.ok(checks).build();
     }
@@ -106,7 +111,8 @@ public class ChecksBean implements ChecksResource {
         Check check = checksStore.getCheck(checkId);
         String subJson = new Gson().toJson(check.getSubscriptions());
         LOGGER.info("Check={}, Subscription={} :: Message='Check deleted'", checkId, subJson);
-        checksStore.deleteCheck(checkId);
+        // Removes the check and its alerts concurrently
+        Futures.getUnchecked(asyncChecksStore.deleteCheck(checkId));
         return Response.noContent().build();
     }
 
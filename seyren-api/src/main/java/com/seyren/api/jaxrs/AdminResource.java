@@ -36,4 +36,9 @@ public interface AdminResource {
     @Path("/admin/permissions/subscription/users/{name}")
     @Consumes(MediaType.APPLICATION_JSON)
     Response setSubscriptionPermissions(@PathParam("name") String name, SubscriptionPermissions subscriptionPermissions);
+
+    @GET
+    @Path("/admin/metrics")
+    @Produces(MediaType.APPLICATION_JSON)
+    Response getMetrics(@QueryParam("name") String name);
 }
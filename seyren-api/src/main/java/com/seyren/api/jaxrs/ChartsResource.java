@@ -15,6 +15,7 @@ package com.seyren.api.jaxrs;
 
 import javax.ws.rs.DefaultValue;
 import javax.ws.rs.GET;
+import javax.ws.rs.HeaderParam;
 import javax.ws.rs.Path;
 import javax.ws.rs.PathParam;
 import javax.ws.rs.Produces;
@@ -34,7 +35,8 @@ public interface ChartsResource {
             @QueryParam("to") String to,
             @QueryParam("hideThresholds") boolean hideThresholds,
             @QueryParam("hideLegend") boolean hideLegend,
-            @QueryParam("hideAxes") boolean hideAxes);
+            @QueryParam("hideAxes") boolean hideAxes,
+            @HeaderParam("If-None-Match") String ifNoneMatch);
     
     @GET
     @Produces("image/png")
@@ -48,6 +50,7 @@ public interface ChartsResource {
             @QueryParam("warn") String warnThreshold,
             @QueryParam("error") String errorThreshold,
             @QueryParam("hideLegend") boolean hideLegend,
-            @QueryParam("hideAxes") boolean hideAxes);
+            @QueryParam("hideAxes") boolean hideAxes,
+            @HeaderParam("If-None-Match") String ifNoneMatch);
     
 }
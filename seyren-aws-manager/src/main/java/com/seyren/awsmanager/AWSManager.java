@@ -13,34 +13,52 @@
  */
 package com.seyren.awsmanager;
 
-import com.amazonaws.auth.DefaultAWSCredentialsProviderChain;
+import com.amazonaws.AmazonClientException;
 import com.amazonaws.regions.Region;
 import com.amazonaws.regions.Regions;
-import com.amazonaws.services.autoscaling.AmazonAutoScaling;
 import com.amazonaws.services.autoscaling.AmazonAutoScalingClient;
+import com.amazonaws.services.autoscaling.model.AutoScalingGroup;
 import com.amazonaws.services.autoscaling.model.AutoScalingInstanceDetails;
+import com.amazonaws.services.autoscaling.model.DescribeAutoScalingGroupsRequest;
+import com.amazonaws.services.autoscaling.model.DescribeAutoScalingGroupsResult;
 import com.amazonaws.services.autoscaling.model.DescribeAutoScalingInstancesRequest;
 import com.amazonaws.services.autoscaling.model.DescribeAutoScalingInstancesResult;
 import com.amazonaws.services.autoscaling.model.SetInstanceHealthRequest;
-import com.amazonaws.services.ec2.AmazonEC2;
 import com.amazonaws.services.ec2.AmazonEC2Client;
 import com.amazonaws.services.ec2.model.*;
-import com.google.common.cache.CacheLoader;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.seyren.awsmanager.cache.ASGMembershipIndex;
 import com.seyren.awsmanager.cache.AWSInstanceDetailsCache;
+import com.seyren.awsmanager.throttle.AWSRequestThrottle;
 import org.apache.commons.collections4.CollectionUtils;
 import com.seyren.awsmanager.entity.AWSInstanceDetail;
 import org.apache.commons.collections4.MapUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import javax.annotation.PreDestroy;
 import javax.inject.Inject;
 import javax.inject.Named;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
 
 /**
  * Created by akharbanda on 30/08/17.
@@ -51,151 +69,361 @@ public class AWSManager
 {
     private final AmazonEC2Client amazonEC2Client;
     private final AmazonAutoScalingClient amazonAutoScalingClient;
-    private static final String IPADDRESS_PATTERN =
-            "(?:(?:25[0-5]|2[0-4][0-9]|[01]?[0-9][0-9]?)\\-){3}(?:25[0-5]|2[0-4][0-9]|[01]?[0-9][0-9]?)";
-
-    private final Pattern pattern = Pattern.compile(IPADDRESS_PATTERN);
     private final AWSInstanceDetailsCache awsInstanceDetailsCache;
+    private final Cache<String, Integer> asgInstanceCountCache;
     private final static Long CACHE_MAX_SIZE = 1000l;
     private final static Long CACHE_EXPIRY_IN_MILLIS = 10 * 60 * 1000l; //10 mins
     private static final Logger LOGGER = LoggerFactory.getLogger(AWSManager.class);
     private static final int MAX_FILTER_LIST_SIZE = 200; //AWS throws error for larger lists
     private static final String DEFAULT_AWS_REGION = "us-west-2";
+    private static final int MAX_ASG_INSTANCE_RECORDS = 50; //Largest page, and most instance ids, describeAutoScalingInstances takes
+    private static final double DEFAULT_REQUESTS_PER_SECOND = 10;
+    private static final int DEFAULT_REQUEST_THREADS = 4;
+    private static final long MIN_REQUESTED_INDEX_REFRESH_MILLIS = 60 * 1000l; //1 min
+
+    private final AtomicReference<ASGMembershipIndex> asgMembershipIndex = new AtomicReference<ASGMembershipIndex>();
+    private volatile ScheduledExecutorService indexRefreshExecutor;
+    private volatile long requestedIndexRefreshMillis;
+    private final AtomicBoolean indexRefreshRequested = new AtomicBoolean();
+    // IPs the index did not know, settled by the next rebuild
+    private final Set<String> ipAddressesAwaitingIndex = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+    private final AWSRequestThrottle awsRequestThrottle;
+    private final ExecutorService requestExecutor;
 
+    /**
+     * No ASG membership index is built until {@link #startASGMembershipIndex(long)} is called.
+     */
     @Inject
     public AWSManager(AmazonEC2Client amazonEC2Client, AmazonAutoScalingClient amazonAutoScalingClient)
+    {
+        this(amazonEC2Client, amazonAutoScalingClient, 0);
+    }
+
+    /**
+     * @param indexRefreshMillis how often the ASG membership index is rebuilt in the
+     * background; 0 to only build it on {@link #refreshASGMembershipIndex()}
+     */
+    public AWSManager(AmazonEC2Client amazonEC2Client, AmazonAutoScalingClient amazonAutoScalingClient, long indexRefreshMillis)
+    {
+        this(amazonEC2Client, amazonAutoScalingClient, indexRefreshMillis, new AWSRequestThrottle(DEFAULT_REQUESTS_PER_SECOND), DEFAULT_REQUEST_THREADS);
+    }
+
+    /**
+     * @param awsRequestThrottle paces every describe call, and retries the throttled ones
+     * @param requestThreads how many describe calls are in flight at once
+     */
+    public AWSManager(AmazonEC2Client amazonEC2Client, AmazonAutoScalingClient amazonAutoScalingClient, long indexRefreshMillis,
+                      AWSRequestThrottle awsRequestThrottle, int requestThreads)
     {
         this.amazonEC2Client = amazonEC2Client;
         this.amazonAutoScalingClient = amazonAutoScalingClient;
         Region region = Region.getRegion(Regions.fromName(DEFAULT_AWS_REGION));
         amazonEC2Client.setEndpoint(region.getServiceEndpoint("ec2"));
         amazonAutoScalingClient.setEndpoint(region.getServiceEndpoint("autoscaling"));
-        CacheLoader cacheLoader = new CacheLoader<String, AWSInstanceDetail>()
+        awsInstanceDetailsCache = new AWSInstanceDetailsCache(CACHE_MAX_SIZE, CACHE_EXPIRY_IN_MILLIS);
+        asgInstanceCountCache = CacheBuilder.newBuilder().maximumSize(CACHE_MAX_SIZE).expireAfterWrite(CACHE_EXPIRY_IN_MILLIS, TimeUnit.MILLISECONDS).build();
+        this.awsRequestThrottle = awsRequestThrottle;
+        this.requestExecutor = Executors.newFixedThreadPool(requestThreads, new ThreadFactoryBuilder().setNameFormat("aws-request-%d").setDaemon(true).build());
+        startASGMembershipIndex(indexRefreshMillis);
+    }
+
+    /**
+     * Starts rebuilding the ASG membership index in the background, unless it is already
+     * being rebuilt. From then on lookups make no AWS calls of their own. Until it is
+     * called every lookup is made in AWS.
+     *
+     * @param refreshMillis how often the index is rebuilt; 0 or less does nothing
+     */
+    public synchronized void startASGMembershipIndex(long refreshMillis)
+    {
+        if (refreshMillis <= 0 || indexRefreshExecutor != null)
+        {
+            return;
+        }
+        requestedIndexRefreshMillis = Math.min(refreshMillis, MIN_REQUESTED_INDEX_REFRESH_MILLIS);
+        indexRefreshExecutor = Executors.newSingleThreadScheduledExecutor(new ThreadFactoryBuilder().setNameFormat("asg-index").setDaemon(true).build());
+        indexRefreshExecutor.scheduleWithFixedDelay(new Runnable()
         {
             @Override
-            public AWSInstanceDetail load(String key) throws Exception
+            public void run()
             {
-                throw new Exception("No entry in cache"); // throw exception because we want to send one batch request to AWS for instance details
+                refreshASGMembershipIndex();
             }
-        };
-        awsInstanceDetailsCache = new AWSInstanceDetailsCache(cacheLoader, CACHE_MAX_SIZE, CACHE_EXPIRY_IN_MILLIS);
+        }, 0, refreshMillis, TimeUnit.MILLISECONDS);
     }
 
+    @PreDestroy
+    public synchronized void shutdown()
+    {
+        if (indexRefreshExecutor != null)
+        {
+            indexRefreshExecutor.shutdownNow();
+        }
+        requestExecutor.shutdownNow();
+    }
+
+    /**
+     * Answers from the ASG membership index once it has been built, so that no AWS
+     * call is made. IPs missing from the index, which may be instances launched since
+     * it was built, are answered from the cache. While the index is being rebuilt in
+     * the background, IPs the cache does not know either are left out and the index
+     * is rebuilt early; IPs it still does not have are then cached as not in an ASG.
+     * Without a background index every IP missing from it is looked up in AWS.
+     */
     public Map<String, AWSInstanceDetail> getInstanceDetail(List<String> ipAddressList)
     {
         Map<String, AWSInstanceDetail> awsInstanceDetailMap = new HashMap<String, AWSInstanceDetail>();
+        Map<String, AWSInstanceDetail> indexedInstanceDetailMap = new HashMap<String, AWSInstanceDetail>();
 
-        if (CollectionUtils.isNotEmpty(ipAddressList))
+        ASGMembershipIndex index = asgMembershipIndex.get();
+        if (index != null && CollectionUtils.isNotEmpty(ipAddressList))
         {
-            Map<String, String> instanceIdToIPAddressMap = new HashMap<String, String>();
-            List<String> ipAddressNotInCacheList = buildMapFromCache(awsInstanceDetailMap, ipAddressList);
+            List<String> ipAddressNotInIndexList = new ArrayList<String>();
+            for (String ipAddress : ipAddressList)
+            {
+                AWSInstanceDetail awsInstanceDetail = index.get(ipAddress);
+                if (awsInstanceDetail != null)
+                {
+                    indexedInstanceDetailMap.put(ipAddress, awsInstanceDetail);
+                }
+                else
+                {
+                    ipAddressNotInIndexList.add(ipAddress);
+                }
+            }
+            ipAddressList = ipAddressNotInIndexList;
+        }
 
+        if (indexRefreshExecutor != null)
+        {
+            // Not looked up on the caller's thread, which may be running a check
+            List<String> ipAddressNotInCacheList = buildMapFromCache(awsInstanceDetailMap, ipAddressList);
             if (CollectionUtils.isNotEmpty(ipAddressNotInCacheList))
             {
-                int size = ipAddressNotInCacheList.size();
+                ipAddressesAwaitingIndex.addAll(ipAddressNotInCacheList);
+                requestASGMembershipIndexRefresh();
+            }
+            awsInstanceDetailMap.putAll(indexedInstanceDetailMap);
+            return awsInstanceDetailMap;
+        }
 
-                int batches = size / MAX_FILTER_LIST_SIZE;
+        if (CollectionUtils.isNotEmpty(ipAddressList))
+        {
+            List<String> ipAddressNotInCacheList = buildMapFromCache(awsInstanceDetailMap, ipAddressList);
 
-                for (int i = 0; i <= batches; i++)
+            if (CollectionUtils.isNotEmpty(ipAddressNotInCacheList))
+            {
+                Set<String> ipAddressNotInCacheSet = new HashSet<String>(ipAddressNotInCacheList);
+                Map<String, String> instanceIdToIPAddressMap = new HashMap<String, String>();
+                for (Instance instance : describeInstances("private-ip-address", ipAddressNotInCacheList))
                 {
-
-                    int startIndex = i * MAX_FILTER_LIST_SIZE;
-                    int endIndex = startIndex + MAX_FILTER_LIST_SIZE;
-
-                    if (i == batches)
+                    if (instance != null && ipAddressNotInCacheSet.contains(instance.getPrivateIpAddress()))
                     {
-                        endIndex = size;
+                        instanceIdToIPAddressMap.put(instance.getInstanceId(), instance.getPrivateIpAddress());
                     }
+                }
 
-
-                    List<String> ipAddressNotInCacheBatch = ipAddressNotInCacheList.subList(startIndex, endIndex);
-                    if (CollectionUtils.isNotEmpty(ipAddressNotInCacheBatch))
+                if (MapUtils.isNotEmpty(instanceIdToIPAddressMap))
+                {
+                    for (AutoScalingInstanceDetails autoScalingInstanceDetails : describeAutoScalingInstances(new ArrayList<String>(instanceIdToIPAddressMap.keySet())))
                     {
-                        DescribeInstancesResult describeInstancesResult = amazonEC2Client.describeInstances(buildDescribeInstanceRequest(ipAddressNotInCacheBatch));
-                        if (describeInstancesResult != null)
+                        if (autoScalingInstanceDetails != null && autoScalingInstanceDetails.getInstanceId() != null)
                         {
-                            List<Reservation> reservationList = describeInstancesResult.getReservations();
-
-                            if (CollectionUtils.isNotEmpty(reservationList))
+                            String privateIp = instanceIdToIPAddressMap.get(autoScalingInstanceDetails.getInstanceId());
+                            if (privateIp != null)
                             {
-                                for (String ipAddress : ipAddressNotInCacheBatch)
-                                {
-                                    boolean found = false;
-                                    for (Reservation reservation : reservationList)
-                                    {
-                                        if (reservation != null && CollectionUtils.isNotEmpty(reservation.getInstances()))
-                                        {
-                                            List<Instance> instances = reservation.getInstances();
-                                            for (Instance instance : instances)
-                                            {
-                                                if (instance != null)
-                                                {
-                                                    if (instance.getPrivateIpAddress().equals(ipAddress))
-                                                    {
-                                                        instanceIdToIPAddressMap.put(instance.getInstanceId(), ipAddress);
-                                                        found = true;
-                                                        break;
-                                                    }
-                                                }
-                                            }
-                                            if (found)
-                                            {
-                                                break;
-                                            }
-                                        }
-
-                                    }
-                                }
-
+                                AWSInstanceDetail awsInstanceDetail = new AWSInstanceDetail(privateIp, autoScalingInstanceDetails.getInstanceId(), autoScalingInstanceDetails.getAutoScalingGroupName());
+                                awsInstanceDetailMap.put(privateIp, awsInstanceDetail);
                             }
                         }
                     }
-
                 }
 
-                if (MapUtils.isNotEmpty(instanceIdToIPAddressMap))
+                // Remember the IPs which are not in an ASG, so that they are not looked up on every check
+                for (String ipAddress : ipAddressNotInCacheList)
                 {
-                    DescribeAutoScalingInstancesResult describeAutoScalingInstancesResult = amazonAutoScalingClient.describeAutoScalingInstances(buildDescribeAutoScalingInstancesRequest(new ArrayList<String>(instanceIdToIPAddressMap.keySet())));
-                    if (describeAutoScalingInstancesResult != null && CollectionUtils.isNotEmpty(describeAutoScalingInstancesResult.getAutoScalingInstances()))
+                    if (!awsInstanceDetailMap.containsKey(ipAddress))
                     {
-                        for (AutoScalingInstanceDetails autoScalingInstanceDetails : describeAutoScalingInstancesResult.getAutoScalingInstances())
-                        {
-                            if (autoScalingInstanceDetails != null && autoScalingInstanceDetails.getInstanceId() != null)
-                            {
-                                String privateIp = instanceIdToIPAddressMap.get(autoScalingInstanceDetails.getInstanceId());
-                                if (privateIp != null)
-                                {
-                                    AWSInstanceDetail awsInstanceDetail = new AWSInstanceDetail(privateIp, autoScalingInstanceDetails.getInstanceId(), autoScalingInstanceDetails.getAutoScalingGroupName());
-                                    awsInstanceDetailMap.put(privateIp, awsInstanceDetail);
-                                }
-
-                            }
-                        }
+                        awsInstanceDetailsCache.putNotInASG(ipAddress);
                     }
                 }
             }
         }
         updateCacheFromMap(awsInstanceDetailMap);
+        awsInstanceDetailMap.putAll(indexedInstanceDetailMap);
         return awsInstanceDetailMap;
     }
 
-    public void convictInstance(List<String> instanceIdList)
+    /**
+     * Rebuilds the ASG membership index and swaps it in; a failed rebuild keeps the previous index.
+     */
+    public void refreshASGMembershipIndex()
     {
-        if (CollectionUtils.isNotEmpty(instanceIdList))
+        try
         {
-            for (String instanceId : instanceIdList)
+            long start = System.currentTimeMillis();
+            List<String> awaitingIndex = new ArrayList<String>(ipAddressesAwaitingIndex);
+            ASGMembershipIndex index = buildASGMembershipIndex();
+            asgMembershipIndex.set(index);
+            for (String ipAddress : awaitingIndex)
             {
-                try
+                if (index.get(ipAddress) == null)
                 {
-                    amazonAutoScalingClient.setInstanceHealth(new SetInstanceHealthRequest().withHealthStatus("Unhealthy").withInstanceId(instanceId));
+                    awsInstanceDetailsCache.putNotInASG(ipAddress);
                 }
+                ipAddressesAwaitingIndex.remove(ipAddress);
+            }
+            LOGGER.debug("Indexed {} ASG instances in {} ms", index.size(), System.currentTimeMillis() - start);
+        }
+        catch (Exception e)
+        {
+            LOGGER.warn("Error while refreshing the ASG membership index, keeping the previous one", e);
+        }
+    }
 
-                catch (Exception e)
+    /*
+     * Rebuilds the background index early for IPs it did not know, at most once per
+     * MIN_REQUESTED_INDEX_REFRESH_MILLIS. Before the first build there is nothing
+     * to do, that build settles them.
+     */
+    private void requestASGMembershipIndexRefresh()
+    {
+        ScheduledExecutorService executor = indexRefreshExecutor;
+        ASGMembershipIndex index = asgMembershipIndex.get();
+        if (executor == null || index == null || !indexRefreshRequested.compareAndSet(false, true))
+        {
+            return;
+        }
+        long delay = Math.max(0, index.getBuiltAtMillis() + requestedIndexRefreshMillis - System.currentTimeMillis());
+        try
+        {
+            executor.schedule(new Runnable()
+            {
+                @Override
+                public void run()
                 {
-                    LOGGER.error(String.format("Error while setting instance state for %s to unhealthy", instanceId), e);
+                    indexRefreshRequested.set(false);
+                    refreshASGMembershipIndex();
                 }
+            }, delay, TimeUnit.MILLISECONDS);
+        }
+        catch (RejectedExecutionException e)
+        {
+            // Shutting down
+            indexRefreshRequested.set(false);
+        }
+    }
+
+    private ASGMembershipIndex buildASGMembershipIndex()
+    {
+        Map<String, String> asgNameByInstanceId = new HashMap<String, String>();
+        for (AutoScalingInstanceDetails autoScalingInstanceDetails : describeAutoScalingInstancePages(null))
+        {
+            asgNameByInstanceId.put(autoScalingInstanceDetails.getInstanceId(), autoScalingInstanceDetails.getAutoScalingGroupName());
+        }
+
+        Map<String, AWSInstanceDetail> instanceDetailByIp = new HashMap<String, AWSInstanceDetail>();
+        for (Instance instance : describeInstances("instance-id", new ArrayList<String>(asgNameByInstanceId.keySet())))
+        {
+            if (instance.getPrivateIpAddress() != null)
+            {
+                instanceDetailByIp.put(instance.getPrivateIpAddress(), new AWSInstanceDetail(instance.getPrivateIpAddress(), instance.getInstanceId(), asgNameByInstanceId.get(instance.getInstanceId())));
             }
         }
+
+        return new ASGMembershipIndex(instanceDetailByIp, System.currentTimeMillis());
+    }
+
+    /**
+     * Answers from the ASG membership index. ASGs it does not have, and every ASG when
+     * there is no index, are described in AWS, with the answer cached for a while.
+     *
+     * @return the number of instances in the ASG, 0 when there is no such ASG, or -1 when AWS could not be asked
+     */
+    public int getASGInstanceCount(String asgName)
+    {
+        ASGMembershipIndex index = asgMembershipIndex.get();
+        int instanceCount = index == null ? 0 : index.getInstanceCount(asgName);
+        if (instanceCount > 0 || asgName == null)
+        {
+            return instanceCount;
+        }
+        Integer describedInstanceCount = asgInstanceCountCache.getIfPresent(asgName);
+        if (describedInstanceCount == null)
+        {
+            try
+            {
+                describedInstanceCount = describeASGInstanceCount(asgName);
+                asgInstanceCountCache.put(asgName, describedInstanceCount);
+            }
+            catch (Exception e)
+            {
+                LOGGER.warn(String.format("Error while describing ASG %s", asgName), e);
+                return -1;
+            }
+        }
+        return describedInstanceCount;
+    }
+
+    private int describeASGInstanceCount(String asgName)
+    {
+        final DescribeAutoScalingGroupsRequest describeAutoScalingGroupsRequest = new DescribeAutoScalingGroupsRequest().withAutoScalingGroupNames(asgName);
+        DescribeAutoScalingGroupsResult describeAutoScalingGroupsResult = executeThrottled(new Callable<DescribeAutoScalingGroupsResult>()
+        {
+            @Override
+            public DescribeAutoScalingGroupsResult call()
+            {
+                return amazonAutoScalingClient.describeAutoScalingGroups(describeAutoScalingGroupsRequest);
+            }
+        });
+        if (describeAutoScalingGroupsResult != null && describeAutoScalingGroupsResult.getAutoScalingGroups() != null)
+        {
+            for (AutoScalingGroup autoScalingGroup : describeAutoScalingGroupsResult.getAutoScalingGroups())
+            {
+                if (asgName.equals(autoScalingGroup.getAutoScalingGroupName()) && autoScalingGroup.getInstances() != null)
+                {
+                    return autoScalingGroup.getInstances().size();
+                }
+            }
+        }
+        return 0;
+    }
+
+    public void convictInstance(List<String> instanceIdList)
+    {
+        if (CollectionUtils.isNotEmpty(instanceIdList))
+        {
+            for (String instanceId : instanceIdList)
+            {
+                convictInstance(instanceId);
+            }
+        }
+    }
+
+    /**
+     * Marks the instance unhealthy, so that its ASG replaces it.
+     *
+     * @return whether AWS accepted the request
+     */
+    public boolean convictInstance(final String instanceId)
+    {
+        try
+        {
+            executeThrottled(new Callable<Object>()
+            {
+                @Override
+                public Object call()
+                {
+                    return amazonAutoScalingClient.setInstanceHealth(new SetInstanceHealthRequest().withHealthStatus("Unhealthy").withInstanceId(instanceId));
+                }
+            });
+            return true;
+        }
+        catch (Exception e)
+        {
+            LOGGER.error(String.format("Error while setting instance state for %s to unhealthy", instanceId), e);
+            return false;
+        }
     }
 
     private List<String> buildMapFromCache(Map<String, AWSInstanceDetail> awsInstanceDetailMap, List<String> ipAddressList)
@@ -203,15 +431,16 @@ public class AWSManager
         List<String> ipAddressNotInCacheList = new ArrayList<String>();
         for (String ipAddress : ipAddressList)
         {
+            if (awsInstanceDetailsCache.isMissing(ipAddress))
+            {
+                ipAddressNotInCacheList.add(ipAddress);
+                continue;
+            }
             AWSInstanceDetail awsInstanceDetail = awsInstanceDetailsCache.getAWSInstanceDetails(ipAddress);
             if (awsInstanceDetail != null)
             {
                 awsInstanceDetailMap.put(ipAddress, awsInstanceDetail);
             }
-            else
-            {
-                ipAddressNotInCacheList.add(ipAddress);
-            }
         }
         return ipAddressNotInCacheList;
     }
@@ -224,23 +453,193 @@ public class AWSManager
         }
     }
 
-    private DescribeInstancesRequest buildDescribeInstanceRequest(List<String> ipAddress)
+    // The instances matching the filter, looked up in batches of values which run concurrently
+    private List<Instance> describeInstances(final String filterName, List<String> values)
     {
-        DescribeInstancesRequest describeInstancesRequest = new DescribeInstancesRequest();
-        describeInstancesRequest = describeInstancesRequest.withFilters(new Filter("private-ip-address", ipAddress));
+        List<Callable<List<Instance>>> batches = new ArrayList<Callable<List<Instance>>>();
+        for (final List<String> batch : partition(values, MAX_FILTER_LIST_SIZE))
+        {
+            batches.add(new Callable<List<Instance>>()
+            {
+                @Override
+                public List<Instance> call()
+                {
+                    return describeInstancePages(filterName, batch);
+                }
+            });
+        }
+        return invokeAll(batches);
+    }
 
-        return describeInstancesRequest;
+    private List<Instance> describeInstancePages(String filterName, List<String> values)
+    {
+        List<Instance> instances = new ArrayList<Instance>();
+        String nextToken = null;
+        do
+        {
+            final DescribeInstancesRequest describeInstancesRequest = new DescribeInstancesRequest().withFilters(new Filter(filterName, values)).withNextToken(nextToken);
+            DescribeInstancesResult describeInstancesResult = executeThrottled(new Callable<DescribeInstancesResult>()
+            {
+                @Override
+                public DescribeInstancesResult call()
+                {
+                    return amazonEC2Client.describeInstances(describeInstancesRequest);
+                }
+            });
+            nextToken = null;
+            if (describeInstancesResult != null)
+            {
+                if (describeInstancesResult.getReservations() != null)
+                {
+                    for (Reservation reservation : describeInstancesResult.getReservations())
+                    {
+                        if (reservation != null && reservation.getInstances() != null)
+                        {
+                            instances.addAll(reservation.getInstances());
+                        }
+                    }
+                }
+                nextToken = describeInstancesResult.getNextToken();
+            }
+        }
+        while (nextToken != null);
+        return instances;
     }
 
-    private DescribeAutoScalingInstancesRequest buildDescribeAutoScalingInstancesRequest(List<String> instanceIdList)
+    private List<AutoScalingInstanceDetails> describeAutoScalingInstances(List<String> instanceIds)
     {
-        DescribeAutoScalingInstancesRequest describeAutoScalingInstancesRequest = null;
-        if (CollectionUtils.isNotEmpty(instanceIdList))
+        List<Callable<List<AutoScalingInstanceDetails>>> batches = new ArrayList<Callable<List<AutoScalingInstanceDetails>>>();
+        for (final List<String> batch : partition(instanceIds, MAX_ASG_INSTANCE_RECORDS))
+        {
+            batches.add(new Callable<List<AutoScalingInstanceDetails>>()
+            {
+                @Override
+                public List<AutoScalingInstanceDetails> call()
+                {
+                    return describeAutoScalingInstancePages(batch);
+                }
+            });
+        }
+        return invokeAll(batches);
+    }
+
+    // Every ASG instance when instanceIds is null
+    private List<AutoScalingInstanceDetails> describeAutoScalingInstancePages(List<String> instanceIds)
+    {
+        List<AutoScalingInstanceDetails> autoScalingInstances = new ArrayList<AutoScalingInstanceDetails>();
+        String nextToken = null;
+        do
+        {
+            final DescribeAutoScalingInstancesRequest describeAutoScalingInstancesRequest = new DescribeAutoScalingInstancesRequest()
+                    .withInstanceIds(instanceIds)
+                    .withMaxRecords(MAX_ASG_INSTANCE_RECORDS)
+                    .withNextToken(nextToken);
+            DescribeAutoScalingInstancesResult describeAutoScalingInstancesResult = executeThrottled(new Callable<DescribeAutoScalingInstancesResult>()
+            {
+                @Override
+                public DescribeAutoScalingInstancesResult call()
+                {
+                    return amazonAutoScalingClient.describeAutoScalingInstances(describeAutoScalingInstancesRequest);
+                }
+            });
+            nextToken = null;
+            if (describeAutoScalingInstancesResult != null)
+            {
+                if (describeAutoScalingInstancesResult.getAutoScalingInstances() != null)
+                {
+                    autoScalingInstances.addAll(describeAutoScalingInstancesResult.getAutoScalingInstances());
+                }
+                nextToken = describeAutoScalingInstancesResult.getNextToken();
+            }
+        }
+        while (nextToken != null);
+        return autoScalingInstances;
+    }
+
+    private <T> T executeThrottled(Callable<T> request)
+    {
+        try
         {
-            describeAutoScalingInstancesRequest = new DescribeAutoScalingInstancesRequest();
-            describeAutoScalingInstancesRequest.setInstanceIds(instanceIdList);
+            return awsRequestThrottle.execute(request);
         }
+        catch (RuntimeException e)
+        {
+            throw e;
+        }
+        catch (Exception e)
+        {
+            throw new AmazonClientException("Interrupted while waiting to call AWS", e);
+        }
+    }
 
-        return describeAutoScalingInstancesRequest;
+    // Runs the batches concurrently and concatenates their results in batch order
+    private <T> List<T> invokeAll(List<Callable<List<T>>> batches)
+    {
+        List<T> results = new ArrayList<T>();
+        if (batches.size() == 1)
+        {
+            // Not worth a hand-off to another thread
+            results.addAll(call(batches.get(0)));
+            return results;
+        }
+        List<Future<List<T>>> futures = new ArrayList<Future<List<T>>>();
+        try
+        {
+            for (Callable<List<T>> batch : batches)
+            {
+                futures.add(requestExecutor.submit(batch));
+            }
+            for (Future<List<T>> future : futures)
+            {
+                results.addAll(future.get());
+            }
+            return results;
+        }
+        catch (ExecutionException e)
+        {
+            if (e.getCause() instanceof RuntimeException)
+            {
+                throw (RuntimeException) e.getCause();
+            }
+            throw new AmazonClientException("Error while calling AWS", e.getCause());
+        }
+        catch (InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+            throw new AmazonClientException("Interrupted while calling AWS", e);
+        }
+        finally
+        {
+            for (Future<List<T>> future : futures)
+            {
+                future.cancel(true);
+            }
+        }
+    }
+
+    private static <T> T call(Callable<T> callable)
+    {
+        try
+        {
+            return callable.call();
+        }
+        catch (RuntimeException e)
+        {
+            throw e;
+        }
+        catch (Exception e)
+        {
+            throw new AmazonClientException("Error while calling AWS", e);
+        }
+    }
+
+    private static List<List<String>> partition(List<String> values, int size)
+    {
+        List<List<String>> batches = new ArrayList<List<String>>();
+        for (int startIndex = 0; startIndex < values.size(); startIndex += size)
+        {
+            batches.add(values.subList(startIndex, Math.min(startIndex + size, values.size())));
+        }
+        return batches;
     }
 }
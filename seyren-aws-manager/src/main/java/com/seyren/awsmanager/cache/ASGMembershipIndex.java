@@ -0,0 +1,60 @@
+package com.seyren.awsmanager.cache;
+
+import com.seyren.awsmanager.entity.AWSInstanceDetail;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * An immutable snapshot of every instance which belongs to an ASG, by private IP.
+ *
+ * The snapshot lists all ASG members, so an IP it does not contain is not in
+ * any ASG; lookups never fall through to AWS.
+ */
+public class ASGMembershipIndex
+{
+    private final Map<String, AWSInstanceDetail> instanceDetailByIp;
+    private final Map<String, Integer> instanceCountByASGName;
+    private final long builtAtMillis;
+
+    public ASGMembershipIndex(Map<String, AWSInstanceDetail> instanceDetailByIp, long builtAtMillis)
+    {
+        this.instanceDetailByIp = Collections.unmodifiableMap(new HashMap<String, AWSInstanceDetail>(instanceDetailByIp));
+        Map<String, Integer> instanceCounts = new HashMap<String, Integer>();
+        for (AWSInstanceDetail awsInstanceDetail : instanceDetailByIp.values())
+        {
+            Integer count = instanceCounts.get(awsInstanceDetail.getAutoScalingGroup());
+            instanceCounts.put(awsInstanceDetail.getAutoScalingGroup(), count == null ? 1 : count + 1);
+        }
+        this.instanceCountByASGName = Collections.unmodifiableMap(instanceCounts);
+        this.builtAtMillis = builtAtMillis;
+    }
+
+    /**
+     * @return the instance with this private IP, or null when no ASG has one
+     */
+    public AWSInstanceDetail get(String ipAddress)
+    {
+        return instanceDetailByIp.get(ipAddress);
+    }
+
+    /**
+     * @return the number of instances in the ASG, 0 when there is no such ASG
+     */
+    public int getInstanceCount(String asgName)
+    {
+        Integer count = instanceCountByASGName.get(asgName);
+        return count == null ? 0 : count;
+    }
+
+    public int size()
+    {
+        return instanceDetailByIp.size();
+    }
+
+    public long getBuiltAtMillis()
+    {
+        return builtAtMillis;
+    }
+}
@@ -1,30 +1,24 @@
 package com.seyren.awsmanager.cache;
 
+import com.google.common.cache.Cache;
 import com.google.common.cache.CacheBuilder;
-import com.google.common.cache.CacheLoader;
-import com.google.common.cache.LoadingCache;
 import com.seyren.awsmanager.entity.AWSInstanceDetail;
-import org.slf4j.Logger;
-import org.slf4j.LoggerFactory;
 
-import java.util.concurrent.ExecutionException;
 import java.util.concurrent.TimeUnit;
-import java.util.jar.Pack200;
 
 /**
  * Created by akharbanda on 04/09/17.
  */
 public class AWSInstanceDetailsCache
 {
-    private final LoadingCache<String,AWSInstanceDetail> awsInstanceDetailLoadingCache ;
-    private final CacheLoader<String,AWSInstanceDetail> cacheLoader;
-    private final CacheBuilder cacheBuilder ;
-    private static final Logger LOGGER = LoggerFactory.getLogger(AWSInstanceDetailsCache.class);
+    // Marks an IP which AWS was asked about and which is not in any ASG
+    private static final AWSInstanceDetail NOT_IN_ASG = new AWSInstanceDetail(null, null, null);
 
-    public AWSInstanceDetailsCache(CacheLoader cacheLoader , Long maxSize , Long expiryTimeoutinMillis)
+    private final Cache<String,AWSInstanceDetail> awsInstanceDetailCache ;
+
+    public AWSInstanceDetailsCache(Long maxSize , Long expiryTimeoutinMillis)
     {
-        this.cacheLoader = cacheLoader;
-        cacheBuilder = CacheBuilder.newBuilder();
+        CacheBuilder<Object, Object> cacheBuilder = CacheBuilder.newBuilder();
         if(maxSize!=null)
         {
             cacheBuilder.maximumSize(maxSize);
@@ -35,27 +29,36 @@ public class AWSInstanceDetailsCache
             cacheBuilder.expireAfterWrite(expiryTimeoutinMillis, TimeUnit.MILLISECONDS);
         }
 
-        awsInstanceDetailLoadingCache = cacheBuilder.build(cacheLoader);
+        awsInstanceDetailCache = cacheBuilder.build();
     }
 
+    /**
+     * @return the cached instance, or null when there is none or the IP is known not to be in an ASG
+     */
     public AWSInstanceDetail getAWSInstanceDetails(String key)
     {
-        AWSInstanceDetail awsInstanceDetail = null;
+        AWSInstanceDetail awsInstanceDetail = awsInstanceDetailCache.getIfPresent(key);
+        return awsInstanceDetail == NOT_IN_ASG ? null : awsInstanceDetail;
+    }
 
-        try{
-            awsInstanceDetail = awsInstanceDetailLoadingCache.get(key);
-        }
-        catch (ExecutionException ee)
-        {
-        }
-        return awsInstanceDetail;
+    /**
+     * @return whether AWS has to be asked about the IP
+     */
+    public boolean isMissing(String key)
+    {
+        return awsInstanceDetailCache.getIfPresent(key) == null;
     }
 
     public void putAWSInstanceDetails(String key, AWSInstanceDetail value)
     {
         if(value!=null)
         {
-            awsInstanceDetailLoadingCache.put(key,value);
+            awsInstanceDetailCache.put(key,value);
         }
     }
+
+    public void putNotInASG(String key)
+    {
+        awsInstanceDetailCache.put(key, NOT_IN_ASG);
+    }
 }
@@ -0,0 +1,137 @@
+package com.seyren.awsmanager.throttle;
+
+import com.amazonaws.AmazonServiceException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Paces AWS API calls with a token bucket shared by every thread making them.
+ *
+ * When AWS answers that it is throttling, the rate is halved and the call is
+ * retried after an exponential, jittered backoff; each call which goes through
+ * raises the rate again by a small step, up to the configured rate.
+ */
+public class AWSRequestThrottle
+{
+    private static final Logger LOGGER = LoggerFactory.getLogger(AWSRequestThrottle.class);
+
+    private static final Set<String> THROTTLING_ERROR_CODES = new HashSet<String>(Arrays.asList(
+            "Throttling", "ThrottlingException", "RequestLimitExceeded", "RequestThrottled", "TooManyRequestsException"));
+
+    private static final int DEFAULT_MAX_ATTEMPTS = 6;
+    private static final long DEFAULT_BASE_BACKOFF_MILLIS = 200;
+    private static final long MAX_BACKOFF_MILLIS = 20 * 1000l;
+
+    private final double maxPermitsPerSecond;
+    private final double minPermitsPerSecond;
+    private final double burst;
+    private final int maxAttempts;
+    private final long baseBackoffMillis;
+    private final Random random = new Random();
+
+    private double permitsPerSecond;
+    private double availablePermits;
+    private long lastRefillNanos;
+
+    public AWSRequestThrottle(double permitsPerSecond)
+    {
+        this(permitsPerSecond, DEFAULT_MAX_ATTEMPTS, DEFAULT_BASE_BACKOFF_MILLIS);
+    }
+
+    public AWSRequestThrottle(double permitsPerSecond, int maxAttempts, long baseBackoffMillis)
+    {
+        this.maxPermitsPerSecond = permitsPerSecond;
+        this.minPermitsPerSecond = Math.min(1, permitsPerSecond);
+        this.burst = Math.max(1, permitsPerSecond);
+        this.maxAttempts = maxAttempts;
+        this.baseBackoffMillis = baseBackoffMillis;
+        this.permitsPerSecond = permitsPerSecond;
+        this.availablePermits = burst;
+        this.lastRefillNanos = System.nanoTime();
+    }
+
+    /**
+     * Runs the request once a permit is available, retrying it while AWS throttles it.
+     */
+    public <T> T execute(Callable<T> request) throws Exception
+    {
+        for (int attempt = 1; ; attempt++)
+        {
+            acquire();
+            try
+            {
+                T result = request.call();
+                onSuccess();
+                return result;
+            }
+            catch (AmazonServiceException e)
+            {
+                if (!isThrottling(e) || attempt >= maxAttempts)
+                {
+                    throw e;
+                }
+                onThrottled();
+                long backoffMillis = backoffMillis(attempt);
+                LOGGER.debug("AWS throttled {}, retrying in {} ms", e.getServiceName(), backoffMillis);
+                Thread.sleep(backoffMillis);
+            }
+        }
+    }
+
+    public synchronized double getPermitsPerSecond()
+    {
+        return permitsPerSecond;
+    }
+
+    void acquire() throws InterruptedException
+    {
+        long waitNanos;
+        synchronized (this)
+        {
+            refill();
+            // Taking the permit ahead of time keeps the callers queued in order
+            availablePermits -= 1;
+            waitNanos = availablePermits >= 0 ? 0 : (long) (-availablePermits / permitsPerSecond * TimeUnit.SECONDS.toNanos(1));
+        }
+        if (waitNanos > 0)
+        {
+            TimeUnit.NANOSECONDS.sleep(waitNanos);
+        }
+    }
+
+    synchronized void onThrottled()
+    {
+        permitsPerSecond = Math.max(minPermitsPerSecond, permitsPerSecond / 2);
+    }
+
+    synchronized void onSuccess()
+    {
+        permitsPerSecond = Math.min(maxPermitsPerSecond, permitsPerSecond + maxPermitsPerSecond / 20);
+    }
+
+    static boolean isThrottling(AmazonServiceException e)
+    {
+        return THROTTLING_ERROR_CODES.contains(e.getErrorCode()) || e.getStatusCode() == 429;
+    }
+
+    private long backoffMillis(int attempt)
+    {
+        long ceiling = Math.min(MAX_BACKOFF_MILLIS, baseBackoffMillis << Math.min(attempt - 1, 16));
+        // Half fixed and half random, so that threads throttled together do not retry together
+        return ceiling / 2 + (long) (random.nextDouble() * (ceiling / 2));
+    }
+
+    private void refill()
+    {
+        long now = System.nanoTime();
+        availablePermits = Math.min(burst, availablePermits + (now - lastRefillNanos) * permitsPerSecond / TimeUnit.SECONDS.toNanos(1));
+        lastRefillNanos = now;
+    }
+}
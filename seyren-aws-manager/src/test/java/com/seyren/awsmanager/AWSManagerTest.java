@@ -13,15 +13,37 @@
  */
 package com.seyren.awsmanager;
 
+import com.amazonaws.AmazonServiceException;
+import com.amazonaws.ClientConfiguration;
+import com.amazonaws.auth.BasicAWSCredentials;
 import com.amazonaws.services.autoscaling.AmazonAutoScalingClient;
+import com.amazonaws.services.autoscaling.model.AutoScalingGroup;
+import com.amazonaws.services.autoscaling.model.AutoScalingInstanceDetails;
+import com.amazonaws.services.autoscaling.model.DescribeAutoScalingGroupsRequest;
+import com.amazonaws.services.autoscaling.model.DescribeAutoScalingGroupsResult;
+import com.amazonaws.services.autoscaling.model.DescribeAutoScalingInstancesRequest;
+import com.amazonaws.services.autoscaling.model.DescribeAutoScalingInstancesResult;
 import com.amazonaws.services.ec2.AmazonEC2Client;
 import com.amazonaws.services.ec2.model.DescribeInstancesRequest;
+import com.amazonaws.services.ec2.model.DescribeInstancesResult;
+import com.amazonaws.services.ec2.model.Instance;
+import com.amazonaws.services.ec2.model.Reservation;
+import com.seyren.awsmanager.entity.AWSInstanceDetail;
+import com.seyren.awsmanager.throttle.AWSRequestThrottle;
+import org.junit.Assert;
 import org.junit.Test;
+import org.mockito.ArgumentMatcher;
 import org.mockito.Matchers;
 import org.mockito.Mockito;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
 
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 /**
  * Created by akharbanda on 10/11/17.
@@ -34,7 +56,7 @@ public class AWSManagerTest
 
     public AWSManagerTest()
     {
-        awsManager = new AWSManager(amazonEC2Client,amazonAutoScalingClient);
+        awsManager = new AWSManager(amazonEC2Client,amazonAutoScalingClient,0);
     }
 
     @Test
@@ -84,4 +106,214 @@ public class AWSManagerTest
         awsManager.getInstanceDetail(ipAddressList);
         Mockito.verify(amazonEC2Client, Mockito.times(1)).describeInstances(Matchers.any(DescribeInstancesRequest.class));
     }
+
+    @Test
+    public void testIndexIsNotBuiltUntilStarted()
+    {
+        awsManager.startASGMembershipIndex(0);
+        Assert.assertEquals(0, awsManager.getASGInstanceCount("asg-a"));
+        Mockito.verify(amazonAutoScalingClient, Mockito.never()).describeAutoScalingInstances(Matchers.any(DescribeAutoScalingInstancesRequest.class));
+    }
+
+    @Test
+    public void testASGsAreSizedInAWSWithoutAnIndexAndCached()
+    {
+        Mockito.when(amazonAutoScalingClient.describeAutoScalingGroups(Matchers.any(DescribeAutoScalingGroupsRequest.class)))
+                .thenReturn(new DescribeAutoScalingGroupsResult().withAutoScalingGroups(new AutoScalingGroup()
+                        .withAutoScalingGroupName("asg-a")
+                        .withInstances(new com.amazonaws.services.autoscaling.model.Instance().withInstanceId("i-1"),
+                                new com.amazonaws.services.autoscaling.model.Instance().withInstanceId("i-2"))));
+
+        Assert.assertEquals(2, awsManager.getASGInstanceCount("asg-a"));
+        Assert.assertEquals(2, awsManager.getASGInstanceCount("asg-a"));
+        Mockito.verify(amazonAutoScalingClient, Mockito.times(1)).describeAutoScalingGroups(Matchers.any(DescribeAutoScalingGroupsRequest.class));
+    }
+
+    @Test
+    public void testASGsWhichCannotBeDescribedAreNotSized()
+    {
+        Mockito.when(amazonAutoScalingClient.describeAutoScalingGroups(Matchers.any(DescribeAutoScalingGroupsRequest.class)))
+                .thenThrow(new AmazonServiceException("Denied"));
+
+        Assert.assertEquals(-1, awsManager.getASGInstanceCount("asg-a"));
+    }
+
+    @Test
+    public void testIndexFollowsNextTokensAndAnswersWithoutAWSCalls()
+    {
+        Mockito.when(amazonAutoScalingClient.describeAutoScalingInstances(Mockito.argThat(new NextTokenMatcher(null))))
+                .thenReturn(new DescribeAutoScalingInstancesResult()
+                        .withAutoScalingInstances(new AutoScalingInstanceDetails().withInstanceId("i-1").withAutoScalingGroupName("asg-a"))
+                        .withNextToken("page2"));
+        Mockito.when(amazonAutoScalingClient.describeAutoScalingInstances(Mockito.argThat(new NextTokenMatcher("page2"))))
+                .thenReturn(new DescribeAutoScalingInstancesResult()
+                        .withAutoScalingInstances(new AutoScalingInstanceDetails().withInstanceId("i-2").withAutoScalingGroupName("asg-b")));
+        Mockito.when(amazonEC2Client.describeInstances(Matchers.any(DescribeInstancesRequest.class)))
+                .thenReturn(new DescribeInstancesResult().withReservations(new Reservation().withInstances(
+                        new Instance().withInstanceId("i-1").withPrivateIpAddress("10.0.0.1"),
+                        new Instance().withInstanceId("i-2").withPrivateIpAddress("10.0.0.2"))));
+
+        awsManager.refreshASGMembershipIndex();
+        Mockito.reset(amazonEC2Client, amazonAutoScalingClient);
+
+        Map<String, AWSInstanceDetail> awsInstanceDetailMap = awsManager.getInstanceDetail(Arrays.asList("10.0.0.1", "10.0.0.2"));
+        Assert.assertEquals(2, awsInstanceDetailMap.size());
+        Assert.assertEquals("asg-a", awsInstanceDetailMap.get("10.0.0.1").getAutoScalingGroup());
+        Assert.assertEquals("i-2", awsInstanceDetailMap.get("10.0.0.2").getInstanceId());
+        Mockito.verifyZeroInteractions(amazonEC2Client, amazonAutoScalingClient);
+    }
+
+    @Test
+    public void testIPsMissingFromTheIndexAreLookedUpInAWS()
+    {
+        Mockito.when(amazonAutoScalingClient.describeAutoScalingInstances(Mockito.argThat(new NextTokenMatcher(null))))
+                .thenReturn(new DescribeAutoScalingInstancesResult()
+                        .withAutoScalingInstances(new AutoScalingInstanceDetails().withInstanceId("i-1").withAutoScalingGroupName("asg-a")));
+        Mockito.when(amazonEC2Client.describeInstances(Matchers.any(DescribeInstancesRequest.class)))
+                .thenReturn(new DescribeInstancesResult().withReservations(new Reservation().withInstances(
+                        new Instance().withInstanceId("i-1").withPrivateIpAddress("10.0.0.1"))));
+        awsManager.refreshASGMembershipIndex();
+        Mockito.reset(amazonEC2Client, amazonAutoScalingClient);
+
+        // Launched since the index was built
+        Mockito.when(amazonEC2Client.describeInstances(Matchers.any(DescribeInstancesRequest.class)))
+                .thenReturn(new DescribeInstancesResult().withReservations(new Reservation().withInstances(
+                        new Instance().withInstanceId("i-3").withPrivateIpAddress("10.0.0.3"))));
+        Mockito.when(amazonAutoScalingClient.describeAutoScalingInstances(Matchers.any(DescribeAutoScalingInstancesRequest.class)))
+                .thenReturn(new DescribeAutoScalingInstancesResult()
+                        .withAutoScalingInstances(new AutoScalingInstanceDetails().withInstanceId("i-3").withAutoScalingGroupName("asg-a")));
+
+        Map<String, AWSInstanceDetail> awsInstanceDetailMap = awsManager.getInstanceDetail(Arrays.asList("10.0.0.1", "10.0.0.3"));
+        Assert.assertEquals(2, awsInstanceDetailMap.size());
+        Assert.assertEquals("i-3", awsInstanceDetailMap.get("10.0.0.3").getInstanceId());
+        Mockito.verify(amazonEC2Client, Mockito.times(1)).describeInstances(Matchers.any(DescribeInstancesRequest.class));
+    }
+
+    @Test(timeout = 10000)
+    public void testIPsMissingFromABackgroundIndexAreLeftToItsNextRefresh() throws Exception
+    {
+        final String caller = Thread.currentThread().getName();
+        final List<String> callingThreads = Collections.synchronizedList(new ArrayList<String>());
+        final AtomicBoolean launched = new AtomicBoolean();
+        Mockito.when(amazonAutoScalingClient.describeAutoScalingInstances(Matchers.any(DescribeAutoScalingInstancesRequest.class)))
+                .thenAnswer(new Answer<DescribeAutoScalingInstancesResult>()
+                {
+                    @Override
+                    public DescribeAutoScalingInstancesResult answer(InvocationOnMock invocation)
+                    {
+                        callingThreads.add(Thread.currentThread().getName());
+                        DescribeAutoScalingInstancesResult result = new DescribeAutoScalingInstancesResult()
+                                .withAutoScalingInstances(new AutoScalingInstanceDetails().withInstanceId("i-1").withAutoScalingGroupName("asg-a"));
+                        if (launched.get())
+                        {
+                            result.withAutoScalingInstances(new AutoScalingInstanceDetails().withInstanceId("i-3").withAutoScalingGroupName("asg-a"));
+                        }
+                        return result;
+                    }
+                });
+        Mockito.when(amazonEC2Client.describeInstances(Matchers.any(DescribeInstancesRequest.class)))
+                .thenAnswer(new Answer<DescribeInstancesResult>()
+                {
+                    @Override
+                    public DescribeInstancesResult answer(InvocationOnMock invocation)
+                    {
+                        callingThreads.add(Thread.currentThread().getName());
+                        Reservation reservation = new Reservation().withInstances(new Instance().withInstanceId("i-1").withPrivateIpAddress("10.0.0.1"));
+                        if (launched.get())
+                        {
+                            reservation.withInstances(new Instance().withInstanceId("i-3").withPrivateIpAddress("10.0.0.3"));
+                        }
+                        return new DescribeInstancesResult().withReservations(reservation);
+                    }
+                });
+        awsManager.startASGMembershipIndex(50);
+        try
+        {
+            while (awsManager.getASGInstanceCount("asg-a") < 1)
+            {
+                Thread.sleep(5);
+            }
+
+            // Launched since the index was built
+            launched.set(true);
+            Map<String, AWSInstanceDetail> awsInstanceDetailMap = awsManager.getInstanceDetail(Arrays.asList("10.0.0.1", "10.0.0.3"));
+            Assert.assertEquals("asg-a", awsInstanceDetailMap.get("10.0.0.1").getAutoScalingGroup());
+            while (!awsInstanceDetailMap.containsKey("10.0.0.3"))
+            {
+                Thread.sleep(5);
+                awsInstanceDetailMap = awsManager.getInstanceDetail(Arrays.asList("10.0.0.1", "10.0.0.3"));
+            }
+            Assert.assertEquals("asg-a", awsInstanceDetailMap.get("10.0.0.3").getAutoScalingGroup());
+            Assert.assertFalse("Lookups should not call AWS themselves", callingThreads.contains(caller));
+        }
+        finally
+        {
+            awsManager.shutdown();
+        }
+    }
+
+    @Test
+    public void testIPsNotInAnASGAreNotLookedUpAgain()
+    {
+        List<String> ipAddressList = Arrays.asList("10.9.8.1", "10.9.8.2");
+
+        awsManager.getInstanceDetail(ipAddressList);
+        awsManager.getInstanceDetail(ipAddressList);
+        Mockito.verify(amazonEC2Client, Mockito.times(1)).describeInstances(Matchers.any(DescribeInstancesRequest.class));
+    }
+
+    @Test
+    public void testLookupsAgainstFakeEndpointArePagedConcurrentAndRetriedWhenThrottled() throws Exception
+    {
+        FakeAWSEndpoint endpoint = new FakeAWSEndpoint(1000, 3);
+        ClientConfiguration clientConfiguration = new ClientConfiguration().withMaxErrorRetry(0);
+        AmazonEC2Client ec2Client = new AmazonEC2Client(new BasicAWSCredentials("key", "secret"), clientConfiguration);
+        AmazonAutoScalingClient autoScalingClient = new AmazonAutoScalingClient(new BasicAWSCredentials("key", "secret"), clientConfiguration);
+        AWSManager fakeAWSManager = new AWSManager(ec2Client, autoScalingClient, 0, new AWSRequestThrottle(1000, 6, 10), 4);
+        ec2Client.setEndpoint(endpoint.getUrl());
+        autoScalingClient.setEndpoint(endpoint.getUrl());
+        try
+        {
+            List<String> ipAddressList = new ArrayList<String>();
+            for (int i = 0; i < 1000; i++)
+            {
+                ipAddressList.add(FakeAWSEndpoint.privateIp(i));
+            }
+            ipAddressList.add("10.9.9.9");
+
+            Map<String, AWSInstanceDetail> awsInstanceDetailMap = fakeAWSManager.getInstanceDetail(ipAddressList);
+            Assert.assertEquals(1000, awsInstanceDetailMap.size());
+            Assert.assertEquals(FakeAWSEndpoint.asgName(998), awsInstanceDetailMap.get(FakeAWSEndpoint.privateIp(998)).getAutoScalingGroup());
+            Assert.assertEquals(FakeAWSEndpoint.instanceId(998), awsInstanceDetailMap.get(FakeAWSEndpoint.privateIp(998)).getInstanceId());
+            Assert.assertEquals(3, endpoint.getThrottledRequests());
+            Assert.assertTrue("Batches should be described concurrently", endpoint.getMaxInFlight() > 1);
+
+            fakeAWSManager.refreshASGMembershipIndex();
+            int requests = endpoint.getRequests();
+            Assert.assertEquals(1000, fakeAWSManager.getInstanceDetail(ipAddressList.subList(0, 1000)).size());
+            Assert.assertEquals("Lookups should be answered from the index", requests, endpoint.getRequests());
+        }
+        finally
+        {
+            fakeAWSManager.shutdown();
+            endpoint.stop();
+        }
+    }
+
+    private static class NextTokenMatcher extends ArgumentMatcher<DescribeAutoScalingInstancesRequest>
+    {
+        private final String nextToken;
+
+        private NextTokenMatcher(String nextToken)
+        {
+            this.nextToken = nextToken;
+        }
+
+        @Override
+        public boolean matches(Object argument)
+        {
+            String actual = argument == null ? null : ((DescribeAutoScalingInstancesRequest) argument).getNextToken();
+            return nextToken == null ? actual == null : nextToken.equals(actual);
+        }
+    }
 }
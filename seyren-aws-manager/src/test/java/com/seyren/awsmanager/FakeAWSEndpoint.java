@@ -0,0 +1,283 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.seyren.awsmanager;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A local stand-in for the EC2 and Auto Scaling query APIs, serving a fixed
+ * fleet in small pages and answering the first requests with throttling errors.
+ */
+class FakeAWSEndpoint
+{
+    private static final int EC2_PAGE_SIZE = 100;
+
+    private final HttpServer server;
+    private final int instanceCount;
+    private final AtomicInteger throttledRequestsLeft;
+    private final AtomicInteger requests = new AtomicInteger();
+    private final AtomicInteger throttledRequests = new AtomicInteger();
+    private final AtomicInteger inFlight = new AtomicInteger();
+    private final AtomicInteger maxInFlight = new AtomicInteger();
+
+    FakeAWSEndpoint(int instanceCount, int throttledRequests) throws IOException
+    {
+        this.instanceCount = instanceCount;
+        this.throttledRequestsLeft = new AtomicInteger(throttledRequests);
+        server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        server.setExecutor(Executors.newCachedThreadPool());
+        server.createContext("/", new HttpHandler()
+        {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException
+            {
+                serve(exchange);
+            }
+        });
+        server.start();
+    }
+
+    String getUrl()
+    {
+        return "http://localhost:" + server.getAddress().getPort();
+    }
+
+    void stop()
+    {
+        server.stop(0);
+    }
+
+    int getRequests()
+    {
+        return requests.get();
+    }
+
+    int getThrottledRequests()
+    {
+        return throttledRequests.get();
+    }
+
+    int getMaxInFlight()
+    {
+        return maxInFlight.get();
+    }
+
+    static String instanceId(int index)
+    {
+        return "i-" + index;
+    }
+
+    static String privateIp(int index)
+    {
+        return "10.0." + (index / 250) + "." + (index % 250);
+    }
+
+    static String asgName(int index)
+    {
+        return "asg-" + (index % 3);
+    }
+
+    private void serve(HttpExchange exchange) throws IOException
+    {
+        int current = inFlight.incrementAndGet();
+        while (true)
+        {
+            int max = maxInFlight.get();
+            if (current <= max || maxInFlight.compareAndSet(max, current))
+            {
+                break;
+            }
+        }
+        requests.incrementAndGet();
+        try
+        {
+            Map<String, List<String>> parameters = parse(read(exchange.getRequestBody()));
+            String action = first(parameters, "Action");
+            // Long enough for concurrent requests to overlap
+            Thread.sleep(20);
+            if (throttledRequestsLeft.getAndDecrement() > 0)
+            {
+                throttledRequests.incrementAndGet();
+                if ("DescribeInstances".equals(action))
+                {
+                    respond(exchange, 503, "<Response><Errors><Error><Code>RequestLimitExceeded</Code><Message>Request limit exceeded.</Message></Error></Errors><RequestID>1</RequestID></Response>");
+                }
+                else
+                {
+                    respond(exchange, 400, "<ErrorResponse><Error><Type>Sender</Type><Code>Throttling</Code><Message>Rate exceeded</Message></Error><RequestId>1</RequestId></ErrorResponse>");
+                }
+            }
+            else if ("DescribeInstances".equals(action))
+            {
+                respond(exchange, 200, describeInstances(parameters));
+            }
+            else if ("DescribeAutoScalingInstances".equals(action))
+            {
+                respond(exchange, 200, describeAutoScalingInstances(parameters));
+            }
+            else
+            {
+                respond(exchange, 400, "<ErrorResponse><Error><Type>Sender</Type><Code>InvalidAction</Code><Message>" + action + "</Message></Error><RequestId>1</RequestId></ErrorResponse>");
+            }
+        }
+        catch (InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+        }
+        finally
+        {
+            inFlight.decrementAndGet();
+        }
+    }
+
+    private String describeInstances(Map<String, List<String>> parameters)
+    {
+        String filterName = first(parameters, "Filter.1.Name");
+        List<Integer> matching = new ArrayList<Integer>();
+        for (String value : values(parameters, "Filter.1.Value."))
+        {
+            for (int i = 0; i < instanceCount; i++)
+            {
+                if (value.equals("instance-id".equals(filterName) ? instanceId(i) : privateIp(i)))
+                {
+                    matching.add(i);
+                }
+            }
+        }
+        int from = first(parameters, "NextToken") == null ? 0 : Integer.parseInt(first(parameters, "NextToken"));
+        int to = Math.min(from + EC2_PAGE_SIZE, matching.size());
+        StringBuilder xml = new StringBuilder("<DescribeInstancesResponse xmlns=\"http://ec2.amazonaws.com/doc/2016-04-01/\"><requestId>1</requestId><reservationSet>");
+        for (int i = from; i < to; i++)
+        {
+            xml.append("<item><reservationId>r-").append(matching.get(i)).append("</reservationId><instancesSet><item><instanceId>")
+                    .append(instanceId(matching.get(i))).append("</instanceId><privateIpAddress>")
+                    .append(privateIp(matching.get(i))).append("</privateIpAddress></item></instancesSet></item>");
+        }
+        xml.append("</reservationSet>");
+        if (to < matching.size())
+        {
+            xml.append("<nextToken>").append(to).append("</nextToken>");
+        }
+        return xml.append("</DescribeInstancesResponse>").toString();
+    }
+
+    private String describeAutoScalingInstances(Map<String, List<String>> parameters)
+    {
+        List<Integer> matching = new ArrayList<Integer>();
+        List<String> instanceIds = values(parameters, "InstanceIds.member.");
+        for (int i = 0; i < instanceCount; i++)
+        {
+            if (instanceIds.isEmpty() || instanceIds.contains(instanceId(i)))
+            {
+                matching.add(i);
+            }
+        }
+        int pageSize = first(parameters, "MaxRecords") == null ? 50 : Integer.parseInt(first(parameters, "MaxRecords"));
+        int from = first(parameters, "NextToken") == null ? 0 : Integer.parseInt(first(parameters, "NextToken"));
+        int to = Math.min(from + pageSize, matching.size());
+        StringBuilder xml = new StringBuilder("<DescribeAutoScalingInstancesResponse xmlns=\"http://autoscaling.amazonaws.com/doc/2011-01-01/\"><DescribeAutoScalingInstancesResult><AutoScalingInstances>");
+        for (int i = from; i < to; i++)
+        {
+            xml.append("<member><InstanceId>").append(instanceId(matching.get(i))).append("</InstanceId><AutoScalingGroupName>")
+                    .append(asgName(matching.get(i))).append("</AutoScalingGroupName></member>");
+        }
+        xml.append("</AutoScalingInstances>");
+        if (to < matching.size())
+        {
+            xml.append("<NextToken>").append(to).append("</NextToken>");
+        }
+        return xml.append("</DescribeAutoScalingInstancesResult><ResponseMetadata><RequestId>1</RequestId></ResponseMetadata></DescribeAutoScalingInstancesResponse>").toString();
+    }
+
+    private static void respond(HttpExchange exchange, int status, String body) throws IOException
+    {
+        byte[] bytes = body.getBytes("UTF-8");
+        exchange.getResponseHeaders().set("Content-Type", "text/xml");
+        exchange.sendResponseHeaders(status, bytes.length);
+        OutputStream out = exchange.getResponseBody();
+        try
+        {
+            out.write(bytes);
+        }
+        finally
+        {
+            out.close();
+        }
+    }
+
+    private static String read(InputStream in) throws IOException
+    {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buffer = new byte[4096];
+        int read;
+        while ((read = in.read(buffer)) != -1)
+        {
+            out.write(buffer, 0, read);
+        }
+        return out.toString("UTF-8");
+    }
+
+    private static Map<String, List<String>> parse(String form) throws IOException
+    {
+        Map<String, List<String>> parameters = new HashMap<String, List<String>>();
+        for (String pair : form.split("&"))
+        {
+            int equals = pair.indexOf('=');
+            if (equals > 0)
+            {
+                String name = URLDecoder.decode(pair.substring(0, equals), "UTF-8");
+                List<String> values = parameters.get(name);
+                if (values == null)
+                {
+                    values = new ArrayList<String>();
+                    parameters.put(name, values);
+                }
+                values.add(URLDecoder.decode(pair.substring(equals + 1), "UTF-8"));
+            }
+        }
+        return parameters;
+    }
+
+    private static String first(Map<String, List<String>> parameters, String name)
+    {
+        List<String> values = parameters.get(name);
+        return values == null ? null : values.get(0);
+    }
+
+    // Values of numbered parameters such as Filter.1.Value.1, Filter.1.Value.2...
+    private static List<String> values(Map<String, List<String>> parameters, String prefix)
+    {
+        List<String> values = new ArrayList<String>();
+        for (int i = 1; parameters.containsKey(prefix + i); i++)
+        {
+            values.add(first(parameters, prefix + i));
+        }
+        return values;
+    }
+}
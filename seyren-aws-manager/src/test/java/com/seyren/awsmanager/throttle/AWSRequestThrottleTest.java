@@ -0,0 +1,131 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.seyren.awsmanager.throttle;
+
+import com.amazonaws.AmazonServiceException;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class AWSRequestThrottleTest
+{
+    @Test
+    public void testThrottledRequestsAreRetriedAtALowerRate() throws Exception
+    {
+        AWSRequestThrottle throttle = new AWSRequestThrottle(100, 5, 1);
+        final AtomicInteger calls = new AtomicInteger();
+
+        String result = throttle.execute(new Callable<String>()
+        {
+            @Override
+            public String call()
+            {
+                if (calls.incrementAndGet() < 3)
+                {
+                    throw throttling("RequestLimitExceeded");
+                }
+                return "done";
+            }
+        });
+
+        Assert.assertEquals("done", result);
+        Assert.assertEquals(3, calls.get());
+        Assert.assertTrue("Rate should have been lowered", throttle.getPermitsPerSecond() < 100);
+    }
+
+    @Test
+    public void testRateRecoversAfterSuccessfulRequests()
+    {
+        AWSRequestThrottle throttle = new AWSRequestThrottle(100, 5, 1);
+        throttle.onThrottled();
+        Assert.assertEquals(50, throttle.getPermitsPerSecond(), 0.001);
+        for (int i = 0; i < 20; i++)
+        {
+            throttle.onSuccess();
+        }
+        Assert.assertEquals(100, throttle.getPermitsPerSecond(), 0.001);
+    }
+
+    @Test
+    public void testOtherErrorsAreNotRetried() throws Exception
+    {
+        AWSRequestThrottle throttle = new AWSRequestThrottle(100, 5, 1);
+        final AtomicInteger calls = new AtomicInteger();
+        try
+        {
+            throttle.execute(new Callable<String>()
+            {
+                @Override
+                public String call()
+                {
+                    calls.incrementAndGet();
+                    throw throttling("InvalidParameterValue");
+                }
+            });
+            Assert.fail("Expected the error to be thrown");
+        }
+        catch (AmazonServiceException e)
+        {
+            Assert.assertEquals(1, calls.get());
+        }
+    }
+
+    @Test
+    public void testGivesUpAfterMaxAttempts() throws Exception
+    {
+        AWSRequestThrottle throttle = new AWSRequestThrottle(100, 3, 1);
+        final AtomicInteger calls = new AtomicInteger();
+        try
+        {
+            throttle.execute(new Callable<String>()
+            {
+                @Override
+                public String call()
+                {
+                    calls.incrementAndGet();
+                    throw throttling("Throttling");
+                }
+            });
+            Assert.fail("Expected the error to be thrown");
+        }
+        catch (AmazonServiceException e)
+        {
+            Assert.assertEquals(3, calls.get());
+        }
+    }
+
+    @Test
+    public void testPermitsArePacedOnceTheBurstIsUsed() throws Exception
+    {
+        AWSRequestThrottle throttle = new AWSRequestThrottle(20, 1, 1);
+        long start = System.nanoTime();
+        for (int i = 0; i < 30; i++)
+        {
+            throttle.acquire();
+        }
+        long elapsedMillis = (System.nanoTime() - start) / 1000000;
+        // 20 permits are available at once, the other 10 come at 20 a second
+        Assert.assertTrue("Took " + elapsedMillis + " ms", elapsedMillis >= 400);
+    }
+
+    private static AmazonServiceException throttling(String errorCode)
+    {
+        AmazonServiceException e = new AmazonServiceException("error");
+        e.setErrorCode(errorCode);
+        e.setStatusCode(400);
+        return e;
+    }
+}
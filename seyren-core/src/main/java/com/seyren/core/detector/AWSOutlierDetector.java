@@ -18,12 +18,15 @@ import com.seyren.awsmanager.AWSManager;
 import com.seyren.awsmanager.entity.AWSInstanceDetail;
 import com.seyren.core.detector.entity.ASGDataPoint;
 import com.seyren.core.detector.entity.ASGDataPoints;
-import com.seyren.core.detector.entity.TargetDataPointsEntity;
+import com.seyren.core.detector.entity.ClusterValues;
 import com.seyren.core.domain.OutlierCheck;
+import com.seyren.core.util.config.SeyrenConfig;
+import com.seyren.core.util.graphite.TargetNameParser;
 import org.apache.commons.collections4.CollectionUtils;
 import org.apache.commons.collections4.MapUtils;
 import org.apache.commons.lang.StringUtils;
 
+import javax.annotation.PreDestroy;
 import javax.inject.Inject;
 import javax.inject.Named;
 import java.math.BigDecimal;
@@ -31,8 +34,10 @@ import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
+import java.util.TreeMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import java.util.concurrent.TimeUnit;
 
 /**
  * Created by akharbanda on 02/09/17.
@@ -42,43 +47,94 @@ import java.util.regex.Pattern;
 public class AWSOutlierDetector extends AbstractOutlierDetector
 {
 
+    private static final int DEFAULT_PARALLEL_THRESHOLD = 2000;
+
+    // Instances evaluated by one fork/join leaf; large ASGs are split into chunks of this size
+    private static final int CHUNK_SIZE = 512;
+
     private final AWSManager awsManager;
 
-    private static final String IPADDRESS_PATTERN =
-            "(?:(?:25[0-5]|2[0-4][0-9]|[01]?[0-9][0-9]?)\\-){3}(?:25[0-5]|2[0-4][0-9]|[01]?[0-9][0-9]?)";
+    private final ForkJoinPool forkJoinPool;
+
+    private final int parallelThreshold;
+
+    private final TargetNameParser targetNameParser;
 
-    private final Pattern pattern = Pattern.compile(IPADDRESS_PATTERN);
+    private final long asgIndexRefreshMillis;
 
     @Inject
+    public AWSOutlierDetector(AWSManager awsManager, OutlierDetectionAlgorithmRegistry outlierDetectionAlgorithmRegistry, SeyrenConfig seyrenConfig, TargetNameParser targetNameParser)
+    {
+        this(awsManager, outlierDetectionAlgorithmRegistry, seyrenConfig.getOutlierParallelism(), seyrenConfig.getOutlierParallelThreshold(), targetNameParser,
+                TimeUnit.SECONDS.toMillis(seyrenConfig.getAwsAsgIndexRefreshSeconds()));
+    }
+
     public AWSOutlierDetector(AWSManager awsManager, OutlierDetectionAlgorithm outlierDetectionAlgorithm)
     {
-        super(outlierDetectionAlgorithm);
+        this(awsManager, new OutlierDetectionAlgorithmRegistry(outlierDetectionAlgorithm), Runtime.getRuntime().availableProcessors(), DEFAULT_PARALLEL_THRESHOLD, new TargetNameParser());
+    }
+
+    public AWSOutlierDetector(AWSManager awsManager, OutlierDetectionAlgorithmRegistry outlierDetectionAlgorithmRegistry, int parallelism, int parallelThreshold, TargetNameParser targetNameParser)
+    {
+        this(awsManager, outlierDetectionAlgorithmRegistry, parallelism, parallelThreshold, targetNameParser, 0);
+    }
+
+    /**
+     * @param asgIndexRefreshMillis how often the ASG membership index is rebuilt once an outlier
+     * check has run; 0 to look instances up as they are needed
+     */
+    public AWSOutlierDetector(AWSManager awsManager, OutlierDetectionAlgorithmRegistry outlierDetectionAlgorithmRegistry, int parallelism, int parallelThreshold, TargetNameParser targetNameParser,
+                              long asgIndexRefreshMillis)
+    {
+        super(outlierDetectionAlgorithmRegistry);
+        this.asgIndexRefreshMillis = asgIndexRefreshMillis;
         this.awsManager = awsManager;
+        this.targetNameParser = targetNameParser;
+        // Shared by all outlier checks, so that concurrent checks do not multiply the threads
+        this.forkJoinPool = new ForkJoinPool(Math.max(1, parallelism));
+        this.parallelThreshold = parallelThreshold;
+    }
+
+    @PreDestroy
+    public void shutdown()
+    {
+        forkJoinPool.shutdownNow();
     }
 
     @Override
     public List<String> getUnhealthyTargets(Map<String, Optional<BigDecimal>> targetValues, OutlierCheck check)
     {
-        List<String> unHealthyTargets = new ArrayList<String>();
+        OutlierDetectionAlgorithm outlierDetectionAlgorithm = outlierDetectionAlgorithmRegistry.get(check);
 
-        Map<String, TargetDataPointsEntity> targetDataPointsEntityMap = buildTargetDataPointsEntityMap(targetValues, check);
-        if (MapUtils.isNotEmpty(targetDataPointsEntityMap))
+        // Sorted by ASG name so that the targets come back in the same order however the work is split
+        Map<String, ASGDataPoints> asgNameToDataPointsMap = new TreeMap<String, ASGDataPoints>(buildAsgNameToDataPointsMap(targetValues, check));
+        List<ASGChunk> chunks = new ArrayList<ASGChunk>();
+        int instanceCount = 0;
+        for (ASGDataPoints asgDataPoints : asgNameToDataPointsMap.values())
         {
-            for (Map.Entry<String, TargetDataPointsEntity> entry : targetDataPointsEntityMap.entrySet())
+            List<ASGDataPoint> asgDataPointList = asgDataPoints.getAsgDataPointList();
+            ClusterValues clusterValues = buildClusterValues(asgDataPointList);
+            for (int from = 0; from < asgDataPointList.size(); from += CHUNK_SIZE)
             {
-                if (entry.getValue() != null && outlierDetectionAlgorithm.isOutlier(entry.getValue().getCurrentValue(), entry.getValue().getDataPoints(), check.getRelativeDiff(), check.getAbsoluteDiff()))
-                {
-                    unHealthyTargets.add(entry.getKey());
-                }
+                chunks.add(new ASGChunk(asgDataPointList, clusterValues, from, Math.min(from + CHUNK_SIZE, asgDataPointList.size())));
             }
+            instanceCount += asgDataPointList.size();
         }
 
-        return unHealthyTargets;
+        if (chunks.isEmpty())
+        {
+            return new ArrayList<String>();
+        }
+        OutlierTask task = new OutlierTask(chunks, 0, chunks.size(), outlierDetectionAlgorithm, check);
+        if (instanceCount < parallelThreshold || chunks.size() == 1)
+        {
+            return task.compute();
+        }
+        return forkJoinPool.invoke(task);
     }
 
-    //Returns target name to TargetDataPointsEntity Map
-    //TargetDataPointsEntity has the Metric value for the instance and list of Metrics for all the other instances in its ASG
-    private Map<String, TargetDataPointsEntity> buildTargetDataPointsEntityMap(Map<String, Optional<BigDecimal>> targetValues, OutlierCheck outlierCheck)
+    //Returns ASG name to the metric values of the instances in that ASG
+    private Map<String, ASGDataPoints> buildAsgNameToDataPointsMap(Map<String, Optional<BigDecimal>> targetValues, OutlierCheck outlierCheck)
     {
         //Map contains the ASG name and all the ASGDataPoint in that ASG
         Map<String, ASGDataPoints> asgNameToDataPointsMap = new HashMap<String, ASGDataPoints>();
@@ -104,7 +160,7 @@ public class AWSOutlierDetector extends AbstractOutlierDetector
             }
         }
 
-        return buildTargetDataPointsEntityMapFromAsgDataPointMap(asgNameToDataPointsMap);
+        return asgNameToDataPointsMap;
 
     }
 
@@ -117,13 +173,14 @@ public class AWSOutlierDetector extends AbstractOutlierDetector
         {
             for (String targetName : targetNames)
             {
-                String ipAddress = parseIp(targetName);
+                String ipAddress = targetNameParser.getIp(targetName);
                 if (ipAddress != null)
                 {
                     targetNameToIpAddressMap.put(targetName, ipAddress);
                 }
             }
 
+            awsManager.startASGMembershipIndex(asgIndexRefreshMillis);
             Map<String, AWSInstanceDetail> awsInstanceDetailMap = awsManager.getInstanceDetail(new ArrayList<String>(targetNameToIpAddressMap.values()));
 
             String targetAsgName = outlierCheck.getAsgName();
@@ -147,48 +204,89 @@ public class AWSOutlierDetector extends AbstractOutlierDetector
         return targetAsgNameMap;
     }
 
-    private Map<String, TargetDataPointsEntity> buildTargetDataPointsEntityMapFromAsgDataPointMap(Map<String, ASGDataPoints> asgNameToDataPointsMap)
+    private ClusterValues buildClusterValues(List<ASGDataPoint> asgDataPointList)
     {
-        Map<String, TargetDataPointsEntity> targetNameToDataPointsEntityMap = new HashMap<String, TargetDataPointsEntity>();
-
-        if (MapUtils.isNotEmpty(asgNameToDataPointsMap))
+        List<BigDecimal> values = new ArrayList<BigDecimal>(asgDataPointList.size());
+        for (ASGDataPoint asgDataPoint : asgDataPointList)
         {
-            for (Map.Entry<String, ASGDataPoints> entry : asgNameToDataPointsMap.entrySet())
-            {
-                if (entry.getValue() != null && CollectionUtils.isNotEmpty(entry.getValue().getAsgDataPointList()))
-                {
-                    List<ASGDataPoint> asgDataPointList = entry.getValue().getAsgDataPointList();
+            values.add(asgDataPoint.getValue());
+        }
+        return new ClusterValues(values);
+    }
 
-                    for (Integer index = 0; index < asgDataPointList.size(); index++)
-                    {
-                        TargetDataPointsEntity targetDataPointsEntity = new TargetDataPointsEntity();
-                        targetDataPointsEntity.setCurrentValue(asgDataPointList.get(index).getValue());
-                        targetNameToDataPointsEntityMap.put(asgDataPointList.get(index).getTargetName(), targetDataPointsEntity);
+    // Instances [from, to) of one ASG, compared with the whole of that ASG
+    private static class ASGChunk
+    {
+        private final List<ASGDataPoint> asgDataPointList;
+        private final ClusterValues clusterValues;
+        private final int from;
+        private final int to;
 
-                        for (Integer innerIndex = 0; innerIndex < asgDataPointList.size(); innerIndex++)
-                        {
-                            if (innerIndex != index)
-                            {
-                                targetDataPointsEntity.addDataPoint(asgDataPointList.get(innerIndex).getValue());
-                            }
-                        }
-                    }
-                }
-            }
+        private ASGChunk(List<ASGDataPoint> asgDataPointList, ClusterValues clusterValues, int from, int to)
+        {
+            this.asgDataPointList = asgDataPointList;
+            this.clusterValues = clusterValues;
+            this.from = from;
+            this.to = to;
         }
-        return targetNameToDataPointsEntityMap;
     }
 
-    private String parseIp(String target)
+    // Splits the chunks in halves and concatenates the halves' results left to right
+    private static class OutlierTask extends RecursiveTask<List<String>>
     {
-        String ip = null;
-        Matcher matcher = pattern.matcher(target);
-        if (matcher.find())
+        private final List<ASGChunk> chunks;
+        private final int from;
+        private final int to;
+        private final OutlierDetectionAlgorithm outlierDetectionAlgorithm;
+        private final OutlierCheck check;
+
+        private OutlierTask(List<ASGChunk> chunks, int from, int to, OutlierDetectionAlgorithm outlierDetectionAlgorithm, OutlierCheck check)
         {
-            ip = matcher.group();
-            ip = ip.replace("-", ".");
+            this.chunks = chunks;
+            this.from = from;
+            this.to = to;
+            this.outlierDetectionAlgorithm = outlierDetectionAlgorithm;
+            this.check = check;
+        }
 
+        @Override
+        protected List<String> compute()
+        {
+            if (to - from > 1 && inForkJoinPool())
+            {
+                int middle = (from + to) >>> 1;
+                OutlierTask left = new OutlierTask(chunks, from, middle, outlierDetectionAlgorithm, check);
+                left.fork();
+                List<String> right = new OutlierTask(chunks, middle, to, outlierDetectionAlgorithm, check).compute();
+                List<String> unHealthyTargets = left.join();
+                unHealthyTargets.addAll(right);
+                return unHealthyTargets;
+            }
+
+            List<String> unHealthyTargets = new ArrayList<String>();
+            for (int chunkIndex = from; chunkIndex < to; chunkIndex++)
+            {
+                ASGChunk chunk = chunks.get(chunkIndex);
+                for (int index = chunk.from; index < chunk.to; index++)
+                {
+                    ASGDataPoint asgDataPoint = chunk.asgDataPointList.get(index);
+                    boolean isOutlier;
+                    if (outlierDetectionAlgorithm instanceof TemporalOutlierDetectionAlgorithm)
+                    {
+                        isOutlier = ((TemporalOutlierDetectionAlgorithm) outlierDetectionAlgorithm).isOutlier(check, asgDataPoint.getTargetName(), asgDataPoint.getValue());
+                    }
+                    else
+                    {
+                        // Each instance is compared with the rest of its ASG, without copying the rest
+                        isOutlier = outlierDetectionAlgorithm.isOutlier(asgDataPoint.getValue(), chunk.clusterValues.without(index), check.getRelativeDiff(), check.getAbsoluteDiff());
+                    }
+                    if (isOutlier)
+                    {
+                        unHealthyTargets.add(asgDataPoint.getTargetName());
+                    }
+                }
+            }
+            return unHealthyTargets;
         }
-        return ip;
     }
 }
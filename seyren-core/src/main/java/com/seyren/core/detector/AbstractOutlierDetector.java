@@ -13,11 +13,16 @@ import java.util.Map;
  */
 public abstract class AbstractOutlierDetector implements OutlierDetector
 {
-    protected final OutlierDetectionAlgorithm outlierDetectionAlgorithm;
+    protected final OutlierDetectionAlgorithmRegistry outlierDetectionAlgorithmRegistry;
+
+    public AbstractOutlierDetector(OutlierDetectionAlgorithmRegistry outlierDetectionAlgorithmRegistry)
+    {
+        this.outlierDetectionAlgorithmRegistry = outlierDetectionAlgorithmRegistry;
+    }
 
     public AbstractOutlierDetector(OutlierDetectionAlgorithm outlierDetectionAlgorithm)
     {
-        this.outlierDetectionAlgorithm = outlierDetectionAlgorithm;
+        this(new OutlierDetectionAlgorithmRegistry(outlierDetectionAlgorithm));
     }
 
     @Override
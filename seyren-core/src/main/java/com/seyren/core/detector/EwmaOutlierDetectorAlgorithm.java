@@ -0,0 +1,311 @@
+package com.seyren.core.detector;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.seyren.core.detector.entity.ClusterValues;
+import com.seyren.core.detector.entity.TargetBaseline;
+import com.seyren.core.domain.OutlierCheck;
+import com.seyren.core.util.config.SeyrenConfig;
+import org.apache.commons.lang.StringUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.PreDestroy;
+import javax.inject.Inject;
+import javax.inject.Named;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares each instance with its own exponentially weighted mean and variance,
+ * kept in memory and updated with every value, so that an ASG degrading as a
+ * whole is caught even though its instances still look like each other.
+ *
+ * A value is an outlier when it breaks the check's relative or absolute diff
+ * from the target's mean, and, once the values have varied at all, is more than
+ * {@link #MAX_Z_SCORE} standard deviations away from it. Baselines are written
+ * to a file periodically and read back on startup.
+ */
+@Named
+public class EwmaOutlierDetectorAlgorithm implements TemporalOutlierDetectionAlgorithm
+{
+    public final static String NAME = "ewma";
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(EwmaOutlierDetectorAlgorithm.class);
+
+    // Values folded into a baseline before it is trusted
+    private final static int MIN_DATA_POINTS = 5;
+
+    private final static double MAX_Z_SCORE = 3;
+
+    private final static long BASELINE_EXPIRY_MILLIS = TimeUnit.DAYS.toMillis(1);
+
+    private final static int SNAPSHOT_VERSION = 1;
+
+    private final double alpha;
+    private final File snapshotFile;
+    private final Cache<String, TargetBaseline> baselines;
+    private final ScheduledExecutorService snapshotExecutor;
+
+    @Inject
+    public EwmaOutlierDetectorAlgorithm(SeyrenConfig seyrenConfig)
+    {
+        this(seyrenConfig.getOutlierEwmaAlpha(),
+                StringUtils.isEmpty(seyrenConfig.getOutlierStateFile()) ? null : new File(seyrenConfig.getOutlierStateFile()),
+                seyrenConfig.getOutlierStateSnapshotSeconds());
+    }
+
+    /**
+     * @param snapshotFile where baselines are kept across restarts, or null not to keep them
+     * @param snapshotSeconds how often baselines are written, or 0 to only write them on shutdown
+     */
+    public EwmaOutlierDetectorAlgorithm(double alpha, File snapshotFile, int snapshotSeconds)
+    {
+        this.alpha = alpha;
+        this.snapshotFile = snapshotFile;
+        // Targets which stop reporting, e.g. terminated instances, are dropped after a day
+        this.baselines = CacheBuilder.newBuilder().expireAfterAccess(BASELINE_EXPIRY_MILLIS, TimeUnit.MILLISECONDS).build();
+
+        if (snapshotFile != null)
+        {
+            restore();
+        }
+        if (snapshotFile != null && snapshotSeconds > 0)
+        {
+            snapshotExecutor = Executors.newSingleThreadScheduledExecutor(new ThreadFactoryBuilder().setNameFormat("outlier-baseline-snapshot").setDaemon(true).build());
+            snapshotExecutor.scheduleWithFixedDelay(new Runnable()
+            {
+                @Override
+                public void run()
+                {
+                    snapshot();
+                }
+            }, snapshotSeconds, snapshotSeconds, TimeUnit.SECONDS);
+        }
+        else
+        {
+            snapshotExecutor = null;
+        }
+    }
+
+    @PreDestroy
+    public void shutdown()
+    {
+        if (snapshotExecutor != null)
+        {
+            snapshotExecutor.shutdownNow();
+        }
+        if (snapshotFile != null)
+        {
+            snapshot();
+        }
+    }
+
+    @Override
+    public String getName()
+    {
+        return NAME;
+    }
+
+    @Override
+    public boolean isOutlier(OutlierCheck check, String target, BigDecimal instanceValue)
+    {
+        if (instanceValue == null)
+        {
+            return false;
+        }
+        TargetBaseline baseline = baseline(check.getId() + "|" + target);
+        double value = instanceValue.doubleValue();
+
+        synchronized (baseline)
+        {
+            boolean isOutlier = baseline.getCount() >= MIN_DATA_POINTS
+                    && isOutlier(value, baseline.getMean(), baseline.getVariance(), check.getRelativeDiff(), check.getAbsoluteDiff());
+            baseline.update(value, alpha, System.currentTimeMillis());
+            return isOutlier;
+        }
+    }
+
+    /**
+     * Peers alone say nothing about an instance's history, so without a target nothing is an outlier.
+     */
+    @Override
+    public boolean isOutlier(BigDecimal instanceValue, List<BigDecimal> clusterValues, Double relativeDiff, BigDecimal absoluteDiff)
+    {
+        return false;
+    }
+
+    @Override
+    public boolean isOutlier(BigDecimal instanceValue, ClusterValues clusterValues, Double relativeDiff, BigDecimal absoluteDiff)
+    {
+        return false;
+    }
+
+    private boolean isOutlier(double value, double mean, double variance, Double relativeDiff, BigDecimal absoluteDiff)
+    {
+        if (variance > 0 && Math.abs(value - mean) / Math.sqrt(variance) <= MAX_Z_SCORE)
+        {
+            return false;
+        }
+
+        boolean isOutlier = false;
+
+        if (relativeDiff != null && mean != 0)
+        {
+            double computedRelativeDiff = (value - mean) / mean * 100;
+
+            if (relativeDiff > 0 && computedRelativeDiff > relativeDiff)
+            {
+                isOutlier = true;
+            }
+            else if (relativeDiff < 0 && computedRelativeDiff < relativeDiff)
+            {
+                isOutlier = true;
+            }
+        }
+        if (absoluteDiff != null)
+        {
+            double computedAbsoluteDiff = value - mean;
+            if (absoluteDiff.signum() > 0 && computedAbsoluteDiff > absoluteDiff.doubleValue())
+            {
+                isOutlier = true;
+            }
+            else if (absoluteDiff.signum() < 0 && computedAbsoluteDiff < absoluteDiff.doubleValue())
+            {
+                isOutlier = true;
+            }
+        }
+
+        return isOutlier;
+    }
+
+    private TargetBaseline baseline(String key)
+    {
+        try
+        {
+            return baselines.get(key, new Callable<TargetBaseline>()
+            {
+                @Override
+                public TargetBaseline call()
+                {
+                    return new TargetBaseline();
+                }
+            });
+        }
+        catch (ExecutionException e)
+        {
+            throw new IllegalStateException(e.getCause());
+        }
+    }
+
+    /**
+     * Writes every baseline to the snapshot file, replacing the previous snapshot only once it is complete.
+     */
+    void snapshot()
+    {
+        if (baselines.size() == 0 && !snapshotFile.exists())
+        {
+            return;
+        }
+        File temporary = new File(snapshotFile.getPath() + ".tmp");
+        try
+        {
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temporary)));
+            try
+            {
+                out.writeInt(SNAPSHOT_VERSION);
+                for (Map.Entry<String, TargetBaseline> entry : baselines.asMap().entrySet())
+                {
+                    TargetBaseline baseline = entry.getValue();
+                    synchronized (baseline)
+                    {
+                        out.writeBoolean(true);
+                        out.writeUTF(entry.getKey());
+                        out.writeLong(baseline.getCount());
+                        out.writeDouble(baseline.getMean());
+                        out.writeDouble(baseline.getVariance());
+                        out.writeLong(baseline.getUpdatedAtMillis());
+                    }
+                }
+                out.writeBoolean(false);
+            }
+            finally
+            {
+                out.close();
+            }
+            if (!temporary.renameTo(snapshotFile))
+            {
+                // Not atomic on every platform, so only done when the rename alone fails
+                if (!snapshotFile.delete() || !temporary.renameTo(snapshotFile))
+                {
+                    throw new IOException("Could not replace " + snapshotFile);
+                }
+            }
+        }
+        catch (IOException e)
+        {
+            LOGGER.warn("Could not write outlier baselines to {}", snapshotFile, e);
+        }
+    }
+
+    private void restore()
+    {
+        if (!snapshotFile.isFile())
+        {
+            return;
+        }
+        long expiredBefore = System.currentTimeMillis() - BASELINE_EXPIRY_MILLIS;
+        int restored = 0;
+        try
+        {
+            DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(snapshotFile)));
+            try
+            {
+                if (in.readInt() != SNAPSHOT_VERSION)
+                {
+                    LOGGER.warn("Ignoring outlier baselines in {}, written by another version", snapshotFile);
+                    return;
+                }
+                while (in.readBoolean())
+                {
+                    String key = in.readUTF();
+                    TargetBaseline baseline = new TargetBaseline(in.readLong(), in.readDouble(), in.readDouble(), in.readLong());
+                    if (baseline.getUpdatedAtMillis() >= expiredBefore)
+                    {
+                        baselines.put(key, baseline);
+                        restored++;
+                    }
+                }
+            }
+            finally
+            {
+                in.close();
+            }
+            LOGGER.info("Restored {} outlier baselines from {}", restored, snapshotFile);
+        }
+        catch (EOFException e)
+        {
+            LOGGER.warn("Outlier baselines in {} are truncated, restored {} of them", snapshotFile, restored);
+        }
+        catch (IOException e)
+        {
+            LOGGER.warn("Could not read outlier baselines from {}", snapshotFile, e);
+        }
+    }
+}
@@ -1,6 +1,6 @@
 package com.seyren.core.detector;
 
-import org.apache.commons.collections4.CollectionUtils;
+import com.seyren.core.detector.entity.ClusterValues;
 
 import javax.inject.Named;
 import java.math.BigDecimal;
@@ -15,14 +15,28 @@ import java.util.List;
 public class MeanValueOutlierDetectorAlgorithm implements OutlierDetectionAlgorithm
 {
 
+    public final static String NAME = "mean";
+
     private final static Integer MIN_DATA_POINTS = 5;
 
     public MeanValueOutlierDetectorAlgorithm()
     {
     }
 
+    @Override
+    public String getName()
+    {
+        return NAME;
+    }
+
     @Override
     public boolean isOutlier(BigDecimal instanceValue, List<BigDecimal> clusterValues, Double relativeDiff, BigDecimal absoluteDiff)
+    {
+        return isOutlier(instanceValue, new ClusterValues(clusterValues), relativeDiff, absoluteDiff);
+    }
+
+    @Override
+    public boolean isOutlier(BigDecimal instanceValue, ClusterValues clusterValues, Double relativeDiff, BigDecimal absoluteDiff)
     {
         Boolean isOutlier = false;
 
@@ -61,19 +75,13 @@ public class MeanValueOutlierDetectorAlgorithm implements OutlierDetectionAlgori
         return isOutlier;
     }
 
-    private BigDecimal computeMeanValue(List<BigDecimal> clusterValues)
+    // The quotient only depends on the value of the sum, so it is the same however the sum was arrived at
+    private BigDecimal computeMeanValue(ClusterValues clusterValues)
     {
         BigDecimal meanValue = new BigDecimal(0);
-        if (CollectionUtils.isNotEmpty(clusterValues))
+        if (clusterValues.size() > 0)
         {
-            BigDecimal sum = new BigDecimal(0);
-
-            for (BigDecimal value : clusterValues)
-            {
-                sum = sum.add(value);
-            }
-
-            meanValue = sum.divide(new BigDecimal(clusterValues.size()), 20, RoundingMode.HALF_EVEN);
+            meanValue = clusterValues.getSum().divide(new BigDecimal(clusterValues.size()), 20, RoundingMode.HALF_EVEN);
         }
         return meanValue;
     }
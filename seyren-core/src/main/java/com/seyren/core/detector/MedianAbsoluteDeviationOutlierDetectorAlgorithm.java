@@ -0,0 +1,99 @@
+package com.seyren.core.detector;
+
+import com.seyren.core.detector.entity.ClusterValues;
+
+import javax.inject.Named;
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Compares an instance with the median of its ASG rather than the mean, so a
+ * few instances far off do not drag the baseline they are compared with.
+ *
+ * On top of the configured relative and absolute differences, an instance must
+ * be more than {@link #MAX_MODIFIED_Z_SCORE} scaled median absolute deviations
+ * away from the median; when most of the ASG reports the same value the
+ * deviation is 0 and only the configured differences apply.
+ *
+ * The median and deviation are those of the whole ASG, computed once per
+ * evaluation, so the instance being judged is counted in its own baseline;
+ * given a list of the other instances, the instance is added to it. ASGs of
+ * fewer than {@link #MIN_DATA_POINTS} instances, counting the one judged, are
+ * not evaluated.
+ */
+@Named
+public class MedianAbsoluteDeviationOutlierDetectorAlgorithm implements OutlierDetectionAlgorithm
+{
+    public final static String NAME = "mad";
+
+    private final static Integer MIN_DATA_POINTS = 5;
+
+    // Makes the deviation comparable with a standard deviation for normally distributed values
+    private final static double CONSISTENCY_CONSTANT = 1.4826;
+
+    private final static double MAX_MODIFIED_Z_SCORE = 3.5;
+
+    @Override
+    public String getName()
+    {
+        return NAME;
+    }
+
+    @Override
+    public boolean isOutlier(BigDecimal instanceValue, List<BigDecimal> clusterValues, Double relativeDiff, BigDecimal absoluteDiff)
+    {
+        List<BigDecimal> wholeCluster = new ArrayList<BigDecimal>(clusterValues.size() + 1);
+        wholeCluster.addAll(clusterValues);
+        wholeCluster.add(instanceValue);
+        return isOutlier(instanceValue, new ClusterValues(wholeCluster), relativeDiff, absoluteDiff);
+    }
+
+    @Override
+    public boolean isOutlier(BigDecimal instanceValue, ClusterValues clusterValues, Double relativeDiff, BigDecimal absoluteDiff)
+    {
+        if (clusterValues.getClusterSize() < MIN_DATA_POINTS)
+        {
+            return false;
+        }
+
+        double value = instanceValue.doubleValue();
+        double median = clusterValues.getMedian();
+        double deviation = clusterValues.getMedianAbsoluteDeviation();
+
+        if (deviation != 0 && Math.abs(value - median) / (CONSISTENCY_CONSTANT * deviation) <= MAX_MODIFIED_Z_SCORE)
+        {
+            return false;
+        }
+
+        boolean isOutlier = false;
+
+        if (relativeDiff != null && median != 0)
+        {
+            double computedRelativeDiff = (value - median) / median * 100;
+
+            if (relativeDiff > 0 && computedRelativeDiff > relativeDiff)
+            {
+                isOutlier = true;
+            }
+            else if (relativeDiff < 0 && computedRelativeDiff < relativeDiff)
+            {
+                isOutlier = true;
+            }
+        }
+        if (absoluteDiff != null)
+        {
+            double computedAbsoluteDiff = value - median;
+            if (absoluteDiff.signum() > 0 && computedAbsoluteDiff > absoluteDiff.doubleValue())
+            {
+                isOutlier = true;
+            }
+            else if (absoluteDiff.signum() < 0 && computedAbsoluteDiff < absoluteDiff.doubleValue())
+            {
+                isOutlier = true;
+            }
+        }
+
+        return isOutlier;
+    }
+}
@@ -1,5 +1,7 @@
 package com.seyren.core.detector;
 
+import com.seyren.core.detector.entity.ClusterValues;
+
 import java.math.BigDecimal;
 import java.util.List;
 
@@ -8,5 +10,16 @@ import java.util.List;
  */
 public interface OutlierDetectionAlgorithm
 {
+    /**
+     * @return the name an {@link com.seyren.core.domain.OutlierCheck} selects this algorithm by
+     */
+    public String getName();
+
     public boolean isOutlier(BigDecimal instanceValue, List<BigDecimal> clusterValues, Double relativeDiff, BigDecimal absoluteDiff);
+
+    /**
+     * Same as {@link #isOutlier(BigDecimal, List, Double, BigDecimal)}, for the
+     * values of the rest of the cluster given as a view of the whole ASG.
+     */
+    public boolean isOutlier(BigDecimal instanceValue, ClusterValues clusterValues, Double relativeDiff, BigDecimal absoluteDiff);
 }
@@ -0,0 +1,63 @@
+package com.seyren.core.detector;
+
+import com.seyren.core.domain.OutlierCheck;
+import org.apache.commons.lang.StringUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.inject.Inject;
+import javax.inject.Named;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Looks up the {@link OutlierDetectionAlgorithm} an {@link OutlierCheck} asks for.
+ * Every algorithm bean is registered under its name, so adding one only takes
+ * a new implementation.
+ */
+@Named
+public class OutlierDetectionAlgorithmRegistry
+{
+    private static final Logger LOGGER = LoggerFactory.getLogger(OutlierDetectionAlgorithmRegistry.class);
+
+    private final Map<String, OutlierDetectionAlgorithm> algorithmsByName = new HashMap<String, OutlierDetectionAlgorithm>();
+    private final OutlierDetectionAlgorithm defaultAlgorithm;
+
+    @Inject
+    public OutlierDetectionAlgorithmRegistry(List<OutlierDetectionAlgorithm> algorithms)
+    {
+        for (OutlierDetectionAlgorithm algorithm : algorithms)
+        {
+            algorithmsByName.put(algorithm.getName(), algorithm);
+        }
+        OutlierDetectionAlgorithm mean = algorithmsByName.get(MeanValueOutlierDetectorAlgorithm.NAME);
+        this.defaultAlgorithm = mean != null ? mean : algorithms.get(0);
+    }
+
+    public OutlierDetectionAlgorithmRegistry(OutlierDetectionAlgorithm... algorithms)
+    {
+        this(Arrays.asList(algorithms));
+    }
+
+    /**
+     * @return the algorithm named by the check, or the mean value algorithm when
+     * the check names none or one which is not registered
+     */
+    public OutlierDetectionAlgorithm get(OutlierCheck check)
+    {
+        String name = check.getAlgorithm();
+        if (StringUtils.isEmpty(name))
+        {
+            return defaultAlgorithm;
+        }
+        OutlierDetectionAlgorithm algorithm = algorithmsByName.get(name);
+        if (algorithm == null)
+        {
+            LOGGER.warn("Unknown outlier detection algorithm '{}' for check {}, using '{}'", name, check.getId(), defaultAlgorithm.getName());
+            return defaultAlgorithm;
+        }
+        return algorithm;
+    }
+}
@@ -0,0 +1,17 @@
+package com.seyren.core.detector;
+
+import com.seyren.core.domain.OutlierCheck;
+
+import java.math.BigDecimal;
+
+/**
+ * An algorithm which compares an instance with its own past values rather than
+ * with the rest of its ASG, so that it needs to know which target a value is for.
+ */
+public interface TemporalOutlierDetectionAlgorithm extends OutlierDetectionAlgorithm
+{
+    /**
+     * Compares the value with the target's history for the check, then adds it to that history.
+     */
+    public boolean isOutlier(OutlierCheck check, String target, BigDecimal instanceValue);
+}
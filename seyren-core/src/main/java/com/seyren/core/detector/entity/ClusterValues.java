@@ -0,0 +1,134 @@
+package com.seyren.core.detector.entity;
+
+import com.seyren.core.util.math.DoubleSelection;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The metric values of an ASG, summed once so that the values of every
+ * instance but one can be described in O(1).
+ *
+ * Sums are kept as BigDecimal: adding and subtracting them is exact, so the
+ * sum without one member is the same number as summing the other members.
+ *
+ * The median and median absolute deviation are computed once, over the whole
+ * cluster, and shared by every view of it.
+ */
+public class ClusterValues
+{
+    private final BigDecimal[] values;
+    private final BigDecimal total;
+    private final int excludedIndex;
+    private final ClusterValues whole;
+
+    private volatile double[] medianAndDeviation;
+
+    public ClusterValues(List<BigDecimal> values)
+    {
+        this.values = values.toArray(new BigDecimal[values.size()]);
+        BigDecimal sum = BigDecimal.ZERO;
+        for (BigDecimal value : this.values)
+        {
+            sum = sum.add(value);
+        }
+        this.total = sum;
+        this.excludedIndex = -1;
+        this.whole = this;
+    }
+
+    private ClusterValues(ClusterValues whole, int excludedIndex)
+    {
+        this.values = whole.values;
+        this.total = whole.total;
+        this.excludedIndex = excludedIndex;
+        this.whole = whole;
+    }
+
+    /**
+     * @return a view of the other members of the cluster, sharing this one's values
+     */
+    public ClusterValues without(int index)
+    {
+        return new ClusterValues(whole, index);
+    }
+
+    public BigDecimal get(int index)
+    {
+        return values[index];
+    }
+
+    public int size()
+    {
+        return excludedIndex < 0 ? values.length : values.length - 1;
+    }
+
+    /**
+     * @return the members of the whole cluster, including any this view excludes
+     */
+    public int getClusterSize()
+    {
+        return values.length;
+    }
+
+    public BigDecimal getSum()
+    {
+        return excludedIndex < 0 ? total : total.subtract(values[excludedIndex]);
+    }
+
+    /**
+     * Copies the values in the view; O(n), for algorithms which need more than the sum.
+     */
+    public List<BigDecimal> getValues()
+    {
+        List<BigDecimal> result = new ArrayList<BigDecimal>(size());
+        for (int i = 0; i < values.length; i++)
+        {
+            if (i != excludedIndex)
+            {
+                result.add(values[i]);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * @return the median of the whole cluster, including any member this view excludes
+     */
+    public double getMedian()
+    {
+        return whole.medianAndDeviation()[0];
+    }
+
+    /**
+     * @return the median absolute deviation from {@link #getMedian()} of the whole cluster
+     */
+    public double getMedianAbsoluteDeviation()
+    {
+        return whole.medianAndDeviation()[1];
+    }
+
+    // Racing threads compute the same numbers, so the worst case is doing it twice
+    private double[] medianAndDeviation()
+    {
+        double[] result = medianAndDeviation;
+        if (result == null)
+        {
+            double[] scratch = new double[values.length];
+            for (int i = 0; i < values.length; i++)
+            {
+                scratch[i] = values[i].doubleValue();
+            }
+            double median = values.length == 0 ? 0 : DoubleSelection.median(scratch, scratch.length);
+            for (int i = 0; i < scratch.length; i++)
+            {
+                scratch[i] = Math.abs(scratch[i] - median);
+            }
+            double deviation = values.length == 0 ? 0 : DoubleSelection.median(scratch, scratch.length);
+            result = new double[] { median, deviation };
+            medianAndDeviation = result;
+        }
+        return result;
+    }
+}
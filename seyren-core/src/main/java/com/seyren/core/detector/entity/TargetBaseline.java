@@ -0,0 +1,66 @@
+package com.seyren.core.detector.entity;
+
+/**
+ * The exponentially weighted mean and variance of one target's values, updated
+ * in O(1) as each value comes in.
+ */
+public class TargetBaseline
+{
+    private long count;
+    private double mean;
+    private double variance;
+    private long updatedAtMillis;
+
+    public TargetBaseline()
+    {
+    }
+
+    public TargetBaseline(long count, double mean, double variance, long updatedAtMillis)
+    {
+        this.count = count;
+        this.mean = mean;
+        this.variance = variance;
+        this.updatedAtMillis = updatedAtMillis;
+    }
+
+    /**
+     * Folds a value into the baseline; the first value becomes the mean.
+     */
+    public synchronized void update(double value, double alpha, long nowMillis)
+    {
+        if (count == 0)
+        {
+            mean = value;
+            variance = 0;
+        }
+        else
+        {
+            double diff = value - mean;
+            double increment = alpha * diff;
+            mean += increment;
+            variance = (1 - alpha) * (variance + diff * increment);
+        }
+        count++;
+        updatedAtMillis = nowMillis;
+    }
+
+    public synchronized long getCount()
+    {
+        return count;
+    }
+
+    public synchronized double getMean()
+    {
+        return mean;
+    }
+
+    public synchronized double getVariance()
+    {
+        return variance;
+    }
+
+    public synchronized long getUpdatedAtMillis()
+    {
+        return updatedAtMillis;
+    }
+}
@@ -16,6 +16,7 @@ public class OutlierCheck extends Check
     private Double relativeDiff;
     private Integer minConsecutiveViolations ;
     private String asgName ;
+    private String algorithm;
     private static final String TYPE = "outlier";
 
     @JsonSerialize(using = BigDecimalSerializer.class)
@@ -83,4 +84,24 @@ public class OutlierCheck extends Check
         return this;
     }
 
+    /**
+     * Name of the outlier detection algorithm to use; the mean of the other
+     * instances when not set.
+     */
+    public String getAlgorithm()
+    {
+        return algorithm;
+    }
+
+    public void setAlgorithm(String algorithm)
+    {
+        this.algorithm = algorithm;
+    }
+
+    public OutlierCheck withAlgorithm(String algorithm)
+    {
+        setAlgorithm(algorithm);
+        return this;
+    }
+
 }
@@ -0,0 +1,183 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.seyren.core.domain;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.joda.time.DateTime;
+
+import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
+
+/**
+ * A notification written to the outbox, waiting to be delivered. It carries
+ * the check as it was when the alerts were raised, so that it can be sent by
+ * any node, also after a restart.
+ *
+ * A notification is due once its {@code due} time has passed: when it is
+ * claimed this is pushed back to the end of the lease, when it fails to the
+ * time of the next attempt.
+ */
+@JsonIgnoreProperties(ignoreUnknown = true)
+public class PendingNotification {
+
+    private String id;
+    private String key;
+    private Check check;
+    private String subscriptionId;
+    private List<Alert> alerts = new ArrayList<Alert>();
+    private int attempts;
+    private DateTime due;
+    private String owner;
+    private DateTime created;
+
+    public String getId() {
+        return id;
+    }
+
+    public void setId(String id) {
+        this.id = id;
+    }
+
+    public PendingNotification withId(String id) {
+        setId(id);
+        return this;
+    }
+
+    /**
+     * @return identifies the notification, the same alerts are only written once
+     */
+    public String getKey() {
+        return key;
+    }
+
+    public void setKey(String key) {
+        this.key = key;
+    }
+
+    public PendingNotification withKey(String key) {
+        setKey(key);
+        return this;
+    }
+
+    public Check getCheck() {
+        return check;
+    }
+
+    public void setCheck(Check check) {
+        this.check = check;
+    }
+
+    public PendingNotification withCheck(Check check) {
+        setCheck(check);
+        return this;
+    }
+
+    public String getSubscriptionId() {
+        return subscriptionId;
+    }
+
+    public void setSubscriptionId(String subscriptionId) {
+        this.subscriptionId = subscriptionId;
+    }
+
+    public PendingNotification withSubscriptionId(String subscriptionId) {
+        setSubscriptionId(subscriptionId);
+        return this;
+    }
+
+    public List<Alert> getAlerts() {
+        return alerts;
+    }
+
+    public void setAlerts(List<Alert> alerts) {
+        this.alerts = alerts;
+    }
+
+    public PendingNotification withAlerts(List<Alert> alerts) {
+        setAlerts(alerts);
+        return this;
+    }
+
+    public int getAttempts() {
+        return attempts;
+    }
+
+    public void setAttempts(int attempts) {
+        this.attempts = attempts;
+    }
+
+    public PendingNotification withAttempts(int attempts) {
+        setAttempts(attempts);
+        return this;
+    }
+
+    public DateTime getDue() {
+        return due;
+    }
+
+    public void setDue(DateTime due) {
+        this.due = due;
+    }
+
+    public PendingNotification withDue(DateTime due) {
+        setDue(due);
+        return this;
+    }
+
+    /**
+     * @return the node which last claimed the notification
+     */
+    public String getOwner() {
+        return owner;
+    }
+
+    public void setOwner(String owner) {
+        this.owner = owner;
+    }
+
+    public PendingNotification withOwner(String owner) {
+        setOwner(owner);
+        return this;
+    }
+
+    public DateTime getCreated() {
+        return created;
+    }
+
+    public void setCreated(DateTime created) {
+        this.created = created;
+    }
+
+    public PendingNotification withCreated(DateTime created) {
+        setCreated(created);
+        return this;
+    }
+
+    /**
+     * @return the subscription of the check the notification is for, or null when it is gone
+     */
+    public Subscription getSubscription() {
+        if (check == null || check.getSubscriptions() == null) {
+            return null;
+        }
+        for (Subscription subscription : check.getSubscriptions()) {
+            if (subscription.getId() != null && subscription.getId().equals(subscriptionId)) {
+                return subscription;
+            }
+        }
+        return null;
+    }
+
+}
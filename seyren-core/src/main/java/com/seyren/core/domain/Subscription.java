@@ -44,6 +44,9 @@ public class Subscription {
     private String position;
     private String resourceUrl;
     // private String scriptPath;
+
+    // Compiled from the days, times and ignored states on first use; setters reset it
+    private transient volatile Schedule schedule;
     
     public String getId() {
         return id;
@@ -90,6 +93,7 @@ public class Subscription {
     
     public void setSu(boolean su) {
         this.su = su;
+        this.schedule = null;
     }
     
     public Subscription withSu(boolean su) {
@@ -103,6 +107,7 @@ public class Subscription {
     
     public void setMo(boolean mo) {
         this.mo = mo;
+        this.schedule = null;
     }
     
     public Subscription withMo(boolean mo) {
@@ -116,6 +121,7 @@ public class Subscription {
     
     public void setTu(boolean tu) {
         this.tu = tu;
+        this.schedule = null;
     }
     
     public Subscription withTu(boolean tu) {
@@ -129,6 +135,7 @@ public class Subscription {
     
     public void setWe(boolean we) {
         this.we = we;
+        this.schedule = null;
     }
     
     public Subscription withWe(boolean we) {
@@ -142,6 +149,7 @@ public class Subscription {
     
     public void setTh(boolean th) {
         this.th = th;
+        this.schedule = null;
     }
     
     public Subscription withTh(boolean th) {
@@ -155,6 +163,7 @@ public class Subscription {
     
     public void setFr(boolean fr) {
         this.fr = fr;
+        this.schedule = null;
     }
     
     public Subscription withFr(boolean fr) {
@@ -168,6 +177,7 @@ public class Subscription {
     
     public void setSa(boolean sa) {
         this.sa = sa;
+        this.schedule = null;
     }
     
     public Subscription withSa(boolean sa) {
@@ -181,6 +191,7 @@ public class Subscription {
     
     public void setIgnoreWarn(boolean ignoreWarn) {
         this.ignoreWarn = ignoreWarn;
+        this.schedule = null;
     }
     
     public Subscription withIgnoreWarn(boolean ignoreWarn) {
@@ -194,6 +205,7 @@ public class Subscription {
     
     public void setIgnoreError(boolean ignoreError) {
         this.ignoreError = ignoreError;
+        this.schedule = null;
     }
     
     public Subscription withIgnoreError(boolean ignoreError) {
@@ -207,6 +219,7 @@ public class Subscription {
     
     public void setIgnoreOk(boolean ignoreOk) {
         this.ignoreOk = ignoreOk;
+        this.schedule = null;
     }
     
     public Subscription withIgnoreOk(boolean ignoreOk) {
@@ -222,6 +235,7 @@ public class Subscription {
     @JsonDeserialize(using = LocalTimeDeserializer.class)
     public void setFromTime(LocalTime fromTime) {
         this.fromTime = fromTime;
+        this.schedule = null;
     }
     
     public Subscription withFromTime(LocalTime fromTime) {
@@ -237,6 +251,7 @@ public class Subscription {
     @JsonDeserialize(using = LocalTimeDeserializer.class)
     public void setToTime(LocalTime toTime) {
         this.toTime = toTime;
+        this.schedule = null;
     }
     
     public Subscription withToTime(LocalTime toTime) {
@@ -289,50 +304,72 @@ public class Subscription {
         if (!isEnabled()) {
             return false;
         }
-        
-        boolean isTimeGood = isCorrectDayOfWeek(time) && isCorrectHourOfDay(time);
-        
-        if (!isTimeGood) {
-            return false;
+        Schedule current = schedule;
+        if (current == null) {
+            current = new Schedule(this);
+            schedule = current;
         }
-        
-        if (alertType == AlertType.ERROR && ignoreError) {
-            return false;
-        }
-        
-        if (alertType == AlertType.WARN && ignoreWarn) {
-            return false;
+        return current.allows(time, alertType);
+    }
+
+    /**
+     * The days, times and states of a subscription as masks and minutes of
+     * the day, so that deciding whether to notify allocates nothing.
+     */
+    private static final class Schedule {
+
+        private static final int MILLIS_PER_MINUTE = 60000;
+
+        private final int days;
+        private final int alertTypes;
+        private final int fromMinute;
+        private final int toMinute;
+
+        private Schedule(Subscription subscription) {
+            boolean[] byDayOfWeek = {false, subscription.isMo(), subscription.isTu(), subscription.isWe(), subscription.isTh(),
+                    subscription.isFr(), subscription.isSa(), subscription.isSu()};
+            int days = 0;
+            for (int day = 1; day < byDayOfWeek.length; day++) {
+                if (byDayOfWeek[day]) {
+                    days |= 1 << day;
+                }
+            }
+            this.days = days;
+
+            int alertTypes = 0;
+            for (AlertType alertType : AlertType.values()) {
+                alertTypes |= 1 << alertType.ordinal();
+            }
+            if (subscription.isIgnoreError()) {
+                alertTypes &= ~(1 << AlertType.ERROR.ordinal());
+            }
+            if (subscription.isIgnoreWarn()) {
+                alertTypes &= ~(1 << AlertType.WARN.ordinal());
+            }
+            if (subscription.isIgnoreOk()) {
+                alertTypes &= ~(1 << AlertType.OK.ordinal());
+            }
+            this.alertTypes = alertTypes;
+
+            // Notifications go out strictly after the start and before the end,
+            // which may not be on a whole minute
+            LocalTime from = subscription.getFromTime();
+            LocalTime to = subscription.getToTime();
+            this.fromMinute = from == null ? Integer.MAX_VALUE : from.getMillisOfDay() / MILLIS_PER_MINUTE;
+            this.toMinute = to == null ? Integer.MIN_VALUE : (to.getMillisOfDay() + MILLIS_PER_MINUTE - 1) / MILLIS_PER_MINUTE;
         }
-        
-        if (alertType == AlertType.OK && ignoreOk) {
-            return false;
+
+        private boolean allows(DateTime time, AlertType alertType) {
+            if ((days & (1 << time.getDayOfWeek())) == 0) {
+                return false;
+            }
+            int minute = time.getMinuteOfDay();
+            if (minute <= fromMinute || minute >= toMinute) {
+                return false;
+            }
+            return alertType == null || (alertTypes & (1 << alertType.ordinal())) != 0;
         }
-        
-        return true;
-    }
-    
-    private boolean isCorrectHourOfDay(DateTime time) {
-        LocalTime alertTime = new LocalTime(time.getHourOfDay(), time.getMinuteOfHour());
-        return alertTime.isAfter(getFromTime()) && alertTime.isBefore(getToTime());
-    }
-    
-    private boolean isCorrectDayOfWeek(DateTime time) {
-        int day = time.getDayOfWeek();
-        if (day == 1 && isMo())
-            return true;
-        if (day == 2 && isTu())
-            return true;
-        if (day == 3 && isWe())
-            return true;
-        if (day == 4 && isTh())
-            return true;
-        if (day == 5 && isFr())
-            return true;
-        if (day == 6 && isSa())
-            return true;
-        if (day == 7 && isSu())
-            return true;
-        return false;
+
     }
-    
+
 }
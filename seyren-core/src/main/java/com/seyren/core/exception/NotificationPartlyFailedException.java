@@ -0,0 +1,48 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.seyren.core.exception;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import com.seyren.core.domain.Alert;
+
+/**
+ * Thrown when a provider sent some of the alerts of a notification but not
+ * the others. Trying again only needs to send the alerts which failed.
+ */
+public class NotificationPartlyFailedException extends NotificationFailedException {
+
+    private static final long serialVersionUID = 5068447791622713035L;
+
+    private final List<Alert> failedAlerts;
+
+    public NotificationPartlyFailedException(String s, List<Alert> failedAlerts) {
+        super(s);
+        this.failedAlerts = new ArrayList<Alert>(failedAlerts);
+    }
+
+    public NotificationPartlyFailedException(String s, List<Alert> failedAlerts, Throwable throwable) {
+        super(s, throwable);
+        this.failedAlerts = new ArrayList<Alert>(failedAlerts);
+    }
+
+    /**
+     * @return the alerts which were not sent, the same instances as were given to the provider
+     */
+    public List<Alert> getFailedAlerts() {
+        return failedAlerts;
+    }
+
+}
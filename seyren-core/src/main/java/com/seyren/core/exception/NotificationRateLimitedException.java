@@ -0,0 +1,39 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.seyren.core.exception;
+
+/**
+ * Thrown when a provider refused a notification because too many were sent,
+ * e.g. with an HTTP 429. The notification can be sent again once the provider
+ * allows it.
+ */
+public class NotificationRateLimitedException extends NotificationFailedException {
+
+    private static final long serialVersionUID = -3390386457281254630L;
+
+    private final long retryAfterMillis;
+
+    public NotificationRateLimitedException(String s, long retryAfterMillis) {
+        super(s);
+        this.retryAfterMillis = retryAfterMillis;
+    }
+
+    /**
+     * @return how long the provider asked to wait, or 0 if it did not say
+     */
+    public long getRetryAfterMillis() {
+        return retryAfterMillis;
+    }
+
+}
@@ -0,0 +1,113 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.seyren.core.service.conviction;
+
+import com.seyren.core.util.metrics.Counter;
+import com.seyren.core.util.metrics.Metrics;
+
+/**
+ * Counts what became of the instances outlier checks asked to convict.
+ */
+public class ConvictionMetrics extends Metrics
+{
+    private final Counter issued = counter("issued");
+    private final Counter failed = counter("failed");
+    private final Counter dryRun = counter("dryRun");
+    private final Counter suppressedAsDuplicate = counter("suppressedAsDuplicate");
+    private final Counter suppressedByLimit = counter("suppressedByLimit");
+    private final Counter rejected = counter("rejected");
+
+    public ConvictionMetrics()
+    {
+        super("convictions");
+    }
+
+    void issued()
+    {
+        issued.increment();
+    }
+
+    void failed()
+    {
+        failed.increment();
+    }
+
+    void dryRun()
+    {
+        dryRun.increment();
+    }
+
+    void suppressedAsDuplicate()
+    {
+        suppressedAsDuplicate.increment();
+    }
+
+    void suppressedByLimit()
+    {
+        suppressedByLimit.increment();
+    }
+
+    void rejected()
+    {
+        rejected.increment();
+    }
+
+    /**
+     * @return convictions AWS accepted
+     */
+    public long getIssued()
+    {
+        return issued.get();
+    }
+
+    /**
+     * @return convictions AWS refused or which could not be sent
+     */
+    public long getFailed()
+    {
+        return failed.get();
+    }
+
+    /**
+     * @return convictions which would have been issued if dry run was off
+     */
+    public long getDryRun()
+    {
+        return dryRun.get();
+    }
+
+    /**
+     * @return instances already convicted within the window
+     */
+    public long getSuppressedAsDuplicate()
+    {
+        return suppressedAsDuplicate.get();
+    }
+
+    /**
+     * @return instances left alone because their ASG had used up its convictions for the window
+     */
+    public long getSuppressedByLimit()
+    {
+        return suppressedByLimit.get();
+    }
+
+    /**
+     * @return convictions dropped because too many were waiting to be sent
+     */
+    public long getRejected()
+    {
+        return rejected.get();
+    }
+}
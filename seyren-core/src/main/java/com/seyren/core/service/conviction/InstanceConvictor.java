@@ -0,0 +1,245 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.seyren.core.service.conviction;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import javax.annotation.PreDestroy;
+import javax.inject.Inject;
+import javax.inject.Named;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.seyren.awsmanager.AWSManager;
+import com.seyren.awsmanager.entity.AWSInstanceDetail;
+import com.seyren.core.util.config.SeyrenConfig;
+import com.seyren.core.util.metrics.Metered;
+
+/**
+ * Marks instances unhealthy in their ASG, without letting a misbehaving check
+ * take out a whole group: each ASG may only lose a fraction of its instances
+ * per window, an instance is convicted at most once per window, and the AWS
+ * calls are made on a small pool so that notifications are not held up by them.
+ */
+@Named
+public class InstanceConvictor implements Metered
+{
+    private static final Logger LOGGER = LoggerFactory.getLogger(InstanceConvictor.class);
+
+    private static final int MAX_QUEUED_CONVICTIONS = 1000;
+
+    private final AWSManager awsManager;
+    private final double maxFraction;
+    private final long windowMillis;
+    private final boolean dryRun;
+    private final ThreadPoolExecutor executor;
+    private final Cache<String, Boolean> recentlyConvicted;
+    private final Map<String, Deque<Long>> convictionTimesByASG = new HashMap<String, Deque<Long>>();
+    private final ConvictionMetrics metrics = new ConvictionMetrics();
+
+    @Inject
+    public InstanceConvictor(AWSManager awsManager, SeyrenConfig seyrenConfig)
+    {
+        this(awsManager, seyrenConfig.getAwsConvictionMaxFraction(),
+                TimeUnit.MINUTES.toMillis(seyrenConfig.getAwsConvictionWindowMinutes()),
+                seyrenConfig.isAwsConvictionDryRun(), seyrenConfig.getAwsConvictionThreads());
+    }
+
+    public InstanceConvictor(AWSManager awsManager, double maxFraction, long windowMillis, boolean dryRun, int threads)
+    {
+        this.awsManager = awsManager;
+        this.maxFraction = maxFraction;
+        this.windowMillis = windowMillis;
+        this.dryRun = dryRun;
+        this.executor = new ThreadPoolExecutor(threads, threads, 0L, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<Runnable>(MAX_QUEUED_CONVICTIONS),
+                new ThreadFactoryBuilder().setNameFormat("instance-conviction-%d").setDaemon(true).build());
+        this.recentlyConvicted = CacheBuilder.newBuilder()
+                .expireAfterWrite(windowMillis, TimeUnit.MILLISECONDS)
+                .build();
+    }
+
+    /**
+     * Queues the given instances for conviction, skipping those convicted
+     * within the window and those over their ASG's limit. Returns without
+     * waiting for AWS.
+     *
+     * @return the ids of the instances queued (or logged, in dry run)
+     */
+    public List<String> convict(Collection<AWSInstanceDetail> instances)
+    {
+        final long now = System.currentTimeMillis();
+        List<AWSInstanceDetail> accepted = select(instances, now);
+        List<String> instanceIds = new ArrayList<String>();
+        for (final AWSInstanceDetail instance : accepted)
+        {
+            final String instanceId = instance.getInstanceId();
+            if (dryRun)
+            {
+                LOGGER.info("Dry run: would convict instance {} of ASG {}", instanceId, instance.getAutoScalingGroup());
+                metrics.dryRun();
+                instanceIds.add(instanceId);
+                continue;
+            }
+            try
+            {
+                executor.execute(new Runnable()
+                {
+                    @Override
+                    public void run()
+                    {
+                        if (awsManager.convictInstance(instanceId))
+                        {
+                            metrics.issued();
+                        }
+                        else
+                        {
+                            release(instance, now);
+                            metrics.failed();
+                        }
+                    }
+                });
+                instanceIds.add(instanceId);
+            }
+            catch (RejectedExecutionException e)
+            {
+                LOGGER.warn("Too many convictions waiting to be sent, dropping instance {} of ASG {}", instanceId, instance.getAutoScalingGroup());
+                metrics.rejected();
+                release(instance, now);
+            }
+        }
+        return instanceIds;
+    }
+
+    private synchronized List<AWSInstanceDetail> select(Collection<AWSInstanceDetail> instances, long now)
+    {
+        expireConvictionTimes(now);
+        List<AWSInstanceDetail> accepted = new ArrayList<AWSInstanceDetail>();
+        for (AWSInstanceDetail instance : instances)
+        {
+            String instanceId = instance.getInstanceId();
+            if (recentlyConvicted.getIfPresent(instanceId) != null)
+            {
+                metrics.suppressedAsDuplicate();
+                continue;
+            }
+            String asgName = instance.getAutoScalingGroup();
+            Deque<Long> convictionTimes = convictionTimesByASG.get(asgName);
+            if (convictionTimes == null)
+            {
+                convictionTimes = new ArrayDeque<Long>();
+            }
+            if (convictionTimes.size() >= limitFor(asgName))
+            {
+                LOGGER.warn("ASG {} has had {} instances convicted in the last {} minutes, leaving instance {} alone",
+                        asgName, convictionTimes.size(), TimeUnit.MILLISECONDS.toMinutes(windowMillis), instanceId);
+                metrics.suppressedByLimit();
+                continue;
+            }
+            convictionTimes.addLast(now);
+            convictionTimesByASG.put(asgName, convictionTimes);
+            recentlyConvicted.put(instanceId, Boolean.TRUE);
+            accepted.add(instance);
+        }
+        return accepted;
+    }
+
+    // Forgets the convictions which have left the window, and the ASGs left without any
+    private void expireConvictionTimes(long now)
+    {
+        Iterator<Deque<Long>> iterator = convictionTimesByASG.values().iterator();
+        while (iterator.hasNext())
+        {
+            Deque<Long> convictionTimes = iterator.next();
+            while (!convictionTimes.isEmpty() && convictionTimes.peekFirst() <= now - windowMillis)
+            {
+                convictionTimes.pollFirst();
+            }
+            if (convictionTimes.isEmpty())
+            {
+                iterator.remove();
+            }
+        }
+    }
+
+    /*
+     * Gives back the slot of a conviction which AWS did not get, so that neither
+     * the instance nor the rest of its ASG wait out the window for nothing.
+     */
+    private synchronized void release(AWSInstanceDetail instance, long convictedAt)
+    {
+        recentlyConvicted.invalidate(instance.getInstanceId());
+        Deque<Long> convictionTimes = convictionTimesByASG.get(instance.getAutoScalingGroup());
+        if (convictionTimes != null)
+        {
+            convictionTimes.removeFirstOccurrence(convictedAt);
+            if (convictionTimes.isEmpty())
+            {
+                convictionTimesByASG.remove(instance.getAutoScalingGroup());
+            }
+        }
+    }
+
+    /*
+     * At least one per window, so that small groups (or ones AWS could not be
+     * asked about) can still be healed.
+     */
+    private int limitFor(String asgName)
+    {
+        int instanceCount = awsManager.getASGInstanceCount(asgName);
+        if (instanceCount <= 0)
+        {
+            return 1;
+        }
+        return Math.max(1, (int) Math.floor(maxFraction * instanceCount));
+    }
+
+    @Override
+    public ConvictionMetrics getMetrics()
+    {
+        return metrics;
+    }
+
+    /**
+     * Waits for the queued convictions to be sent.
+     */
+    @PreDestroy
+    public void shutdown()
+    {
+        executor.shutdown();
+        try
+        {
+            executor.awaitTermination(30, TimeUnit.SECONDS);
+        }
+        catch (InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -19,7 +19,9 @@ import com.seyren.awsmanager.AWSManager;
 import com.seyren.awsmanager.entity.AWSInstanceDetail;
 import com.seyren.core.domain.*;
 import com.seyren.core.exception.NotificationFailedException;
+import com.seyren.core.service.conviction.InstanceConvictor;
 import com.seyren.core.util.config.SeyrenConfig;
+import com.seyren.core.util.graphite.TargetNameParser;
 import org.apache.commons.collections.CollectionUtils;
 import org.apache.commons.collections4.MapUtils;
 import org.apache.commons.lang.StringUtils;
@@ -30,8 +32,7 @@ import java.util.ArrayList;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
+import java.util.concurrent.TimeUnit;
 
 /**
  * Created by akharbanda on 20/08/17.
@@ -40,17 +41,18 @@ import java.util.regex.Pattern;
 public class AWSUnhealthyInstanceNotificationService implements NotificationService
 {
     private final SeyrenConfig seyrenConfig;
-    private static final String IPADDRESS_PATTERN =
-            "(?:(?:25[0-5]|2[0-4][0-9]|[01]?[0-9][0-9]?)\\-){3}(?:25[0-5]|2[0-4][0-9]|[01]?[0-9][0-9]?)";
-
-    private final Pattern pattern = Pattern.compile(IPADDRESS_PATTERN);
     private final AWSManager awsManager;
+    private final TargetNameParser targetNameParser;
+    private final InstanceConvictor instanceConvictor;
 
     @Inject
-    public AWSUnhealthyInstanceNotificationService(AWSManager awsManager, SeyrenConfig seyrenConfig)
+    public AWSUnhealthyInstanceNotificationService(AWSManager awsManager, SeyrenConfig seyrenConfig, TargetNameParser targetNameParser,
+            InstanceConvictor instanceConvictor)
     {
         this.awsManager = awsManager;
         this.seyrenConfig = seyrenConfig;
+        this.targetNameParser = targetNameParser;
+        this.instanceConvictor = instanceConvictor;
     }
 
     @Override
@@ -70,11 +72,12 @@ public class AWSUnhealthyInstanceNotificationService implements NotificationServ
             List<String> convictedIPs = getConvictedIPs(alerts);
             if (CollectionUtils.isNotEmpty(convictedIPs))
             {
+                awsManager.startASGMembershipIndex(TimeUnit.SECONDS.toMillis(seyrenConfig.getAwsAsgIndexRefreshSeconds()));
                 Map<String, AWSInstanceDetail> awsInstanceDetailMap = awsManager.getInstanceDetail(convictedIPs);
-                List<String> instanceIdList = filterOnAsg(awsInstanceDetailMap, asgName);
-                if (CollectionUtils.isNotEmpty(instanceIdList))
+                List<AWSInstanceDetail> instances = filterOnAsg(awsInstanceDetailMap, asgName);
+                if (CollectionUtils.isNotEmpty(instances))
                 {
-                    awsManager.convictInstance(instanceIdList);
+                    instanceConvictor.convict(instances);
                 }
 
             }
@@ -82,21 +85,21 @@ public class AWSUnhealthyInstanceNotificationService implements NotificationServ
 
     }
 
-    private List<String> filterOnAsg(Map<String, AWSInstanceDetail> awsInstanceDetailMap, String asgName)
+    private List<AWSInstanceDetail> filterOnAsg(Map<String, AWSInstanceDetail> awsInstanceDetailMap, String asgName)
     {
-        List<String> instanceIdList = new ArrayList<String>();
+        List<AWSInstanceDetail> instances = new ArrayList<AWSInstanceDetail>();
         if (MapUtils.isNotEmpty(awsInstanceDetailMap))
         {
             for (AWSInstanceDetail awsInstanceDetail : awsInstanceDetailMap.values())
             {
                 if (awsInstanceDetail != null && StringUtils.isNotEmpty(asgName) && awsInstanceDetail.getAutoScalingGroup().contains(asgName))
                 {
-                    instanceIdList.add(awsInstanceDetail.getInstanceId());
+                    instances.add(awsInstanceDetail);
                 }
 
             }
         }
-        return instanceIdList;
+        return instances;
     }
 
     private List<String> getConvictedIPs(List<Alert> alerts)
@@ -106,12 +109,9 @@ public class AWSUnhealthyInstanceNotificationService implements NotificationServ
         {
             if (alert != null)
             {
-                String target = alert.getTarget();
-                Matcher matcher = pattern.matcher(target);
-                if (matcher.find())
+                String ip = targetNameParser.getIp(alert.getTarget());
+                if (ip != null)
                 {
-                    String ip = matcher.group();
-                    ip = ip.replace("-", ".");
                     convictedIPList.add(ip);
                 }
             }
@@ -29,18 +29,17 @@ import com.seyren.core.domain.*;
 import org.apache.commons.lang.StringUtils;
 import org.apache.http.HttpEntity;
 import org.apache.http.HttpResponse;
-import org.apache.http.client.HttpClient;
 import org.apache.http.client.methods.HttpPost;
-import org.apache.http.client.utils.HttpClientUtils;
 import org.apache.http.entity.ContentType;
 import org.apache.http.entity.StringEntity;
-import org.apache.http.impl.client.HttpClientBuilder;
 import org.apache.http.util.EntityUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import com.seyren.core.exception.NotificationFailedException;
+import com.seyren.core.exception.NotificationRateLimitedException;
 import com.seyren.core.util.config.SeyrenConfig;
+import com.seyren.core.util.http.NotificationHttpClient;
 
 @Named
 public class BigPandaNotificationService implements NotificationService {
@@ -49,10 +48,12 @@ public class BigPandaNotificationService implements NotificationService {
     private static final ObjectMapper MAPPER = new ObjectMapper();
 
     private final SeyrenConfig seyrenConfig;
+    private final NotificationHttpClient httpClient;
 
     @Inject
-    public BigPandaNotificationService(SeyrenConfig seyrenConfig) {
+    public BigPandaNotificationService(SeyrenConfig seyrenConfig, NotificationHttpClient httpClient) {
         this.seyrenConfig = seyrenConfig;
+        this.httpClient = httpClient;
     }
 
     @Override
@@ -106,7 +107,6 @@ public class BigPandaNotificationService implements NotificationService {
             }
             body.put("previewGraph", getPreviewImageUrl(check));
 
-            HttpClient client = HttpClientBuilder.create().useSystemProperties().build();
             HttpPost post;
 
             if(StringUtils.isNotBlank(seyrenConfig.getBigPandaNotificationUrl())) {
@@ -133,16 +133,17 @@ public class BigPandaNotificationService implements NotificationService {
                     check.getName(),
                     alert.getTarget(),
                     bigPandaStatus);
-                HttpResponse response = client.execute(post);
+                HttpResponse response = httpClient.execute(post);
                 HttpEntity responseEntity = response.getEntity();
                 if(responseEntity!=null) {
                     LOGGER.info("Response : {} ", EntityUtils.toString(responseEntity));
                 }
+            } catch (NotificationRateLimitedException e) {
+                throw e;
             } catch (Exception e) {
                 throw new NotificationFailedException("Failed to send notification to HTTP", e);
             } finally {
                 post.releaseConnection();
-                HttpClientUtils.closeQuietly(client);
             }
         }
     }
@@ -0,0 +1,36 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.seyren.core.service.notification;
+
+import java.util.List;
+import java.util.Map;
+
+import com.seyren.core.domain.Alert;
+import com.seyren.core.domain.Check;
+import com.seyren.core.domain.Subscription;
+import com.seyren.core.exception.NotificationFailedException;
+
+/**
+ * A notification service which can tell a target about several checks in a
+ * single notification, used when notifications are coalesced.
+ */
+public interface DigestNotificationService extends NotificationService {
+
+    /**
+     * @param subscription one of the subscriptions of the target
+     * @param alertsByCheck the alerts of each check, in the order they were raised
+     */
+    void sendDigest(Subscription subscription, Map<Check, List<Alert>> alertsByCheck) throws NotificationFailedException;
+
+}
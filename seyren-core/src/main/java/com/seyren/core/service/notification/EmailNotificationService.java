@@ -14,16 +14,10 @@
 package com.seyren.core.service.notification;
 
 import java.util.List;
+import java.util.Map;
 
 import javax.inject.Inject;
 import javax.inject.Named;
-import javax.mail.MessagingException;
-import javax.mail.internet.AddressException;
-import javax.mail.internet.InternetAddress;
-import javax.mail.internet.MimeMessage;
-import javax.mail.internet.MimeMessage.RecipientType;
-
-import org.springframework.mail.javamail.JavaMailSender;
 
 import com.seyren.core.domain.Alert;
 import com.seyren.core.domain.Check;
@@ -33,32 +27,42 @@ import com.seyren.core.exception.NotificationFailedException;
 import com.seyren.core.util.config.SeyrenConfig;
 import com.seyren.core.util.email.Email;
 import com.seyren.core.util.email.EmailHelper;
+import com.seyren.core.util.email.SmtpMailer;
 
 @Named
-public class EmailNotificationService implements NotificationService {
+public class EmailNotificationService implements DigestNotificationService {
     
-    private final JavaMailSender mailSender;
+    private final SmtpMailer mailer;
     private final SeyrenConfig seyrenConfig;
     private final EmailHelper emailHelper;
     
     @Inject
-    public EmailNotificationService(JavaMailSender mailSender, SeyrenConfig seyrenConfig, EmailHelper emailHelper) {
-        this.mailSender = mailSender;
+    public EmailNotificationService(SmtpMailer mailer, SeyrenConfig seyrenConfig, EmailHelper emailHelper) {
+        this.mailer = mailer;
         this.seyrenConfig = seyrenConfig;
         this.emailHelper = emailHelper;
     }
     
     @Override
     public void sendNotification(Check check, Subscription subscription, List<Alert> alerts) {
+        send(subscription, emailHelper.createSubject(check, subscription, alerts), emailHelper.createBody(check, subscription, alerts));
+    }
+    
+    @Override
+    public void sendDigest(Subscription subscription, Map<Check, List<Alert>> alertsByCheck) {
+        send(subscription, emailHelper.createDigestSubject(subscription, alertsByCheck), emailHelper.createDigestBody(subscription, alertsByCheck));
+    }
+    
+    private void send(Subscription subscription, String subject, String body) {
         
         try {
             Email email = new Email()
                     .withTo(subscription.getTarget())
                     .withFrom(seyrenConfig.getSmtpFrom())
-                    .withSubject(emailHelper.createSubject(check, subscription, alerts))
-                    .withMessage(emailHelper.createBody(check, subscription, alerts));
+                    .withSubject(subject)
+                    .withMessage(body);
             
-            mailSender.send(createMimeMessage(email));
+            mailer.send(email);
             
         } catch (Exception e) {
             throw new NotificationFailedException("Failed to send notification to " + subscription.getTarget() + " from " + seyrenConfig.getSmtpFrom(), e);
@@ -66,20 +70,6 @@ public class EmailNotificationService implements NotificationService {
         
     }
     
-    private MimeMessage createMimeMessage(Email email) throws AddressException, MessagingException {
-        
-        MimeMessage mail = mailSender.createMimeMessage();
-        InternetAddress senderAddress = new InternetAddress(email.getFrom());
-        mail.addRecipient(RecipientType.TO, new InternetAddress(email.getTo()));
-        mail.setSender(senderAddress);
-        mail.setFrom(senderAddress);
-        mail.setText(email.getMessage());
-        mail.setSubject(email.getSubject());
-        mail.addHeader("Content-Type", "text/html; charset=UTF-8");
-        
-        return mail;
-    }
-    
     @Override
     public boolean canHandle(SubscriptionType subscriptionType) {
         return subscriptionType == SubscriptionType.EMAIL;
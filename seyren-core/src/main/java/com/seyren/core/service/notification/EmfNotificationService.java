@@ -7,13 +7,10 @@ import javax.inject.Inject;
 import javax.inject.Named;
 import org.apache.commons.lang.StringUtils;
 import org.apache.http.HttpResponse;
-import org.apache.http.client.HttpClient;
 import org.apache.http.client.methods.HttpPost;
-import org.apache.http.client.utils.HttpClientUtils;
 import org.apache.http.client.utils.URIBuilder;
 import org.apache.http.entity.StringEntity;
 import org.apache.http.impl.client.BasicResponseHandler;
-import org.apache.http.impl.client.HttpClients;
 import org.json.JSONObject;
 import org.slf4j.LoggerFactory;
 import com.seyren.core.domain.Alert;
@@ -22,7 +19,9 @@ import com.seyren.core.domain.Check;
 import com.seyren.core.domain.Subscription;
 import com.seyren.core.domain.SubscriptionType;
 import com.seyren.core.exception.NotificationFailedException;
+import com.seyren.core.exception.NotificationRateLimitedException;
 import com.seyren.core.util.config.SeyrenConfig;
+import com.seyren.core.util.http.NotificationHttpClient;
 import com.google.common.base.Joiner;
 import com.google.common.base.Function;
 
@@ -33,10 +32,12 @@ public class EmfNotificationService implements NotificationService {
 
 	private static final org.slf4j.Logger LOGGER = LoggerFactory.getLogger(EmfNotificationService.class);
 	private final SeyrenConfig seyrenConfig;
+	private final NotificationHttpClient httpClient;
 
 	@Inject
-	public EmfNotificationService(SeyrenConfig seyrenConfig) {
+	public EmfNotificationService(SeyrenConfig seyrenConfig, NotificationHttpClient httpClient) {
 		this.seyrenConfig = seyrenConfig;
+		this.httpClient = httpClient;
 	}
 
 	@Override
@@ -48,7 +49,6 @@ public class EmfNotificationService implements NotificationService {
 	public void sendNotification(Check check, Subscription subscription, List<Alert> alerts)
 			throws NotificationFailedException {
 
-		HttpClient client = HttpClients.createDefault();
 		HttpPost post = new HttpPost();
 		String emfUrl = seyrenConfig.getEmfUrl();
 		JSONObject parameters = getParameters(check, alerts);
@@ -64,19 +64,20 @@ public class EmfNotificationService implements NotificationService {
 			if (LOGGER.isDebugEnabled()) {
 				LOGGER.info("> parameters: {}", parameters);
 			}
-			HttpResponse response = client.execute(post);
+			HttpResponse response = httpClient.execute(post);
 			LOGGER.trace("> emfResponse: {}", response.getStatusLine());
 			if (LOGGER.isDebugEnabled()) {
 				LOGGER.info("> parameters: {}", parameters);
 				LOGGER.debug("Status: {}, Body: {}", response.getStatusLine(),
 						new BasicResponseHandler().handleResponse(response));
 			}
+		} catch (NotificationRateLimitedException e) {
+			throw e;
 		} catch (Exception e) {
 			LOGGER.warn("> parameters: {}", parameters);
 			LOGGER.warn("Error posting to EMF", e);
 		} finally {
 			post.releaseConnection();
-			HttpClientUtils.closeQuietly(client);
 		}
 	}
 
@@ -24,11 +24,8 @@ import javax.inject.Inject;
 import javax.inject.Named;
 
 import org.apache.commons.lang.StringEscapeUtils;
-import org.apache.http.client.HttpClient;
 import org.apache.http.client.methods.HttpPost;
-import org.apache.http.client.utils.HttpClientUtils;
 import org.apache.http.entity.StringEntity;
-import org.apache.http.impl.client.HttpClientBuilder;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -44,7 +41,9 @@ import com.seyren.core.domain.Check;
 import com.seyren.core.domain.Subscription;
 import com.seyren.core.domain.SubscriptionType;
 import com.seyren.core.exception.NotificationFailedException;
+import com.seyren.core.exception.NotificationRateLimitedException;
 import com.seyren.core.util.config.SeyrenConfig;
+import com.seyren.core.util.http.NotificationHttpClient;
 
 @Named
 public class FlowdockNotificationService implements NotificationService {
@@ -52,16 +51,17 @@ public class FlowdockNotificationService implements NotificationService {
     
     private final SeyrenConfig seyrenConfig;
     private final String baseUrl;
+    private final NotificationHttpClient httpClient;
     
     @Inject
-    public FlowdockNotificationService(SeyrenConfig seyrenConfig) {
-        this.seyrenConfig = seyrenConfig;
-        this.baseUrl = "https://api.flowdock.com";
+    public FlowdockNotificationService(SeyrenConfig seyrenConfig, NotificationHttpClient httpClient) {
+        this(seyrenConfig, "https://api.flowdock.com", httpClient);
     }
     
-    protected FlowdockNotificationService(SeyrenConfig seyrenConfig, String baseUrl) {
+    protected FlowdockNotificationService(SeyrenConfig seyrenConfig, String baseUrl, NotificationHttpClient httpClient) {
         this.seyrenConfig = seyrenConfig;
         this.baseUrl = baseUrl;
+        this.httpClient = httpClient;
     }
     
     @Override
@@ -77,7 +77,6 @@ public class FlowdockNotificationService implements NotificationService {
                 );
         
         String url = String.format("%s/v1/messages/chat/%s", baseUrl, token);
-        HttpClient client = HttpClientBuilder.create().useSystemProperties().build();
         HttpPost post = new HttpPost(url);
         post.addHeader("Content-Type", "application/json");
         post.addHeader("accept", "application/json");
@@ -91,12 +90,13 @@ public class FlowdockNotificationService implements NotificationService {
         try {
             String data = StringEscapeUtils.unescapeJava(mapper.writeValueAsString(dataToSend));
             post.setEntity(new StringEntity(data, APPLICATION_JSON));
-            client.execute(post);
+            httpClient.execute(post);
+        } catch (NotificationRateLimitedException e) {
+            throw e;
         } catch (Exception e) {
             LOGGER.warn("Error posting to Flowdock", e);
         } finally {
             post.releaseConnection();
-            HttpClientUtils.closeQuietly(client);
         }
         
     }
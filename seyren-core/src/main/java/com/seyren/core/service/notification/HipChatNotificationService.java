@@ -22,11 +22,8 @@ import javax.inject.Named;
 import java.net.URLEncoder;
 import java.io.UnsupportedEncodingException;
 
-import org.apache.http.client.HttpClient;
 import org.apache.http.client.entity.UrlEncodedFormEntity;
 import org.apache.http.client.methods.HttpPost;
-import org.apache.http.client.utils.HttpClientUtils;
-import org.apache.http.impl.client.HttpClientBuilder;
 import org.apache.http.message.BasicNameValuePair;
 import org.slf4j.LoggerFactory;
 
@@ -36,7 +33,9 @@ import com.seyren.core.domain.Check;
 import com.seyren.core.domain.Subscription;
 import com.seyren.core.domain.SubscriptionType;
 import com.seyren.core.exception.NotificationFailedException;
+import com.seyren.core.exception.NotificationRateLimitedException;
 import com.seyren.core.util.config.SeyrenConfig;
+import com.seyren.core.util.http.NotificationHttpClient;
 
 @Named
 public class HipChatNotificationService implements NotificationService {
@@ -45,16 +44,17 @@ public class HipChatNotificationService implements NotificationService {
 
     private final SeyrenConfig seyrenConfig;
     private final String baseUrl;
+    private final NotificationHttpClient httpClient;
 
     @Inject
-    public HipChatNotificationService(SeyrenConfig seyrenConfig) {
-        this.seyrenConfig = seyrenConfig;
-        this.baseUrl = seyrenConfig.getHipChatBaseUrl();
+    public HipChatNotificationService(SeyrenConfig seyrenConfig, NotificationHttpClient httpClient) {
+        this(seyrenConfig, seyrenConfig.getHipChatBaseUrl(), httpClient);
     }
 
-    protected HipChatNotificationService(SeyrenConfig seyrenConfig, String baseUrl) {
+    protected HipChatNotificationService(SeyrenConfig seyrenConfig, String baseUrl, NotificationHttpClient httpClient) {
         this.seyrenConfig = seyrenConfig;
         this.baseUrl = baseUrl;
+        this.httpClient = httpClient;
     }
 
     @Override
@@ -75,6 +75,8 @@ public class HipChatNotificationService implements NotificationService {
             } else {
                 LOGGER.warn("Did not send notification to HipChat for check in state: {}", check.getState());
             }
+        } catch (NotificationRateLimitedException e) {
+            throw e;
         } catch (Exception e) {
             throw new NotificationFailedException("Failed to send notification to HipChat", e);
         }
@@ -88,7 +90,6 @@ public class HipChatNotificationService implements NotificationService {
     private void sendMessage(String message, MessageColor color, String[] roomIds, String from, String authToken, boolean notify) {
         for (String roomId : roomIds) {
             LOGGER.info("Posting: {} to {}: Message='{}' {}", from, roomId, message, color);
-            HttpClient client = HttpClientBuilder.create().useSystemProperties().build();
             HttpPost post = new HttpPost();
 
             try {
@@ -102,12 +103,13 @@ public class HipChatNotificationService implements NotificationService {
                     parameters.add(new BasicNameValuePair("notify", "true"));
                 }
                 post.setEntity(new UrlEncodedFormEntity(parameters));
-                client.execute(post);
+                httpClient.execute(post);
+            } catch (NotificationRateLimitedException e) {
+                throw e;
             } catch (Exception e) {
                 LOGGER.warn("Message=Error posting to HipChat", e);
             } finally {
                 post.releaseConnection();
-                HttpClientUtils.closeQuietly(client);
             }
         }
     }
@@ -30,18 +30,17 @@ import com.seyren.core.domain.*;
 import org.apache.commons.lang.StringUtils;
 import org.apache.http.HttpEntity;
 import org.apache.http.HttpResponse;
-import org.apache.http.client.HttpClient;
 import org.apache.http.client.methods.HttpPost;
-import org.apache.http.client.utils.HttpClientUtils;
 import org.apache.http.entity.ContentType;
 import org.apache.http.entity.StringEntity;
-import org.apache.http.impl.client.HttpClientBuilder;
 import org.apache.http.util.EntityUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import com.seyren.core.exception.NotificationFailedException;
+import com.seyren.core.exception.NotificationRateLimitedException;
 import com.seyren.core.util.config.SeyrenConfig;
+import com.seyren.core.util.http.NotificationHttpClient;
 
 @Named
 public class HttpNotificationService implements NotificationService {
@@ -50,10 +49,12 @@ public class HttpNotificationService implements NotificationService {
     private static final ObjectMapper MAPPER = new ObjectMapper();
     
     private final SeyrenConfig seyrenConfig;    
+    private final NotificationHttpClient httpClient;
     
     @Inject
-    public HttpNotificationService(SeyrenConfig seyrenConfig) {
+    public HttpNotificationService(SeyrenConfig seyrenConfig, NotificationHttpClient httpClient) {
         this.seyrenConfig = seyrenConfig;
+        this.httpClient = httpClient;
     }
     
     @Override
@@ -72,7 +73,6 @@ public class HttpNotificationService implements NotificationService {
         body.put("alerts", alerts);        
         body.put("preview", getPreviewImage(check)); 
         
-        HttpClient client = HttpClientBuilder.create().useSystemProperties().build();
         HttpPost post;
 
         if(StringUtils.isNotBlank(seyrenConfig.getHttpNotificationUrl())) {
@@ -84,16 +84,17 @@ public class HttpNotificationService implements NotificationService {
         try {
             HttpEntity entity = new StringEntity(MAPPER.writeValueAsString(body), ContentType.APPLICATION_JSON);
             post.setEntity(entity);
-            HttpResponse response = client.execute(post);
+            HttpResponse response = httpClient.execute(post);
             HttpEntity responseEntity = response.getEntity();
             if(responseEntity!=null) {
                 LOGGER.info("Response : {} ", EntityUtils.toString(responseEntity));
             }
+        } catch (NotificationRateLimitedException e) {
+            throw e;
         } catch (Exception e) {
             throw new NotificationFailedException("Failed to send notification to HTTP", e);
         } finally {
             post.releaseConnection();
-            HttpClientUtils.closeQuietly(client);
         }
     }
     
@@ -23,12 +23,9 @@ import javax.inject.Named;
 
 import org.apache.commons.lang.StringUtils;
 import org.apache.http.HttpEntity;
-import org.apache.http.client.HttpClient;
 import org.apache.http.client.methods.HttpPost;
-import org.apache.http.client.utils.HttpClientUtils;
 import org.apache.http.entity.ContentType;
 import org.apache.http.entity.StringEntity;
-import org.apache.http.impl.client.HttpClientBuilder;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -39,6 +36,7 @@ import com.seyren.core.domain.Subscription;
 import com.seyren.core.domain.SubscriptionType;
 import com.seyren.core.exception.NotificationFailedException;
 import com.seyren.core.util.config.SeyrenConfig;
+import com.seyren.core.util.http.NotificationHttpClient;
 
 @Named
 public class HubotNotificationService implements NotificationService {
@@ -47,10 +45,12 @@ public class HubotNotificationService implements NotificationService {
     private static final ObjectMapper MAPPER = new ObjectMapper();
     
     private final SeyrenConfig seyrenConfig;
+    private final NotificationHttpClient httpClient;
     
     @Inject
-    public HubotNotificationService(SeyrenConfig seyrenConfig) {
+    public HubotNotificationService(SeyrenConfig seyrenConfig, NotificationHttpClient httpClient) {
         this.seyrenConfig = seyrenConfig;
+        this.httpClient = httpClient;
     }
     
     @Override
@@ -69,17 +69,15 @@ public class HubotNotificationService implements NotificationService {
         body.put("alerts", alerts);
         body.put("rooms", subscription.getTarget().split(","));
         
-        HttpClient client = HttpClientBuilder.create().useSystemProperties().build();
-        
         HttpPost post = new HttpPost(hubotUrl + "/seyren/alert");
         try {
             HttpEntity entity = new StringEntity(MAPPER.writeValueAsString(body), ContentType.APPLICATION_JSON);
             post.setEntity(entity);
-            client.execute(post);
+            httpClient.execute(post);
         } catch (IOException e) {
             throw new NotificationFailedException("Sending notification to Hubot at " + hubotUrl + " failed.", e);
         } finally {
-            HttpClientUtils.closeQuietly(client);
+            post.releaseConnection();
         }
     }
     
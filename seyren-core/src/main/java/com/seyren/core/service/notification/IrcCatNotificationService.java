@@ -16,11 +16,7 @@ package com.seyren.core.service.notification;
 import static java.lang.String.*;
 
 import java.io.IOException;
-import java.io.OutputStreamWriter;
-import java.io.Writer;
-import java.net.Socket;
-import java.nio.charset.Charset;
-import java.util.Arrays;
+import java.util.ArrayList;
 import java.util.List;
 
 import javax.inject.Inject;
@@ -28,7 +24,6 @@ import javax.inject.Named;
 
 import org.slf4j.LoggerFactory;
 
-import com.google.common.io.Closer;
 import com.seyren.core.domain.Alert;
 import com.seyren.core.domain.AlertType;
 import com.seyren.core.domain.Check;
@@ -36,6 +31,7 @@ import com.seyren.core.domain.Subscription;
 import com.seyren.core.domain.SubscriptionType;
 import com.seyren.core.exception.NotificationFailedException;
 import com.seyren.core.util.config.SeyrenConfig;
+import com.seyren.core.util.irccat.IrcCatClient;
 
 @Named
 public class IrcCatNotificationService implements NotificationService {
@@ -43,20 +39,27 @@ public class IrcCatNotificationService implements NotificationService {
     private static final org.slf4j.Logger LOGGER = LoggerFactory.getLogger(IrcCatNotificationService.class);
 
     private final SeyrenConfig seyrenConfig;
+    private final IrcCatClient ircCatClient;
 
-    @Inject
     public IrcCatNotificationService(SeyrenConfig seyrenConfig) {
+        this(seyrenConfig, new IrcCatClient(seyrenConfig));
+    }
+
+    @Inject
+    public IrcCatNotificationService(SeyrenConfig seyrenConfig, IrcCatClient ircCatClient) {
         this.seyrenConfig = seyrenConfig;
+        this.ircCatClient = ircCatClient;
     }
 
     @Override
     public void sendNotification(Check check, Subscription subscription, List<Alert> alerts) throws NotificationFailedException {
-        List<String> channels = Arrays.asList(subscription.getTarget().split(","));
+        String message = createMessage(check);
+        List<String> lines = new ArrayList<String>();
+        for (String channel : subscription.getTarget().split(",")) {
+            lines.add(format("%s %s", channel, message));
+        }
         try {
-            for (String channel : channels) {
-                String message = createMessage(check);
-                sendMessage(seyrenConfig.getIrcCatHost(), seyrenConfig.getIrcCatPort(), message, channel);
-            }
+            ircCatClient.send(lines);
         } catch (IOException ioe) {
             throw new NotificationFailedException("Could not send message", ioe);
         }
@@ -79,21 +82,6 @@ public class IrcCatNotificationService implements NotificationService {
         return "";
     }
 
-    private void sendMessage(String ircCatHost, int ircCatPort, String message, String channel) throws IOException {
-        Socket socket = new Socket(ircCatHost, ircCatPort);
-        Closer closer = Closer.create();
-        try {
-            Writer out = closer.register(new OutputStreamWriter(socket.getOutputStream(), Charset.forName("UTF-8")));
-            out.write(format("%s %s\n", channel, message));
-            out.flush();
-        } catch (IOException e) {
-            socket.close();
-            throw closer.rethrow(e);
-        } finally {
-            closer.close();
-        }
-    }
-
     @Override
     public boolean canHandle(SubscriptionType subscriptionType) {
         return subscriptionType == SubscriptionType.IRCCAT;
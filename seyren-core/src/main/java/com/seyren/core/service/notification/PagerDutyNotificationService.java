@@ -25,7 +25,9 @@ import com.seyren.core.domain.Check;
 import com.seyren.core.domain.Subscription;
 import com.seyren.core.domain.SubscriptionType;
 import com.seyren.core.exception.NotificationFailedException;
+import com.seyren.core.exception.NotificationRateLimitedException;
 import com.seyren.core.util.config.SeyrenConfig;
+import com.seyren.core.util.http.NotificationHttpClient;
 import com.squareup.pagerduty.incidents.NotifyResult;
 import com.squareup.pagerduty.incidents.PagerDuty;
 import com.squareup.pagerduty.incidents.Resolution;
@@ -34,6 +36,9 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import retrofit.Endpoints;
 import retrofit.RestAdapter;
+import retrofit.RetrofitError;
+import retrofit.client.Header;
+import retrofit.client.Response;
 
 import javax.inject.Inject;
 import javax.inject.Named;
@@ -43,6 +48,8 @@ import java.util.Map;
 @Named
 public class PagerDutyNotificationService implements NotificationService {
     private static final Logger LOGGER = LoggerFactory.getLogger(PagerDutyNotificationService.class);
+    private static final int TOO_MANY_REQUESTS = 429;
+    private static final int SERVICE_UNAVAILABLE = 503;
 
     private final SeyrenConfig seyrenConfig;
     private final String baseUrl;
@@ -83,6 +90,8 @@ public class PagerDutyNotificationService implements NotificationService {
             } else {
                 LOGGER.warn("Did not send notification to PagerDuty for check in state: {}", check.getState());
             }
+        } catch (RetrofitError e) {
+            throw rateLimitedOrFailed(e);
         } catch (Exception e) {
             throw new NotificationFailedException("Failed to send notification to PagerDuty", e);
         }
@@ -92,6 +101,28 @@ public class PagerDutyNotificationService implements NotificationService {
         }
     }
 
+    /**
+     * PagerDuty is called through Retrofit rather than the shared HTTP client,
+     * so a response asking to slow down is mapped here the same way.
+     */
+    private static NotificationFailedException rateLimitedOrFailed(RetrofitError e) {
+        Response response = e.getResponse();
+        if (response != null) {
+            String retryAfter = null;
+            for (Header header : response.getHeaders()) {
+                if ("Retry-After".equalsIgnoreCase(header.getName())) {
+                    retryAfter = header.getValue();
+                }
+            }
+            if (response.getStatus() == TOO_MANY_REQUESTS || (response.getStatus() == SERVICE_UNAVAILABLE && retryAfter != null)) {
+                long retryAfterMillis = retryAfter == null ? 0 : NotificationHttpClient.retryAfterMillis(retryAfter);
+                return new NotificationRateLimitedException("PagerDuty asked to retry after " + retryAfterMillis + "ms ("
+                        + response.getStatus() + " " + response.getReason() + ")", retryAfterMillis);
+            }
+        }
+        return new NotificationFailedException("Failed to send notification to PagerDuty", e);
+    }
+
     private Map<String, String> details(Check check, List<Alert> alerts) throws JsonProcessingException {
         ObjectMapper mapper = new ObjectMapper();
         mapper.configure(SerializationFeature.WRITE_DATES_AS_TIMESTAMPS, false);
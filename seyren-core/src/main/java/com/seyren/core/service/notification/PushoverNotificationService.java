@@ -24,11 +24,8 @@ import javax.inject.Named;
 
 import org.apache.commons.lang.StringUtils;
 import org.apache.http.NameValuePair;
-import org.apache.http.client.HttpClient;
 import org.apache.http.client.entity.UrlEncodedFormEntity;
 import org.apache.http.client.methods.HttpPost;
-import org.apache.http.client.utils.HttpClientUtils;
-import org.apache.http.impl.client.HttpClientBuilder;
 import org.apache.http.message.BasicNameValuePair;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -40,16 +37,19 @@ import com.seyren.core.domain.Subscription;
 import com.seyren.core.domain.SubscriptionType;
 import com.seyren.core.exception.NotificationFailedException;
 import com.seyren.core.util.config.SeyrenConfig;
+import com.seyren.core.util.http.NotificationHttpClient;
 
 @Named
 public class PushoverNotificationService implements NotificationService {
 
     private static final Logger LOGGER = LoggerFactory.getLogger(PushoverNotificationService.class);
     private final SeyrenConfig seyrenConfig;
+    private final NotificationHttpClient httpClient;
 
     @Inject
-    public PushoverNotificationService(SeyrenConfig seyrenConfig) {
+    public PushoverNotificationService(SeyrenConfig seyrenConfig, NotificationHttpClient httpClient) {
         this.seyrenConfig = seyrenConfig;
+        this.httpClient = httpClient;
     }
 
     @Override
@@ -71,7 +71,6 @@ public class PushoverNotificationService implements NotificationService {
         }
 
 
-        HttpClient client = HttpClientBuilder.create().useSystemProperties().build();
         HttpPost post = new HttpPost("https://api.pushover.net/1/messages.json");
 
         try {
@@ -83,11 +82,11 @@ public class PushoverNotificationService implements NotificationService {
             nameValuePairs.add(new BasicNameValuePair("priority", pushoverMsgPriority));
 
             post.setEntity(new UrlEncodedFormEntity(nameValuePairs));
-            client.execute(post);
+            httpClient.execute(post);
         } catch (IOException e) {
             throw new NotificationFailedException("Sending notification to Pushover failed.", e);
         } finally {
-            HttpClientUtils.closeQuietly(client);
+            post.releaseConnection();
         }
     }
 
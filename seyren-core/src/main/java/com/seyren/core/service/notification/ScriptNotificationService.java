@@ -15,13 +15,17 @@ package com.seyren.core.service.notification;
 
 
 import com.google.gson.Gson;
+import com.google.gson.JsonObject;
 import com.seyren.core.domain.Alert;
 import com.seyren.core.domain.AlertType;
 import com.seyren.core.domain.Check;
 import com.seyren.core.domain.Subscription;
 import com.seyren.core.domain.SubscriptionType;
 import com.seyren.core.exception.NotificationFailedException;
+import com.seyren.core.exception.NotificationPartlyFailedException;
 import com.seyren.core.util.config.SeyrenConfig;
+import com.seyren.core.util.graphite.TargetNameParser;
+import com.seyren.core.util.script.ScriptWorkerPool;
 import org.apache.commons.lang.SystemUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -31,16 +35,26 @@ import javax.inject.Named;
 import java.io.BufferedReader;
 import java.io.IOException;
 import java.io.InputStreamReader;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 
 @Named
 public class ScriptNotificationService implements NotificationService {
     private static final Logger LOGGER = LoggerFactory.getLogger(ScriptNotificationService.class);
     private final SeyrenConfig seyrenConfig;
+    private final TargetNameParser targetNameParser;
+    private final ScriptWorkerPool workerPool;
+
+    public ScriptNotificationService(SeyrenConfig seyrenConfig, TargetNameParser targetNameParser) {
+        this(seyrenConfig, targetNameParser, new ScriptWorkerPool(Collections.<String>emptyList(), 0, 0));
+    }
 
     @Inject
-    public ScriptNotificationService(SeyrenConfig seyrenConfig) {
+    public ScriptNotificationService(SeyrenConfig seyrenConfig, TargetNameParser targetNameParser, ScriptWorkerPool workerPool) {
         this.seyrenConfig = seyrenConfig;
+        this.targetNameParser = targetNameParser;
+        this.workerPool = workerPool;
     }
     @Override
     public void sendNotification(Check check, Subscription subscription, List<Alert> alerts) throws NotificationFailedException {
@@ -54,7 +68,12 @@ public class ScriptNotificationService implements NotificationService {
 			}
 
 	        LOGGER.info("Check#{}, Script Location: {}", check.getId(), seyrenConfig.getScriptPath());
-	    	for(Alert alert: alerts) {
+	        if (workerPool.isEnabled()) {
+	            sendToWorker(check, subscription, alerts, hostPosition);
+	            return;
+	        }
+	    	for (int i = 0; i < alerts.size(); i++) {
+	    		Alert alert = alerts.get(i);
 	    		try {
 	    			String hostname = getHostName(alert, hostPosition);
 	    			String resourceUrl = subscription.getTarget();
@@ -71,17 +90,55 @@ public class ScriptNotificationService implements NotificationService {
 	    		}
 	    		catch (Exception e) {
 	                LOGGER.error("Check#{}, Script could not be sent: {}", check.getId(), e);
-	                throw new NotificationFailedException("Could not send message through the script");
+	                throw new NotificationPartlyFailedException("Could not send message through the script", alerts.subList(i, alerts.size()), e);
 	    		}
 	    	}
 	    }
     }
 
+    private void sendToWorker(Check check, Subscription subscription, List<Alert> alerts, String hostPosition) {
+        Gson gson = new Gson();
+        List<JsonObject> requests = new ArrayList<JsonObject>();
+        for (Alert alert : alerts) {
+            JsonObject request = new JsonObject();
+            request.addProperty("hostname", getHostName(alert, hostPosition));
+            request.add("check", gson.toJsonTree(check));
+            request.addProperty("seyrenUrl", seyrenConfig.getBaseUrl());
+            request.addProperty("resourceUrl", subscription.getTarget());
+            requests.add(request);
+        }
+
+        List<JsonObject> responses;
+        try {
+            responses = workerPool.call(requests);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new NotificationFailedException("Interrupted while sending message through the script", e);
+        } catch (Exception e) {
+            LOGGER.error("Check#{}, Script could not be sent", check.getId(), e);
+            throw new NotificationFailedException("Could not send message through the script", e);
+        }
+
+        List<String> errors = new ArrayList<String>();
+        List<Alert> failed = new ArrayList<Alert>();
+        for (int i = 0; i < responses.size(); i++) {
+            JsonObject response = responses.get(i);
+            if (!response.has("ok") || !response.get("ok").getAsBoolean()) {
+                errors.add(response.has("error") ? response.get("error").getAsString() : "unknown error");
+                failed.add(alerts.get(i));
+            }
+        }
+        if (!errors.isEmpty()) {
+            LOGGER.error("Check#{}, Script failed for {} of {} alerts: {}", check.getId(), errors.size(), responses.size(), errors);
+            // The dispatcher tries again with only the alerts which failed
+            throw new NotificationPartlyFailedException("Script failed: " + errors.get(0), failed);
+        }
+    }
+
     private String getHostName(Alert alert,String hostPosition) {
         int pos = Integer.parseInt(hostPosition);
         //LOGGER.info("******* hostPostion found : "+pos);
-        String[] target = alert.getTarget().split("\\.");
-        String hostname = target[pos-1];
+        String hostname = targetNameParser.parse(alert.getTarget()).getSegment(pos);
         //LOGGER.info("******* Retuning Hostname " +hostname);
         return hostname;
     }
@@ -18,18 +18,16 @@ import static com.google.common.collect.Iterables.*;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Locale;
+import java.util.Map;
 
 import javax.inject.Inject;
 import javax.inject.Named;
 
 import org.apache.commons.lang.StringUtils;
 import org.apache.http.HttpResponse;
-import org.apache.http.client.HttpClient;
 import org.apache.http.client.entity.UrlEncodedFormEntity;
 import org.apache.http.client.methods.HttpPost;
-import org.apache.http.client.utils.HttpClientUtils;
 import org.apache.http.impl.client.BasicResponseHandler;
-import org.apache.http.impl.client.HttpClientBuilder;
 import org.apache.http.message.BasicNameValuePair;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -44,52 +42,59 @@ import com.seyren.core.domain.Check;
 import com.seyren.core.domain.Subscription;
 import com.seyren.core.domain.SubscriptionType;
 import com.seyren.core.exception.NotificationFailedException;
+import com.seyren.core.exception.NotificationRateLimitedException;
 import com.seyren.core.util.config.SeyrenConfig;
+import com.seyren.core.util.http.NotificationHttpClient;
 
 @Named
-public class SlackNotificationService implements NotificationService {
+public class SlackNotificationService implements DigestNotificationService {
     private static final Logger LOGGER = LoggerFactory.getLogger(SlackNotificationService.class);
 
     private final SeyrenConfig seyrenConfig;
     private final String baseUrl;
-
-    //FIXME Hack to fix SSL issue (javax.net.ssl.SSLException: Received fatal alert: protocol_version) while posting slack notifications.
-    // Better way would be to configure http client itself to use this protocol.
-    static {
-        System.setProperty("https.protocols", "TLSv1.2");
-    }
+    private final NotificationHttpClient httpClient;
 
     @Inject
-    public SlackNotificationService(SeyrenConfig seyrenConfig) {
-        this.seyrenConfig = seyrenConfig;
-        this.baseUrl = "https://slack.com";
+    public SlackNotificationService(SeyrenConfig seyrenConfig, NotificationHttpClient httpClient) {
+        this(seyrenConfig, "https://slack.com", httpClient);
     }
 
-    protected SlackNotificationService(SeyrenConfig seyrenConfig, String baseUrl) {
+    protected SlackNotificationService(SeyrenConfig seyrenConfig, String baseUrl, NotificationHttpClient httpClient) {
         this.seyrenConfig = seyrenConfig;
         this.baseUrl = baseUrl;
+        this.httpClient = httpClient;
     }
 
     @Override
     public void sendNotification(Check check, Subscription subscription, List<Alert> alerts) throws NotificationFailedException {
+        post(subscription, formatContent(emojis(), check, subscription, alerts));
+    }
+
+    @Override
+    public void sendDigest(Subscription subscription, Map<Check, List<Alert>> alertsByCheck) throws NotificationFailedException {
+        List<String> emojis = emojis();
+        List<String> sections = new ArrayList<String>();
+        for (Map.Entry<Check, List<Alert>> entry : alertsByCheck.entrySet()) {
+            sections.add(formatCheck(emojis, entry.getKey(), entry.getValue()));
+        }
+        post(subscription, String.format("*%d checks changed state*\n%s %s",
+                alertsByCheck.size(), Joiner.on("\n").join(sections), channelMention(subscription)));
+    }
+
+    private void post(Subscription subscription, String text) {
         String token = seyrenConfig.getSlackToken();
         String channel = subscription.getTarget();
         String username = seyrenConfig.getSlackUsername();
         String iconUrl = seyrenConfig.getSlackIconUrl();
 
-        List<String> emojis = Lists.newArrayList(
-                Splitter.on(',').omitEmptyStrings().trimResults().split(seyrenConfig.getSlackEmojis())
-        );
-
         String url = String.format("%s/api/chat.postMessage", baseUrl);
-        HttpClient client = HttpClientBuilder.create().useSystemProperties().build();
         HttpPost post = new HttpPost(url);
         post.addHeader("accept", "application/json");
 
         List<BasicNameValuePair> parameters = new ArrayList<BasicNameValuePair>();
         parameters.add(new BasicNameValuePair("token", token));
         parameters.add(new BasicNameValuePair("channel", StringUtils.removeEnd(channel, "!")));
-        parameters.add(new BasicNameValuePair("text", formatContent(emojis, check, subscription, alerts)));
+        parameters.add(new BasicNameValuePair("text", text));
         parameters.add(new BasicNameValuePair("username", username));
         parameters.add(new BasicNameValuePair("icon_url", iconUrl));
 
@@ -98,16 +103,17 @@ public class SlackNotificationService implements NotificationService {
             if (LOGGER.isDebugEnabled()) {
                 LOGGER.info("> parameters: {}", parameters);
             }
-            HttpResponse response = client.execute(post);
+            HttpResponse response = httpClient.execute(post);
             if (LOGGER.isDebugEnabled()) {
                 LOGGER.info("> parameters: {}", parameters);
                 LOGGER.debug("Status: {}, Body: {}", response.getStatusLine(), new BasicResponseHandler().handleResponse(response));
             }
+        } catch (NotificationRateLimitedException e) {
+            throw e;
         } catch (Exception e) {
             LOGGER.warn("Error posting to Slack", e);
         } finally {
             post.releaseConnection();
-            HttpClientUtils.closeQuietly(client);
         }
 
     }
@@ -117,7 +123,21 @@ public class SlackNotificationService implements NotificationService {
         return subscriptionType == SubscriptionType.SLACK;
     }
 
+    private List<String> emojis() {
+        return Lists.newArrayList(
+                Splitter.on(',').omitEmptyStrings().trimResults().split(seyrenConfig.getSlackEmojis())
+        );
+    }
+
     private String formatContent(List<String> emojis, Check check, Subscription subscription, List<Alert> alerts) {
+        return String.format("%s %s", formatCheck(emojis, check, alerts), channelMention(subscription));
+    }
+
+    private String channelMention(Subscription subscription) {
+        return subscription.getTarget().contains("!") ? "<!channel>" : "";
+    }
+
+    private String formatCheck(List<String> emojis, Check check, List<Alert> alerts) {
         String url = String.format("%s/#/checks/%s", seyrenConfig.getBaseUrl(), check.getId());
         String alertsString = Joiner.on("\n").join(transform(alerts, new Function<Alert, String>() {
             @Override
@@ -126,8 +146,6 @@ public class SlackNotificationService implements NotificationService {
             }
         }));
 
-        String channel = subscription.getTarget().contains("!") ? "<!channel>" : "";
-
         String description;
         if (StringUtils.isNotBlank(check.getDescription())) {
             description = String.format("\n> %s", check.getDescription());
@@ -137,15 +155,14 @@ public class SlackNotificationService implements NotificationService {
 
         final String state = check.getState().toString();
 
-        return String.format("%s*%s* %s [%s]%s\n```\n%s\n```\n#%s %s",
+        return String.format("%s*%s* %s [%s]%s\n```\n%s\n```\n#%s",
                 Iterables.get(emojis, check.getState().ordinal(), ""),
                 state,
                 check.getName(),
                 url,
                 description,
                 alertsString,
-                state.toLowerCase(Locale.getDefault()),
-                channel
+                state.toLowerCase(Locale.getDefault())
         );
     }
 }
@@ -0,0 +1,76 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.seyren.core.service.notification;
+
+import com.seyren.core.util.metrics.Counter;
+import com.seyren.core.util.metrics.LatencyCounter;
+import com.seyren.core.util.metrics.Metrics;
+
+/**
+ * Counts the traps sent by the {@link SnmpTrapNotificationService}.
+ */
+public class SnmpMetrics extends Metrics {
+
+    private final Counter traps = counter("traps");
+    private final Counter failed = counter("failed");
+    private final Counter sessions = counter("sessions");
+    private final LatencyCounter latency = latency("notifications");
+
+    public SnmpMetrics() {
+        super("notifications.snmp");
+    }
+
+    void sent(int trapCount, long latencyMillis) {
+        traps.add(trapCount);
+        latency.record(latencyMillis);
+    }
+
+    void failed(int trapCount) {
+        failed.add(trapCount);
+    }
+
+    void opened() {
+        sessions.increment();
+    }
+
+    public long getTraps() {
+        return traps.get();
+    }
+
+    /**
+     * @return traps which could not be sent
+     */
+    public long getFailed() {
+        return failed.get();
+    }
+
+    /**
+     * @return snmp sessions opened, reopenings after a failure included
+     */
+    public long getSessions() {
+        return sessions.get();
+    }
+
+    /**
+     * @return the mean time to send the traps of one notification
+     */
+    public long getAverageLatencyMillis() {
+        return latency.getAverageMillis();
+    }
+
+    public long getMaxLatencyMillis() {
+        return latency.getMaxMillis();
+    }
+
+}
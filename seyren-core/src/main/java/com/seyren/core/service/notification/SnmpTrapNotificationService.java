@@ -16,6 +16,7 @@ package com.seyren.core.service.notification;
 import com.seyren.core.domain.*;
 import com.seyren.core.exception.NotificationFailedException;
 import com.seyren.core.util.config.SeyrenConfig;
+import com.seyren.core.util.metrics.Metered;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.snmp4j.CommunityTarget;
@@ -25,22 +26,32 @@ import org.snmp4j.mp.SnmpConstants;
 import org.snmp4j.smi.*;
 import org.snmp4j.transport.DefaultUdpTransportMapping;
 
+import javax.annotation.PreDestroy;
 import javax.inject.Inject;
 import javax.inject.Named;
 import java.io.IOException;
 import java.net.InetAddress;
 import java.net.UnknownHostException;
+import java.util.ArrayList;
 import java.util.List;
 
+/**
+ * Sends a trap per alert. The snmp session and its UDP socket are opened on the
+ * first notification and kept, the traps of a notification are sent back to
+ * back on it, and a session which fails is replaced once before giving up.
+ */
 @Named
-public class SnmpTrapNotificationService implements NotificationService {
+public class SnmpTrapNotificationService implements NotificationService, Metered {
 
     private static final Logger LOGGER = LoggerFactory.getLogger(SnmpTrapNotificationService.class);
 
     private final SeyrenConfig seyrenConfig;
+    private final SnmpMetrics metrics = new SnmpMetrics();
 
     private String oidPrefix;
     private String trapOID;
+    private volatile Session session;
+    private volatile String hostname;
     
     @Inject
     public SnmpTrapNotificationService(SeyrenConfig seyrenConfig) {
@@ -59,31 +70,8 @@ public class SnmpTrapNotificationService implements NotificationService {
                 url(check),
                 alerts.size());
 
-        // Create the SNMP instance
-        Snmp snmp = createSnmpConnection();
-
-        // Specify receiver
-        Address targetaddress = new UdpAddress(seyrenConfig.getSnmpHost() + "/" + seyrenConfig.getSnmpPort());
-        CommunityTarget target = new CommunityTarget();
-        target.setCommunity(octetString(seyrenConfig.getSnmpCommunity()));
-        target.setVersion(SnmpConstants.version2c);
-        target.setAddress(targetaddress);
-        
-        String hostname = "Seyren";
-
-        try
-        {
-            InetAddress addr;
-            addr = InetAddress.getLocalHost();
-            LOGGER.info(addr.toString());
-            hostname = addr.getHostName()+":SEYREN";
-        }
-        catch (UnknownHostException ex)
-        {
-            LOGGER.error("Hostname can not be resolved");
-        }
-
-
+        String hostname = hostname();
+        List<PDU> traps = new ArrayList<PDU>();
         for (Alert alert : alerts) {
 
             // Create PDU           
@@ -95,7 +83,7 @@ public class SnmpTrapNotificationService implements NotificationService {
 
             //Add Payload
             trap.add(new VariableBinding(new OID(oidPrefix+".1"), new OctetString(alert.getTimestamp().toString())));
-            trap.add(new VariableBinding(new OID(oidPrefix+".2"), new OctetString(hostname.toString())));
+            trap.add(new VariableBinding(new OID(oidPrefix+".2"), new OctetString(hostname)));
             trap.add(new VariableBinding(new OID(oidPrefix+".3"), new OctetString(check.getName())));
             trap.add(new VariableBinding(new OID(oidPrefix+".4"), new OctetString(alert.getTarget())));
             trap.add(new VariableBinding(new OID(oidPrefix+".5"), new OctetString(alert.getValue().toString())));
@@ -117,13 +105,26 @@ public class SnmpTrapNotificationService implements NotificationService {
             trap.add(new VariableBinding(new OID(oidPrefix+".9"), new OctetString(alert.getFromType().toString())));
             trap.add(new VariableBinding(new OID(oidPrefix+".10"), new OctetString(seyrenConfig.getBaseUrl() + "/#/checks/" + check.getId())));
             trap.add(new VariableBinding(new OID(oidPrefix+".11"), new OctetString(check.getDescription() == null ? "" : check.getDescription())));
-            
-            // Send
-            sendAlert(check, snmp, target, trap);
+            traps.add(trap);
         }
 
-        // Cleanup
-        closeSnmpConnection(snmp);
+        sendTraps(traps);
+    }
+
+    /**
+     * @return the traps sent so far
+     */
+    @Override
+    public SnmpMetrics getMetrics() {
+        return metrics;
+    }
+
+    @PreDestroy
+    public void close() {
+        Session current = session;
+        if (current != null) {
+            closeSession(current);
+        }
     }
 
     @Override
@@ -131,32 +132,83 @@ public class SnmpTrapNotificationService implements NotificationService {
         return subscriptionType == SubscriptionType.SNMP;
     }
 
-    private void closeSnmpConnection(Snmp snmp) {
-        try {
-            snmp.close();
-        } catch (IOException e) {
-            LOGGER.warn("Closing SNMP instance failed.", e);
+    private void sendTraps(List<PDU> traps) {
+        long start = System.currentTimeMillis();
+        int sent = 0;
+        for (int attempt = 1; ; attempt++) {
+            Session current = session();
+            try {
+                while (sent < traps.size()) {
+                    current.snmp.send(traps.get(sent), current.target, null, null);
+                    sent++;
+                }
+                break;
+            } catch (IOException e) {
+                closeSession(current);
+                if (attempt > 1) {
+                    metrics.failed(traps.size() - sent);
+                    throw new NotificationFailedException("Sending notification via SNMP trap failed.", e);
+                }
+                LOGGER.info("Sending SNMP trap failed, reopening the session", e);
+            }
         }
+        metrics.sent(traps.size(), System.currentTimeMillis() - start);
     }
 
-    private void sendAlert(Check check, Snmp snmp, CommunityTarget target, PDU trap) {
-        try {
-            if (snmp != null) {
-                snmp.send(trap, target, null, null);
-            } else {
-                LOGGER.info("Seyren notification failed for {} because the Snmp instance was null", check.getName());
+    private Session session() {
+        Session current = session;
+        if (current != null) {
+            return current;
+        }
+        synchronized (this) {
+            if (session == null) {
+                // Specify receiver
+                CommunityTarget target = new CommunityTarget();
+                target.setCommunity(octetString(seyrenConfig.getSnmpCommunity()));
+                target.setVersion(SnmpConstants.version2c);
+                target.setAddress(new UdpAddress(seyrenConfig.getSnmpHost() + "/" + seyrenConfig.getSnmpPort()));
+                try {
+                    session = new Session(new Snmp(new DefaultUdpTransportMapping()), target);
+                } catch (IOException e) {
+                    throw new NotificationFailedException("Sending notification via SNMP trap failed.", e);
+                }
+                metrics.opened();
             }
-        } catch (IOException e) {
-            throw new NotificationFailedException("Sending notification via SNMP trap failed.", e);
+            return session;
         }
     }
 
-    private Snmp createSnmpConnection() {
+    private void closeSession(Session closing) {
+        synchronized (this) {
+            if (session == closing) {
+                session = null;
+            }
+        }
         try {
-            return new Snmp(new DefaultUdpTransportMapping());
+            closing.snmp.close();
         } catch (IOException e) {
-            throw new NotificationFailedException("Sending notification via SNMP trap failed.", e);
+            LOGGER.warn("Closing SNMP instance failed.", e);
+        }
+    }
+
+    private String hostname() {
+        String current = hostname;
+        if (current == null) {
+            current = "Seyren";
+            try
+            {
+                InetAddress addr;
+                addr = InetAddress.getLocalHost();
+                LOGGER.info(addr.toString());
+                current = addr.getHostName()+":SEYREN";
+            }
+            catch (UnknownHostException ex)
+            {
+                LOGGER.error("Hostname can not be resolved");
+            }
+            hostname = current;
         }
+        return current;
     }
 
     private VariableBinding variableBinding(OID oid, String value) {
@@ -170,4 +222,16 @@ public class SnmpTrapNotificationService implements NotificationService {
     private String url(Check check) {
         return String.format("%s/#/checks/%s", seyrenConfig.getBaseUrl(), check.getName());
     }
+
+    private static final class Session {
+
+        private final Snmp snmp;
+        private final CommunityTarget target;
+
+        private Session(Snmp snmp, CommunityTarget target) {
+            this.snmp = snmp;
+            this.target = target;
+        }
+
+    }
 }
@@ -25,11 +25,8 @@ import org.apache.commons.lang.StringUtils;
 import org.apache.http.HttpEntity;
 import org.apache.http.HttpResponse;
 import org.apache.http.NameValuePair;
-import org.apache.http.client.HttpClient;
 import org.apache.http.client.entity.UrlEncodedFormEntity;
 import org.apache.http.client.methods.HttpPost;
-import org.apache.http.client.utils.HttpClientUtils;
-import org.apache.http.impl.client.HttpClientBuilder;
 import org.apache.http.message.BasicHeader;
 import org.apache.http.message.BasicNameValuePair;
 import org.slf4j.Logger;
@@ -42,16 +39,19 @@ import com.seyren.core.domain.Subscription;
 import com.seyren.core.domain.SubscriptionType;
 import com.seyren.core.exception.NotificationFailedException;
 import com.seyren.core.util.config.SeyrenConfig;
+import com.seyren.core.util.http.NotificationHttpClient;
 
 @Named
 public class TwilioNotificationService implements NotificationService {
     private static final Logger LOGGER = LoggerFactory.getLogger(TwilioNotificationService.class);
     
     private final SeyrenConfig seyrenConfig;
+    private final NotificationHttpClient httpClient;
     
     @Inject
-    public TwilioNotificationService(SeyrenConfig seyrenConfig) {
+    public TwilioNotificationService(SeyrenConfig seyrenConfig, NotificationHttpClient httpClient) {
         this.seyrenConfig = seyrenConfig;
+        this.httpClient = httpClient;
     }
     
     @Override
@@ -80,7 +80,6 @@ public class TwilioNotificationService implements NotificationService {
         params.add(new BasicNameValuePair("From", seyrenConfig.getTwilioPhoneNumber()));
         params.add(new BasicNameValuePair("Body", body));
 
-        HttpClient client = HttpClientBuilder.create().useSystemProperties().build();
         
         HttpPost post = new HttpPost(twilioUrl + "/"+seyrenConfig.getTwilioAccountSid()+"/Messages");
         try {
@@ -90,13 +89,13 @@ public class TwilioNotificationService implements NotificationService {
             HttpEntity entity = new UrlEncodedFormEntity(params, "UTF-8");
             post.setEntity(entity);
             
-            HttpResponse response=client.execute(post);
+            HttpResponse response=httpClient.execute(post);
             if(response.getStatusLine().getStatusCode()/100 != 2)
                 throw new IOException("API request failed: "+response.getStatusLine());
         } catch (IOException e) {
             throw new NotificationFailedException("Sending notification to Twilio at " + twilioUrl + " failed.", e);
         } finally {
-            HttpClientUtils.closeQuietly(client);
+            post.releaseConnection();
         }
     }
     
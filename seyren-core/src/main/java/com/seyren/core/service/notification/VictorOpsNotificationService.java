@@ -34,15 +34,14 @@ import com.fasterxml.jackson.databind.PropertyNamingStrategy;
 import com.fasterxml.jackson.databind.SerializationFeature;
 import com.seyren.core.domain.*;
 import com.seyren.core.exception.NotificationFailedException;
+import com.seyren.core.exception.NotificationRateLimitedException;
 import com.seyren.core.util.config.SeyrenConfig;
+import com.seyren.core.util.http.NotificationHttpClient;
 import org.apache.http.HttpEntity;
 import org.apache.http.HttpResponse;
-import org.apache.http.client.HttpClient;
 import org.apache.http.client.methods.HttpPost;
-import org.apache.http.client.utils.HttpClientUtils;
 import org.apache.http.entity.ContentType;
 import org.apache.http.entity.StringEntity;
-import org.apache.http.impl.client.HttpClientBuilder;
 import org.apache.http.util.EntityUtils;
 
 @Named
@@ -52,10 +51,12 @@ public class VictorOpsNotificationService implements NotificationService {
     private static final ObjectMapper MAPPER = new ObjectMapper();
 
     private final SeyrenConfig seyrenConfig;
+    private final NotificationHttpClient httpClient;
 
     @Inject
-    public VictorOpsNotificationService(SeyrenConfig seyrenConfig) {
+    public VictorOpsNotificationService(SeyrenConfig seyrenConfig, NotificationHttpClient httpClient) {
         this.seyrenConfig = seyrenConfig;
+        this.httpClient = httpClient;
         MAPPER.configure(SerializationFeature.WRITE_DATES_AS_TIMESTAMPS, false);
         MAPPER.configure(DeserializationFeature.FAIL_ON_IGNORED_PROPERTIES, false);
     }
@@ -79,21 +80,21 @@ public class VictorOpsNotificationService implements NotificationService {
             return;
         }
 
-        HttpClient client = HttpClientBuilder.create().useSystemProperties().build();
         HttpPost post = new HttpPost(victorOpsUri);
         try {
             HttpEntity entity = new StringEntity(getDescription(check, alerts), ContentType.APPLICATION_JSON);
             post.setEntity(entity);
-            HttpResponse response = client.execute(post);
+            HttpResponse response = httpClient.execute(post);
             HttpEntity responseEntity = response.getEntity();
             if(responseEntity!=null) {
                 LOGGER.info("Response : {} ", EntityUtils.toString(responseEntity));
             }
+        } catch (NotificationRateLimitedException e) {
+            throw e;
         } catch (Exception e) {
             throw new NotificationFailedException("Failed to send notification to VictorOps", e);
         } finally {
             post.releaseConnection();
-            HttpClientUtils.closeQuietly(client);
         }
     }
 
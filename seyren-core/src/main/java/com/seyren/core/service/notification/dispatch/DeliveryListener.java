@@ -0,0 +1,33 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.seyren.core.service.notification.dispatch;
+
+/**
+ * Hears how a notification handed to the {@link QueuedNotificationDispatcher}
+ * by a caller keeping track of it went. Called once, from a notification thread.
+ */
+interface DeliveryListener {
+
+    /**
+     * Every service has sent the notification, or it has been superseded by a
+     * newer one of its check.
+     */
+    void delivered();
+
+    /**
+     * A service could not send the notification; the caller may try again.
+     */
+    void failed(Exception failure);
+
+}
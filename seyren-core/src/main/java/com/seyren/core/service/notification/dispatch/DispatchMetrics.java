@@ -0,0 +1,48 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.seyren.core.service.notification.dispatch;
+
+import java.util.EnumMap;
+import java.util.Map;
+
+import com.seyren.core.domain.SubscriptionType;
+import com.seyren.core.util.metrics.Gauge;
+import com.seyren.core.util.metrics.Metrics;
+
+/**
+ * The {@link NotificationMetrics} of every subscription type, published together.
+ */
+public class DispatchMetrics extends Metrics {
+
+    private final Map<SubscriptionType, NotificationMetrics> metricsByType = new EnumMap<SubscriptionType, NotificationMetrics>(SubscriptionType.class);
+
+    public DispatchMetrics() {
+        super("notifications");
+        for (SubscriptionType type : SubscriptionType.values()) {
+            final NotificationMetrics typeMetrics = new NotificationMetrics(type);
+            metricsByType.put(type, typeMetrics);
+            gauge(type.name(), new Gauge() {
+                @Override
+                public Object getValue() {
+                    return typeMetrics.snapshot();
+                }
+            });
+        }
+    }
+
+    public NotificationMetrics get(SubscriptionType type) {
+        return metricsByType.get(type);
+    }
+
+}
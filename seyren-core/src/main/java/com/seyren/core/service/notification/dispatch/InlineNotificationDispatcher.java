@@ -0,0 +1,53 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.seyren.core.service.notification.dispatch;
+
+import java.util.List;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.seyren.core.domain.Alert;
+import com.seyren.core.domain.Check;
+import com.seyren.core.domain.Subscription;
+import com.seyren.core.service.notification.NotificationService;
+
+/**
+ * Sends notifications on the calling thread, once, logging failures.
+ *
+ * Used where no dispatch queue is available, e.g. in tests or when a check
+ * runner is created with plain notification services.
+ */
+public class InlineNotificationDispatcher implements NotificationDispatcher {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(InlineNotificationDispatcher.class);
+
+    private final ServicesByType servicesByType;
+
+    public InlineNotificationDispatcher(Iterable<NotificationService> notificationServices) {
+        this.servicesByType = new ServicesByType(notificationServices);
+    }
+
+    @Override
+    public void dispatch(Check check, Subscription subscription, List<Alert> alerts) {
+        for (NotificationService notificationService : servicesByType.get(subscription.getType())) {
+            try {
+                notificationService.sendNotification(check, subscription, alerts);
+            } catch (Exception e) {
+                LOGGER.warn("Message='Notifying {} by {} failed.'", subscription.getTarget(), subscription.getType(), e);
+            }
+        }
+    }
+
+}
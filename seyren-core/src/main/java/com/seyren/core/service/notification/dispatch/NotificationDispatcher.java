@@ -0,0 +1,34 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.seyren.core.service.notification.dispatch;
+
+import java.util.List;
+
+import com.seyren.core.domain.Alert;
+import com.seyren.core.domain.Check;
+import com.seyren.core.domain.Subscription;
+
+/**
+ * Hands the alerts of a check run to the notification services which can
+ * handle a subscription.
+ */
+public interface NotificationDispatcher {
+
+    /**
+     * Notifies the subscription of the alerts. Failures are handled (logged,
+     * retried...) by the dispatcher rather than thrown.
+     */
+    void dispatch(Check check, Subscription subscription, List<Alert> alerts);
+
+}
@@ -0,0 +1,152 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.seyren.core.service.notification.dispatch;
+
+import com.seyren.core.domain.SubscriptionType;
+import com.seyren.core.util.metrics.Counter;
+import com.seyren.core.util.metrics.LatencyCounter;
+import com.seyren.core.util.metrics.Metrics;
+
+/**
+ * Counts the notifications of one subscription type going through the
+ * dispatch queue.
+ */
+public class NotificationMetrics extends Metrics {
+
+    private final Counter queued = counter("queueDepth");
+    private final Counter retried = counter("retried");
+    private final Counter failed = counter("failed");
+    private final Counter rejected = counter("rejected");
+    private final Counter coalesced = counter("coalesced");
+    private final Counter throttled = counter("throttled");
+    private final Counter rateLimited = counter("rateLimited");
+    private final Counter superseded = counter("superseded");
+    private final LatencyCounter latency = latency("sent");
+
+    public NotificationMetrics(SubscriptionType type) {
+        super("notifications." + type.name());
+    }
+
+    void queued() {
+        queued.increment();
+    }
+
+    void dequeued() {
+        queued.decrement();
+    }
+
+    void sent(long latencyMillis) {
+        latency.record(latencyMillis);
+    }
+
+    void retried() {
+        retried.increment();
+    }
+
+    void failed() {
+        failed.increment();
+    }
+
+    void rejected() {
+        rejected.increment();
+    }
+
+    void coalesced(long notifications) {
+        coalesced.add(notifications);
+    }
+
+    void throttled() {
+        throttled.increment();
+    }
+
+    void rateLimited() {
+        rateLimited.increment();
+    }
+
+    void superseded() {
+        superseded.increment();
+    }
+
+    /**
+     * @return notifications waiting for a worker
+     */
+    public long getQueueDepth() {
+        return queued.get();
+    }
+
+    public long getSent() {
+        return latency.getCount();
+    }
+
+    /**
+     * @return attempts which failed and were scheduled again
+     */
+    public long getRetried() {
+        return retried.get();
+    }
+
+    /**
+     * @return notifications given up on after their last attempt
+     */
+    public long getFailed() {
+        return failed.get();
+    }
+
+    /**
+     * @return notifications dropped because the queue was full
+     */
+    public long getRejected() {
+        return rejected.get();
+    }
+
+    /**
+     * @return notifications saved by coalescing them with others to the same target
+     */
+    public long getCoalesced() {
+        return coalesced.get();
+    }
+
+    /**
+     * @return times a notification was held back to keep within the budget of its target
+     */
+    public long getThrottled() {
+        return throttled.get();
+    }
+
+    /**
+     * @return notifications the provider refused for being sent too fast
+     */
+    public long getRateLimited() {
+        return rateLimited.get();
+    }
+
+    /**
+     * @return notifications dropped because a newer one of the same check had been sent
+     */
+    public long getSuperseded() {
+        return superseded.get();
+    }
+
+    /**
+     * @return the mean time from queueing to being sent, retries included
+     */
+    public long getAverageLatencyMillis() {
+        return latency.getAverageMillis();
+    }
+
+    public long getMaxLatencyMillis() {
+        return latency.getMaxMillis();
+    }
+
+}
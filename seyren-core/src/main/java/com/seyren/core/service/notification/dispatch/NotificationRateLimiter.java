@@ -0,0 +1,357 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.seyren.core.service.notification.dispatch;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.base.Splitter;
+import com.google.common.base.Strings;
+import com.google.common.base.Throwables;
+import com.seyren.core.domain.SubscriptionType;
+import com.seyren.core.exception.NotificationRateLimitedException;
+
+/**
+ * Token buckets for each subscription type and target, so that notifications
+ * go out no faster than the provider accepts them. A notification which finds
+ * its bucket empty is held in the bucket and handed back once a token is
+ * available; held notifications go out by priority, then in arrival order.
+ * Priority only reorders different checks: a notification held before a
+ * higher priority one of the same check is raised to its priority, so that an
+ * ERROR cannot overtake the WARN it followed.
+ *
+ * A provider asking to slow down empties the bucket of its target until the
+ * time it gave, whether or not its type has a budget.
+ *
+ * Buckets which hold nothing back and have filled up again behave like new
+ * ones, so they are dropped now and then rather than kept for every target
+ * ever notified.
+ */
+class NotificationRateLimiter {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(NotificationRateLimiter.class);
+
+    private static final long DEFAULT_RETRY_AFTER_MILLIS = 1000;
+    private static final long SWEEP_INTERVAL_MILLIS = TimeUnit.MINUTES.toMillis(1);
+
+    private final Map<SubscriptionType, Double> permitsPerSecond;
+    private final int burst;
+    private final ScheduledExecutorService scheduler;
+    private final long sweepIntervalMillis;
+    private final Map<SubscriptionType, Map<String, Bucket>> buckets = new EnumMap<SubscriptionType, Map<String, Bucket>>(SubscriptionType.class);
+    private long sequence;
+    private long sweptAt = System.currentTimeMillis();
+    private boolean closed;
+
+    NotificationRateLimiter(Map<SubscriptionType, Double> permitsPerSecond, int burst, ScheduledExecutorService scheduler) {
+        this(permitsPerSecond, burst, scheduler, SWEEP_INTERVAL_MILLIS);
+    }
+
+    NotificationRateLimiter(Map<SubscriptionType, Double> permitsPerSecond, int burst, ScheduledExecutorService scheduler,
+            long sweepIntervalMillis) {
+        this.permitsPerSecond = permitsPerSecond;
+        this.burst = Math.max(1, burst);
+        this.scheduler = scheduler;
+        this.sweepIntervalMillis = sweepIntervalMillis;
+        for (SubscriptionType type : SubscriptionType.values()) {
+            buckets.put(type, new HashMap<String, Bucket>());
+        }
+    }
+
+    /**
+     * Reads budgets such as {@code SLACK=60,PAGERDUTY=120}, in notifications
+     * per minute to each target.
+     *
+     * @return the budgets in notifications per second
+     */
+    static Map<SubscriptionType, Double> parsePerMinute(String rateLimits) {
+        Map<SubscriptionType, Double> permitsPerSecond = new EnumMap<SubscriptionType, Double>(SubscriptionType.class);
+        for (String rateLimit : Splitter.on(',').omitEmptyStrings().trimResults().split(Strings.nullToEmpty(rateLimits))) {
+            List<String> parts = Splitter.on('=').trimResults().splitToList(rateLimit);
+            try {
+                double perMinute = parts.size() == 2 ? Double.parseDouble(parts.get(1)) : 0;
+                if (perMinute > 0) {
+                    permitsPerSecond.put(SubscriptionType.valueOf(parts.get(0).toUpperCase()), perMinute / 60);
+                    continue;
+                }
+            } catch (IllegalArgumentException e) {
+                // Reported below
+            }
+            LOGGER.warn("Ignoring notification rate limit '{}', expected TYPE=notifications per minute", rateLimit);
+        }
+        return permitsPerSecond;
+    }
+
+    /**
+     * Takes a token for a notification to the target, or holds the
+     * notification until one is available.
+     *
+     * @return whether the notification may be sent now; if not,
+     *         {@code whenAllowed} is run once it may, with its token taken
+     */
+    boolean tryAcquire(SubscriptionType type, String target, Set<String> checkIds, int priority, Runnable whenAllowed) {
+        synchronized (buckets) {
+            if (closed) {
+                return true;
+            }
+            long now = System.currentTimeMillis();
+            sweep(now);
+            Bucket bucket = bucket(type, target, permitsPerSecond.containsKey(type));
+            if (bucket == null) {
+                return true;
+            }
+            if (bucket.waiting.isEmpty() && bucket.take(now)) {
+                return true;
+            }
+            Waiting held = new Waiting(checkIds, priority, sequence++, whenAllowed);
+            raiseEarlier(bucket, held);
+            bucket.waiting.add(held);
+            scheduleRelease(bucket, now);
+            return false;
+        }
+    }
+
+    /**
+     * Holds back notifications to the target for the time the provider asked
+     * for, or a second if it did not say.
+     */
+    void throttle(SubscriptionType type, String target, long retryAfterMillis) {
+        synchronized (buckets) {
+            long now = System.currentTimeMillis();
+            sweep(now);
+            bucket(type, target, true).block(now + (retryAfterMillis > 0 ? retryAfterMillis : DEFAULT_RETRY_AFTER_MILLIS));
+        }
+    }
+
+    /**
+     * Stops holding notifications back.
+     *
+     * @return what is run for the notifications still held
+     */
+    List<Runnable> close() {
+        List<Runnable> released = new ArrayList<Runnable>();
+        synchronized (buckets) {
+            closed = true;
+            for (Map<String, Bucket> bucketsByTarget : buckets.values()) {
+                for (Bucket bucket : bucketsByTarget.values()) {
+                    while (!bucket.waiting.isEmpty()) {
+                        released.add(bucket.waiting.poll().whenAllowed);
+                    }
+                }
+            }
+        }
+        return released;
+    }
+
+    /**
+     * @return the targets which have a bucket
+     */
+    int size() {
+        synchronized (buckets) {
+            int size = 0;
+            for (Map<String, Bucket> bucketsByTarget : buckets.values()) {
+                size += bucketsByTarget.size();
+            }
+            return size;
+        }
+    }
+
+    /**
+     * @return the provider's request to slow down among the causes of the
+     *         failure, or null
+     */
+    static NotificationRateLimitedException rateLimitedCause(Throwable failure) {
+        for (Throwable cause : Throwables.getCausalChain(failure)) {
+            if (cause instanceof NotificationRateLimitedException) {
+                return (NotificationRateLimitedException) cause;
+            }
+        }
+        return null;
+    }
+
+    private Bucket bucket(SubscriptionType type, String target, boolean create) {
+        Map<String, Bucket> bucketsByTarget = buckets.get(type);
+        Bucket bucket = bucketsByTarget.get(target);
+        if (bucket == null && create) {
+            Double rate = permitsPerSecond.get(type);
+            bucket = new Bucket(rate == null ? Double.POSITIVE_INFINITY : rate / 1000);
+            bucketsByTarget.put(target, bucket);
+        }
+        return bucket;
+    }
+
+    /**
+     * Drops the buckets which have gone idle, at most once per interval. Must
+     * hold the lock on the buckets.
+     */
+    private void sweep(long now) {
+        if (now - sweptAt < sweepIntervalMillis) {
+            return;
+        }
+        sweptAt = now;
+        for (Map<String, Bucket> bucketsByTarget : buckets.values()) {
+            Iterator<Bucket> iterator = bucketsByTarget.values().iterator();
+            while (iterator.hasNext()) {
+                if (iterator.next().isIdle(now)) {
+                    iterator.remove();
+                }
+            }
+        }
+    }
+
+    private static void raiseEarlier(Bucket bucket, Waiting later) {
+        List<Waiting> raised = new ArrayList<Waiting>();
+        for (Waiting earlier : bucket.waiting) {
+            if (earlier.priority < later.priority && earlier.sequence < later.sequence
+                    && !Collections.disjoint(earlier.checkIds, later.checkIds)) {
+                raised.add(earlier);
+            }
+        }
+        for (Waiting earlier : raised) {
+            bucket.waiting.remove(earlier);
+            Waiting raisedEarlier = new Waiting(earlier.checkIds, later.priority, earlier.sequence, earlier.whenAllowed);
+            // What the raised notification shares a check with must go out before it too
+            raiseEarlier(bucket, raisedEarlier);
+            bucket.waiting.add(raisedEarlier);
+        }
+    }
+
+    private void scheduleRelease(final Bucket bucket, long now) {
+        if (bucket.releaseScheduled) {
+            return;
+        }
+        try {
+            scheduler.schedule(new Runnable() {
+                @Override
+                public void run() {
+                    release(bucket);
+                }
+            }, bucket.millisUntilToken(now), TimeUnit.MILLISECONDS);
+            bucket.releaseScheduled = true;
+        } catch (RejectedExecutionException e) {
+            // Shutting down, close() hands back what is held
+        }
+    }
+
+    private void release(Bucket bucket) {
+        List<Runnable> allowed = new ArrayList<Runnable>();
+        synchronized (buckets) {
+            bucket.releaseScheduled = false;
+            long now = System.currentTimeMillis();
+            while (!bucket.waiting.isEmpty() && bucket.take(now)) {
+                allowed.add(bucket.waiting.poll().whenAllowed);
+            }
+            if (!bucket.waiting.isEmpty()) {
+                scheduleRelease(bucket, now);
+            }
+        }
+        for (Runnable whenAllowed : allowed) {
+            whenAllowed.run();
+        }
+    }
+
+    private final class Bucket {
+
+        private final double permitsPerMilli;
+        private final PriorityQueue<Waiting> waiting = new PriorityQueue<Waiting>();
+        private double tokens = burst;
+        private long refilledAt = System.currentTimeMillis();
+        private long blockedUntil;
+        private boolean releaseScheduled;
+
+        private Bucket(double permitsPerMilli) {
+            this.permitsPerMilli = permitsPerMilli;
+        }
+
+        private boolean take(long now) {
+            if (now < blockedUntil) {
+                return false;
+            }
+            if (now > refilledAt) {
+                tokens = Double.isInfinite(permitsPerMilli) ? burst : Math.min(burst, tokens + (now - refilledAt) * permitsPerMilli);
+                refilledAt = now;
+            }
+            if (tokens < 1) {
+                return false;
+            }
+            tokens--;
+            return true;
+        }
+
+        private void block(long until) {
+            if (until > blockedUntil) {
+                blockedUntil = until;
+                // One notification goes out when the wait is over, the rest at the budget
+                tokens = 1;
+                refilledAt = until;
+            }
+        }
+
+        private boolean isIdle(long now) {
+            if (!waiting.isEmpty() || releaseScheduled || now < blockedUntil) {
+                return false;
+            }
+            return Double.isInfinite(permitsPerMilli) || tokens + (now - refilledAt) * permitsPerMilli >= burst;
+        }
+
+        private long millisUntilToken(long now) {
+            if (now < blockedUntil) {
+                return blockedUntil - now;
+            }
+            if (tokens >= 1 || Double.isInfinite(permitsPerMilli)) {
+                return 1;
+            }
+            return Math.max(1, (long) Math.ceil((1 - tokens) / permitsPerMilli) - Math.max(0, now - refilledAt));
+        }
+
+    }
+
+    private static final class Waiting implements Comparable<Waiting> {
+
+        private final Set<String> checkIds;
+        private final int priority;
+        private final long sequence;
+        private final Runnable whenAllowed;
+
+        private Waiting(Set<String> checkIds, int priority, long sequence, Runnable whenAllowed) {
+            this.checkIds = checkIds;
+            this.priority = priority;
+            this.sequence = sequence;
+            this.whenAllowed = whenAllowed;
+        }
+
+        @Override
+        public int compareTo(Waiting other) {
+            if (priority != other.priority) {
+                return priority > other.priority ? -1 : 1;
+            }
+            return sequence < other.sequence ? -1 : (sequence == other.sequence ? 0 : 1);
+        }
+
+    }
+
+}
@@ -0,0 +1,117 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.seyren.core.service.notification.dispatch;
+
+import com.seyren.core.util.metrics.Counter;
+import com.seyren.core.util.metrics.Metrics;
+
+/**
+ * Counts the notifications going through the outbox on this node.
+ */
+public class OutboxMetrics extends Metrics {
+
+    private final Counter written = counter("written");
+    private final Counter duplicates = counter("duplicates");
+    private final Counter claimed = counter("claimed");
+    private final Counter inFlight = counter("inFlight");
+    private final Counter sent = counter("sent");
+    private final Counter retried = counter("retried");
+    private final Counter failed = counter("failed");
+    private final Counter dropped = counter("dropped");
+
+    public OutboxMetrics() {
+        super("notifications.outbox");
+    }
+
+    void written() {
+        written.increment();
+    }
+
+    void duplicate() {
+        duplicates.increment();
+    }
+
+    void claimed(int notifications) {
+        claimed.add(notifications);
+        inFlight.add(notifications);
+    }
+
+    void done() {
+        inFlight.decrement();
+    }
+
+    void sent() {
+        sent.increment();
+    }
+
+    void retried() {
+        retried.increment();
+    }
+
+    void failed() {
+        failed.increment();
+    }
+
+    void dropped() {
+        dropped.increment();
+    }
+
+    public long getWritten() {
+        return written.get();
+    }
+
+    /**
+     * @return notifications not written because the same one was already pending
+     */
+    public long getDuplicates() {
+        return duplicates.get();
+    }
+
+    public long getClaimed() {
+        return claimed.get();
+    }
+
+    /**
+     * @return claimed notifications which are not yet sent or released
+     */
+    public long getInFlight() {
+        return inFlight.get();
+    }
+
+    public long getSent() {
+        return sent.get();
+    }
+
+    /**
+     * @return attempts which failed and were released to be tried again
+     */
+    public long getRetried() {
+        return retried.get();
+    }
+
+    /**
+     * @return notifications given up on after their last attempt
+     */
+    public long getFailed() {
+        return failed.get();
+    }
+
+    /**
+     * @return notifications discarded because their subscription was gone
+     */
+    public long getDropped() {
+        return dropped.get();
+    }
+
+}
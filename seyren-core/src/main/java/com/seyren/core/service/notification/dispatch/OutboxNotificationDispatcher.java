@@ -0,0 +1,303 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.seyren.core.service.notification.dispatch;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import javax.annotation.PreDestroy;
+import javax.inject.Inject;
+import javax.inject.Named;
+
+import org.joda.time.DateTime;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.context.annotation.Primary;
+
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.seyren.core.domain.Alert;
+import com.seyren.core.domain.Check;
+import com.seyren.core.domain.PendingNotification;
+import com.seyren.core.domain.Subscription;
+import com.seyren.core.exception.NotificationPartlyFailedException;
+import com.seyren.core.exception.NotificationRateLimitedException;
+import com.seyren.core.store.NotificationOutboxStore;
+import com.seyren.core.util.config.SeyrenConfig;
+import com.seyren.core.util.metrics.Metered;
+
+/**
+ * Writes notifications to the outbox in the store before sending them, so that
+ * a notification is delivered at least once even if the node which raised it
+ * stops before sending it.
+ *
+ * Every node polls the outbox and claims the notifications which are due for
+ * the length of a lease. Sent notifications are deleted; failed ones are
+ * released with a backoff until they run out of attempts. Notifications still
+ * held by a node which went away are claimed again once their lease expires.
+ * The same alerts are only written once, so a dispatch repeated after an error
+ * does not notify twice while the first one is pending.
+ *
+ * Claimed notifications are sent through the {@link QueuedNotificationDispatcher},
+ * so that they are coalesced, held to the rate budgets and kept in the order
+ * they were raised like any other. It tries each of them once; retries are
+ * left to the outbox, so that they survive the node.
+ *
+ * Unless enabled, notifications go straight to the in memory dispatcher.
+ */
+@Named
+@Primary
+public class OutboxNotificationDispatcher implements NotificationDispatcher, Metered {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(OutboxNotificationDispatcher.class);
+
+    private static final long MAX_RETRY_DELAY_MILLIS = TimeUnit.MINUTES.toMillis(5);
+
+    private final QueuedNotificationDispatcher queuedNotificationDispatcher;
+    private final NotificationOutboxStore outboxStore;
+    private final boolean enabled;
+    private final int batchSize;
+    private final long leaseMillis;
+    private final int maxAttempts;
+    private final long retryDelayMillis;
+    private final String owner = owner();
+    private final OutboxMetrics metrics = new OutboxMetrics();
+    private final Runnable poller = new Runnable() {
+        @Override
+        public void run() {
+            poll();
+        }
+    };
+    private ScheduledExecutorService scheduler;
+
+    @Inject
+    public OutboxNotificationDispatcher(QueuedNotificationDispatcher queuedNotificationDispatcher, NotificationOutboxStore outboxStore,
+            SeyrenConfig seyrenConfig) {
+        this(queuedNotificationDispatcher, outboxStore, seyrenConfig.isNotificationOutboxEnabled(), seyrenConfig.getNotificationOutboxBatchSize(),
+                TimeUnit.SECONDS.toMillis(seyrenConfig.getNotificationOutboxLeaseSeconds()), seyrenConfig.getNotificationOutboxPollMillis(),
+                seyrenConfig.getNotificationMaxAttempts(), seyrenConfig.getNotificationRetryDelayMillis());
+    }
+
+    public OutboxNotificationDispatcher(QueuedNotificationDispatcher queuedNotificationDispatcher, NotificationOutboxStore outboxStore,
+            boolean enabled, int batchSize, long leaseMillis, long pollMillis, int maxAttempts, long retryDelayMillis) {
+        this.queuedNotificationDispatcher = queuedNotificationDispatcher;
+        this.outboxStore = outboxStore;
+        this.enabled = enabled;
+        this.batchSize = batchSize;
+        this.leaseMillis = leaseMillis;
+        this.maxAttempts = maxAttempts;
+        this.retryDelayMillis = retryDelayMillis;
+        if (enabled) {
+            this.scheduler = Executors.newSingleThreadScheduledExecutor(
+                    new ThreadFactoryBuilder().setNameFormat("notification-outbox-poller-%d").setDaemon(true).build());
+            scheduler.scheduleWithFixedDelay(poller, pollMillis, pollMillis, TimeUnit.MILLISECONDS);
+            LOGGER.info("Sending notifications through the outbox as {}", owner);
+        }
+    }
+
+    @Override
+    public void dispatch(Check check, Subscription subscription, List<Alert> alerts) {
+        if (!enabled || subscription.getId() == null) {
+            queuedNotificationDispatcher.dispatch(check, subscription, alerts);
+            return;
+        }
+        if (subscription.getType() == null) {
+            return;
+        }
+        DateTime now = new DateTime();
+        PendingNotification notification = new PendingNotification()
+                .withKey(key(check, subscription, alerts))
+                .withCheck(check)
+                .withSubscriptionId(subscription.getId())
+                .withAlerts(new ArrayList<Alert>(alerts))
+                .withDue(now)
+                .withCreated(now);
+        try {
+            if (outboxStore.createPendingNotification(notification)) {
+                metrics.written();
+            } else {
+                metrics.duplicate();
+            }
+        } catch (RuntimeException e) {
+            LOGGER.warn("Message='Could not write the notification of {} to the outbox, sending it from memory.'", subscription.getTarget(), e);
+            queuedNotificationDispatcher.dispatch(check, subscription, alerts);
+            return;
+        }
+        // Rather than waiting for the next poll
+        try {
+            scheduler.execute(poller);
+        } catch (RejectedExecutionException e) {
+            // Shutting down, it stays in the outbox
+        }
+    }
+
+    /**
+     * @return the metrics of the notifications going through the outbox on this node
+     */
+    @Override
+    public OutboxMetrics getMetrics() {
+        return metrics;
+    }
+
+    void poll() {
+        int limit = batchSize - (int) metrics.getInFlight();
+        if (limit <= 0) {
+            return;
+        }
+        DateTime now = new DateTime();
+        List<PendingNotification> claimed;
+        try {
+            claimed = outboxStore.claimPendingNotifications(owner, limit, now, now.plus(leaseMillis));
+        } catch (RuntimeException e) {
+            LOGGER.warn("Message='Could not claim notifications from the outbox.'", e);
+            return;
+        }
+        metrics.claimed(claimed.size());
+        for (PendingNotification notification : claimed) {
+            deliver(notification);
+        }
+    }
+
+    private void deliver(final PendingNotification notification) {
+        Subscription subscription = notification.getSubscription();
+        if (subscription == null || subscription.getType() == null) {
+            try {
+                LOGGER.info("Message='Dropping notification {}, its subscription is gone.'", notification.getId());
+                outboxStore.deletePendingNotification(notification.getId());
+                metrics.dropped();
+            } catch (RuntimeException e) {
+                LOGGER.warn("Message='Could not delete notification {} from the outbox.'", notification.getId(), e);
+            } finally {
+                metrics.done();
+            }
+            return;
+        }
+        // Notifications written before their creation was recorded are older than any other
+        long raisedAtMillis = notification.getCreated() == null ? 0 : notification.getCreated().getMillis();
+        try {
+            queuedNotificationDispatcher.dispatch(notification.getCheck(), subscription, notification.getAlerts(), raisedAtMillis,
+                    new DeliveryListener() {
+                        @Override
+                        public void delivered() {
+                            completed(notification, null);
+                        }
+
+                        @Override
+                        public void failed(Exception failure) {
+                            completed(notification, failure);
+                        }
+                    });
+        } catch (RuntimeException e) {
+            completed(notification, e);
+        }
+    }
+
+    private void completed(PendingNotification notification, Exception failure) {
+        try {
+            Subscription subscription = notification.getSubscription();
+            if (failure == null) {
+                outboxStore.deletePendingNotification(notification.getId());
+                metrics.sent();
+                return;
+            }
+            int attempts = notification.getAttempts() + 1;
+            if (attempts < maxAttempts) {
+                LOGGER.info("Message='Notifying {} by {} failed, attempt {} of {}.'", subscription.getTarget(), subscription.getType(),
+                        attempts, maxAttempts, failure);
+                long delay = Math.min(MAX_RETRY_DELAY_MILLIS, retryDelayMillis << Math.min(attempts - 1, 20));
+                NotificationRateLimitedException rateLimited = NotificationRateLimiter.rateLimitedCause(failure);
+                if (rateLimited != null) {
+                    delay = Math.max(delay, rateLimited.getRetryAfterMillis());
+                }
+                outboxStore.reschedulePendingNotification(notification.getId(), attempts, new DateTime().plus(delay), unsent(notification, failure));
+                metrics.retried();
+            } else {
+                LOGGER.warn("Message='Notifying {} by {} failed.'", subscription.getTarget(), subscription.getType(), failure);
+                outboxStore.deletePendingNotification(notification.getId());
+                metrics.failed();
+            }
+        } catch (RuntimeException e) {
+            LOGGER.warn("Message='Could not update notification {} in the outbox, it is claimed again once the lease expires.'",
+                    notification.getId(), e);
+        } finally {
+            metrics.done();
+        }
+    }
+
+    /**
+     * @return the alerts of the notification which the service did not send
+     */
+    private static List<Alert> unsent(PendingNotification notification, Exception failure) {
+        if (!(failure instanceof NotificationPartlyFailedException)) {
+            return notification.getAlerts();
+        }
+        // The failed alerts can include others merged in with the notification's own
+        Set<Alert> failed = Collections.newSetFromMap(new IdentityHashMap<Alert, Boolean>());
+        failed.addAll(((NotificationPartlyFailedException) failure).getFailedAlerts());
+        List<Alert> unsent = new ArrayList<Alert>();
+        for (Alert alert : notification.getAlerts()) {
+            if (failed.contains(alert)) {
+                unsent.add(alert);
+            }
+        }
+        return unsent;
+    }
+
+    /**
+     * Stops claiming notifications. Those being sent are finished by the
+     * queued dispatcher; anything left is claimed again once its lease expires.
+     */
+    @PreDestroy
+    public void shutdown() {
+        if (!enabled) {
+            return;
+        }
+        scheduler.shutdownNow();
+    }
+
+    private static String key(Check check, Subscription subscription, List<Alert> alerts) {
+        Hasher hasher = Hashing.sha1().newHasher();
+        hasher.putString(String.valueOf(check.getId()), StandardCharsets.UTF_8).putChar('|');
+        hasher.putString(subscription.getId(), StandardCharsets.UTF_8).putChar('|');
+        for (Alert alert : alerts) {
+            hasher.putString(String.valueOf(alert.getTarget()), StandardCharsets.UTF_8).putChar('|');
+            hasher.putString(String.valueOf(alert.getToType()), StandardCharsets.UTF_8).putChar('|');
+            hasher.putLong(alert.getTimestamp() == null ? 0 : alert.getTimestamp().getMillis());
+        }
+        return hasher.hash().toString();
+    }
+
+    private static String owner() {
+        String host;
+        try {
+            host = InetAddress.getLocalHost().getHostName();
+        } catch (UnknownHostException e) {
+            host = "unknown";
+        }
+        return host + "-" + UUID.randomUUID().toString().substring(0, 8);
+    }
+
+}
@@ -0,0 +1,786 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.seyren.core.service.notification.dispatch;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+
+import javax.annotation.PreDestroy;
+import javax.inject.Inject;
+import javax.inject.Named;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheLoader;
+import com.google.common.cache.LoadingCache;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.seyren.core.domain.Alert;
+import com.seyren.core.domain.AlertType;
+import com.seyren.core.domain.Check;
+import com.seyren.core.domain.Subscription;
+import com.seyren.core.domain.SubscriptionType;
+import com.seyren.core.exception.NotificationFailedException;
+import com.seyren.core.exception.NotificationPartlyFailedException;
+import com.seyren.core.exception.NotificationRateLimitedException;
+import com.seyren.core.service.notification.DigestNotificationService;
+import com.seyren.core.service.notification.NotificationService;
+import com.seyren.core.util.config.SeyrenConfig;
+import com.seyren.core.util.metrics.Metered;
+
+/**
+ * Queues notifications so that check threads never wait on a mail server or a
+ * chat API. Each subscription type has its own bounded queue and workers, so a
+ * slow provider only holds up its own notifications. Failed notifications are
+ * tried again with exponential backoff, off the worker threads. When a service
+ * reports that only some alerts failed, only those are tried again.
+ *
+ * With a coalescing window, the notifications to the same target (subscription
+ * type and target) are held for the window and then sent together: as one
+ * digest by services which support it, otherwise as one notification per check.
+ * ERROR alerts can be made to skip the window, taking along whatever of their
+ * check was waiting in it.
+ *
+ * Notifications to each target are held back to the budget of their type, and
+ * for as long as the provider asks after refusing one; ERROR notifications
+ * held back go out before the others.
+ *
+ * Retries, budgets and parallel workers can all reorder notifications, so each
+ * service sends the notifications of a check and subscription one at a time,
+ * and drops one which is older than what it has already sent: an ERROR which
+ * turns up after the OK that followed it would otherwise reopen the incident.
+ * Notifications are ordered by when they were raised, so that those claimed
+ * from the outbox take their place among the others.
+ */
+@Named
+public class QueuedNotificationDispatcher implements NotificationDispatcher, Metered {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(QueuedNotificationDispatcher.class);
+
+    private static final long MAX_RETRY_DELAY_MILLIS = TimeUnit.MINUTES.toMillis(5);
+    private static final int PRIORITY_OTHER = 0;
+    private static final int PRIORITY_WARN = 1;
+    private static final int PRIORITY_ERROR = 2;
+
+    private final ServicesByType servicesByType;
+    private final int maxAttempts;
+    private final long retryDelayMillis;
+    private final long coalesceWindowMillis;
+    private final boolean immediateErrors;
+    private final Map<SubscriptionType, ThreadPoolExecutor> executors = new EnumMap<SubscriptionType, ThreadPoolExecutor>(SubscriptionType.class);
+    private final DispatchMetrics metrics = new DispatchMetrics();
+    private final Map<SubscriptionType, Map<String, PendingDigest>> pendingDigests = new EnumMap<SubscriptionType, Map<String, PendingDigest>>(SubscriptionType.class);
+    private final ScheduledExecutorService scheduler;
+    private final NotificationRateLimiter rateLimiter;
+    private final AtomicLong lastSequence = new AtomicLong();
+    // One lock per key, so that a slow provider only holds up its own notifications
+    private final LoadingCache<String, Lock> deliveryLocks = CacheBuilder.newBuilder().weakValues().build(new CacheLoader<String, Lock>() {
+        @Override
+        public Lock load(String orderingKey) {
+            return new ReentrantLock();
+        }
+    });
+    // Outlives any retry of what it orders, and forgets deleted checks and subscriptions
+    private final Cache<String, Long> lastSent;
+
+    @Inject
+    public QueuedNotificationDispatcher(List<NotificationService> notificationServices, SeyrenConfig seyrenConfig) {
+        this(notificationServices, seyrenConfig.getNotificationThreads(), seyrenConfig.getNotificationQueueCapacity(),
+                seyrenConfig.getNotificationMaxAttempts(), seyrenConfig.getNotificationRetryDelayMillis(),
+                TimeUnit.SECONDS.toMillis(seyrenConfig.getNotificationCoalesceWindowSeconds()), seyrenConfig.isNotificationImmediateErrors(),
+                NotificationRateLimiter.parsePerMinute(seyrenConfig.getNotificationRateLimits()), seyrenConfig.getNotificationRateLimitBurst());
+    }
+
+    public QueuedNotificationDispatcher(Iterable<NotificationService> notificationServices, int threadsPerType, int queueCapacity,
+            int maxAttempts, long retryDelayMillis) {
+        this(notificationServices, threadsPerType, queueCapacity, maxAttempts, retryDelayMillis, 0, false);
+    }
+
+    public QueuedNotificationDispatcher(Iterable<NotificationService> notificationServices, int threadsPerType, int queueCapacity,
+            int maxAttempts, long retryDelayMillis, long coalesceWindowMillis, boolean immediateErrors) {
+        this(notificationServices, threadsPerType, queueCapacity, maxAttempts, retryDelayMillis, coalesceWindowMillis, immediateErrors,
+                Collections.<SubscriptionType, Double> emptyMap(), 1);
+    }
+
+    public QueuedNotificationDispatcher(Iterable<NotificationService> notificationServices, int threadsPerType, int queueCapacity,
+            int maxAttempts, long retryDelayMillis, long coalesceWindowMillis, boolean immediateErrors,
+            Map<SubscriptionType, Double> permitsPerSecond, int burst) {
+        this.servicesByType = new ServicesByType(notificationServices);
+        this.maxAttempts = maxAttempts;
+        this.retryDelayMillis = retryDelayMillis;
+        this.lastSent = CacheBuilder.newBuilder()
+                .expireAfterAccess(Math.max(TimeUnit.HOURS.toMillis(1), 2L * maxAttempts * MAX_RETRY_DELAY_MILLIS), TimeUnit.MILLISECONDS)
+                .build();
+        this.coalesceWindowMillis = coalesceWindowMillis;
+        this.immediateErrors = immediateErrors;
+        for (SubscriptionType type : SubscriptionType.values()) {
+            ThreadPoolExecutor executor = new ThreadPoolExecutor(threadsPerType, threadsPerType, 60L, TimeUnit.SECONDS,
+                    new ArrayBlockingQueue<Runnable>(queueCapacity),
+                    new ThreadFactoryBuilder().setNameFormat("notification-" + type.name().toLowerCase() + "-%d").setDaemon(true).build());
+            // Most types are never subscribed to, their workers should not linger
+            executor.allowCoreThreadTimeOut(true);
+            executors.put(type, executor);
+            pendingDigests.put(type, new HashMap<String, PendingDigest>());
+        }
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(
+                new ThreadFactoryBuilder().setNameFormat("notification-scheduler-%d").setDaemon(true).build());
+        this.rateLimiter = new NotificationRateLimiter(permitsPerSecond, burst, scheduler);
+    }
+
+    @Override
+    public void dispatch(Check check, Subscription subscription, List<Alert> alerts) {
+        dispatch(check, subscription, alerts, nextSequence(), null);
+    }
+
+    /**
+     * Sends a notification which the caller keeps track of, such as one claimed
+     * from the outbox. It is coalesced, held to the budget and put in order
+     * like any other, but tried only once: the listener hears how it went and
+     * the caller decides whether to try again. Untracked alerts it was sent
+     * along with are still tried again here.
+     *
+     * @param raisedAtMillis when the notification was raised, which orders it
+     *        among the others of its check
+     */
+    void dispatch(Check check, Subscription subscription, List<Alert> alerts, long raisedAtMillis, DeliveryListener listener) {
+        List<NotificationService> notificationServices = servicesByType.get(subscription.getType());
+        List<Tracker> trackers = listener == null ? Collections.<Tracker> emptyList()
+                : Collections.singletonList(new Tracker(listener, notificationServices.size()));
+        if (notificationServices.isEmpty()) {
+            finish(trackers, null);
+            return;
+        }
+        if (coalesceWindowMillis <= 0 || (immediateErrors && containsError(alerts))) {
+            List<Alert> immediateAlerts = alerts;
+            List<Alert> untrackedAlerts = trackers.isEmpty() ? alerts : Collections.<Alert> emptyList();
+            List<Tracker> immediateTrackers = trackers;
+            long sequence = raisedAtMillis;
+            CheckAlerts pending = coalesceWindowMillis <= 0 ? null : takePending(check, subscription);
+            if (pending != null) {
+                // Sent along now, rather than after the window when they would report an older state last
+                immediateAlerts = new ArrayList<Alert>(pending.alerts);
+                immediateAlerts.addAll(alerts);
+                untrackedAlerts = new ArrayList<Alert>(pending.untrackedAlerts);
+                untrackedAlerts.addAll(trackers.isEmpty() ? alerts : Collections.<Alert> emptyList());
+                immediateTrackers = new ArrayList<Tracker>(pending.trackers);
+                immediateTrackers.addAll(trackers);
+                sequence = Math.max(sequence, pending.sequence);
+                metrics.get(subscription.getType()).coalesced(pending.dispatches * notificationServices.size());
+            }
+            for (NotificationService notificationService : notificationServices) {
+                // Services may change the list they are given
+                submit(new CheckDelivery(notificationService, check, subscription, new ArrayList<Alert>(immediateAlerts), sequence,
+                        immediateTrackers, untrackedAlerts));
+            }
+            return;
+        }
+        coalesce(check, subscription, alerts, raisedAtMillis, trackers);
+    }
+
+    /**
+     * @return the metrics of each subscription type
+     */
+    @Override
+    public DispatchMetrics getMetrics() {
+        return metrics;
+    }
+
+    /**
+     * @return the time in milliseconds, moved on where needed so that every
+     *         notification raised on this node gets its own
+     */
+    private long nextSequence() {
+        while (true) {
+            long last = lastSequence.get();
+            long next = Math.max(last + 1, System.currentTimeMillis());
+            if (lastSequence.compareAndSet(last, next)) {
+                return next;
+            }
+        }
+    }
+
+    private void coalesce(Check check, Subscription subscription, List<Alert> alerts, long sequence, List<Tracker> trackers) {
+        final SubscriptionType type = subscription.getType();
+        final String target = subscription.getTarget();
+        synchronized (pendingDigests) {
+            PendingDigest digest = pendingDigests.get(type).get(target);
+            if (digest == null) {
+                digest = new PendingDigest(subscription);
+                pendingDigests.get(type).put(target, digest);
+                try {
+                    scheduler.schedule(new Runnable() {
+                        @Override
+                        public void run() {
+                            flush(type, target);
+                        }
+                    }, coalesceWindowMillis, TimeUnit.MILLISECONDS);
+                } catch (RejectedExecutionException e) {
+                    // Shutting down, shutdown() flushes what is left
+                }
+            }
+            digest.add(check, subscription, alerts, sequence, trackers);
+        }
+    }
+
+    /**
+     * @return the alerts of the check waiting in the digest of the target, taken
+     *         out of it, or null if there are none
+     */
+    private CheckAlerts takePending(Check check, Subscription subscription) {
+        synchronized (pendingDigests) {
+            PendingDigest digest = pendingDigests.get(subscription.getType()).get(subscription.getTarget());
+            return digest == null ? null : digest.remove(check.getId());
+        }
+    }
+
+    private void flush(SubscriptionType type, String target) {
+        PendingDigest digest;
+        synchronized (pendingDigests) {
+            digest = pendingDigests.get(type).remove(target);
+        }
+        if (digest != null) {
+            send(digest);
+        }
+    }
+
+    private void send(PendingDigest digest) {
+        SubscriptionType type = digest.subscription.getType();
+        for (NotificationService notificationService : servicesByType.get(type)) {
+            int deliveries;
+            if (notificationService instanceof DigestNotificationService && digest.checks.size() > 1) {
+                submit(new DigestDelivery((DigestNotificationService) notificationService, digest.subscription, digest.checks.values()));
+                deliveries = 1;
+            } else {
+                for (CheckAlerts checkAlerts : digest.checks.values()) {
+                    submit(new CheckDelivery(notificationService, checkAlerts.check, checkAlerts.subscription,
+                            new ArrayList<Alert>(checkAlerts.alerts), checkAlerts.sequence, checkAlerts.trackers, checkAlerts.untrackedAlerts));
+                }
+                deliveries = digest.checks.size();
+            }
+            metrics.get(type).coalesced(digest.dispatches - deliveries);
+        }
+    }
+
+    private void submit(Delivery delivery) {
+        NotificationMetrics typeMetrics = metrics.get(delivery.subscription.getType());
+        typeMetrics.queued();
+        try {
+            executors.get(delivery.subscription.getType()).execute(delivery);
+        } catch (RejectedExecutionException e) {
+            typeMetrics.dequeued();
+            typeMetrics.rejected();
+            LOGGER.warn("Message='Notification queue for {} is full, dropping notification of {}'",
+                    delivery.subscription.getType(), delivery.subscription.getTarget());
+            finish(delivery.trackers(), e);
+        }
+    }
+
+    private void retry(final Delivery delivery) {
+        long delay = Math.min(MAX_RETRY_DELAY_MILLIS, retryDelayMillis << Math.min(delivery.attempts - 1, 20));
+        try {
+            scheduler.schedule(new Runnable() {
+                @Override
+                public void run() {
+                    submit(delivery);
+                }
+            }, delay, TimeUnit.MILLISECONDS);
+        } catch (RejectedExecutionException e) {
+            metrics.get(delivery.subscription.getType()).failed();
+            finish(delivery.trackers(), e);
+        }
+    }
+
+    private static void finish(List<Tracker> trackers, Exception failure) {
+        for (Tracker tracker : trackers) {
+            tracker.finished(failure);
+        }
+    }
+
+    private static String orderingKey(NotificationService notificationService, Check check, Subscription subscription) {
+        return subscription.getType() + "\0" + notificationService.getClass().getName() + "\0" + check.getId() + "\0" + subscription.getId();
+    }
+
+    private boolean isSuperseded(String orderingKey, long sequence) {
+        Long sent = lastSent.getIfPresent(orderingKey);
+        return sent != null && sent > sequence;
+    }
+
+    // Only called with the lock of the key held
+    private void markSent(String orderingKey, long sequence) {
+        Long sent = lastSent.getIfPresent(orderingKey);
+        if (sent == null || sent < sequence) {
+            lastSent.put(orderingKey, sequence);
+        }
+    }
+
+    private static boolean containsInstance(List<Alert> alerts, Alert alert) {
+        for (Alert each : alerts) {
+            if (each == alert) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static boolean containsError(List<Alert> alerts) {
+        return priority(alerts) == PRIORITY_ERROR;
+    }
+
+    private static int priority(Iterable<Alert> alerts) {
+        int priority = PRIORITY_OTHER;
+        for (Alert alert : alerts) {
+            if (alert.getToType() == AlertType.ERROR) {
+                return PRIORITY_ERROR;
+            }
+            if (alert.getToType() == AlertType.WARN) {
+                priority = PRIORITY_WARN;
+            }
+        }
+        return priority;
+    }
+
+    /**
+     * Sends what is still being coalesced, then waits for the queues to drain.
+     */
+    @PreDestroy
+    public void shutdown() {
+        scheduler.shutdownNow();
+        for (Runnable whenAllowed : rateLimiter.close()) {
+            whenAllowed.run();
+        }
+        List<PendingDigest> digests = new ArrayList<PendingDigest>();
+        synchronized (pendingDigests) {
+            for (Map<String, PendingDigest> digestsByTarget : pendingDigests.values()) {
+                digests.addAll(digestsByTarget.values());
+                digestsByTarget.clear();
+            }
+        }
+        for (PendingDigest digest : digests) {
+            send(digest);
+        }
+        for (ThreadPoolExecutor executor : executors.values()) {
+            executor.shutdown();
+        }
+        try {
+            for (ThreadPoolExecutor executor : executors.values()) {
+                executor.awaitTermination(10, TimeUnit.SECONDS);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static final class CheckAlerts {
+
+        private Check check;
+        private Subscription subscription;
+        private long sequence;
+        private int dispatches;
+        private final List<Alert> alerts = new ArrayList<Alert>();
+        // Those of the alerts which no caller keeps track of, so that they are tried again here
+        private final List<Alert> untrackedAlerts = new ArrayList<Alert>();
+        private final List<Tracker> trackers = new ArrayList<Tracker>();
+
+        /**
+         * @return the untracked alerts without the trackers, or null if there are none
+         */
+        private CheckAlerts untracked() {
+            if (untrackedAlerts.isEmpty()) {
+                return null;
+            }
+            CheckAlerts untracked = new CheckAlerts();
+            untracked.check = check;
+            untracked.subscription = subscription;
+            untracked.sequence = sequence;
+            untracked.alerts.addAll(untrackedAlerts);
+            untracked.untrackedAlerts.addAll(untrackedAlerts);
+            return untracked;
+        }
+
+    }
+
+    /**
+     * A notification the caller keeps track of, which is done once each
+     * service has sent it or given up.
+     */
+    private static final class Tracker {
+
+        private final DeliveryListener listener;
+        private final AtomicInteger remaining;
+        private volatile Exception failure;
+
+        private Tracker(DeliveryListener listener, int deliveries) {
+            this.listener = listener;
+            this.remaining = new AtomicInteger(deliveries);
+        }
+
+        private void finished(Exception deliveryFailure) {
+            if (deliveryFailure != null) {
+                addFailure(deliveryFailure);
+            }
+            if (remaining.decrementAndGet() == 0) {
+                if (failure == null) {
+                    listener.delivered();
+                } else {
+                    listener.failed(failure);
+                }
+            }
+        }
+
+        /**
+         * Keeps a failure which covers whatever each service left unsent.
+         */
+        private synchronized void addFailure(Exception deliveryFailure) {
+            if (failure instanceof NotificationPartlyFailedException && deliveryFailure instanceof NotificationPartlyFailedException) {
+                List<Alert> failedAlerts = new ArrayList<Alert>(((NotificationPartlyFailedException) failure).getFailedAlerts());
+                for (Alert alert : ((NotificationPartlyFailedException) deliveryFailure).getFailedAlerts()) {
+                    if (!containsInstance(failedAlerts, alert)) {
+                        failedAlerts.add(alert);
+                    }
+                }
+                failure = new NotificationPartlyFailedException(deliveryFailure.getMessage(), failedAlerts, deliveryFailure);
+            } else if (failure == null || failure instanceof NotificationPartlyFailedException) {
+                failure = deliveryFailure;
+            }
+        }
+
+    }
+
+    /**
+     * The alerts raised for a target during a coalescing window, by check.
+     */
+    private static final class PendingDigest {
+
+        private final Subscription subscription;
+        private final Map<String, CheckAlerts> checks = new LinkedHashMap<String, CheckAlerts>();
+        private int dispatches;
+
+        private PendingDigest(Subscription subscription) {
+            this.subscription = subscription;
+        }
+
+        private void add(Check check, Subscription subscription, List<Alert> alerts, long sequence, List<Tracker> trackers) {
+            CheckAlerts checkAlerts = checks.get(check.getId());
+            if (checkAlerts == null) {
+                checkAlerts = new CheckAlerts();
+                checks.put(check.getId(), checkAlerts);
+            }
+            // The latest state of the check is the one worth reporting
+            checkAlerts.check = check;
+            checkAlerts.subscription = subscription;
+            checkAlerts.sequence = Math.max(checkAlerts.sequence, sequence);
+            checkAlerts.alerts.addAll(alerts);
+            if (trackers.isEmpty()) {
+                checkAlerts.untrackedAlerts.addAll(alerts);
+            }
+            checkAlerts.trackers.addAll(trackers);
+            checkAlerts.dispatches++;
+            dispatches++;
+        }
+
+        private CheckAlerts remove(String checkId) {
+            CheckAlerts checkAlerts = checks.remove(checkId);
+            if (checkAlerts != null) {
+                dispatches -= checkAlerts.dispatches;
+            }
+            return checkAlerts;
+        }
+
+    }
+
+    private abstract class Delivery implements Runnable {
+
+        protected final Subscription subscription;
+        private final long queuedAtMillis = System.currentTimeMillis();
+        private final Runnable whenAllowed = new Runnable() {
+            @Override
+            public void run() {
+                permitted = true;
+                submit(Delivery.this);
+            }
+        };
+        private int attempts;
+        private volatile boolean permitted;
+
+        protected Delivery(Subscription subscription) {
+            this.subscription = subscription;
+        }
+
+        /**
+         * @return false when nothing was sent, as newer notifications have been sent since
+         */
+        protected abstract boolean send() throws NotificationFailedException;
+
+        protected abstract boolean isSuperseded();
+
+        protected abstract Set<String> checkIds();
+
+        protected abstract int priority();
+
+        protected abstract List<Tracker> trackers();
+
+        /**
+         * @return a delivery of the alerts no caller keeps track of, or null if there are none
+         */
+        protected abstract Delivery untracked();
+
+        @Override
+        public void run() {
+            NotificationMetrics typeMetrics = metrics.get(subscription.getType());
+            typeMetrics.dequeued();
+            if (isSuperseded()) {
+                typeMetrics.superseded();
+                finish(trackers(), null);
+                return;
+            }
+            if (!permitted && !rateLimiter.tryAcquire(subscription.getType(), subscription.getTarget(), checkIds(), priority(), whenAllowed)) {
+                typeMetrics.throttled();
+                return;
+            }
+            permitted = false;
+            attempts++;
+            try {
+                if (send()) {
+                    typeMetrics.sent(System.currentTimeMillis() - queuedAtMillis);
+                } else {
+                    typeMetrics.superseded();
+                }
+                finish(trackers(), null);
+            } catch (Exception e) {
+                NotificationRateLimitedException rateLimited = NotificationRateLimiter.rateLimitedCause(e);
+                if (rateLimited != null) {
+                    typeMetrics.rateLimited();
+                    rateLimiter.throttle(subscription.getType(), subscription.getTarget(), rateLimited.getRetryAfterMillis());
+                }
+                Delivery retried = this;
+                if (!trackers().isEmpty()) {
+                    // The callers try theirs again, the alerts which came without one are tried again here
+                    finish(trackers(), e);
+                    retried = untracked();
+                    if (retried == null) {
+                        return;
+                    }
+                    retried.attempts = attempts;
+                }
+                if (attempts < maxAttempts) {
+                    LOGGER.info("Message='Notifying {} by {} failed, attempt {} of {}.'", subscription.getTarget(), subscription.getType(),
+                            attempts, maxAttempts, e);
+                    typeMetrics.retried();
+                    if (rateLimited != null) {
+                        // Held back by the limiter for as long as the provider asked
+                        submit(retried);
+                    } else {
+                        retry(retried);
+                    }
+                } else {
+                    LOGGER.warn("Message='Notifying {} by {} failed.'", subscription.getTarget(), subscription.getType(), e);
+                    typeMetrics.failed();
+                }
+            }
+        }
+
+    }
+
+    private final class CheckDelivery extends Delivery {
+
+        private final NotificationService notificationService;
+        private final Check check;
+        // Narrowed to what is left to send when the service sends only some of them
+        private List<Alert> alerts;
+        private final String orderingKey;
+        private final long sequence;
+        private final List<Tracker> trackers;
+        private final List<Alert> untrackedAlerts;
+
+        private CheckDelivery(NotificationService notificationService, Check check, Subscription subscription, List<Alert> alerts, long sequence,
+                List<Tracker> trackers, List<Alert> untrackedAlerts) {
+            super(subscription);
+            this.notificationService = notificationService;
+            this.check = check;
+            this.alerts = alerts;
+            this.orderingKey = orderingKey(notificationService, check, subscription);
+            this.sequence = sequence;
+            this.trackers = trackers;
+            this.untrackedAlerts = untrackedAlerts;
+        }
+
+        @Override
+        protected boolean send() throws NotificationFailedException {
+            Lock lock = deliveryLocks.getUnchecked(orderingKey);
+            lock.lock();
+            try {
+                if (isSuperseded()) {
+                    return false;
+                }
+                try {
+                    notificationService.sendNotification(check, subscription, alerts);
+                } catch (NotificationPartlyFailedException e) {
+                    alerts = new ArrayList<Alert>(e.getFailedAlerts());
+                    throw e;
+                }
+                markSent(orderingKey, sequence);
+                return true;
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        @Override
+        protected boolean isSuperseded() {
+            return QueuedNotificationDispatcher.this.isSuperseded(orderingKey, sequence);
+        }
+
+        @Override
+        protected Set<String> checkIds() {
+            return Collections.singleton(check.getId());
+        }
+
+        @Override
+        protected List<Tracker> trackers() {
+            return trackers;
+        }
+
+        @Override
+        protected Delivery untracked() {
+            List<Alert> left = new ArrayList<Alert>();
+            for (Alert alert : untrackedAlerts) {
+                if (containsInstance(alerts, alert)) {
+                    left.add(alert);
+                }
+            }
+            return left.isEmpty() ? null
+                    : new CheckDelivery(notificationService, check, subscription, left, sequence, Collections.<Tracker> emptyList(), left);
+        }
+
+        @Override
+        protected int priority() {
+            return QueuedNotificationDispatcher.priority(alerts);
+        }
+
+    }
+
+    private final class DigestDelivery extends Delivery {
+
+        private final DigestNotificationService notificationService;
+        private final List<CheckAlerts> checks;
+        private final Map<String, String> orderingKeys = new LinkedHashMap<String, String>();
+        private final List<Tracker> trackers = new ArrayList<Tracker>();
+
+        private DigestDelivery(DigestNotificationService notificationService, Subscription subscription, Collection<CheckAlerts> checks) {
+            super(subscription);
+            this.notificationService = notificationService;
+            this.checks = new ArrayList<CheckAlerts>(checks);
+            for (CheckAlerts checkAlerts : checks) {
+                orderingKeys.put(checkAlerts.check.getId(), orderingKey(notificationService, checkAlerts.check, checkAlerts.subscription));
+                trackers.addAll(checkAlerts.trackers);
+            }
+        }
+
+        @Override
+        protected boolean send() throws NotificationFailedException {
+            // Locked in the same order everywhere, so that digests sharing checks cannot deadlock
+            List<Lock> locks = new ArrayList<Lock>();
+            for (String orderingKey : new TreeSet<String>(orderingKeys.values())) {
+                Lock lock = deliveryLocks.getUnchecked(orderingKey);
+                lock.lock();
+                locks.add(lock);
+            }
+            try {
+                Map<Check, List<Alert>> alertsByCheck = new LinkedHashMap<Check, List<Alert>>();
+                for (CheckAlerts checkAlerts : checks) {
+                    if (!QueuedNotificationDispatcher.this.isSuperseded(orderingKeys.get(checkAlerts.check.getId()), checkAlerts.sequence)) {
+                        alertsByCheck.put(checkAlerts.check, new ArrayList<Alert>(checkAlerts.alerts));
+                    }
+                }
+                if (alertsByCheck.isEmpty()) {
+                    return false;
+                }
+                notificationService.sendDigest(subscription, alertsByCheck);
+                for (CheckAlerts checkAlerts : checks) {
+                    if (alertsByCheck.containsKey(checkAlerts.check)) {
+                        markSent(orderingKeys.get(checkAlerts.check.getId()), checkAlerts.sequence);
+                    }
+                }
+                return true;
+            } finally {
+                for (Lock lock : locks) {
+                    lock.unlock();
+                }
+            }
+        }
+
+        @Override
+        protected boolean isSuperseded() {
+            for (CheckAlerts checkAlerts : checks) {
+                if (!QueuedNotificationDispatcher.this.isSuperseded(orderingKeys.get(checkAlerts.check.getId()), checkAlerts.sequence)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        @Override
+        protected Set<String> checkIds() {
+            return orderingKeys.keySet();
+        }
+
+        @Override
+        protected List<Tracker> trackers() {
+            return trackers;
+        }
+
+        @Override
+        protected Delivery untracked() {
+            List<CheckAlerts> untracked = new ArrayList<CheckAlerts>();
+            for (CheckAlerts checkAlerts : checks) {
+                CheckAlerts untrackedAlerts = checkAlerts.untracked();
+                if (untrackedAlerts != null) {
+                    untracked.add(untrackedAlerts);
+                }
+            }
+            return untracked.isEmpty() ? null : new DigestDelivery(notificationService, subscription, untracked);
+        }
+
+        @Override
+        protected int priority() {
+            List<Alert> alerts = new ArrayList<Alert>();
+            for (CheckAlerts checkAlerts : checks) {
+                alerts.addAll(checkAlerts.alerts);
+            }
+            return QueuedNotificationDispatcher.priority(alerts);
+        }
+
+    }
+
+}
@@ -0,0 +1,68 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.seyren.core.service.notification.dispatch;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+
+import com.seyren.core.domain.SubscriptionType;
+import com.seyren.core.service.notification.NotificationService;
+
+/**
+ * The notification services which handle each subscription type. Services are
+ * asked once per type, the first time it is notified, rather than on every
+ * notification.
+ */
+class ServicesByType {
+
+    private final Iterable<NotificationService> notificationServices;
+    private volatile Map<SubscriptionType, List<NotificationService>> servicesByType =
+            new EnumMap<SubscriptionType, List<NotificationService>>(SubscriptionType.class);
+
+    ServicesByType(Iterable<NotificationService> notificationServices) {
+        this.notificationServices = notificationServices;
+    }
+
+    List<NotificationService> get(SubscriptionType type) {
+        if (type == null) {
+            return Collections.emptyList();
+        }
+        List<NotificationService> services = servicesByType.get(type);
+        if (services != null) {
+            return services;
+        }
+        synchronized (this) {
+            services = servicesByType.get(type);
+            if (services == null) {
+                services = new ArrayList<NotificationService>();
+                for (NotificationService notificationService : notificationServices) {
+                    if (notificationService.canHandle(type)) {
+                        services.add(notificationService);
+                    }
+                }
+                services = Collections.unmodifiableList(services);
+                // Copied so that readers never see a map being changed
+                Map<SubscriptionType, List<NotificationService>> updated =
+                        new EnumMap<SubscriptionType, List<NotificationService>>(servicesByType);
+                updated.put(type, services);
+                servicesByType = updated;
+            }
+            return services;
+        }
+    }
+
+}
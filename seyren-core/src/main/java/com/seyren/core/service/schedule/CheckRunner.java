@@ -15,10 +15,13 @@ package com.seyren.core.service.schedule;
 
 import java.math.BigDecimal;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 import com.seyren.core.domain.*;
 import org.joda.time.DateTime;
@@ -26,11 +29,18 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import com.google.common.base.Optional;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
 import com.seyren.core.service.checker.TargetChecker;
 import com.seyren.core.service.checker.ValueChecker;
 import com.seyren.core.service.notification.NotificationService;
+import com.seyren.core.service.notification.dispatch.InlineNotificationDispatcher;
+import com.seyren.core.service.notification.dispatch.NotificationDispatcher;
 import com.seyren.core.store.AlertsStore;
+import com.seyren.core.store.AsyncAlertsStore;
+import com.seyren.core.store.AsyncChecksStore;
 import com.seyren.core.store.ChecksStore;
+import com.seyren.core.store.InlineAsyncStore;
 
 public class CheckRunner implements Runnable {
 
@@ -40,21 +50,44 @@ public class CheckRunner implements Runnable {
     protected final Check check;
     protected final AlertsStore alertsStore;
     protected final ChecksStore checksStore;
+    protected final AsyncAlertsStore asyncAlertsStore;
+    protected final AsyncChecksStore asyncChecksStore;
     protected final TargetChecker targetChecker;
     protected final ValueChecker valueChecker;
-    protected final Iterable<NotificationService> notificationServices;
+    protected final NotificationDispatcher notificationDispatcher;
+
+    // Store writes issued during this run which have not been waited for yet
+    private final List<ListenableFuture<?>> pendingWrites = new ArrayList<ListenableFuture<?>>();
+    // Alerts raised during this run, written once its notifications have been dispatched
+    private final List<Alert> unsavedAlerts = new ArrayList<Alert>();
 
     // A hashmap of last alerts by target/check
-	private static final HashMap<String, Alert> lastAlerts = new HashMap<String, Alert>();
+	private static final ConcurrentMap<String, Alert> lastAlerts = new ConcurrentHashMap<String, Alert>();
+	// Cached in place of a target which has no last alert, as the map cannot hold null
+	private static final Alert NO_ALERT = new Alert();
 
     public CheckRunner(Check check, AlertsStore alertsStore, ChecksStore checksStore, TargetChecker targetChecker, ValueChecker valueChecker,
                        Iterable<NotificationService> notificationServices, String graphiteRefreshRate) {
+        this(check, alertsStore, checksStore, new InlineAsyncStore(checksStore, alertsStore, null), new InlineAsyncStore(checksStore, alertsStore, null),
+                targetChecker, valueChecker, notificationServices, graphiteRefreshRate);
+    }
+
+    public CheckRunner(Check check, AlertsStore alertsStore, ChecksStore checksStore, AsyncAlertsStore asyncAlertsStore, AsyncChecksStore asyncChecksStore,
+                       TargetChecker targetChecker, ValueChecker valueChecker, Iterable<NotificationService> notificationServices, String graphiteRefreshRate) {
+        this(check, alertsStore, checksStore, asyncAlertsStore, asyncChecksStore, targetChecker, valueChecker,
+                new InlineNotificationDispatcher(notificationServices), graphiteRefreshRate);
+    }
+
+    public CheckRunner(Check check, AlertsStore alertsStore, ChecksStore checksStore, AsyncAlertsStore asyncAlertsStore, AsyncChecksStore asyncChecksStore,
+                       TargetChecker targetChecker, ValueChecker valueChecker, NotificationDispatcher notificationDispatcher, String graphiteRefreshRate) {
         this.check = check;
         this.alertsStore = alertsStore;
         this.checksStore = checksStore;
+        this.asyncAlertsStore = asyncAlertsStore;
+        this.asyncChecksStore = asyncChecksStore;
         this.targetChecker = targetChecker;
         this.valueChecker = valueChecker;
-        this.notificationServices = notificationServices;
+        this.notificationDispatcher = notificationDispatcher;
         this.graphiteRefreshRate = graphiteRefreshRate;
     }
 
@@ -96,6 +129,17 @@ public class CheckRunner implements Runnable {
             // Intialize a list of alerts that represent a change in alert state from
             // the last time that the check was run
             List<Alert> interestingAlerts = new ArrayList<Alert>();
+            // Load the last alerts of all targets with a value in one go rather than one round trip at a time
+            List<String> targetsWithValues = new ArrayList<String>();
+            for (Entry<String, Optional<BigDecimal>> entry : targetValues.entrySet()) {
+                if (entry.getValue().isPresent()) {
+                    targetsWithValues.add(entry.getKey());
+                }
+            }
+            prefetchLastAlerts(targetsWithValues, check, lastAlerts);
+            // The consecutive checks flag is written once after all targets, so that its
+            // last value wins rather than whichever of several in-flight writes lands last
+            Boolean consecutiveChecksTriggered = null;
             // Get the measured values for this check from the Graphite/Noop datasource
             // Iterate through them, to check for error/warn values
             for (Entry<String, Optional<BigDecimal>> entry : targetValues.entrySet()) {
@@ -116,7 +160,7 @@ public class CheckRunner implements Runnable {
 
                 LOGGER.info("        Check={}, Target={}  Current State is {} :: Message='Value found.''", thresholdCheck.getId(), target, currentState);
                 // Get the last alert stored for this check
-                Alert lastAlert = getLastAlertForTarget(target , check,lastAlerts,alertsStore);
+                Alert lastAlert = getLastAlertForTarget(target, check, lastAlerts);
 
                 AlertType lastState;
                 // If no "last alert" is found, then assume that the last state is "OK"
@@ -142,7 +186,7 @@ public class CheckRunner implements Runnable {
                 }
 
                 Alert alert = createAlert(target, currentValue, warn, error, lastState, currentState, now);
-                saveAlert(alert,check,lastAlerts,alertsStore);
+                saveAlert(alert, check, lastAlerts);
 
                 // Only notify if the alert has changed state
 
@@ -156,11 +200,11 @@ public class CheckRunner implements Runnable {
 
                         worstState = currentState;
                         interestingAlerts.add(alert);
-                        checksStore.updateConsecutiveChecksTriggered(thresholdCheck.getId(), false);
+                        consecutiveChecksTriggered = false;
 
                     }
                     if (analysePastAlertsAndRaiseAlarm(warn, error, interestingAlerts, alert, target, now)){
-                        checksStore.updateConsecutiveChecksTriggered(thresholdCheck.getId(), true);
+                        consecutiveChecksTriggered = true;
                     }
                     else{
                         continue;
@@ -181,39 +225,16 @@ public class CheckRunner implements Runnable {
             // Notify the Check Governor that the check has been completed
             LOGGER.info("        Check={} :: Message='Check is now complete'", thresholdCheck.getId() );
 
+            // The notifications are dispatched before the alerts and the state are written: once those are
+            // written the next run sees no change, so a notification not yet in the outbox would be lost
+            dispatchNotifications(thresholdCheck, worstState, now, interestingAlerts);
+
+            if (consecutiveChecksTriggered != null) {
+                pendingWrites.add(asyncChecksStore.updateConsecutiveChecksTriggered(thresholdCheck.getId(), consecutiveChecksTriggered));
+            }
             // Update the the check with the worst state encountered in this polling
-            Check updatedCheck = checksStore.updateStateAndLastCheck(thresholdCheck.getId(), worstState, DateTime.now());
+            writeAlertsAndState(thresholdCheck.getId(), worstState, now);
             LOGGER.info("       Check={} :: Message= 'Updating state to worst state {}'", thresholdCheck.getId(), worstState);
-            // If there are no interesting alerts, simply return
-            if (interestingAlerts.isEmpty()) {
-            	LOGGER.info("        Check={} :: Message='No interesting alerts found.'", thresholdCheck.getId() );
-                return;
-            }
-            LOGGER.info("        Check={} :: Message='Interesting alerts found, looking at check's subscriptions.'", thresholdCheck.getId() );
-            // If there are interesting alerts, then evaluate the check's subscriptions
-            // to see if notifications are to be sent out
-            for (Subscription subscription : updatedCheck.getSubscriptions()) {
-            	// If no notification should be sent for this alert state (ERROR, WARN, etc.),
-            	// move on
-            	LOGGER.info("        Check={} Subscription={} SubscriptionType={} :: Message= 'Subscription being evaluated.'", thresholdCheck.getId(), subscription.getId(), subscription.getType() );
-                if (!subscription.shouldNotify(now, worstState)) {
-                	LOGGER.info("        Check={} :: Message='Subscription should not fire away.' Subscription={}", thresholdCheck.getId(), subscription.getId() );
-                    continue;
-                }
-                // If a notification should be sent out, poll the notification services and
-                // send a notification for each registered service
-                for (NotificationService notificationService : notificationServices) {
-                    if (notificationService.canHandle(subscription.getType())) {
-                    	LOGGER.info("        Check={} :: Message='Subscription firing away.' Subscription={}", thresholdCheck.getId(), subscription.getId() );
-                        try {
-                            notificationService.sendNotification(updatedCheck, subscription, interestingAlerts);
-                            LOGGER.info("        Check={} :: Message='Subscription sent.' Subscription={}", thresholdCheck.getId(), subscription.getId() );
-                        } catch (Exception e) {
-                            LOGGER.warn("Message='Notifying {} by {} failed.'", subscription.getTarget(), subscription.getType(), e);
-                        }
-                    }
-                }
-            }
         } catch (Exception e) {
             LOGGER.warn("Message='{} failed'", check.getName(), e);
 
@@ -223,10 +244,40 @@ public class CheckRunner implements Runnable {
         }
     }
 
+    private void dispatchNotifications(ThresholdCheck thresholdCheck, AlertType worstState, DateTime now, List<Alert> interestingAlerts) {
+        // If there are no interesting alerts, simply return
+        if (interestingAlerts.isEmpty()) {
+            LOGGER.info("        Check={} :: Message='No interesting alerts found.'", thresholdCheck.getId() );
+            return;
+        }
+        // Reported with the state about to be written
+        Check updatedCheck = withStateAndLastCheck(worstState, now);
+        LOGGER.info("        Check={} :: Message='Interesting alerts found, looking at check's subscriptions.'", thresholdCheck.getId() );
+        // If there are interesting alerts, then evaluate the check's subscriptions
+        // to see if notifications are to be sent out
+        for (Subscription subscription : updatedCheck.getSubscriptions()) {
+        	// If no notification should be sent for this alert state (ERROR, WARN, etc.),
+        	// move on
+        	LOGGER.info("        Check={} Subscription={} SubscriptionType={} :: Message= 'Subscription being evaluated.'", thresholdCheck.getId(), subscription.getId(), subscription.getType() );
+            if (!subscription.shouldNotify(now, worstState)) {
+            	LOGGER.info("        Check={} :: Message='Subscription should not fire away.' Subscription={}", thresholdCheck.getId(), subscription.getId() );
+                continue;
+            }
+            // If a notification should be sent out, hand it to the notification services
+            // registered for the subscription type
+            LOGGER.info("        Check={} :: Message='Subscription firing away.' Subscription={}", thresholdCheck.getId(), subscription.getId() );
+            notificationDispatcher.dispatch(updatedCheck, subscription, interestingAlerts);
+        }
+    }
+
     private boolean analysePastAlertsAndRaiseAlarm(BigDecimal warn, BigDecimal error, List<Alert> interestingAlerts, Alert alert, String target, DateTime nowDate) {
         SeyrenResponse<Alert> previousResponse= alertsStore.getAlerts(check.getId(), 0, check.getConsecutiveChecks());
         if(null != previousResponse) {
-            List<Alert> previousAlerts = previousResponse.getValues();
+            // The alerts of this run are not written yet and are the newest of the history
+            List<Alert> previousAlerts = new ArrayList<Alert>(unsavedAlerts);
+            Collections.reverse(previousAlerts);
+            previousAlerts.addAll(previousResponse.getValues());
+            previousAlerts = previousAlerts.subList(0, Math.min(previousAlerts.size(), check.getConsecutiveChecks()));
             if(previousAlerts.size() < check.getConsecutiveChecks()){
                 LOGGER.info("       Check={}, Message='Not enough checks for previous consecutive alerts number of checks needed {}, current number of checks {}'", check.getId(), check.getConsecutiveChecks(), previousAlerts.size());
                 return false;
@@ -256,29 +307,97 @@ public class CheckRunner implements Runnable {
     	lastAlerts.clear();
     }
 
-    protected Alert getLastAlertForTarget(String target , Check check, HashMap<String, Alert> lastAlerts , AlertsStore alertsStore) {
+    /**
+     * Loads the last alert of every target which is not cached yet, with all the
+     * reads in flight at once. Targets whose read fails are left uncached so that
+     * {@link #getLastAlertForTarget(String, Check, Map)} retries them.
+     */
+    protected void prefetchLastAlerts(Iterable<String> targets, Check check, Map<String, Alert> lastAlerts) {
+        Map<String, ListenableFuture<Alert>> reads = new HashMap<String, ListenableFuture<Alert>>();
+        for (String target : targets) {
+            String key = String.format("%s|%s", check.getId(), target);
+            if (!lastAlerts.containsKey(key) && !reads.containsKey(key)) {
+                reads.put(key, asyncAlertsStore.getLastAlertForTargetOfCheck(target, check.getId()));
+            }
+        }
+        if (reads.isEmpty()) {
+            return;
+        }
+        LOGGER.info("        Check={} :: Message='Loading {} last alert(s) from store'", check.getId(), reads.size());
+        for (Entry<String, ListenableFuture<Alert>> read : reads.entrySet()) {
+            try {
+                Alert lastAlert = Futures.getUnchecked(read.getValue());
+                lastAlerts.put(read.getKey(), lastAlert == null ? NO_ALERT : lastAlert);
+            } catch (RuntimeException e) {
+                LOGGER.warn("        Check={} :: Message='Could not load last alert for {}'", check.getId(), read.getKey(), e);
+            }
+        }
+    }
+
+    protected Alert getLastAlertForTarget(String target, Check check, Map<String, Alert> lastAlerts) {
     	String key = String.format("%s|%s", check.getId(), target);
 
-    	if (lastAlerts.containsKey(key)) {
-    		return lastAlerts.get(key);
+    	Alert cached = lastAlerts.get(key);
+    	if (cached != null) {
+    		return cached == NO_ALERT ? null : cached;
     	}
 
     	// Last alert has not been loaded for this target/check; load from store
         LOGGER.info("        Check={}, Target={} :: Message='Loading last alert from store'", check.getId(), target);
-        Alert lastAlert = alertsStore.getLastAlertForTargetOfCheck(target, check.getId());
+        Alert lastAlert = Futures.getUnchecked(asyncAlertsStore.getLastAlertForTargetOfCheck(target, check.getId()));
 
         // Cache, even if null
-        lastAlerts.put(key, lastAlert);
+        lastAlerts.put(key, lastAlert == null ? NO_ALERT : lastAlert);
         return lastAlert;
     }
 
-    protected void saveAlert(Alert alert , Check check , Map<String, Alert> lastAlerts , AlertsStore alertsStore) {
+    /**
+     * Caches the alert as the target's last one. It is persisted by
+     * {@link #writeAlertsAndState(String, AlertType, DateTime)}, once the
+     * notifications of the run have been dispatched.
+     */
+    protected void saveAlert(Alert alert, Check check, Map<String, Alert> lastAlerts) {
     	// Update cache with latest
     	String key = String.format("%s|%s", check.getId(), alert.getTarget());
         lastAlerts.put(key, alert);
 
-        // Persist in store
-        alertsStore.createAlert(check.getId(), alert);
+        alert.setCheckId(check.getId());
+        unsavedAlerts.add(alert);
+    }
+
+    /**
+     * Waits for every store write issued so far in this run.
+     */
+    protected void awaitPendingWrites() {
+        if (pendingWrites.isEmpty()) {
+            return;
+        }
+        List<ListenableFuture<?>> writes = new ArrayList<ListenableFuture<?>>(pendingWrites);
+        pendingWrites.clear();
+        Futures.getUnchecked(Futures.allAsList(writes));
+    }
+
+    /**
+     * Writes the alerts of the run and the check's state alongside any other
+     * writes still in flight, and waits for all of them.
+     */
+    protected void writeAlertsAndState(String checkId, AlertType worstState, DateTime now) {
+        for (Alert alert : unsavedAlerts) {
+            pendingWrites.add(asyncAlertsStore.createAlert(checkId, alert));
+        }
+        unsavedAlerts.clear();
+        pendingWrites.add(asyncChecksStore.updateStateAndLastCheck(checkId, worstState, now));
+        awaitPendingWrites();
+    }
+
+    /**
+     * @return the check as it is about to be written, to report in notifications
+     *         dispatched before the write
+     */
+    protected Check withStateAndLastCheck(AlertType worstState, DateTime now) {
+        check.setState(worstState);
+        check.setLastCheck(now);
+        return check;
     }
 
     protected boolean isStillOk(AlertType last, AlertType current) {
@@ -29,8 +29,13 @@ import com.seyren.core.service.checker.NoopTargetCheck;
 import com.seyren.core.service.checker.TargetChecker;
 import com.seyren.core.service.checker.ValueChecker;
 import com.seyren.core.service.notification.NotificationService;
+import com.seyren.core.service.notification.dispatch.InlineNotificationDispatcher;
+import com.seyren.core.service.notification.dispatch.NotificationDispatcher;
 import com.seyren.core.store.AlertsStore;
+import com.seyren.core.store.AsyncAlertsStore;
+import com.seyren.core.store.AsyncChecksStore;
 import com.seyren.core.store.ChecksStore;
+import com.seyren.core.store.InlineAsyncStore;
 import com.seyren.core.util.config.SeyrenConfig;
 
 @Named
@@ -38,38 +43,53 @@ public class CheckRunnerFactory {
     
     private final AlertsStore alertsStore;
     private final ChecksStore checksStore;
+    private final AsyncAlertsStore asyncAlertsStore;
+    private final AsyncChecksStore asyncChecksStore;
     private final TargetChecker targetChecker;
     private final ValueChecker valueChecker;
-    private final Iterable<NotificationService> notificationServices;
+    private final NotificationDispatcher notificationDispatcher;
     private final SeyrenConfig seyrenConfig;
     private final OutlierDetector outlierDetector;
     
-    @Inject
     public CheckRunnerFactory(AlertsStore alertsStore, ChecksStore checksStore, TargetChecker targetChecker, ValueChecker valueChecker,
             List<NotificationService> notificationServices, SeyrenConfig seyrenConfig,OutlierDetector outlierDetector) {
+        this(alertsStore, checksStore, new InlineAsyncStore(checksStore, alertsStore, null), new InlineAsyncStore(checksStore, alertsStore, null),
+                targetChecker, valueChecker, new InlineNotificationDispatcher(notificationServices), seyrenConfig, outlierDetector);
+    }
+
+    @Inject
+    public CheckRunnerFactory(AlertsStore alertsStore, ChecksStore checksStore, AsyncAlertsStore asyncAlertsStore, AsyncChecksStore asyncChecksStore,
+            TargetChecker targetChecker, ValueChecker valueChecker, NotificationDispatcher notificationDispatcher, SeyrenConfig seyrenConfig,
+            OutlierDetector outlierDetector) {
         this.alertsStore = alertsStore;
         this.checksStore = checksStore;
+        this.asyncAlertsStore = asyncAlertsStore;
+        this.asyncChecksStore = asyncChecksStore;
         this.targetChecker = targetChecker;
         this.valueChecker = valueChecker;
-        this.notificationServices = notificationServices;
+        this.notificationDispatcher = notificationDispatcher;
         this.seyrenConfig=seyrenConfig;
         this.outlierDetector = outlierDetector;
     }
 
     public CheckRunner create(Check check) {
         if(check instanceof ThresholdCheck)
-            return new CheckRunner(check, alertsStore, checksStore, targetChecker, valueChecker, notificationServices, seyrenConfig.getGraphiteRefreshRate());
+            return new CheckRunner(check, alertsStore, checksStore, asyncAlertsStore, asyncChecksStore, targetChecker, valueChecker, notificationDispatcher,
+                    seyrenConfig.getGraphiteRefreshRate());
         else
-            return new OutlierCheckRunner(check,alertsStore,checksStore,targetChecker,valueChecker,notificationServices , outlierDetector,seyrenConfig.getGraphiteRefreshRate());
+            return new OutlierCheckRunner(check, alertsStore, checksStore, asyncAlertsStore, asyncChecksStore, targetChecker, valueChecker, notificationDispatcher,
+                    outlierDetector, seyrenConfig.getGraphiteRefreshRate());
 
     }
 
 
     public CheckRunner create(Check check, BigDecimal value) {
         if(check instanceof ThresholdCheck)
-            return new CheckRunner(check, alertsStore, checksStore, new NoopTargetCheck(value), valueChecker, notificationServices, seyrenConfig.getGraphiteRefreshRate());
+            return new CheckRunner(check, alertsStore, checksStore, asyncAlertsStore, asyncChecksStore, new NoopTargetCheck(value), valueChecker,
+                    notificationDispatcher, seyrenConfig.getGraphiteRefreshRate());
         else
-            return new OutlierCheckRunner(check,alertsStore,checksStore,new NoopTargetCheck(value),valueChecker,notificationServices,outlierDetector,seyrenConfig.getGraphiteRefreshRate());
+            return new OutlierCheckRunner(check, alertsStore, checksStore, asyncAlertsStore, asyncChecksStore, new NoopTargetCheck(value), valueChecker,
+                    notificationDispatcher, outlierDetector, seyrenConfig.getGraphiteRefreshRate());
 
     }
 
@@ -19,7 +19,10 @@ import com.seyren.core.domain.*;
 import com.seyren.core.service.checker.TargetChecker;
 import com.seyren.core.service.checker.ValueChecker;
 import com.seyren.core.service.notification.NotificationService;
+import com.seyren.core.service.notification.dispatch.NotificationDispatcher;
 import com.seyren.core.store.AlertsStore;
+import com.seyren.core.store.AsyncAlertsStore;
+import com.seyren.core.store.AsyncChecksStore;
 import com.seyren.core.store.ChecksStore;
 import org.joda.time.DateTime;
 import org.slf4j.Logger;
@@ -45,6 +48,22 @@ public class OutlierCheckRunner extends CheckRunner
         this.outlierDetector = outlierDetector;
     }
 
+    public OutlierCheckRunner(Check check, AlertsStore alertsStore, ChecksStore checksStore, AsyncAlertsStore asyncAlertsStore, AsyncChecksStore asyncChecksStore,
+                              TargetChecker targetChecker, ValueChecker valueChecker, Iterable<NotificationService> notificationServices,
+                              OutlierDetector outlierDetector, String graphiteRefreshRate)
+    {
+        super(check, alertsStore, checksStore, asyncAlertsStore, asyncChecksStore, targetChecker, valueChecker, notificationServices, graphiteRefreshRate);
+        this.outlierDetector = outlierDetector;
+    }
+
+    public OutlierCheckRunner(Check check, AlertsStore alertsStore, ChecksStore checksStore, AsyncAlertsStore asyncAlertsStore, AsyncChecksStore asyncChecksStore,
+                              TargetChecker targetChecker, ValueChecker valueChecker, NotificationDispatcher notificationDispatcher,
+                              OutlierDetector outlierDetector, String graphiteRefreshRate)
+    {
+        super(check, alertsStore, checksStore, asyncAlertsStore, asyncChecksStore, targetChecker, valueChecker, notificationDispatcher, graphiteRefreshRate);
+        this.outlierDetector = outlierDetector;
+    }
+
     @Override
     public final void run()
     {
@@ -87,7 +106,9 @@ public class OutlierCheckRunner extends CheckRunner
 
             filteredTargetValues = filterTargetValues(targetValues);
 
-            List<String> unhealthyTargets = outlierDetector.getUnhealthyTargets(filteredTargetValues, outlierCheck);
+            Set<String> unhealthyTargets = new HashSet<String>(outlierDetector.getUnhealthyTargets(filteredTargetValues, outlierCheck));
+
+            prefetchLastAlerts(targetValues.keySet(), check, lastOutlierAlerts);
 
             for (String target : targetValues.keySet())
             {
@@ -104,7 +125,7 @@ public class OutlierCheckRunner extends CheckRunner
                 OutlierAlert lastAlert = null;
                 try
                 {
-                    lastAlert = (OutlierAlert) getLastAlertForTarget(target, check, lastOutlierAlerts, alertsStore);
+                    lastAlert = (OutlierAlert) getLastAlertForTarget(target, check, lastOutlierAlerts);
                 }
                 catch (Exception e)
                 {
@@ -157,40 +178,27 @@ public class OutlierCheckRunner extends CheckRunner
                     }
                 }
 
-                saveAlert(alert, check, lastOutlierAlerts, alertsStore);
-
-            }
-
-            Check updatedCheck = checksStore.updateStateAndLastCheck(outlierCheck.getId(), worstState, DateTime.now());
+                saveAlert(alert, check, lastOutlierAlerts);
 
-            if (interestingAlerts.isEmpty())
-            {
-                return;
             }
 
-            for (Subscription subscription : updatedCheck.getSubscriptions())
+            // Dispatched before the alerts and the state are written, which would hide the change from the next run
+            if (!interestingAlerts.isEmpty())
             {
-                if (!subscription.shouldNotify(now, worstState))
-                {
-                    continue;
-                }
-
-                for (NotificationService notificationService : notificationServices)
+                Check updatedCheck = withStateAndLastCheck(worstState, now);
+                for (Subscription subscription : updatedCheck.getSubscriptions())
                 {
-                    if (notificationService.canHandle(subscription.getType()))
+                    if (!subscription.shouldNotify(now, worstState))
                     {
-                        try
-                        {
-                            notificationService.sendNotification(updatedCheck, subscription, interestingAlerts);
-                        }
-                        catch (Exception e)
-                        {
-                            LOGGER.warn("Notifying {} by {} failed.", subscription.getTarget(), subscription.getType(), e);
-                        }
+                        continue;
                     }
+
+                    notificationDispatcher.dispatch(updatedCheck, subscription, interestingAlerts);
                 }
             }
 
+            writeAlertsAndState(outlierCheck.getId(), worstState, now);
+
         }
         catch (Exception e)
         {
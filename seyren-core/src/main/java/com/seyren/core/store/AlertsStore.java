@@ -23,6 +23,8 @@ public interface AlertsStore {
     Alert createAlert(String checkId, Alert alert);
     
     SeyrenResponse<Alert> getAlerts(String checkId, int start, int items);
+
+    SeyrenResponse<Alert> getAlerts(String checkId, int start, int items, ReadPurpose purpose);
     
     SeyrenResponse<Alert> getAlerts(int start, int items);
     
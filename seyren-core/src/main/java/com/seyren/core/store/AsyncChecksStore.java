@@ -0,0 +1,52 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.seyren.core.store;
+
+import java.util.List;
+import java.util.Set;
+import java.util.regex.Pattern;
+
+import org.joda.time.DateTime;
+
+import com.google.common.util.concurrent.ListenableFuture;
+import com.seyren.core.domain.AlertType;
+import com.seyren.core.domain.Check;
+import com.seyren.core.domain.SeyrenResponse;
+
+/**
+ * Non-blocking counterpart of {@link ChecksStore}. Each operation is started
+ * straight away and its result is delivered through the returned future, so
+ * callers can have several store operations in flight at once.
+ */
+public interface AsyncChecksStore {
+
+    ListenableFuture<SeyrenResponse<Check>> getChecksByPattern(List<String> checkFields, List<Pattern> patterns, Boolean enabled);
+
+    ListenableFuture<SeyrenResponse<Check>> getChecks(Boolean enabled, Boolean live, ReadPurpose purpose);
+
+    ListenableFuture<SeyrenResponse<Check>> getChecksByState(Set<String> states, Boolean enabled);
+
+    ListenableFuture<Check> getCheck(String checkId, ReadPurpose purpose);
+
+    ListenableFuture<Void> deleteCheck(String checkId);
+
+    ListenableFuture<Check> createCheck(Check check);
+
+    ListenableFuture<Check> saveCheck(Check check);
+
+    ListenableFuture<Check> updateStateAndLastCheck(String checkId, AlertType state, DateTime lastCheck);
+
+    ListenableFuture<Check> updateConsecutiveChecksTriggered(String checkId, Boolean consecutiveChecksTriggered);
+
+}
@@ -0,0 +1,30 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.seyren.core.store;
+
+import com.google.common.util.concurrent.ListenableFuture;
+import com.seyren.core.domain.Subscription;
+
+/**
+ * Non-blocking counterpart of {@link SubscriptionsStore}.
+ */
+public interface AsyncSubscriptionsStore {
+
+    ListenableFuture<Subscription> createSubscription(String checkId, Subscription subscription);
+
+    ListenableFuture<Void> deleteSubscription(String checkId, String subscriptionId);
+
+    ListenableFuture<Void> updateSubscription(String checkId, Subscription subscription);
+
+}
@@ -37,10 +37,14 @@ public interface ChecksStore {
     SeyrenResponse getChecksByPattern(List<String> checkFields, List<Pattern> patterns, Boolean enabled);
 
     SeyrenResponse<Check> getChecks(Boolean enabled, Boolean live);
+
+    SeyrenResponse<Check> getChecks(Boolean enabled, Boolean live, ReadPurpose purpose);
     
     SeyrenResponse<Check> getChecksByState(Set<String> states, Boolean enabled);
     
     Check getCheck(String checkId);
+
+    Check getCheck(String checkId, ReadPurpose purpose);
     
     void deleteCheck(String checkId);
     
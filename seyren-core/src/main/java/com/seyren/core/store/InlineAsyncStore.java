@@ -0,0 +1,208 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.seyren.core.store;
+
+import java.util.List;
+import java.util.Set;
+import java.util.regex.Pattern;
+
+import org.joda.time.DateTime;
+
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.seyren.core.domain.Alert;
+import com.seyren.core.domain.AlertType;
+import com.seyren.core.domain.Check;
+import com.seyren.core.domain.SeyrenResponse;
+import com.seyren.core.domain.Subscription;
+
+/**
+ * Exposes synchronous stores through the async store interfaces by running
+ * each operation on the calling thread and returning a completed future.
+ *
+ * Used where no truly asynchronous store is available, e.g. in tests or when
+ * a check runner is created with plain stores.
+ */
+public class InlineAsyncStore implements AsyncChecksStore, AsyncAlertsStore, AsyncSubscriptionsStore {
+
+    private final ChecksStore checksStore;
+    private final AlertsStore alertsStore;
+    private final SubscriptionsStore subscriptionsStore;
+
+    public InlineAsyncStore(ChecksStore checksStore, AlertsStore alertsStore, SubscriptionsStore subscriptionsStore) {
+        this.checksStore = checksStore;
+        this.alertsStore = alertsStore;
+        this.subscriptionsStore = subscriptionsStore;
+    }
+
+    @Override
+    public ListenableFuture<SeyrenResponse<Check>> getChecksByPattern(List<String> checkFields, List<Pattern> patterns, Boolean enabled) {
+        try {
+            @SuppressWarnings("unchecked")
+            SeyrenResponse<Check> response = checksStore.getChecksByPattern(checkFields, patterns, enabled);
+            return Futures.immediateFuture(response);
+        } catch (RuntimeException e) {
+            return Futures.immediateFailedFuture(e);
+        }
+    }
+
+    @Override
+    public ListenableFuture<SeyrenResponse<Check>> getChecks(Boolean enabled, Boolean live, ReadPurpose purpose) {
+        try {
+            return Futures.immediateFuture(checksStore.getChecks(enabled, live, purpose));
+        } catch (RuntimeException e) {
+            return Futures.immediateFailedFuture(e);
+        }
+    }
+
+    @Override
+    public ListenableFuture<SeyrenResponse<Check>> getChecksByState(Set<String> states, Boolean enabled) {
+        try {
+            return Futures.immediateFuture(checksStore.getChecksByState(states, enabled));
+        } catch (RuntimeException e) {
+            return Futures.immediateFailedFuture(e);
+        }
+    }
+
+    @Override
+    public ListenableFuture<Check> getCheck(String checkId, ReadPurpose purpose) {
+        try {
+            return Futures.immediateFuture(checksStore.getCheck(checkId, purpose));
+        } catch (RuntimeException e) {
+            return Futures.immediateFailedFuture(e);
+        }
+    }
+
+    @Override
+    public ListenableFuture<Void> deleteCheck(String checkId) {
+        try {
+            checksStore.deleteCheck(checkId);
+            return Futures.<Void>immediateFuture(null);
+        } catch (RuntimeException e) {
+            return Futures.immediateFailedFuture(e);
+        }
+    }
+
+    @Override
+    public ListenableFuture<Check> createCheck(Check check) {
+        try {
+            return Futures.immediateFuture(checksStore.createCheck(check));
+        } catch (RuntimeException e) {
+            return Futures.immediateFailedFuture(e);
+        }
+    }
+
+    @Override
+    public ListenableFuture<Check> saveCheck(Check check) {
+        try {
+            return Futures.immediateFuture(checksStore.saveCheck(check));
+        } catch (RuntimeException e) {
+            return Futures.immediateFailedFuture(e);
+        }
+    }
+
+    @Override
+    public ListenableFuture<Check> updateStateAndLastCheck(String checkId, AlertType state, DateTime lastCheck) {
+        try {
+            return Futures.immediateFuture(checksStore.updateStateAndLastCheck(checkId, state, lastCheck));
+        } catch (RuntimeException e) {
+            return Futures.immediateFailedFuture(e);
+        }
+    }
+
+    @Override
+    public ListenableFuture<Check> updateConsecutiveChecksTriggered(String checkId, Boolean consecutiveChecksTriggered) {
+        try {
+            return Futures.immediateFuture(checksStore.updateConsecutiveChecksTriggered(checkId, consecutiveChecksTriggered));
+        } catch (RuntimeException e) {
+            return Futures.immediateFailedFuture(e);
+        }
+    }
+
+    @Override
+    public ListenableFuture<Alert> createAlert(String checkId, Alert alert) {
+        try {
+            return Futures.immediateFuture(alertsStore.createAlert(checkId, alert));
+        } catch (RuntimeException e) {
+            return Futures.immediateFailedFuture(e);
+        }
+    }
+
+    @Override
+    public ListenableFuture<SeyrenResponse<Alert>> getAlerts(String checkId, int start, int items, ReadPurpose purpose) {
+        try {
+            return Futures.immediateFuture(alertsStore.getAlerts(checkId, start, items, purpose));
+        } catch (RuntimeException e) {
+            return Futures.immediateFailedFuture(e);
+        }
+    }
+
+    @Override
+    public ListenableFuture<SeyrenResponse<Alert>> getAlerts(int start, int items) {
+        try {
+            return Futures.immediateFuture(alertsStore.getAlerts(start, items));
+        } catch (RuntimeException e) {
+            return Futures.immediateFailedFuture(e);
+        }
+    }
+
+    @Override
+    public ListenableFuture<Void> deleteAlerts(String checkId, DateTime before) {
+        try {
+            alertsStore.deleteAlerts(checkId, before);
+            return Futures.<Void>immediateFuture(null);
+        } catch (RuntimeException e) {
+            return Futures.immediateFailedFuture(e);
+        }
+    }
+
+    @Override
+    public ListenableFuture<Alert> getLastAlertForTargetOfCheck(String target, String checkId) {
+        try {
+            return Futures.immediateFuture(alertsStore.getLastAlertForTargetOfCheck(target, checkId));
+        } catch (RuntimeException e) {
+            return Futures.immediateFailedFuture(e);
+        }
+    }
+
+    @Override
+    public ListenableFuture<Subscription> createSubscription(String checkId, Subscription subscription) {
+        try {
+            return Futures.immediateFuture(subscriptionsStore.createSubscription(checkId, subscription));
+        } catch (RuntimeException e) {
+            return Futures.immediateFailedFuture(e);
+        }
+    }
+
+    @Override
+    public ListenableFuture<Void> deleteSubscription(String checkId, String subscriptionId) {
+        try {
+            subscriptionsStore.deleteSubscription(checkId, subscriptionId);
+            return Futures.<Void>immediateFuture(null);
+        } catch (RuntimeException e) {
+            return Futures.immediateFailedFuture(e);
+        }
+    }
+
+    @Override
+    public ListenableFuture<Void> updateSubscription(String checkId, Subscription subscription) {
+        try {
+            subscriptionsStore.updateSubscription(checkId, subscription);
+            return Futures.<Void>immediateFuture(null);
+        } catch (RuntimeException e) {
+            return Futures.immediateFailedFuture(e);
+        }
+    }
+
+}
@@ -0,0 +1,49 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.seyren.core.store;
+
+import java.util.List;
+
+import org.joda.time.DateTime;
+
+import com.seyren.core.domain.Alert;
+import com.seyren.core.domain.PendingNotification;
+
+/**
+ * Durable queue of notifications which have yet to be delivered. Several
+ * nodes may claim from it at once; a claim is a lease, so notifications
+ * claimed by a node which goes away are picked up again once it expires.
+ */
+public interface NotificationOutboxStore {
+
+    /**
+     * @return false when a notification with the same key is already pending
+     */
+    boolean createPendingNotification(PendingNotification notification);
+
+    /**
+     * Leases up to {@code limit} notifications which are due at {@code now}
+     * to {@code owner} until {@code leaseExpiry}, oldest due first.
+     */
+    List<PendingNotification> claimPendingNotifications(String owner, int limit, DateTime now, DateTime leaseExpiry);
+
+    /**
+     * Releases a claimed notification to be tried again at {@code due}, with
+     * only the {@code alerts} which are left to send.
+     */
+    void reschedulePendingNotification(String id, int attempts, DateTime due, List<Alert> alerts);
+
+    void deletePendingNotification(String id);
+
+}
@@ -0,0 +1,34 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.seyren.core.store;
+
+/**
+ * What a read is for, so that a store can decide how fresh the data has to be.
+ *
+ * Reads made while evaluating checks must see the latest writes, whereas the
+ * listings and alert history shown by the API and UI can tolerate slightly
+ * stale data and may be served from replicas.
+ */
+public enum ReadPurpose {
+
+    /** Reads that feed check evaluation or a subsequent write */
+    EVALUATION,
+
+    /** Check listings and searches */
+    LISTING,
+
+    /** Alert history */
+    HISTORY
+
+}
@@ -0,0 +1,44 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.seyren.core.store;
+
+import org.springframework.context.annotation.Condition;
+import org.springframework.context.annotation.ConditionContext;
+import org.springframework.core.type.AnnotatedTypeMetadata;
+
+/**
+ * Registers a store implementation only when it is the one selected by
+ * {@code SEYREN_STORE} (system property or environment variable, defaulting
+ * to {@code mongo}), so that several store modules can share a classpath.
+ */
+public abstract class StoreCondition implements Condition {
+
+    public static final String DEFAULT_STORE = "mongo";
+
+    private final String store;
+
+    protected StoreCondition(String store) {
+        this.store = store;
+    }
+
+    @Override
+    public boolean matches(ConditionContext context, AnnotatedTypeMetadata metadata) {
+        String selected = context.getEnvironment().getProperty("SEYREN_STORE");
+        if (selected == null || selected.trim().isEmpty()) {
+            selected = DEFAULT_STORE;
+        }
+        return store.equalsIgnoreCase(selected.trim());
+    }
+
+}
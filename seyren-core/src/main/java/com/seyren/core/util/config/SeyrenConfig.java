@@ -16,6 +16,7 @@ package com.seyren.core.util.config;
 import static org.apache.commons.lang.StringUtils.isNotEmpty;
 import static org.apache.commons.lang.StringUtils.stripEnd;
 
+import java.io.File;
 import java.util.Arrays;
 import java.util.List;
 
@@ -36,8 +37,43 @@ public class SeyrenConfig {
 
 	private final String baseUrl;
 	private final String mongoUrl;
+	private final String mongoEvaluationReadPreference;
+	private final String mongoListingReadPreference;
+	private final String mongoHistoryReadPreference;
+	private final int mongoMaxStalenessSeconds;
+	private final String store;
+	private final String localStorePath;
+	private final int localStoreSegmentSizeMb;
+	private final boolean localStoreFsync;
 	private final String graphsEnable;
 	private final int noOfThreads;
+	private final int outlierParallelism;
+	private final int outlierParallelThreshold;
+	private final double outlierEwmaAlpha;
+	private final String outlierStateFile;
+	private final int outlierStateSnapshotSeconds;
+	private final double awsConvictionMaxFraction;
+	private final int awsConvictionWindowMinutes;
+	private final boolean awsConvictionDryRun;
+	private final int awsConvictionThreads;
+	private final int awsAsgIndexRefreshSeconds;
+	private final int notificationThreads;
+	private final int notificationQueueCapacity;
+	private final int notificationMaxAttempts;
+	private final long notificationRetryDelayMillis;
+	private final int notificationCoalesceWindowSeconds;
+	private final boolean notificationImmediateErrors;
+	private final String notificationRateLimits;
+	private final int notificationRateLimitBurst;
+	private final boolean notificationOutboxEnabled;
+	private final int notificationOutboxBatchSize;
+	private final int notificationOutboxLeaseSeconds;
+	private final long notificationOutboxPollMillis;
+	private final int notificationHttpMaxConnections;
+	private final int notificationHttpMaxConnectionsPerHost;
+	private final int notificationHttpConnectTimeoutMillis;
+	private final int notificationHttpSocketTimeoutMillis;
+	private final String notificationHttpTlsProtocols;
 	private final int checkExecutorInstanceIndex;
 	private final int checkExecutorTotalInstances;
 	private final int maxCheckExecutionTimeInSeconds;
@@ -69,6 +105,10 @@ public class SeyrenConfig {
 	private final Integer smtpPort;
 	private final Integer smtpConnectionTimeout;
 	private final Integer smtpSocketTimeout;
+	private final int smtpConnections;
+	private final int smtpBatchSize;
+	private final int smtpIdleTimeoutSeconds;
+	private final boolean smtpMergeRecipients;
 	private final String flowdockExternalUsername;
 	private final String flowdockTags;
 	private final String graphiteScheme;
@@ -77,6 +117,8 @@ public class SeyrenConfig {
 	private final String flowdockEmojis;
 	private final String ircCatHost;
 	private final String ircCatPort;
+	private final int ircCatQueueCapacity;
+	private final int ircCatIdleTimeoutSeconds;
 	private final String slackToken;
 	private final String slackUsername;
 	private final String slackIconUrl;
@@ -89,6 +131,9 @@ public class SeyrenConfig {
 	private final String victorOpsRestAPIEndpoint;
 	private final String emailTemplateFileName;
 	private final String emailSubjectTemplateFileName;
+	private final String emailDigestTemplateFileName;
+	private final String emailDigestSubjectTemplateFileName;
+	private final int emailTemplateReloadSeconds;
 	private final String bigPandaNotificationUrl;
 	private final String bigPandaAuthBearer;
 	private final String httpNotificationUrl;
@@ -96,7 +141,10 @@ public class SeyrenConfig {
 	private final String scriptPath;
 	private final String scriptType;
 	private final String scriptResourceUrls;
+	private final int scriptWorkers;
+	private final int scriptWorkerTimeoutSeconds;
 	private final String graphiteRefreshRate;
+	private final long graphiteChartCacheBytes;
 	private final String emfUrl;
 	private final String emfSubKey;
 
@@ -105,8 +153,46 @@ public class SeyrenConfig {
 		// Base
 		this.baseUrl = stripEnd(configOrDefault("SEYREN_URL", DEFAULT_BASE_URL), "/");
 		this.mongoUrl = configOrDefault("MONGO_URL", "mongodb://localhost:27017/seyren");
+		this.mongoEvaluationReadPreference = configOrDefault("MONGO_READ_PREFERENCE_EVALUATION", "primary");
+		this.mongoListingReadPreference = configOrDefault("MONGO_READ_PREFERENCE_LISTING", "secondaryPreferred");
+		this.mongoHistoryReadPreference = configOrDefault("MONGO_READ_PREFERENCE_HISTORY", "secondaryPreferred");
+		// 0 disables the bound; MongoDB 3.4+ is needed and the smallest accepted value is 90
+		this.mongoMaxStalenessSeconds = Integer.parseInt(configOrDefault("MONGO_MAX_STALENESS_SECONDS", "0"));
+		this.store = configOrDefault("SEYREN_STORE", "mongo");
+		this.localStorePath = configOrDefault("LOCAL_STORE_PATH", "seyren-data");
+		this.localStoreSegmentSizeMb = Integer.parseInt(configOrDefault("LOCAL_STORE_SEGMENT_SIZE_MB", "64"));
+		this.localStoreFsync = Boolean.parseBoolean(configOrDefault("LOCAL_STORE_FSYNC", "false"));
 		this.graphsEnable = configOrDefault("GRAPHS_ENABLE", "true");
 		this.noOfThreads = Integer.parseInt(configOrDefault("SEYREN_THREADS", "8"));
+		this.outlierParallelism = Integer.parseInt(configOrDefault("OUTLIER_PARALLELISM", String.valueOf(Runtime.getRuntime().availableProcessors())));
+		this.outlierParallelThreshold = Integer.parseInt(configOrDefault("OUTLIER_PARALLEL_THRESHOLD", "2000"));
+		this.outlierEwmaAlpha = Double.parseDouble(configOrDefault("OUTLIER_EWMA_ALPHA", "0.1"));
+		// Absolute, so that the baselines do not land in whatever the servlet container's working directory is
+		this.outlierStateFile = configOrDefault("OUTLIER_STATE_FILE",
+				new File(System.getProperty("java.io.tmpdir"), "seyren-outlier-state.bin").getAbsolutePath());
+		this.outlierStateSnapshotSeconds = Integer.parseInt(configOrDefault("OUTLIER_STATE_SNAPSHOT_SECONDS", "300"));
+		this.awsConvictionMaxFraction = Double.parseDouble(configOrDefault("AWS_CONVICTION_MAX_FRACTION", "0.1"));
+		this.awsConvictionWindowMinutes = Integer.parseInt(configOrDefault("AWS_CONVICTION_WINDOW_MINUTES", "30"));
+		this.awsConvictionDryRun = Boolean.parseBoolean(configOrDefault("AWS_CONVICTION_DRY_RUN", "false"));
+		this.awsConvictionThreads = Integer.parseInt(configOrDefault("AWS_CONVICTION_THREADS", "2"));
+		this.awsAsgIndexRefreshSeconds = Integer.parseInt(configOrDefault("AWS_ASG_INDEX_REFRESH_SECONDS", "300"));
+		this.notificationThreads = Integer.parseInt(configOrDefault("NOTIFICATION_THREADS", "2"));
+		this.notificationQueueCapacity = Integer.parseInt(configOrDefault("NOTIFICATION_QUEUE_CAPACITY", "1000"));
+		this.notificationMaxAttempts = Integer.parseInt(configOrDefault("NOTIFICATION_MAX_ATTEMPTS", "4"));
+		this.notificationRetryDelayMillis = Long.parseLong(configOrDefault("NOTIFICATION_RETRY_DELAY_MILLIS", "1000"));
+		this.notificationCoalesceWindowSeconds = Integer.parseInt(configOrDefault("NOTIFICATION_COALESCE_WINDOW_SECONDS", "0"));
+		this.notificationImmediateErrors = Boolean.parseBoolean(configOrDefault("NOTIFICATION_IMMEDIATE_ERRORS", "false"));
+		this.notificationRateLimits = configOrDefault("NOTIFICATION_RATE_LIMITS", "SLACK=60,PAGERDUTY=120,TWILIO=60,PUSHOVER=60,OPSGENIE=600");
+		this.notificationRateLimitBurst = Integer.parseInt(configOrDefault("NOTIFICATION_RATE_LIMIT_BURST", "5"));
+		this.notificationOutboxEnabled = Boolean.parseBoolean(configOrDefault("NOTIFICATION_OUTBOX_ENABLED", "false"));
+		this.notificationOutboxBatchSize = Integer.parseInt(configOrDefault("NOTIFICATION_OUTBOX_BATCH_SIZE", "50"));
+		this.notificationOutboxLeaseSeconds = Integer.parseInt(configOrDefault("NOTIFICATION_OUTBOX_LEASE_SECONDS", "60"));
+		this.notificationOutboxPollMillis = Long.parseLong(configOrDefault("NOTIFICATION_OUTBOX_POLL_MILLIS", "1000"));
+		this.notificationHttpMaxConnections = Integer.parseInt(configOrDefault("NOTIFICATION_HTTP_MAX_CONNECTIONS", "100"));
+		this.notificationHttpMaxConnectionsPerHost = Integer.parseInt(configOrDefault("NOTIFICATION_HTTP_MAX_CONNECTIONS_PER_HOST", "10"));
+		this.notificationHttpConnectTimeoutMillis = Integer.parseInt(configOrDefault("NOTIFICATION_HTTP_CONNECT_TIMEOUT_MILLIS", "5000"));
+		this.notificationHttpSocketTimeoutMillis = Integer.parseInt(configOrDefault("NOTIFICATION_HTTP_SOCKET_TIMEOUT_MILLIS", "10000"));
+		this.notificationHttpTlsProtocols = configOrDefault("NOTIFICATION_HTTP_TLS_PROTOCOLS", "TLSv1.2");
 		this.checkExecutorInstanceIndex = Integer.parseInt(configOrDefault("SEYREN_WORKER_INDEX", "1"));
 		this.checkExecutorTotalInstances = Integer.parseInt(configOrDefault("SEYREN_WORKER_COUNT", "1"));
 		this.maxCheckExecutionTimeInSeconds = Integer
@@ -127,6 +213,7 @@ public class SeyrenConfig {
 		this.graphiteSocketTimeout = Integer.parseInt(configOrDefault("GRAPHITE_SOCKET_TIMEOUT", "0"));
 		this.graphiteScheme = configOrDefault("GRAPHITE_SCHEME", "http");
 		this.graphiteRefreshRate = configOrDefault("GRAPHITE_REFRESH", "60000");
+		this.graphiteChartCacheBytes = Long.parseLong(configOrDefault("GRAPHITE_CHART_CACHE_BYTES", "33554432"));
 
 		// HTTP
 
@@ -141,6 +228,10 @@ public class SeyrenConfig {
 		this.smtpPort = Integer.parseInt(configOrDefault("SMTP_PORT", "25"));
 		this.smtpConnectionTimeout = Integer.parseInt(configOrDefault("SMTP_CONNECTION_TIMEOUT", "45000"));
 		this.smtpSocketTimeout = Integer.parseInt(configOrDefault("SMTP_SOCKET_TIMEOUT", "120000"));
+		this.smtpConnections = Integer.parseInt(configOrDefault("SMTP_CONNECTIONS", "1"));
+		this.smtpBatchSize = Integer.parseInt(configOrDefault("SMTP_BATCH_SIZE", "50"));
+		this.smtpIdleTimeoutSeconds = Integer.parseInt(configOrDefault("SMTP_IDLE_TIMEOUT_SECONDS", "60"));
+		this.smtpMergeRecipients = Boolean.parseBoolean(configOrDefault("SMTP_MERGE_RECIPIENTS", "false"));
 
 		// HipChat
 		this.hipChatBaseUrl = configOrDefault(list("HIPCHAT_BASEURL", "HIPCHAT_BASE_URL"), "https://api.hipchat.com");
@@ -169,6 +260,8 @@ public class SeyrenConfig {
 		// IrcCat
 		this.ircCatHost = configOrDefault("IRCCAT_HOST", "localhost");
 		this.ircCatPort = configOrDefault("IRCCAT_PORT", "12345");
+		this.ircCatQueueCapacity = Integer.parseInt(configOrDefault("IRCCAT_QUEUE_CAPACITY", "1000"));
+		this.ircCatIdleTimeoutSeconds = Integer.parseInt(configOrDefault("IRCCAT_IDLE_TIMEOUT_SECONDS", "60"));
 
 		// Slack
 		this.slackToken = configOrDefault("SLACK_TOKEN", "");
@@ -197,6 +290,11 @@ public class SeyrenConfig {
 				"com/seyren/core/service/notification/email-template.vm");
 		this.emailSubjectTemplateFileName = configOrDefault("TEMPLATE_EMAIL_SUBJECT_FILE_PATH",
 				"com/seyren/core/service/notification/email-subject-template.vm");
+		this.emailDigestTemplateFileName = configOrDefault("TEMPLATE_EMAIL_DIGEST_FILE_PATH",
+				"com/seyren/core/service/notification/email-digest-template.vm");
+		this.emailDigestSubjectTemplateFileName = configOrDefault("TEMPLATE_EMAIL_DIGEST_SUBJECT_FILE_PATH",
+				"com/seyren/core/service/notification/email-digest-subject-template.vm");
+		this.emailTemplateReloadSeconds = Integer.parseInt(configOrDefault("TEMPLATE_EMAIL_RELOAD_SECONDS", "10"));
 
 		// spring security
 		this.securityEnabled = Boolean.parseBoolean(configOrDefault("SECURITY_ENABLED", "false"));
@@ -205,6 +303,8 @@ public class SeyrenConfig {
 		this.scriptPath = configOrDefault("SCRIPT_FILE_PATH", "/tmp");
 		this.scriptType = configOrDefault("SCRIPT_TYPE", "python");
 		this.scriptResourceUrls = configOrDefault("SCRIPT_RESOURCE_URLS", "ERROR: None Defined");
+		this.scriptWorkers = Integer.parseInt(configOrDefault("SCRIPT_WORKERS", "0"));
+		this.scriptWorkerTimeoutSeconds = Integer.parseInt(configOrDefault("SCRIPT_WORKER_TIMEOUT_SECONDS", "30"));
 
 		// EMF
 		this.emfUrl = configOrDefault("EMF_URL", "");
@@ -232,6 +332,46 @@ public class SeyrenConfig {
 		return mongoUrl;
 	}
 
+	@JsonIgnore
+	public String getMongoEvaluationReadPreference() {
+		return mongoEvaluationReadPreference;
+	}
+
+	@JsonIgnore
+	public String getMongoListingReadPreference() {
+		return mongoListingReadPreference;
+	}
+
+	@JsonIgnore
+	public String getMongoHistoryReadPreference() {
+		return mongoHistoryReadPreference;
+	}
+
+	@JsonIgnore
+	public int getMongoMaxStalenessSeconds() {
+		return mongoMaxStalenessSeconds;
+	}
+
+	@JsonIgnore
+	public String getStore() {
+		return store;
+	}
+
+	@JsonIgnore
+	public String getLocalStorePath() {
+		return localStorePath;
+	}
+
+	@JsonIgnore
+	public int getLocalStoreSegmentSizeMb() {
+		return localStoreSegmentSizeMb;
+	}
+
+	@JsonIgnore
+	public boolean isLocalStoreFsync() {
+		return localStoreFsync;
+	}
+
 	public boolean isGraphsEnabled() {
 		return Boolean.valueOf(graphsEnable);
 	}
@@ -241,6 +381,141 @@ public class SeyrenConfig {
 		return noOfThreads;
 	}
 
+	@JsonIgnore
+	public int getOutlierParallelism() {
+		return outlierParallelism;
+	}
+
+	@JsonIgnore
+	public int getOutlierParallelThreshold() {
+		return outlierParallelThreshold;
+	}
+
+	@JsonIgnore
+	public double getOutlierEwmaAlpha() {
+		return outlierEwmaAlpha;
+	}
+
+	@JsonIgnore
+	public String getOutlierStateFile() {
+		return outlierStateFile;
+	}
+
+	@JsonIgnore
+	public int getOutlierStateSnapshotSeconds() {
+		return outlierStateSnapshotSeconds;
+	}
+
+	@JsonIgnore
+	public double getAwsConvictionMaxFraction() {
+		return awsConvictionMaxFraction;
+	}
+
+	@JsonIgnore
+	public int getAwsConvictionWindowMinutes() {
+		return awsConvictionWindowMinutes;
+	}
+
+	@JsonIgnore
+	public boolean isAwsConvictionDryRun() {
+		return awsConvictionDryRun;
+	}
+
+	@JsonIgnore
+	public int getAwsConvictionThreads() {
+		return awsConvictionThreads;
+	}
+
+	@JsonIgnore
+	public int getAwsAsgIndexRefreshSeconds() {
+		return awsAsgIndexRefreshSeconds;
+	}
+
+	@JsonIgnore
+	public int getNotificationThreads() {
+		return notificationThreads;
+	}
+
+	@JsonIgnore
+	public int getNotificationQueueCapacity() {
+		return notificationQueueCapacity;
+	}
+
+	@JsonIgnore
+	public int getNotificationMaxAttempts() {
+		return notificationMaxAttempts;
+	}
+
+	@JsonIgnore
+	public long getNotificationRetryDelayMillis() {
+		return notificationRetryDelayMillis;
+	}
+
+	@JsonIgnore
+	public int getNotificationCoalesceWindowSeconds() {
+		return notificationCoalesceWindowSeconds;
+	}
+
+	@JsonIgnore
+	public boolean isNotificationImmediateErrors() {
+		return notificationImmediateErrors;
+	}
+
+	@JsonIgnore
+	public String getNotificationRateLimits() {
+		return notificationRateLimits;
+	}
+
+	@JsonIgnore
+	public int getNotificationRateLimitBurst() {
+		return notificationRateLimitBurst;
+	}
+
+	@JsonIgnore
+	public boolean isNotificationOutboxEnabled() {
+		return notificationOutboxEnabled;
+	}
+
+	@JsonIgnore
+	public int getNotificationOutboxBatchSize() {
+		return notificationOutboxBatchSize;
+	}
+
+	@JsonIgnore
+	public int getNotificationOutboxLeaseSeconds() {
+		return notificationOutboxLeaseSeconds;
+	}
+
+	@JsonIgnore
+	public long getNotificationOutboxPollMillis() {
+		return notificationOutboxPollMillis;
+	}
+
+	@JsonIgnore
+	public int getNotificationHttpMaxConnections() {
+		return notificationHttpMaxConnections;
+	}
+
+	@JsonIgnore
+	public int getNotificationHttpMaxConnectionsPerHost() {
+		return notificationHttpMaxConnectionsPerHost;
+	}
+
+	@JsonIgnore
+	public int getNotificationHttpConnectTimeoutMillis() {
+		return notificationHttpConnectTimeoutMillis;
+	}
+
+	@JsonIgnore
+	public int getNotificationHttpSocketTimeoutMillis() {
+		return notificationHttpSocketTimeoutMillis;
+	}
+
+	@JsonIgnore
+	public String getNotificationHttpTlsProtocols() {
+		return notificationHttpTlsProtocols;
+	}
+
 	@JsonIgnore
 	public int getCheckExecutorInstanceIndex() {
 		return checkExecutorInstanceIndex;
@@ -326,6 +601,16 @@ public class SeyrenConfig {
 		return Integer.valueOf(this.ircCatPort);
 	}
 
+	@JsonIgnore
+	public int getIrcCatQueueCapacity() {
+		return ircCatQueueCapacity;
+	}
+
+	@JsonIgnore
+	public int getIrcCatIdleTimeoutSeconds() {
+		return ircCatIdleTimeoutSeconds;
+	}
+
 	@JsonIgnore
 	public String getPushoverAppApiToken() {
 		return this.pushoverAppApiToken;
@@ -371,6 +656,26 @@ public class SeyrenConfig {
 		return smtpSocketTimeout;
 	}
 
+	@JsonIgnore
+	public int getSmtpConnections() {
+		return smtpConnections;
+	}
+
+	@JsonIgnore
+	public int getSmtpBatchSize() {
+		return smtpBatchSize;
+	}
+
+	@JsonIgnore
+	public int getSmtpIdleTimeoutSeconds() {
+		return smtpIdleTimeoutSeconds;
+	}
+
+	@JsonIgnore
+	public boolean isSmtpMergeRecipients() {
+		return smtpMergeRecipients;
+	}
+
 	@JsonIgnore
 	public String getSnmpHost() {
 		return snmpHost;
@@ -511,6 +816,21 @@ public class SeyrenConfig {
 		return emailSubjectTemplateFileName;
 	}
 
+	@JsonIgnore
+	public String getEmailDigestTemplateFileName() {
+		return emailDigestTemplateFileName;
+	}
+
+	@JsonIgnore
+	public String getEmailDigestSubjectTemplateFileName() {
+		return emailDigestSubjectTemplateFileName;
+	}
+
+	@JsonIgnore
+	public int getEmailTemplateReloadSeconds() {
+		return emailTemplateReloadSeconds;
+	}
+
 	@JsonIgnore
 	public String getVictorOpsRestEndpoint() {
 		return victorOpsRestAPIEndpoint;
@@ -536,11 +856,26 @@ public class SeyrenConfig {
 		return scriptResourceUrls;
 	}
 
+	@JsonIgnore
+	public int getScriptWorkers() {
+		return scriptWorkers;
+	}
+
+	@JsonIgnore
+	public int getScriptWorkerTimeoutSeconds() {
+		return scriptWorkerTimeoutSeconds;
+	}
+
 	@JsonIgnore
 	public String getGraphiteRefreshRate() {
 		return graphiteRefreshRate;
 	}
 
+	@JsonIgnore
+	public long getGraphiteChartCacheBytes() {
+		return graphiteChartCacheBytes;
+	}
+
 	@JsonIgnore
 	public String getEmfUrl() {
 		return emfUrl;
@@ -14,6 +14,7 @@
 package com.seyren.core.util.email;
 
 import java.util.List;
+import java.util.Map;
 
 import com.seyren.core.domain.Alert;
 import com.seyren.core.domain.Check;
@@ -25,4 +26,8 @@ public interface EmailHelper {
     
     String createBody(Check check, Subscription subscription, List<Alert> alerts);
     
+    String createDigestSubject(Subscription subscription, Map<Check, List<Alert>> alertsByCheck);
+    
+    String createDigestBody(Subscription subscription, Map<Check, List<Alert>> alertsByCheck);
+    
 }
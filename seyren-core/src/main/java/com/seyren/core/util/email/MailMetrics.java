@@ -0,0 +1,102 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.seyren.core.util.email;
+
+import com.seyren.core.util.metrics.Counter;
+import com.seyren.core.util.metrics.LatencyCounter;
+import com.seyren.core.util.metrics.Metrics;
+
+/**
+ * Counts the emails going through the {@link SmtpMailer}.
+ */
+public class MailMetrics extends Metrics {
+
+    private final Counter queued = counter("queueDepth");
+    private final Counter messages = counter("messages");
+    private final Counter failed = counter("failed");
+    private final Counter connections = counter("connections");
+    private final LatencyCounter latency = latency("emails");
+
+    public MailMetrics() {
+        super("notifications.email");
+    }
+
+    void queued() {
+        queued.increment();
+    }
+
+    void dequeued(int count) {
+        queued.add(-count);
+    }
+
+    void messageSent() {
+        messages.increment();
+    }
+
+    void sent(long latencyMillis) {
+        latency.record(latencyMillis);
+    }
+
+    void failed(int emailCount) {
+        failed.add(emailCount);
+    }
+
+    void connected() {
+        connections.increment();
+    }
+
+    /**
+     * @return emails waiting for a connection
+     */
+    public long getQueueDepth() {
+        return queued.get();
+    }
+
+    /**
+     * @return emails sent, counting each one merged into a message
+     */
+    public long getEmails() {
+        return latency.getCount();
+    }
+
+    /**
+     * @return messages handed to the smtp server
+     */
+    public long getMessages() {
+        return messages.get();
+    }
+
+    public long getFailed() {
+        return failed.get();
+    }
+
+    /**
+     * @return smtp connections opened, reconnections included
+     */
+    public long getConnections() {
+        return connections.get();
+    }
+
+    /**
+     * @return the mean time from queueing an email to it being sent
+     */
+    public long getAverageLatencyMillis() {
+        return latency.getAverageMillis();
+    }
+
+    public long getMaxLatencyMillis() {
+        return latency.getMaxMillis();
+    }
+
+}
@@ -0,0 +1,377 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.seyren.core.util.email;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import javax.annotation.PreDestroy;
+import javax.inject.Inject;
+import javax.inject.Named;
+import javax.mail.Address;
+import javax.mail.MessagingException;
+import javax.mail.SendFailedException;
+import javax.mail.Transport;
+import javax.mail.internet.AddressException;
+import javax.mail.internet.InternetAddress;
+import javax.mail.internet.MimeMessage;
+import javax.mail.internet.MimeMessage.RecipientType;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.mail.javamail.JavaMailSenderImpl;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.seyren.core.util.config.SeyrenConfig;
+import com.seyren.core.util.metrics.Metered;
+
+/**
+ * Sends emails over smtp connections which are kept open between emails,
+ * rather than connecting (and negotiating TLS) for each one.
+ *
+ * Emails wait in a queue for one of the connections. A connection takes
+ * everything waiting, up to a batch, and sends it in one go; when enabled,
+ * emails with the same sender, subject and body are merged into one message,
+ * with the recipients in Bcc so that they do not see each other. Callers wait
+ * until their email is sent, so that failures are reported to them; a
+ * recipient rejected by the server only fails its own email.
+ */
+@Named
+public class SmtpMailer implements Metered {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(SmtpMailer.class);
+
+    private final JavaMailSenderImpl mailSender;
+    private final int batchSize;
+    private final long idleTimeoutMillis;
+    private final boolean mergeRecipients;
+    private final BlockingQueue<QueuedEmail> queue = new LinkedBlockingQueue<QueuedEmail>();
+    private final List<Thread> threads = new ArrayList<Thread>();
+    private final MailMetrics metrics = new MailMetrics();
+    private volatile boolean running = true;
+
+    @Inject
+    public SmtpMailer(SeyrenMailSender mailSender, SeyrenConfig seyrenConfig) {
+        this(mailSender, seyrenConfig.getSmtpConnections(), seyrenConfig.getSmtpBatchSize(),
+                TimeUnit.SECONDS.toMillis(seyrenConfig.getSmtpIdleTimeoutSeconds()), seyrenConfig.isSmtpMergeRecipients());
+    }
+
+    public SmtpMailer(JavaMailSenderImpl mailSender, int connections, int batchSize, long idleTimeoutMillis, boolean mergeRecipients) {
+        this.mailSender = mailSender;
+        this.batchSize = batchSize;
+        this.idleTimeoutMillis = idleTimeoutMillis;
+        this.mergeRecipients = mergeRecipients;
+        ThreadFactoryBuilder threadFactory = new ThreadFactoryBuilder().setNameFormat("smtp-%d").setDaemon(true);
+        for (int i = 0; i < connections; i++) {
+            Thread thread = threadFactory.build().newThread(new Connection());
+            threads.add(thread);
+            thread.start();
+        }
+    }
+
+    /**
+     * Sends an email, waiting until it is handed to the smtp server.
+     */
+    public void send(Email email) throws MessagingException {
+        if (!running) {
+            throw new MessagingException("The mailer is shut down");
+        }
+        QueuedEmail queued = new QueuedEmail(email);
+        metrics.queued();
+        queue.add(queued);
+        try {
+            queued.sent.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new MessagingException("Interrupted while waiting for an email to " + email.getTo() + " to be sent");
+        }
+        if (queued.failure != null) {
+            throw queued.failure;
+        }
+    }
+
+    @Override
+    public MailMetrics getMetrics() {
+        return metrics;
+    }
+
+    /**
+     * Closes the connections, failing any email still waiting.
+     */
+    @PreDestroy
+    public void shutdown() {
+        running = false;
+        for (Thread thread : threads) {
+            thread.interrupt();
+        }
+        try {
+            for (Thread thread : threads) {
+                thread.join(TimeUnit.SECONDS.toMillis(10));
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        List<QueuedEmail> left = new ArrayList<QueuedEmail>();
+        queue.drainTo(left);
+        metrics.dequeued(left.size());
+        fail(left, new MessagingException("The mailer is shut down"));
+    }
+
+    private Collection<List<QueuedEmail>> group(List<QueuedEmail> batch) {
+        Map<Object, List<QueuedEmail>> groups = new LinkedHashMap<Object, List<QueuedEmail>>();
+        for (QueuedEmail queued : batch) {
+            Email email = queued.email;
+            Object key = mergeRecipients ? email.getFrom() + '\0' + email.getSubject() + '\0' + email.getMessage() : queued;
+            List<QueuedEmail> group = groups.get(key);
+            if (group == null) {
+                group = new ArrayList<QueuedEmail>();
+                groups.put(key, group);
+            }
+            group.add(queued);
+        }
+        return groups.values();
+    }
+
+    private MimeMessage createMimeMessage(Email email, Collection<String> recipients) throws MessagingException {
+        MimeMessage mail = mailSender.createMimeMessage();
+        InternetAddress senderAddress = new InternetAddress(email.getFrom());
+        if (recipients.size() == 1) {
+            mail.setRecipient(RecipientType.TO, new InternetAddress(recipients.iterator().next()));
+        } else {
+            mail.setRecipients(RecipientType.BCC, toAddresses(recipients));
+            mail.setHeader("To", "undisclosed-recipients:;");
+        }
+        mail.setSender(senderAddress);
+        mail.setFrom(senderAddress);
+        mail.setText(email.getMessage());
+        mail.setSubject(email.getSubject());
+        mail.addHeader("Content-Type", "text/html; charset=UTF-8");
+        mail.setSentDate(new Date());
+        mail.saveChanges();
+
+        return mail;
+    }
+
+    private static InternetAddress[] toAddresses(Collection<String> recipients) throws AddressException {
+        InternetAddress[] addresses = new InternetAddress[recipients.size()];
+        int i = 0;
+        for (String recipient : recipients) {
+            addresses[i++] = new InternetAddress(recipient);
+        }
+        return addresses;
+    }
+
+    private static Set<String> fromAddresses(Address[] addresses) {
+        Set<String> result = new HashSet<String>();
+        if (addresses != null) {
+            for (Address address : addresses) {
+                result.add(address instanceof InternetAddress ? ((InternetAddress) address).getAddress() : address.toString());
+            }
+        }
+        return result;
+    }
+
+    private static void fail(List<QueuedEmail> group, MessagingException failure) {
+        for (QueuedEmail queued : group) {
+            queued.failure = failure;
+            queued.sent.countDown();
+        }
+    }
+
+    private static final class QueuedEmail {
+
+        private final Email email;
+        private final long queuedAtMillis = System.currentTimeMillis();
+        private final CountDownLatch sent = new CountDownLatch(1);
+        private volatile MessagingException failure;
+
+        private QueuedEmail(Email email) {
+            this.email = email;
+        }
+
+    }
+
+    /**
+     * Owns one smtp connection and sends batches of waiting emails over it.
+     */
+    private final class Connection implements Runnable {
+
+        private Transport transport;
+
+        @Override
+        public void run() {
+            List<QueuedEmail> batch = new ArrayList<QueuedEmail>();
+            while (running) {
+                try {
+                    QueuedEmail first = idleTimeoutMillis > 0 ? queue.poll(idleTimeoutMillis, TimeUnit.MILLISECONDS) : queue.take();
+                    if (first == null) {
+                        close();
+                        continue;
+                    }
+                    batch.add(first);
+                    queue.drainTo(batch, batchSize - 1);
+                    metrics.dequeued(batch.size());
+                    for (List<QueuedEmail> group : group(batch)) {
+                        send(group);
+                    }
+                    if (idleTimeoutMillis <= 0) {
+                        close();
+                    }
+                } catch (InterruptedException e) {
+                    break;
+                } finally {
+                    batch.clear();
+                }
+            }
+            close();
+        }
+
+        private void send(List<QueuedEmail> group) {
+            Map<String, List<QueuedEmail>> byRecipient = new LinkedHashMap<String, List<QueuedEmail>>();
+            for (QueuedEmail queued : group) {
+                String recipient;
+                try {
+                    recipient = new InternetAddress(queued.email.getTo()).getAddress();
+                } catch (AddressException e) {
+                    metrics.failed(1);
+                    fail(Collections.singletonList(queued), e);
+                    continue;
+                }
+                List<QueuedEmail> emails = byRecipient.get(recipient);
+                if (emails == null) {
+                    emails = new ArrayList<QueuedEmail>();
+                    byRecipient.put(recipient, emails);
+                }
+                emails.add(queued);
+            }
+            if (byRecipient.isEmpty()) {
+                return;
+            }
+
+            Map<String, MessagingException> failures = new HashMap<String, MessagingException>();
+            Set<String> unsent = new LinkedHashSet<String>(byRecipient.keySet());
+            MimeMessage message;
+            try {
+                message = createMimeMessage(group.get(0).email, unsent);
+            } catch (MessagingException e) {
+                failAll(unsent, e, failures);
+                message = null;
+            }
+
+            boolean reconnected = false;
+            while (!unsent.isEmpty()) {
+                try {
+                    sendOverConnection(message, unsent);
+                    unsent.clear();
+                } catch (SendFailedException e) {
+                    // Only the recipients the server refused fail, the others are sent again
+                    Set<String> invalid = fromAddresses(e.getInvalidAddresses());
+                    invalid.retainAll(unsent);
+                    if (invalid.isEmpty()) {
+                        failAll(unsent, e, failures);
+                        break;
+                    }
+                    for (String recipient : invalid) {
+                        failures.put(recipient, e);
+                    }
+                    unsent.removeAll(invalid);
+                    unsent.removeAll(fromAddresses(e.getValidSentAddresses()));
+                } catch (MessagingException e) {
+                    if (reconnected) {
+                        failAll(unsent, e, failures);
+                        break;
+                    }
+                    // The server may have dropped the connection, try once more on a new one
+                    LOGGER.debug("Sending over the smtp connection failed, reconnecting", e);
+                    close();
+                    reconnected = true;
+                }
+            }
+
+            long now = System.currentTimeMillis();
+            boolean sent = false;
+            for (Map.Entry<String, List<QueuedEmail>> entry : byRecipient.entrySet()) {
+                MessagingException failure = failures.get(entry.getKey());
+                if (failure != null) {
+                    metrics.failed(entry.getValue().size());
+                    fail(entry.getValue(), failure);
+                    continue;
+                }
+                sent = true;
+                for (QueuedEmail queued : entry.getValue()) {
+                    metrics.sent(now - queued.queuedAtMillis);
+                    queued.sent.countDown();
+                }
+            }
+            if (sent) {
+                metrics.messageSent();
+            }
+        }
+
+        private void failAll(Set<String> unsent, MessagingException failure, Map<String, MessagingException> failures) {
+            for (String recipient : unsent) {
+                failures.put(recipient, failure);
+            }
+            unsent.clear();
+        }
+
+        private void sendOverConnection(MimeMessage message, Collection<String> recipients) throws MessagingException {
+            if (transport == null || !transport.isConnected()) {
+                close();
+                String protocol = mailSender.getProtocol();
+                if (protocol == null) {
+                    protocol = mailSender.getSession().getProperty("mail.transport.protocol");
+                }
+                transport = mailSender.getSession().getTransport(protocol == null ? "smtp" : protocol);
+                String username = mailSender.getUsername();
+                String password = mailSender.getPassword();
+                if ("".equals(username)) {
+                    username = null;
+                    password = null;
+                }
+                transport.connect(mailSender.getHost(), mailSender.getPort(), username, password);
+                metrics.connected();
+            }
+            transport.sendMessage(message, toAddresses(recipients));
+        }
+
+        private void close() {
+            if (transport == null) {
+                return;
+            }
+            try {
+                transport.close();
+            } catch (MessagingException e) {
+                LOGGER.debug("Failed to close the smtp connection", e);
+            } finally {
+                transport = null;
+            }
+        }
+
+    }
+
+}
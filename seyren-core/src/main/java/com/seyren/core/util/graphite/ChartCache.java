@@ -0,0 +1,127 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.seyren.core.util.graphite;
+
+import java.math.BigDecimal;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import javax.inject.Inject;
+import javax.inject.Named;
+
+import org.joda.time.DateTime;
+
+import com.google.common.base.Throwables;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.Weigher;
+import com.google.common.hash.Hashing;
+import com.google.common.util.concurrent.UncheckedExecutionException;
+import com.seyren.core.util.config.SeyrenConfig;
+
+/**
+ * Keeps rendered charts in memory, bounded by their total size in bytes.
+ *
+ * Time is cut into periods of the Graphite refresh rate: within a period the
+ * same chart is rendered by Graphite once, and concurrent requests for a chart
+ * that is being rendered wait for that render rather than starting their own.
+ */
+@Named
+public class ChartCache {
+
+    private final GraphiteHttpClient graphiteHttpClient;
+    private final long refreshMillis;
+    private final Cache<List<Object>, Chart> charts;
+
+    @Inject
+    public ChartCache(SeyrenConfig seyrenConfig, GraphiteHttpClient graphiteHttpClient) {
+        this(graphiteHttpClient, Long.parseLong(seyrenConfig.getGraphiteRefreshRate()), seyrenConfig.getGraphiteChartCacheBytes());
+    }
+
+    ChartCache(GraphiteHttpClient graphiteHttpClient, long refreshMillis, long maxBytes) {
+        this.graphiteHttpClient = graphiteHttpClient;
+        this.refreshMillis = Math.max(1, refreshMillis);
+        this.charts = CacheBuilder.newBuilder()
+                .maximumWeight(Math.max(0, maxBytes))
+                .weigher(new Weigher<List<Object>, Chart>() {
+                    @Override
+                    public int weigh(List<Object> key, Chart chart) {
+                        return chart.getBytes().length;
+                    }
+                })
+                .expireAfterWrite(this.refreshMillis, TimeUnit.MILLISECONDS)
+                .build();
+    }
+
+    public Chart getChart(final String graphiteBaseUrl, final String target, final int width, final int height, final String from, final String to,
+                          final LegendState legendState, final AxesState axesState, final BigDecimal warnThreshold, final BigDecimal errorThreshold)
+            throws Exception {
+
+        final long period = new DateTime().getMillis() / refreshMillis;
+        List<Object> key = Arrays.<Object>asList(graphiteBaseUrl, target, width, height, from, to, legendState, axesState, warnThreshold,
+                errorThreshold, period);
+
+        try {
+            return charts.get(key, new Callable<Chart>() {
+                @Override
+                public Chart call() throws Exception {
+                    byte[] bytes = graphiteHttpClient.getChart(graphiteBaseUrl, target, width, height, from, to, legendState, axesState,
+                            warnThreshold, errorThreshold);
+                    return new Chart(bytes, (period + 1) * refreshMillis);
+                }
+            });
+        } catch (ExecutionException e) {
+            Throwables.propagateIfPossible(e.getCause(), Exception.class);
+            throw new GraphiteReadException("Failed to render chart", e.getCause());
+        } catch (UncheckedExecutionException e) {
+            throw Throwables.propagate(e.getCause());
+        }
+    }
+
+    public static final class Chart {
+
+        private final byte[] bytes;
+        private final String eTag;
+        private final long expires;
+
+        Chart(byte[] bytes, long expires) {
+            this.bytes = bytes;
+            this.eTag = Hashing.murmur3_128().hashBytes(bytes).toString();
+            this.expires = expires;
+        }
+
+        public byte[] getBytes() {
+            return bytes;
+        }
+
+        /**
+         * @return a hash of the image, without quotes
+         */
+        public String getETag() {
+            return eTag;
+        }
+
+        /**
+         * @return when the period the chart was rendered for ends, in milliseconds
+         */
+        public long getExpires() {
+            return expires;
+        }
+
+    }
+
+}
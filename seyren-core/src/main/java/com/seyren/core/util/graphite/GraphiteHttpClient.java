@@ -159,7 +159,6 @@ public class GraphiteHttpClient {
                 .addParameter("from", from)
                 .addParameter("width", String.valueOf(width))
                 .addParameter("height", String.valueOf(height))
-                .addParameter("uniq", String.valueOf(new DateTime().getMillis()))
                 .addParameter("hideLegend", legendState == LegendState.HIDE ? "true" : "false")
                 .addParameter("hideAxes", axesState == AxesState.HIDE ? "true" : "false");
 
@@ -0,0 +1,103 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.seyren.core.util.graphite;
+
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import javax.inject.Named;
+
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheLoader;
+import com.google.common.cache.LoadingCache;
+
+/**
+ * Splits Graphite target names into their parts once, and remembers the result
+ * for the next time the same target is seen, which is every check cycle.
+ */
+@Named
+public class TargetNameParser {
+
+    private static final int DEFAULT_MAX_SIZE = 100000;
+
+    // An IPv4 address written with dashes, e.g. stats.10-0-0-1.cpu
+    private static final Pattern IP_ADDRESS_PATTERN = Pattern.compile(
+            "(?:(?:25[0-5]|2[0-4][0-9]|[01]?[0-9][0-9]?)\\-){3}(?:25[0-5]|2[0-4][0-9]|[01]?[0-9][0-9]?)");
+
+    private final LoadingCache<String, TargetName> targetNames;
+
+    public TargetNameParser() {
+        this(DEFAULT_MAX_SIZE);
+    }
+
+    public TargetNameParser(long maxSize) {
+        this.targetNames = CacheBuilder.newBuilder()
+                .maximumSize(maxSize)
+                .build(new CacheLoader<String, TargetName>() {
+                    @Override
+                    public TargetName load(String target) {
+                        return tokenize(target);
+                    }
+                });
+    }
+
+    public TargetName parse(String target) {
+        return target == null ? null : targetNames.getUnchecked(target);
+    }
+
+    /**
+     * @return the first IP address in the target, with dots, or null if it has none
+     */
+    public String getIp(String target) {
+        return target == null ? null : targetNames.getUnchecked(target).getIp();
+    }
+
+    private static TargetName tokenize(String target) {
+        Matcher matcher = IP_ADDRESS_PATTERN.matcher(target);
+        String ip = matcher.find() ? matcher.group().replace('-', '.') : null;
+        return new TargetName(target.split("\\."), ip);
+    }
+
+    /**
+     * The parts of a target name.
+     */
+    public static final class TargetName {
+
+        private final String[] segments;
+        private final String ip;
+
+        private TargetName(String[] segments, String ip) {
+            this.segments = segments;
+            this.ip = ip;
+        }
+
+        /**
+         * @param position the 1-based position of the segment, as configured on subscriptions
+         * @throws ArrayIndexOutOfBoundsException if the target has fewer segments
+         */
+        public String getSegment(int position) {
+            return segments[position - 1];
+        }
+
+        public int getSegmentCount() {
+            return segments.length;
+        }
+
+        public String getIp() {
+            return ip;
+        }
+
+    }
+
+}
@@ -0,0 +1,227 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.seyren.core.util.http;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import javax.annotation.PreDestroy;
+import javax.inject.Inject;
+import javax.inject.Named;
+import javax.net.ssl.SSLContext;
+
+import org.apache.http.Header;
+import org.apache.http.HttpEntity;
+import org.apache.http.HttpHeaders;
+import org.apache.http.HttpResponse;
+import org.apache.http.HttpStatus;
+import org.apache.http.client.config.RequestConfig;
+import org.apache.http.client.methods.CloseableHttpResponse;
+import org.apache.http.client.methods.HttpUriRequest;
+import org.apache.http.client.utils.DateUtils;
+import org.apache.http.client.utils.HttpClientUtils;
+import org.apache.http.config.Registry;
+import org.apache.http.config.RegistryBuilder;
+import org.apache.http.conn.routing.HttpRoute;
+import org.apache.http.conn.socket.ConnectionSocketFactory;
+import org.apache.http.conn.socket.PlainConnectionSocketFactory;
+import org.apache.http.conn.ssl.SSLConnectionSocketFactory;
+import org.apache.http.entity.ByteArrayEntity;
+import org.apache.http.entity.ContentType;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.client.HttpClientBuilder;
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
+import org.apache.http.pool.PoolStats;
+import org.apache.http.ssl.SSLContexts;
+import org.apache.http.util.EntityUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.base.Splitter;
+import com.google.common.base.Strings;
+import com.seyren.core.exception.NotificationRateLimitedException;
+import com.seyren.core.util.config.SeyrenConfig;
+import com.seyren.core.util.metrics.Gauge;
+import com.seyren.core.util.metrics.Metered;
+import com.seyren.core.util.metrics.Metrics;
+
+/**
+ * The HTTP client shared by the notification services. Connections are pooled
+ * and kept alive, so that consecutive notifications to the same provider do not
+ * each pay for a TCP and TLS handshake.
+ *
+ * Proxy settings are taken from the system properties, as before.
+ *
+ * A response telling the client to slow down (HTTP 429, or 503 with a
+ * {@code Retry-After}) is thrown as a {@link NotificationRateLimitedException},
+ * so that the dispatcher holds back further notifications to the provider.
+ */
+@Named
+public class NotificationHttpClient implements Metered {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(NotificationHttpClient.class);
+
+    private static final int DEFAULT_MAX_CONNECTIONS = 100;
+    private static final int DEFAULT_MAX_CONNECTIONS_PER_HOST = 10;
+    private static final int DEFAULT_CONNECT_TIMEOUT_MILLIS = 5000;
+    private static final int DEFAULT_SOCKET_TIMEOUT_MILLIS = 10000;
+    private static final String DEFAULT_TLS_PROTOCOLS = "TLSv1.2";
+    private static final long IDLE_CONNECTION_SECONDS = 60;
+    private static final int TOO_MANY_REQUESTS = 429;
+
+    private final PoolingHttpClientConnectionManager connectionManager;
+    private final CloseableHttpClient client;
+    private final Metrics metrics = new Metrics("notifications.http");
+
+    @Inject
+    public NotificationHttpClient(SeyrenConfig seyrenConfig) {
+        this(seyrenConfig.getNotificationHttpMaxConnections(), seyrenConfig.getNotificationHttpMaxConnectionsPerHost(),
+                seyrenConfig.getNotificationHttpConnectTimeoutMillis(), seyrenConfig.getNotificationHttpSocketTimeoutMillis(),
+                seyrenConfig.getNotificationHttpTlsProtocols());
+    }
+
+    /**
+     * A client with the default settings, for services created outside of Spring.
+     */
+    public NotificationHttpClient() {
+        this(DEFAULT_MAX_CONNECTIONS, DEFAULT_MAX_CONNECTIONS_PER_HOST, DEFAULT_CONNECT_TIMEOUT_MILLIS, DEFAULT_SOCKET_TIMEOUT_MILLIS,
+                DEFAULT_TLS_PROTOCOLS);
+    }
+
+    public NotificationHttpClient(int maxConnections, int maxConnectionsPerHost, int connectTimeoutMillis, int socketTimeoutMillis,
+            String tlsProtocols) {
+        SSLContext sslContext = SSLContexts.createSystemDefault();
+        Registry<ConnectionSocketFactory> socketFactoryRegistry = RegistryBuilder.<ConnectionSocketFactory> create()
+                .register("http", PlainConnectionSocketFactory.getSocketFactory())
+                .register("https", new SSLConnectionSocketFactory(sslContext, supportedProtocols(sslContext, tlsProtocols), null,
+                        SSLConnectionSocketFactory.getDefaultHostnameVerifier()))
+                .build();
+        this.connectionManager = new PoolingHttpClientConnectionManager(socketFactoryRegistry);
+        this.connectionManager.setMaxTotal(maxConnections);
+        this.connectionManager.setDefaultMaxPerRoute(maxConnectionsPerHost);
+        this.client = HttpClientBuilder.create().useSystemProperties()
+                .setConnectionManager(connectionManager)
+                .evictExpiredConnections()
+                .evictIdleConnections(IDLE_CONNECTION_SECONDS, TimeUnit.SECONDS)
+                .setDefaultRequestConfig(RequestConfig.custom()
+                        .setConnectionRequestTimeout(connectTimeoutMillis)
+                        .setConnectTimeout(connectTimeoutMillis)
+                        .setSocketTimeout(socketTimeoutMillis)
+                        .build())
+                .build();
+        metrics.gauge("total", new Gauge() {
+            @Override
+            public Object getValue() {
+                return getPoolStats();
+            }
+        });
+        metrics.gauge("hosts", new Gauge() {
+            @Override
+            public Object getValue() {
+                return getPoolStatsByHost();
+            }
+        });
+    }
+
+    /**
+     * Sends the request and reads the whole response body, so that the
+     * connection goes straight back to the pool. The returned response can be
+     * inspected like any other; notification responses are small.
+     */
+    public HttpResponse execute(HttpUriRequest request) throws IOException {
+        CloseableHttpResponse response = client.execute(request);
+        try {
+            int status = response.getStatusLine().getStatusCode();
+            Header retryAfter = response.getFirstHeader(HttpHeaders.RETRY_AFTER);
+            if (status == TOO_MANY_REQUESTS || (status == HttpStatus.SC_SERVICE_UNAVAILABLE && retryAfter != null)) {
+                long retryAfterMillis = retryAfter == null ? 0 : retryAfterMillis(retryAfter.getValue());
+                throw new NotificationRateLimitedException(request.getURI().getHost() + " asked to retry after " + retryAfterMillis
+                        + "ms (" + response.getStatusLine() + ")", retryAfterMillis);
+            }
+            HttpEntity entity = response.getEntity();
+            if (entity != null) {
+                response.setEntity(new ByteArrayEntity(EntityUtils.toByteArray(entity), ContentType.get(entity)));
+            }
+            return response;
+        } finally {
+            response.close();
+        }
+    }
+
+    /**
+     * @return the connections of the whole pool
+     */
+    public PoolStats getPoolStats() {
+        return connectionManager.getTotalStats();
+    }
+
+    /**
+     * @return the connections to each host the pool has talked to
+     */
+    public Map<String, PoolStats> getPoolStatsByHost() {
+        Map<String, PoolStats> statsByHost = new LinkedHashMap<String, PoolStats>();
+        for (HttpRoute route : connectionManager.getRoutes()) {
+            statsByHost.put(route.getTargetHost().toURI(), connectionManager.getStats(route));
+        }
+        return statsByHost;
+    }
+
+    /**
+     * @return the connections of the whole pool and of each host, as published
+     */
+    @Override
+    public Metrics getMetrics() {
+        return metrics;
+    }
+
+    @PreDestroy
+    public void close() {
+        HttpClientUtils.closeQuietly(client);
+    }
+
+    /**
+     * @return the wait a {@code Retry-After} header asks for, given in seconds
+     *         or as a date
+     */
+    public static long retryAfterMillis(String value) {
+        String trimmed = value.trim();
+        try {
+            return TimeUnit.SECONDS.toMillis(Math.max(0, Long.parseLong(trimmed)));
+        } catch (NumberFormatException e) {
+            Date date = DateUtils.parseDate(trimmed);
+            return date == null ? 0 : Math.max(0, date.getTime() - System.currentTimeMillis());
+        }
+    }
+
+    private static String[] supportedProtocols(SSLContext sslContext, String tlsProtocols) {
+        List<String> supported = Arrays.asList(sslContext.getSupportedSSLParameters().getProtocols());
+        List<String> protocols = new ArrayList<String>();
+        for (String protocol : Splitter.on(',').omitEmptyStrings().trimResults().split(Strings.nullToEmpty(tlsProtocols))) {
+            if (supported.contains(protocol)) {
+                protocols.add(protocol);
+            } else {
+                LOGGER.warn("TLS protocol {} is not supported by this JVM, ignoring it", protocol);
+            }
+        }
+        // Fall back to the JVM's defaults rather than failing every request
+        return protocols.isEmpty() ? null : protocols.toArray(new String[protocols.size()]);
+    }
+
+}
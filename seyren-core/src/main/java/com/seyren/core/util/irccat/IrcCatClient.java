@@ -0,0 +1,283 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.seyren.core.util.irccat;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import javax.annotation.PreDestroy;
+import javax.inject.Inject;
+import javax.inject.Named;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.seyren.core.util.config.SeyrenConfig;
+
+/**
+ * Writes lines to irccat over one connection which is kept open between
+ * notifications, rather than connecting for each channel of each alert.
+ *
+ * Messages wait in a bounded queue; the connection takes everything waiting
+ * and writes it in one go. Callers wait until their lines are written, so that
+ * failures are reported to them. When irccat cannot be reached, connecting is
+ * tried again with a growing delay and messages fail straight away meanwhile.
+ */
+@Named
+public class IrcCatClient {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(IrcCatClient.class);
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+    private static final int BATCH_SIZE = 100;
+    private static final int CONNECT_TIMEOUT_MILLIS = 5000;
+    private static final long MIN_RECONNECT_DELAY_MILLIS = 500;
+    private static final long MAX_RECONNECT_DELAY_MILLIS = TimeUnit.SECONDS.toMillis(30);
+
+    private final String host;
+    private final int port;
+    private final long idleTimeoutMillis;
+    private final BlockingQueue<QueuedMessage> queue;
+    private Thread thread;
+    private volatile boolean running = true;
+
+    @Inject
+    public IrcCatClient(SeyrenConfig seyrenConfig) {
+        this(seyrenConfig.getIrcCatHost(), seyrenConfig.getIrcCatPort(), seyrenConfig.getIrcCatQueueCapacity(),
+                TimeUnit.SECONDS.toMillis(seyrenConfig.getIrcCatIdleTimeoutSeconds()));
+    }
+
+    public IrcCatClient(String host, int port, int queueCapacity, long idleTimeoutMillis) {
+        this.host = host;
+        this.port = port;
+        this.idleTimeoutMillis = idleTimeoutMillis;
+        this.queue = new LinkedBlockingQueue<QueuedMessage>(Math.max(1, queueCapacity));
+    }
+
+    /**
+     * Sends lines to irccat, waiting until they are written.
+     */
+    public void send(List<String> lines) throws IOException {
+        if (!running) {
+            throw new IOException("The irccat client is shut down");
+        }
+        start();
+        QueuedMessage queued = new QueuedMessage(lines);
+        if (!queue.offer(queued)) {
+            throw new IOException("Too many messages waiting for irccat at " + host + ":" + port);
+        }
+        try {
+            queued.written.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while waiting for a message to irccat to be written");
+        }
+        if (queued.failure != null) {
+            throw queued.failure;
+        }
+    }
+
+    /**
+     * Closes the connection, failing any message still waiting.
+     */
+    @PreDestroy
+    public void shutdown() {
+        running = false;
+        Thread current;
+        synchronized (this) {
+            current = thread;
+        }
+        if (current != null) {
+            current.interrupt();
+            try {
+                current.join(TimeUnit.SECONDS.toMillis(10));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        List<QueuedMessage> left = new ArrayList<QueuedMessage>();
+        queue.drainTo(left);
+        fail(left, new IOException("The irccat client is shut down"));
+    }
+
+    private synchronized void start() {
+        // Most installations never notify irccat, the connection is started on first use
+        if (thread == null) {
+            thread = new ThreadFactoryBuilder().setNameFormat("irccat-%d").setDaemon(true).build().newThread(new Connection());
+            thread.start();
+        }
+    }
+
+    private static void fail(List<QueuedMessage> batch, IOException failure) {
+        for (QueuedMessage queued : batch) {
+            queued.failure = failure;
+            queued.written.countDown();
+        }
+    }
+
+    private static final class QueuedMessage {
+
+        private final List<String> lines;
+        private final CountDownLatch written = new CountDownLatch(1);
+        private volatile IOException failure;
+
+        private QueuedMessage(List<String> lines) {
+            this.lines = lines;
+        }
+
+    }
+
+    /**
+     * Owns the connection and writes batches of waiting messages over it.
+     */
+    private final class Connection implements Runnable {
+
+        private Socket socket;
+        private Writer out;
+        private long reconnectDelayMillis = MIN_RECONNECT_DELAY_MILLIS;
+        private long nextConnectMillis;
+
+        @Override
+        public void run() {
+            List<QueuedMessage> batch = new ArrayList<QueuedMessage>();
+            while (running) {
+                try {
+                    QueuedMessage first = idleTimeoutMillis > 0 ? queue.poll(idleTimeoutMillis, TimeUnit.MILLISECONDS) : queue.take();
+                    if (first == null) {
+                        close();
+                        continue;
+                    }
+                    batch.add(first);
+                    queue.drainTo(batch, BATCH_SIZE - 1);
+                    write(batch);
+                    if (idleTimeoutMillis <= 0) {
+                        close();
+                    }
+                } catch (InterruptedException e) {
+                    break;
+                } finally {
+                    batch.clear();
+                }
+            }
+            close();
+        }
+
+        private void write(List<QueuedMessage> batch) {
+            boolean reused = isOpen();
+            try {
+                writeOverConnection(batch);
+            } catch (IOException e) {
+                close();
+                if (!reused) {
+                    fail(batch, e);
+                    return;
+                }
+                // irccat may have dropped the connection, try once more on a new one
+                LOGGER.debug("Writing to irccat failed, reconnecting", e);
+                try {
+                    writeOverConnection(batch);
+                } catch (IOException retryException) {
+                    close();
+                    fail(batch, retryException);
+                    return;
+                }
+            }
+            for (QueuedMessage queued : batch) {
+                queued.written.countDown();
+            }
+        }
+
+        private void writeOverConnection(List<QueuedMessage> batch) throws IOException {
+            if (!isOpen()) {
+                close();
+                connect();
+            }
+            for (QueuedMessage queued : batch) {
+                for (String line : queued.lines) {
+                    out.write(line);
+                    out.write('\n');
+                }
+            }
+            out.flush();
+        }
+
+        private void connect() throws IOException {
+            long now = System.currentTimeMillis();
+            if (now < nextConnectMillis) {
+                throw new IOException("irccat at " + host + ":" + port + " is unreachable, connecting again in "
+                        + (nextConnectMillis - now) + "ms");
+            }
+            Socket connecting = new Socket();
+            try {
+                connecting.connect(new InetSocketAddress(host, port), CONNECT_TIMEOUT_MILLIS);
+            } catch (IOException e) {
+                connecting.close();
+                nextConnectMillis = now + reconnectDelayMillis;
+                reconnectDelayMillis = Math.min(MAX_RECONNECT_DELAY_MILLIS, reconnectDelayMillis * 2);
+                throw e;
+            }
+            reconnectDelayMillis = MIN_RECONNECT_DELAY_MILLIS;
+            socket = connecting;
+            out = new OutputStreamWriter(socket.getOutputStream(), UTF_8);
+        }
+
+        /**
+         * irccat never writes back, so reading tells whether it closed its side
+         * without waiting.
+         */
+        private boolean isOpen() {
+            if (socket == null || socket.isClosed()) {
+                return false;
+            }
+            try {
+                socket.setSoTimeout(1);
+                InputStream in = socket.getInputStream();
+                return in.read() != -1;
+            } catch (SocketTimeoutException e) {
+                return true;
+            } catch (IOException e) {
+                return false;
+            }
+        }
+
+        private void close() {
+            if (socket == null) {
+                return;
+            }
+            try {
+                socket.close();
+            } catch (IOException e) {
+                LOGGER.debug("Failed to close the irccat connection", e);
+            } finally {
+                socket = null;
+                out = null;
+            }
+        }
+
+    }
+
+}
@@ -0,0 +1,97 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.seyren.core.util.math;
+
+/**
+ * Order statistics on primitive arrays, found by quickselect in place so that
+ * nothing is allocated or boxed. The arrays passed in are reordered.
+ */
+public final class DoubleSelection {
+
+    private DoubleSelection() {
+    }
+
+    /**
+     * Partially orders the first {@code length} values so that the value at
+     * {@code k} is the one which would be there if they were sorted; values
+     * before it are not greater and values after it are not smaller.
+     *
+     * @return the k-th smallest of the first {@code length} values, counting from 0
+     */
+    public static double select(double[] values, int length, int k) {
+        if (k < 0 || k >= length || length > values.length) {
+            throw new IllegalArgumentException("Cannot select " + k + " of " + length + " values");
+        }
+        int left = 0;
+        int right = length - 1;
+        while (right > left) {
+            // Three-way partitioning, so that runs of equal values (idle instances all at 0) stay linear
+            double pivot = values[medianOfThree(values, left, (left + right) >>> 1, right)];
+            int lessEnd = left;
+            int greaterStart = right;
+            int i = left;
+            while (i <= greaterStart) {
+                if (values[i] < pivot) {
+                    swap(values, lessEnd++, i++);
+                } else if (values[i] > pivot) {
+                    swap(values, i, greaterStart--);
+                } else {
+                    i++;
+                }
+            }
+            if (k < lessEnd) {
+                right = lessEnd - 1;
+            } else if (k > greaterStart) {
+                left = greaterStart + 1;
+            } else {
+                break;
+            }
+        }
+        return values[k];
+    }
+
+    /**
+     * @return the median of the first {@code length} values; the mean of the two
+     * middle ones when there is an even number of them
+     */
+    public static double median(double[] values, int length) {
+        int middle = length >>> 1;
+        double upper = select(values, length, middle);
+        if ((length & 1) == 1) {
+            return upper;
+        }
+        // Selection left the lower half before the middle, so its largest is the other middle value
+        double lower = values[0];
+        for (int i = 1; i < middle; i++) {
+            if (values[i] > lower) {
+                lower = values[i];
+            }
+        }
+        return lower + (upper - lower) / 2;
+    }
+
+    private static int medianOfThree(double[] values, int a, int b, int c) {
+        if (values[a] < values[b]) {
+            return values[b] < values[c] ? b : (values[a] < values[c] ? c : a);
+        }
+        return values[a] < values[c] ? a : (values[b] < values[c] ? c : b);
+    }
+
+    private static void swap(double[] values, int i, int j) {
+        double value = values[i];
+        values[i] = values[j];
+        values[j] = value;
+    }
+
+}
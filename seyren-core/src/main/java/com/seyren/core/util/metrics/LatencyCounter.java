@@ -0,0 +1,50 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.seyren.core.util.metrics;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Counts events along with how long they took, for the mean and the maximum.
+ * Safe to record from any number of threads without locking.
+ */
+public class LatencyCounter {
+
+    private final AtomicLong count = new AtomicLong();
+    private final AtomicLong totalMillis = new AtomicLong();
+    private final AtomicLong maxMillis = new AtomicLong();
+
+    public void record(long latencyMillis) {
+        count.incrementAndGet();
+        totalMillis.addAndGet(latencyMillis);
+        long max = maxMillis.get();
+        while (latencyMillis > max && !maxMillis.compareAndSet(max, latencyMillis)) {
+            max = maxMillis.get();
+        }
+    }
+
+    public long getCount() {
+        return count.get();
+    }
+
+    public long getAverageMillis() {
+        long events = count.get();
+        return events == 0 ? 0 : totalMillis.get() / events;
+    }
+
+    public long getMaxMillis() {
+        return maxMillis.get();
+    }
+
+}
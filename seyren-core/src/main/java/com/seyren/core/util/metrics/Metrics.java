@@ -0,0 +1,90 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.seyren.core.util.metrics;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * The named counters and gauges of one service. Subclasses create them while
+ * being constructed and keep typed getters for their own callers; everything
+ * created here is also read by {@link #snapshot()}.
+ */
+public class Metrics {
+
+    private final String name;
+    private final Map<String, Gauge> gauges = new LinkedHashMap<String, Gauge>();
+
+    public Metrics(String name) {
+        this.name = name;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    protected final Counter counter(String counterName) {
+        Counter counter = new Counter();
+        gauge(counterName, counter);
+        return counter;
+    }
+
+    /**
+     * @param countName the name under which the number of recorded events is published
+     */
+    protected final LatencyCounter latency(String countName) {
+        final LatencyCounter latency = new LatencyCounter();
+        gauge(countName, new Gauge() {
+            @Override
+            public Object getValue() {
+                return latency.getCount();
+            }
+        });
+        gauge("averageLatencyMillis", new Gauge() {
+            @Override
+            public Object getValue() {
+                return latency.getAverageMillis();
+            }
+        });
+        gauge("maxLatencyMillis", new Gauge() {
+            @Override
+            public Object getValue() {
+                return latency.getMaxMillis();
+            }
+        });
+        return latency;
+    }
+
+    /**
+     * Like the counters, gauges are to be defined while their owner is being constructed.
+     */
+    public final void gauge(String gaugeName, Gauge gauge) {
+        if (gauges.put(gaugeName, gauge) != null) {
+            throw new IllegalArgumentException("Metric " + name + "." + gaugeName + " is already defined");
+        }
+    }
+
+    /**
+     * @return the current value of every metric, in the order they were created
+     */
+    public Map<String, Object> snapshot() {
+        Map<String, Object> values = new LinkedHashMap<String, Object>();
+        for (Map.Entry<String, Gauge> gauge : gauges.entrySet()) {
+            values.put(gauge.getKey(), gauge.getValue().getValue());
+        }
+        return Collections.unmodifiableMap(values);
+    }
+
+}
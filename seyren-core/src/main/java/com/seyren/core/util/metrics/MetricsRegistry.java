@@ -0,0 +1,65 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.seyren.core.util.metrics;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import javax.inject.Inject;
+import javax.inject.Named;
+
+/**
+ * Gathers the metrics of every {@link Metered} service, so that they are all
+ * published in one place.
+ */
+@Named
+public class MetricsRegistry {
+
+    private final Map<String, Metrics> metricsByName = new TreeMap<String, Metrics>();
+
+    @Inject
+    public MetricsRegistry(List<Metered> services) {
+        for (Metered service : services) {
+            register(service.getMetrics());
+        }
+    }
+
+    private void register(Metrics metrics) {
+        if (metricsByName.put(metrics.getName(), metrics) != null) {
+            throw new IllegalArgumentException("Metrics " + metrics.getName() + " are already registered");
+        }
+    }
+
+    /**
+     * @return the current values of every service's metrics, by service name
+     */
+    public Map<String, Map<String, Object>> snapshot() {
+        Map<String, Map<String, Object>> values = new TreeMap<String, Map<String, Object>>();
+        for (Metrics metrics : metricsByName.values()) {
+            values.put(metrics.getName(), metrics.snapshot());
+        }
+        return Collections.unmodifiableMap(values);
+    }
+
+    /**
+     * @return the current values of the named service's metrics, or null when there is no such service
+     */
+    public Map<String, Object> snapshot(String name) {
+        Metrics metrics = metricsByName.get(name);
+        return metrics == null ? null : metrics.snapshot();
+    }
+
+}
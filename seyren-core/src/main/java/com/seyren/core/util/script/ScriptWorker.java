@@ -0,0 +1,145 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.seyren.core.util.script;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParseException;
+import com.google.gson.JsonParser;
+
+/**
+ * One running script process, exchanging a JSON object per line over its
+ * stdin and stdout. Its stderr is logged.
+ */
+class ScriptWorker {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(ScriptWorker.class);
+
+    // Compared by identity, marks the end of the script's output
+    private static final String END = new String("END");
+
+    private final Process process;
+    private final Writer stdin;
+    private final BlockingQueue<String> lines = new LinkedBlockingQueue<String>();
+    private volatile boolean ended;
+
+    ScriptWorker(List<String> command) throws IOException {
+        this.process = new ProcessBuilder(command).start();
+        this.stdin = new BufferedWriter(new OutputStreamWriter(process.getOutputStream(), StandardCharsets.UTF_8));
+        read(process.getInputStream(), "script-worker-out", true);
+        read(process.getErrorStream(), "script-worker-err", false);
+    }
+
+    boolean isEnded() {
+        return ended;
+    }
+
+    /**
+     * Writes the requests, then waits for the response to each of them.
+     *
+     * @return the responses, in the order of the requests
+     */
+    List<JsonObject> exchange(List<JsonObject> requests, long timeoutMillis) throws IOException, TimeoutException, InterruptedException {
+        for (JsonObject request : requests) {
+            stdin.write(request.toString());
+            stdin.write('\n');
+        }
+        stdin.flush();
+
+        List<JsonObject> responses = new ArrayList<JsonObject>();
+        for (JsonObject request : requests) {
+            responses.add(awaitResponse(request.get("id").getAsLong(), timeoutMillis));
+        }
+        return responses;
+    }
+
+    void destroy() {
+        process.destroy();
+    }
+
+    private JsonObject awaitResponse(long id, long timeoutMillis) throws IOException, TimeoutException, InterruptedException {
+        long deadline = System.currentTimeMillis() + timeoutMillis;
+        while (true) {
+            String line = lines.poll(deadline - System.currentTimeMillis(), TimeUnit.MILLISECONDS);
+            if (line == null) {
+                throw new TimeoutException("Script did not answer request " + id + " within " + timeoutMillis + "ms");
+            }
+            if (line == END) {
+                lines.add(END);
+                throw new IOException("Script exited before answering request " + id);
+            }
+            JsonObject response = parse(line);
+            if (response != null && response.has("id") && response.get("id").getAsLong() == id) {
+                return response;
+            }
+            LOGGER.info("Script: {}", line);
+        }
+    }
+
+    private static JsonObject parse(String line) {
+        try {
+            JsonElement element = new JsonParser().parse(line);
+            return element.isJsonObject() ? element.getAsJsonObject() : null;
+        } catch (JsonParseException e) {
+            return null;
+        }
+    }
+
+    private void read(final InputStream stream, String name, final boolean responses) {
+        Thread thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    BufferedReader reader = new BufferedReader(new InputStreamReader(stream, StandardCharsets.UTF_8));
+                    String line;
+                    while ((line = reader.readLine()) != null) {
+                        if (responses) {
+                            lines.add(line);
+                        } else {
+                            LOGGER.info("Script: {}", line);
+                        }
+                    }
+                } catch (IOException e) {
+                    LOGGER.debug("Stopped reading from the script", e);
+                } finally {
+                    if (responses) {
+                        ended = true;
+                        lines.add(END);
+                    }
+                }
+            }
+        }, name);
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+}
@@ -0,0 +1,138 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.seyren.core.util.script;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.annotation.PreDestroy;
+import javax.inject.Inject;
+import javax.inject.Named;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.gson.JsonObject;
+import com.seyren.core.util.config.SeyrenConfig;
+
+/**
+ * A bounded pool of long running script processes, so that notifying through
+ * a script does not start an interpreter for every alert.
+ *
+ * Each process is started with {@code --worker} and reads one JSON request per
+ * line from stdin, answering each with one JSON line on stdout carrying the
+ * same {@code id} and {@code "ok": true}, or {@code "ok": false} and an
+ * {@code error}. Processes are started on first use. A process which exits or
+ * does not answer in time is killed and replaced on the next request.
+ */
+@Named
+public class ScriptWorkerPool {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(ScriptWorkerPool.class);
+
+    private final List<String> command;
+    private final int size;
+    private final long timeoutMillis;
+    private final Semaphore permits;
+    private final BlockingQueue<ScriptWorker> idle = new LinkedBlockingQueue<ScriptWorker>();
+    private final AtomicLong ids = new AtomicLong();
+    private final AtomicLong started = new AtomicLong();
+    private volatile boolean closed;
+
+    @Inject
+    public ScriptWorkerPool(SeyrenConfig seyrenConfig) {
+        this(Arrays.asList(seyrenConfig.getScriptType(), seyrenConfig.getScriptPath(), "--worker"), seyrenConfig.getScriptWorkers(),
+                TimeUnit.SECONDS.toMillis(seyrenConfig.getScriptWorkerTimeoutSeconds()));
+    }
+
+    public ScriptWorkerPool(List<String> command, int size, long timeoutMillis) {
+        this.command = command;
+        this.size = size;
+        this.timeoutMillis = timeoutMillis;
+        this.permits = new Semaphore(size, true);
+    }
+
+    /**
+     * @return whether scripts run in the pool rather than once per alert
+     */
+    public boolean isEnabled() {
+        return size > 0;
+    }
+
+    /**
+     * Sends the requests to one process, which answers them in turn. Each
+     * request is given a fresh {@code id}.
+     *
+     * @return the responses, in the order of the requests
+     */
+    public List<JsonObject> call(List<JsonObject> requests) throws IOException, TimeoutException, InterruptedException {
+        if (closed) {
+            throw new IOException("The script worker pool is closed");
+        }
+        if (!permits.tryAcquire(timeoutMillis, TimeUnit.MILLISECONDS)) {
+            throw new TimeoutException("No script worker became free within " + timeoutMillis + "ms");
+        }
+        ScriptWorker worker = null;
+        try {
+            worker = idle.poll();
+            if (worker == null || worker.isEnded()) {
+                if (worker != null) {
+                    LOGGER.warn("Script worker exited, restarting it");
+                    worker.destroy();
+                }
+                worker = new ScriptWorker(command);
+                started.incrementAndGet();
+            }
+            for (JsonObject request : requests) {
+                request.addProperty("id", ids.incrementAndGet());
+            }
+            List<JsonObject> responses = worker.exchange(requests, timeoutMillis);
+            idle.add(worker);
+            worker = null;
+            return responses;
+        } finally {
+            if (worker != null) {
+                // Crashed or stuck, a new one is started on the next request
+                worker.destroy();
+            }
+            permits.release();
+        }
+    }
+
+    /**
+     * @return the processes started so far, restarts included
+     */
+    public long getStarted() {
+        return started.get();
+    }
+
+    @PreDestroy
+    public void close() {
+        closed = true;
+        List<ScriptWorker> workers = new ArrayList<ScriptWorker>();
+        idle.drainTo(workers);
+        for (ScriptWorker worker : workers) {
+            worker.destroy();
+        }
+    }
+
+}
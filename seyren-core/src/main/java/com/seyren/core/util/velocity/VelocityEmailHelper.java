@@ -13,19 +13,27 @@
  */
 package com.seyren.core.util.velocity;
 
+import java.io.File;
 import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.StringWriter;
-import java.net.URL;
+import java.io.StringReader;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
 
 import javax.inject.Inject;
 import javax.inject.Named;
 
 import org.apache.commons.io.IOUtils;
+import org.apache.commons.io.output.StringBuilderWriter;
+import org.apache.velocity.Template;
 import org.apache.velocity.VelocityContext;
-import org.apache.velocity.app.Velocity;
+import org.apache.velocity.runtime.RuntimeServices;
+import org.apache.velocity.runtime.RuntimeSingleton;
+import org.apache.velocity.runtime.parser.ParseException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 import com.seyren.core.domain.Alert;
 import com.seyren.core.domain.Check;
@@ -36,44 +44,71 @@ import com.seyren.core.util.email.EmailHelper;
 @Named
 public class VelocityEmailHelper implements EmailHelper {
 
+    private static final Logger LOGGER = LoggerFactory.getLogger(VelocityEmailHelper.class);
+
+    // Buffers which grew beyond this for an unusually large email are not kept
+    private static final int MAX_RETAINED_BUFFER_SIZE = 64 * 1024;
+
     // Will first attempt to load from classpath then fall back to loading from the filesystem.
-    private final String TEMPLATE_FILE_NAME;
-    private final String TEMPLATE_CONTENT;
+    private final CachedTemplate template;
+    private final CachedTemplate subjectTemplate;
+    private final CachedTemplate digestTemplate;
+    private final CachedTemplate digestSubjectTemplate;
+
+    private final ThreadLocal<StringBuilderWriter> buffers = new ThreadLocal<StringBuilderWriter>() {
+        @Override
+        protected StringBuilderWriter initialValue() {
+            return new StringBuilderWriter();
+        }
+    };
 
-    private final String TEMPLATE_SUBJECT_FILE_NAME;
-    private final String TEMPLATE_SUBJECT_CONTENT;
-    
     private final SeyrenConfig seyrenConfig;
 
     /**
-     * Loads content of configurable templated email message at creation time.
+     * Loads and parses the configurable templated email messages at creation
+     * time. Templates from the filesystem are parsed again when they change.
      *
      * @param seyrenConfig Used for both email template file name and the seyren URL.
      */
     @Inject
     public VelocityEmailHelper(SeyrenConfig seyrenConfig) {
         this.seyrenConfig = seyrenConfig;
-        TEMPLATE_FILE_NAME = seyrenConfig.getEmailTemplateFileName();
-        TEMPLATE_CONTENT = getTemplateAsString(TEMPLATE_FILE_NAME);
-
-        TEMPLATE_SUBJECT_FILE_NAME = seyrenConfig.getEmailSubjectTemplateFileName();
-        TEMPLATE_SUBJECT_CONTENT = getTemplateAsString(TEMPLATE_SUBJECT_FILE_NAME);
+        long reloadMillis = TimeUnit.SECONDS.toMillis(seyrenConfig.getEmailTemplateReloadSeconds());
+        this.template = new CachedTemplate(seyrenConfig.getEmailTemplateFileName(), reloadMillis);
+        this.subjectTemplate = new CachedTemplate(seyrenConfig.getEmailSubjectTemplateFileName(), reloadMillis);
+        this.digestTemplate = new CachedTemplate(seyrenConfig.getEmailDigestTemplateFileName(), reloadMillis);
+        this.digestSubjectTemplate = new CachedTemplate(seyrenConfig.getEmailDigestSubjectTemplateFileName(), reloadMillis);
     }
     
     public String createSubject(Check check, Subscription subscription, List<Alert> alerts) {
-        return evaluateTemplate(check, subscription, alerts, TEMPLATE_SUBJECT_CONTENT);
+        return evaluateTemplate(createVelocityContext(check, subscription, alerts), subjectTemplate.get());
     }
 
     @Override
     public String createBody(Check check, Subscription subscription, List<Alert> alerts) {
-        return evaluateTemplate(check, subscription, alerts, TEMPLATE_CONTENT);
+        return evaluateTemplate(createVelocityContext(check, subscription, alerts), template.get());
     }
 
-    private String evaluateTemplate(Check check, Subscription subscription, List<Alert> alerts, String templateContent) {
-        VelocityContext context = createVelocityContext(check, subscription, alerts);
-        StringWriter stringWriter = new StringWriter();
-        Velocity.evaluate(context, stringWriter, "EmailNotificationService", templateContent);
-        return stringWriter.toString();
+    @Override
+    public String createDigestSubject(Subscription subscription, Map<Check, List<Alert>> alertsByCheck) {
+        return evaluateTemplate(createDigestVelocityContext(alertsByCheck), digestSubjectTemplate.get());
+    }
+
+    @Override
+    public String createDigestBody(Subscription subscription, Map<Check, List<Alert>> alertsByCheck) {
+        return evaluateTemplate(createDigestVelocityContext(alertsByCheck), digestTemplate.get());
+    }
+
+    private String evaluateTemplate(VelocityContext context, Template template) {
+        StringBuilderWriter writer = buffers.get();
+        StringBuilder builder = writer.getBuilder();
+        builder.setLength(0);
+        template.merge(context, writer);
+        String result = builder.toString();
+        if (builder.capacity() > MAX_RETAINED_BUFFER_SIZE) {
+            buffers.remove();
+        }
+        return result;
     }
     
     private VelocityContext createVelocityContext(Check check, Subscription subscription, List<Alert> alerts) {
@@ -83,18 +118,96 @@ public class VelocityEmailHelper implements EmailHelper {
         result.put("SEYREN_URL", seyrenConfig.getBaseUrl());
         return result;
     }
+
+    private VelocityContext createDigestVelocityContext(Map<Check, List<Alert>> alertsByCheck) {
+        VelocityContext result = new VelocityContext();
+        result.put("ALERTS_BY_CHECK", alertsByCheck);
+        result.put("SEYREN_URL", seyrenConfig.getBaseUrl());
+        return result;
+    }
     
-    private String getTemplateAsString(String templateFileName) {
+    private static Template parse(String templateFileName, String templateContent) {
+        RuntimeServices runtimeServices = RuntimeSingleton.getRuntimeServices();
         try {
+            Template template = new Template();
+            template.setName(templateFileName);
+            template.setRuntimeServices(runtimeServices);
+            template.setData(runtimeServices.parse(new StringReader(templateContent), templateFileName));
+            template.initDocument();
+            return template;
+        } catch (ParseException e) {
+            throw new RuntimeException("Template file could not be parsed at " + templateFileName, e);
+        }
+    }
+
+    /**
+     * A parsed template. One loaded from the filesystem is checked for changes
+     * at most once per reload interval, and parsed again when it changed.
+     */
+    private static final class CachedTemplate {
+
+        private final String fileName;
+        private final File file;
+        private final long reloadMillis;
+        private volatile Template template;
+        private long lastModified;
+        private volatile long nextCheckMillis;
+
+        private CachedTemplate(String fileName, long reloadMillis) {
+            this.fileName = fileName;
+            this.reloadMillis = reloadMillis;
             // Handle the template filename as either a class path resource or an absolute path to the filesystem.
-            InputStream inputStream = Thread.currentThread().getContextClassLoader().getResourceAsStream(templateFileName);
-            if (inputStream == null) {
-                inputStream = new FileInputStream(templateFileName);
+            InputStream inputStream = Thread.currentThread().getContextClassLoader().getResourceAsStream(fileName);
+            try {
+                if (inputStream == null) {
+                    this.file = new File(fileName);
+                    this.lastModified = file.lastModified();
+                    inputStream = new FileInputStream(file);
+                } else {
+                    this.file = null;
+                }
+                this.template = parse(fileName, IOUtils.toString(inputStream));
+            } catch (IOException e) {
+                throw new RuntimeException("Template file could not be found on classpath at " + fileName);
+            } finally {
+                IOUtils.closeQuietly(inputStream);
             }
-            return IOUtils.toString(inputStream);
-        } catch (IOException e) {
-            throw new RuntimeException("Template file could not be found on classpath at " + templateFileName);
+            this.nextCheckMillis = System.currentTimeMillis() + reloadMillis;
         }
+
+        private Template get() {
+            if (file == null || reloadMillis <= 0 || System.currentTimeMillis() < nextCheckMillis) {
+                return template;
+            }
+            synchronized (this) {
+                long now = System.currentTimeMillis();
+                if (now >= nextCheckMillis) {
+                    nextCheckMillis = now + reloadMillis;
+                    long modified = file.lastModified();
+                    if (modified != lastModified) {
+                        reload(modified);
+                    }
+                }
+            }
+            return template;
+        }
+
+        private void reload(long modified) {
+            InputStream inputStream = null;
+            try {
+                inputStream = new FileInputStream(file);
+                template = parse(fileName, IOUtils.toString(inputStream));
+                lastModified = modified;
+                LOGGER.info("Reloaded email template {}", fileName);
+            } catch (IOException e) {
+                LOGGER.warn("Could not reload email template {}, keeping the previous one", fileName, e);
+            } catch (RuntimeException e) {
+                LOGGER.warn("Could not reload email template {}, keeping the previous one", fileName, e);
+            } finally {
+                IOUtils.closeQuietly(inputStream);
+            }
+        }
+
     }
     
 }
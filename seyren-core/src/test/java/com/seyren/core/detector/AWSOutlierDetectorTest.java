@@ -3,8 +3,10 @@ package com.seyren.core.detector;
 import com.google.common.base.Optional;
 import com.seyren.awsmanager.AWSManager;
 import com.seyren.awsmanager.entity.AWSInstanceDetail;
-import com.seyren.core.detector.entity.TargetDataPointsEntity;
+import com.seyren.core.detector.entity.ASGDataPoint;
+import com.seyren.core.detector.entity.ASGDataPoints;
 import com.seyren.core.domain.OutlierCheck;
+import com.seyren.core.util.graphite.TargetNameParser;
 import org.junit.Assert;
 import org.junit.BeforeClass;
 import org.junit.Test;
@@ -69,24 +71,29 @@ public class AWSOutlierDetectorTest
     }
 
     @Test
-    public void testBuildTargetDataPointsEntityMap()
+    public void testBuildAsgNameToDataPointsMap()
     {
-        String theMethodToTest = "buildTargetDataPointsEntityMap";
+        String theMethodToTest = "buildAsgNameToDataPointsMap";
         OutlierCheck outlierCheck = new OutlierCheck();
         outlierCheck.setAsgName("airpricingservice");
         setupMockAWSManager();
         try
         {
-            Map<String,TargetDataPointsEntity> targetDataPointsEntityMap = Whitebox.invokeMethod(awsOutlierDetector, theMethodToTest, buildSampleTargetValues(),outlierCheck);
-            Assert.assertEquals("CurrentValue does not match",targetDataPointsEntityMap.get(buildTargetName("10-0-0-1")).getCurrentValue(),new BigDecimal(90));
-            Assert.assertEquals("DataPoints does not match",targetDataPointsEntityMap.get(buildTargetName("10-0-0-1")).getDataPoints(), Arrays.asList(new BigDecimal[]{new BigDecimal(30),new BigDecimal(30),new BigDecimal(30),new BigDecimal(30),new BigDecimal(30)}));
-
-            Assert.assertEquals("CurrentValue does not match",targetDataPointsEntityMap.get(buildTargetName("10-0-0-4")).getCurrentValue(),new BigDecimal(90));
-            Assert.assertEquals("DataPoints does not match",targetDataPointsEntityMap.get(buildTargetName("10-0-0-4")).getDataPoints(), new ArrayList<BigDecimal>());
-
-            Assert.assertEquals("CurrentValue does not match",targetDataPointsEntityMap.get(buildTargetName("10-0-0-2")).getCurrentValue(),new BigDecimal(30));
-            Assert.assertEquals("DataPoints does not match",targetDataPointsEntityMap.get(buildTargetName("10-0-0-2")).getDataPoints(), Arrays.asList(new BigDecimal[]{new BigDecimal(30),new BigDecimal(90),new BigDecimal(30),new BigDecimal(30),new BigDecimal(30)}));
-
+            Map<String,ASGDataPoints> asgNameToDataPointsMap = Whitebox.invokeMethod(awsOutlierDetector, theMethodToTest, buildSampleTargetValues(),outlierCheck);
+            Assert.assertEquals("ASG count does not match",2,asgNameToDataPointsMap.size());
+
+            Map<String,BigDecimal> asgValues = new HashMap<String, BigDecimal>();
+            for (ASGDataPoint asgDataPoint : asgNameToDataPointsMap.get("airpricingservice").getAsgDataPointList())
+            {
+                asgValues.put(asgDataPoint.getTargetName(), asgDataPoint.getValue());
+            }
+            Assert.assertEquals("DataPoints does not match",6,asgValues.size());
+            Assert.assertEquals("CurrentValue does not match",new BigDecimal(90),asgValues.get(buildTargetName("10-0-0-1")));
+            Assert.assertEquals("CurrentValue does not match",new BigDecimal(30),asgValues.get(buildTargetName("10-0-0-2")));
+
+            List<ASGDataPoint> otherAsg = asgNameToDataPointsMap.get("airpricingservice-incorrect").getAsgDataPointList();
+            Assert.assertEquals("DataPoints does not match",1,otherAsg.size());
+            Assert.assertEquals("Target name does not match",buildTargetName("10-0-0-4"),otherAsg.get(0).getTargetName());
         }
         catch (Exception e)
         {
@@ -110,4 +117,45 @@ public class AWSOutlierDetectorTest
 
     }
 
+    @Test
+    public void testParallelEvaluationMatchesSequential()
+    {
+        Random random = new Random(11);
+        Map<String, Optional<BigDecimal>> targetValues = new HashMap<String, Optional<BigDecimal>>();
+        Map<String, AWSInstanceDetail> awsInstanceDetailMap = new HashMap<String, AWSInstanceDetail>();
+        for (int asg = 0; asg < 6; asg++)
+        {
+            for (int instance = 0; instance < 700; instance++)
+            {
+                String ip = "10." + asg + "." + (instance / 250) + "." + (instance % 250);
+                awsInstanceDetailMap.put(ip, new AWSInstanceDetail(ip, "i-" + asg + "-" + instance, "airpricingservice-" + asg));
+                int value = random.nextInt(50) == 0 ? 90 : 30 + random.nextInt(5);
+                targetValues.put(buildTargetName(ip.replace('.', '-')), Optional.of(new BigDecimal(value)));
+            }
+        }
+        when(awsManager.getInstanceDetail(anyList())).thenReturn(awsInstanceDetailMap);
+
+        OutlierCheck outlierCheck = new OutlierCheck();
+        outlierCheck.setAsgName("airpricingservice");
+        outlierCheck.setRelativeDiff(40.0);
+
+        OutlierDetectionAlgorithmRegistry registry = new OutlierDetectionAlgorithmRegistry(new MeanValueOutlierDetectorAlgorithm());
+        AWSOutlierDetector sequential = new AWSOutlierDetector(awsManager, registry, 1, Integer.MAX_VALUE, new TargetNameParser());
+        AWSOutlierDetector parallel = new AWSOutlierDetector(awsManager, registry, 4, 0, new TargetNameParser());
+        try
+        {
+            List<String> expected = sequential.getUnhealthyTargets(targetValues, outlierCheck);
+            Assert.assertFalse("Some targets should be unhealthy", expected.isEmpty());
+            for (int run = 0; run < 5; run++)
+            {
+                Assert.assertEquals("Parallel evaluation should give the same targets in the same order", expected, parallel.getUnhealthyTargets(targetValues, outlierCheck));
+            }
+        }
+        finally
+        {
+            sequential.shutdown();
+            parallel.shutdown();
+        }
+    }
+
 }
@@ -0,0 +1,75 @@
+package com.seyren.core.detector;
+
+import com.seyren.core.domain.OutlierCheck;
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.math.BigDecimal;
+import java.util.Arrays;
+
+public class EwmaOutlierDetectorAlgorithmTest
+{
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private final OutlierCheck check = (OutlierCheck) new OutlierCheck()
+            .withRelativeDiff(50.0)
+            .withAlgorithm(EwmaOutlierDetectorAlgorithm.NAME)
+            .withId("check");
+
+    @Test
+    public void testNotOutlierUntilBaselineIsEstablished()
+    {
+        EwmaOutlierDetectorAlgorithm algorithm = new EwmaOutlierDetectorAlgorithm(0.1, null, 0);
+        Assert.assertFalse(algorithm.isOutlier(check, "target", new BigDecimal(10)));
+        Assert.assertFalse("A baseline of one value should not be trusted", algorithm.isOutlier(check, "target", new BigDecimal(100)));
+    }
+
+    @Test
+    public void testDeviationFromOwnBaselineIsOutlier()
+    {
+        EwmaOutlierDetectorAlgorithm algorithm = new EwmaOutlierDetectorAlgorithm(0.1, null, 0);
+        for (int i = 0; i < 20; i++)
+        {
+            Assert.assertFalse(algorithm.isOutlier(check, "target", new BigDecimal(10 + i % 2)));
+        }
+        Assert.assertTrue("Value far above the baseline should be an outlier", algorithm.isOutlier(check, "target", new BigDecimal(40)));
+        Assert.assertFalse("Other targets have their own baseline", algorithm.isOutlier(check, "other", new BigDecimal(40)));
+    }
+
+    @Test
+    public void testNoisyTargetNeedsLargerDeviation()
+    {
+        EwmaOutlierDetectorAlgorithm algorithm = new EwmaOutlierDetectorAlgorithm(0.1, null, 0);
+        for (int i = 0; i < 50; i++)
+        {
+            algorithm.isOutlier(check, "target", new BigDecimal(i % 2 == 0 ? 5 : 25));
+        }
+        Assert.assertFalse("Value within the usual spread should not be an outlier", algorithm.isOutlier(check, "target", new BigDecimal(26)));
+    }
+
+    @Test
+    public void testBaselinesSurviveRestart() throws Exception
+    {
+        File snapshotFile = new File(folder.getRoot(), "baselines.bin");
+        EwmaOutlierDetectorAlgorithm algorithm = new EwmaOutlierDetectorAlgorithm(0.1, snapshotFile, 0);
+        for (int i = 0; i < 20; i++)
+        {
+            algorithm.isOutlier(check, "target", new BigDecimal(10));
+        }
+        algorithm.shutdown();
+
+        EwmaOutlierDetectorAlgorithm restarted = new EwmaOutlierDetectorAlgorithm(0.1, snapshotFile, 0);
+        Assert.assertTrue("Restored baseline should be used straight away", restarted.isOutlier(check, "target", new BigDecimal(40)));
+    }
+
+    @Test
+    public void testPeersAloneAreNotCompared()
+    {
+        EwmaOutlierDetectorAlgorithm algorithm = new EwmaOutlierDetectorAlgorithm(0.1, null, 0);
+        Assert.assertFalse("Peers alone say nothing without a target", algorithm.isOutlier(new BigDecimal(100), Arrays.asList(BigDecimal.ONE, BigDecimal.ONE, BigDecimal.ONE, BigDecimal.ONE, BigDecimal.ONE), 1.0, null));
+    }
+}
@@ -1,11 +1,14 @@
 package com.seyren.core.detector;
 
+import com.seyren.core.detector.entity.ClusterValues;
 import org.junit.Assert;
 import org.junit.Test;
 
 import java.math.BigDecimal;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
 
 /**
  * Created by akharbanda on 04/11/17.
@@ -72,6 +75,32 @@ public class MeanValueOutlierDetectorAlgorithmTest
         Assert.assertTrue("Outlier should be true when negative absolute diff is violated",meanValueOutlierDetectorAlgorithm.isOutlier(new BigDecimal(4), Arrays.asList(new BigDecimal[]{BigDecimal.TEN,BigDecimal.TEN,BigDecimal.TEN,BigDecimal.TEN,BigDecimal.TEN}),null,new BigDecimal(-5)));
     }
 
+    @Test
+    public void testLeaveOneOutViewMatchesCopiedClusterValues()
+    {
+        Random random = new Random(42);
+        for (int round = 0; round < 200; round++)
+        {
+            List<BigDecimal> values = new ArrayList<BigDecimal>();
+            int size = 1 + random.nextInt(20);
+            for (int i = 0; i < size; i++)
+            {
+                // Mixed scales and long binary expansions, as values parsed from Graphite have
+                values.add(random.nextBoolean() ? new BigDecimal(random.nextDouble() * 100) : new BigDecimal(random.nextInt(100)).movePointLeft(random.nextInt(4)));
+            }
+            ClusterValues clusterValues = new ClusterValues(values);
+            Double relativeDiff = random.nextBoolean() ? null : random.nextDouble() * 200 - 100;
+            BigDecimal absoluteDiff = random.nextBoolean() ? null : new BigDecimal(random.nextDouble() * 60 - 30);
+
+            for (int i = 0; i < size; i++)
+            {
+                List<BigDecimal> others = new ArrayList<BigDecimal>(values);
+                others.remove(i);
+                Assert.assertEquals("Leave-one-out view must give the same result as a copy of the other values",
+                        meanValueOutlierDetectorAlgorithm.isOutlier(values.get(i), others, relativeDiff, absoluteDiff),
+                        meanValueOutlierDetectorAlgorithm.isOutlier(values.get(i), clusterValues.without(i), relativeDiff, absoluteDiff));
+            }
+        }
+    }
 
 }
-
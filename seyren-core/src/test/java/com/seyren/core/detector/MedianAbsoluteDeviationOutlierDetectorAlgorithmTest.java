@@ -0,0 +1,100 @@
+package com.seyren.core.detector;
+
+import com.seyren.core.detector.entity.ClusterValues;
+import com.seyren.core.domain.OutlierCheck;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+public class MedianAbsoluteDeviationOutlierDetectorAlgorithmTest
+{
+    private final MedianAbsoluteDeviationOutlierDetectorAlgorithm madAlgorithm = new MedianAbsoluteDeviationOutlierDetectorAlgorithm();
+    private final MeanValueOutlierDetectorAlgorithm meanAlgorithm = new MeanValueOutlierDetectorAlgorithm();
+
+    @Test
+    public void testMinDataPoints()
+    {
+        Assert.assertFalse("Outlier should be false for fewer than 5 instances", madAlgorithm.isOutlier(new BigDecimal(100), values(10, 10, 10), null, BigDecimal.ONE));
+    }
+
+    @Test
+    public void testBothWaysOfGivingTheClusterAgree()
+    {
+        List<BigDecimal> asg = values(10, 10, 10, 10, 100);
+        ClusterValues clusterValues = new ClusterValues(asg);
+
+        Assert.assertTrue("A 5 instance ASG should be evaluated", madAlgorithm.isOutlier(new BigDecimal(100), clusterValues.without(4), null, BigDecimal.ONE));
+        Assert.assertTrue("A 5 instance ASG should be evaluated", madAlgorithm.isOutlier(new BigDecimal(100), values(10, 10, 10, 10), null, BigDecimal.ONE));
+        Assert.assertFalse(madAlgorithm.isOutlier(new BigDecimal(10), clusterValues.without(0), null, BigDecimal.ONE));
+        Assert.assertFalse(madAlgorithm.isOutlier(new BigDecimal(10), values(10, 10, 10, 100), null, BigDecimal.ONE));
+    }
+
+    @Test
+    public void testAbsoluteDiffFromMedianOutlier()
+    {
+        Assert.assertTrue("Outlier should be true when it is far from the median", madAlgorithm.isOutlier(new BigDecimal(20), values(10, 11, 9, 10, 10), null, new BigDecimal(5)));
+    }
+
+    @Test
+    public void testNegativeRelativeDiffOutlier()
+    {
+        Assert.assertTrue("Outlier should be true when negative relative diff from the median is violated", madAlgorithm.isOutlier(new BigDecimal(2), values(10, 10, 10, 10, 10), -50.0, null));
+    }
+
+    @Test
+    public void testMedianZeroRelativeDiff()
+    {
+        Assert.assertFalse("Outlier should be false when median is zero and only relative diff is present", madAlgorithm.isOutlier(new BigDecimal(20), values(0, 0, 0, 0, 0), 40.0, null));
+    }
+
+    @Test
+    public void testWithinDeviationIsNotOutlier()
+    {
+        // Widely spread values: 30 is past the absolute diff but well within the spread of the ASG
+        Assert.assertFalse("Outlier should be false within the spread of the ASG", madAlgorithm.isOutlier(new BigDecimal(30), values(0, 10, 20, 30, 40, 50), null, new BigDecimal(1)));
+    }
+
+    @Test
+    public void testOutliersDoNotMaskEachOther()
+    {
+        List<BigDecimal> asg = new ArrayList<BigDecimal>();
+        for (int i = 0; i < 16; i++)
+        {
+            asg.add(new BigDecimal(10 + i % 3));
+        }
+        asg.add(new BigDecimal(1000));
+        asg.add(new BigDecimal(1000));
+        asg.add(new BigDecimal(1000));
+        asg.add(new BigDecimal(1000));
+        ClusterValues clusterValues = new ClusterValues(asg);
+
+        Assert.assertTrue("Median should not be dragged by the other outliers", madAlgorithm.isOutlier(new BigDecimal(1000), clusterValues.without(16), 100.0, null));
+        Assert.assertFalse("Mean is dragged by the other outliers", meanAlgorithm.isOutlier(new BigDecimal(1000), clusterValues.without(16), 600.0, null));
+        Assert.assertTrue("Median should not be dragged by the other outliers", madAlgorithm.isOutlier(new BigDecimal(1000), clusterValues.without(16), 600.0, null));
+        Assert.assertFalse("Healthy instance should not be an outlier", madAlgorithm.isOutlier(new BigDecimal(12), clusterValues.without(2), 10.0, null));
+    }
+
+    @Test
+    public void testRegistryFallsBackToMean()
+    {
+        OutlierDetectionAlgorithmRegistry registry = new OutlierDetectionAlgorithmRegistry(madAlgorithm, meanAlgorithm);
+
+        Assert.assertSame(meanAlgorithm, registry.get(new OutlierCheck()));
+        Assert.assertSame(meanAlgorithm, registry.get(new OutlierCheck().withAlgorithm("unknown")));
+        Assert.assertSame(madAlgorithm, registry.get(new OutlierCheck().withAlgorithm("mad")));
+    }
+
+    private static List<BigDecimal> values(int... values)
+    {
+        List<BigDecimal> result = new ArrayList<BigDecimal>();
+        for (int value : values)
+        {
+            result.add(new BigDecimal(value));
+        }
+        return result;
+    }
+}
@@ -130,6 +130,37 @@ public class SubscriptionTest {
         assertThat(sub.shouldNotify(dateTime("1015"), AlertType.OK), is(true));
     }
     
+    @Test
+    public void subscriptionShouldNotNotifyOnTheFirstOrLastMinute() {
+        Subscription sub = new Subscription().withEnabled(true).withFromTime(localTime("1000")).withToTime(localTime("1100")).withSu(true);
+        assertThat(sub.shouldNotify(dateTime("1000"), AlertType.ERROR), is(false));
+        assertThat(sub.shouldNotify(dateTime("1001"), AlertType.ERROR), is(true));
+        assertThat(sub.shouldNotify(dateTime("1059"), AlertType.ERROR), is(true));
+        assertThat(sub.shouldNotify(dateTime("1100"), AlertType.ERROR), is(false));
+    }
+    
+    @Test
+    public void subscriptionShouldNotifyUntilAnEndPartWayThroughAMinute() {
+        Subscription sub = new Subscription().withEnabled(true).withFromTime(new LocalTime(10, 0, 30)).withToTime(new LocalTime(11, 0, 30)).withSu(true);
+        assertThat(sub.shouldNotify(dateTime("1000"), AlertType.ERROR), is(false));
+        assertThat(sub.shouldNotify(dateTime("1100"), AlertType.ERROR), is(true));
+        assertThat(sub.shouldNotify(dateTime("1101"), AlertType.ERROR), is(false));
+    }
+    
+    @Test
+    public void subscriptionShouldFollowChangesAfterItWasAsked() {
+        Subscription sub = new Subscription().withEnabled(true).withFromTime(localTime("1000")).withToTime(localTime("1100")).withSu(true);
+        assertThat(sub.shouldNotify(dateTime("1030"), AlertType.ERROR), is(true));
+        
+        sub.setSu(false);
+        assertThat(sub.shouldNotify(dateTime("1030"), AlertType.ERROR), is(false));
+        
+        sub.setSu(true);
+        sub.setIgnoreError(true);
+        assertThat(sub.shouldNotify(dateTime("1030"), AlertType.ERROR), is(false));
+        assertThat(sub.shouldNotify(dateTime("1030"), AlertType.WARN), is(true));
+    }
+    
     private DateTime dateTime(String time) {
         return new DateTime(2012, 01, 01, Integer.valueOf(time.substring(0, 2)), Integer.valueOf(time.substring(2)));
     }
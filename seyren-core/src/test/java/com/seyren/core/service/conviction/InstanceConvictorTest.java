@@ -0,0 +1,170 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.seyren.core.service.conviction;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.empty;
+import static org.hamcrest.Matchers.hasSize;
+import static org.hamcrest.Matchers.is;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import com.seyren.awsmanager.AWSManager;
+import com.seyren.awsmanager.entity.AWSInstanceDetail;
+
+public class InstanceConvictorTest
+{
+    private static final long WINDOW_MILLIS = 60000;
+
+    private AWSManager awsManager;
+
+    @Before
+    public void before()
+    {
+        awsManager = mock(AWSManager.class);
+        when(awsManager.convictInstance(anyString())).thenReturn(true);
+        when(awsManager.getASGInstanceCount("asg")).thenReturn(20);
+    }
+
+    @Test
+    public void convictionsAreCappedAtTheASGFraction()
+    {
+        InstanceConvictor convictor = new InstanceConvictor(awsManager, 0.1, WINDOW_MILLIS, false, 2);
+
+        List<String> convicted = convictor.convict(Arrays.asList(instance("i-1"), instance("i-2"), instance("i-3")));
+        List<String> convictedLater = convictor.convict(Arrays.asList(instance("i-4")));
+        convictor.shutdown();
+
+        assertThat(convicted, contains("i-1", "i-2"));
+        assertThat(convictedLater, is(empty()));
+        verify(awsManager).convictInstance("i-1");
+        verify(awsManager).convictInstance("i-2");
+        verify(awsManager, never()).convictInstance("i-3");
+        assertThat(convictor.getMetrics().getIssued(), is(2L));
+        assertThat(convictor.getMetrics().getSuppressedByLimit(), is(2L));
+    }
+
+    @Test
+    public void oneConvictionIsAllowedWhenTheASGSizeIsUnknown()
+    {
+        when(awsManager.getASGInstanceCount("asg")).thenReturn(-1);
+        InstanceConvictor convictor = new InstanceConvictor(awsManager, 0.1, WINDOW_MILLIS, false, 1);
+
+        List<String> convicted = convictor.convict(Arrays.asList(instance("i-1"), instance("i-2")));
+        convictor.shutdown();
+
+        assertThat(convicted, contains("i-1"));
+        assertThat(convictor.getMetrics().getSuppressedByLimit(), is(1L));
+    }
+
+    @Test
+    public void instancesAreConvictedOncePerWindow()
+    {
+        InstanceConvictor convictor = new InstanceConvictor(awsManager, 0.5, WINDOW_MILLIS, false, 1);
+
+        convictor.convict(Arrays.asList(instance("i-1")));
+        List<String> convictedAgain = convictor.convict(Arrays.asList(instance("i-1")));
+        convictor.shutdown();
+
+        assertThat(convictedAgain, is(empty()));
+        verify(awsManager, times(1)).convictInstance("i-1");
+        assertThat(convictor.getMetrics().getSuppressedAsDuplicate(), is(1L));
+    }
+
+    @Test
+    public void failedConvictionsMayBeRetried() throws Exception
+    {
+        when(awsManager.convictInstance("i-1")).thenReturn(false);
+        InstanceConvictor convictor = new InstanceConvictor(awsManager, 0.5, WINDOW_MILLIS, false, 1);
+
+        convictor.convict(Arrays.asList(instance("i-1")));
+        waitForMetric(convictor);
+        List<String> convictedAgain = convictor.convict(Arrays.asList(instance("i-1")));
+        convictor.shutdown();
+
+        assertThat(convictedAgain, contains("i-1"));
+        assertThat(convictor.getMetrics().getFailed(), is(2L));
+    }
+
+    @Test
+    public void failedConvictionsGiveBackTheirPlaceInTheASGLimit() throws Exception
+    {
+        when(awsManager.convictInstance("i-1")).thenReturn(false);
+        InstanceConvictor convictor = new InstanceConvictor(awsManager, 0.05, WINDOW_MILLIS, false, 1);
+
+        convictor.convict(Arrays.asList(instance("i-1")));
+        waitForMetric(convictor);
+        List<String> convictedAfter = convictor.convict(Arrays.asList(instance("i-2")));
+        convictor.shutdown();
+
+        assertThat(convictedAfter, contains("i-2"));
+        assertThat(convictor.getMetrics().getSuppressedByLimit(), is(0L));
+    }
+
+    @Test
+    public void rejectedConvictionsGiveBackTheirPlaceInTheASGLimit()
+    {
+        InstanceConvictor convictor = new InstanceConvictor(awsManager, 0.05, WINDOW_MILLIS, false, 1);
+        convictor.shutdown();
+
+        List<String> convicted = convictor.convict(Arrays.asList(instance("i-1")));
+        List<String> convictedAfter = convictor.convict(Arrays.asList(instance("i-1")));
+
+        assertThat(convicted, is(empty()));
+        assertThat(convictedAfter, is(empty()));
+        assertThat(convictor.getMetrics().getRejected(), is(2L));
+        assertThat(convictor.getMetrics().getSuppressedAsDuplicate(), is(0L));
+        assertThat(convictor.getMetrics().getSuppressedByLimit(), is(0L));
+    }
+
+    @Test
+    public void dryRunOnlyCountsConvictions()
+    {
+        InstanceConvictor convictor = new InstanceConvictor(awsManager, 0.1, WINDOW_MILLIS, true, 1);
+
+        List<String> convicted = convictor.convict(Arrays.asList(instance("i-1"), instance("i-2"), instance("i-3")));
+        convictor.shutdown();
+
+        assertThat(convicted, hasSize(2));
+        verify(awsManager, never()).convictInstance(anyString());
+        assertThat(convictor.getMetrics().getDryRun(), is(2L));
+        assertThat(convictor.getMetrics().getIssued(), is(0L));
+        assertThat(convictor.getMetrics().getSuppressedByLimit(), is(1L));
+    }
+
+    private static void waitForMetric(InstanceConvictor convictor) throws InterruptedException
+    {
+        long deadline = System.currentTimeMillis() + 5000;
+        while (convictor.getMetrics().getFailed() == 0 && System.currentTimeMillis() < deadline)
+        {
+            Thread.sleep(10);
+        }
+    }
+
+    private static AWSInstanceDetail instance(String instanceId)
+    {
+        return new AWSInstanceDetail("10.0.0." + instanceId.substring(2), instanceId, "asg");
+    }
+}
@@ -15,7 +15,9 @@ package com.seyren.core.service.notification;
 
 import com.seyren.awsmanager.AWSManager;
 import com.seyren.core.domain.*;
+import com.seyren.core.service.conviction.InstanceConvictor;
 import com.seyren.core.util.config.SeyrenConfig;
+import com.seyren.core.util.graphite.TargetNameParser;
 import org.junit.Before;
 import org.junit.Rule;
 import org.junit.Test;
@@ -42,7 +44,8 @@ public class AWSUnhealthyInstanceNotificationServiceTest
     @Before
     public void before() {
         mockSeyrenConfig = mock(SeyrenConfig.class);
-        service = new AWSUnhealthyInstanceNotificationService(awsManager,mockSeyrenConfig);
+        service = new AWSUnhealthyInstanceNotificationService(awsManager,mockSeyrenConfig,new TargetNameParser(),
+                new InstanceConvictor(awsManager, 0.1, 60000, false, 1));
     }
 
     @Test
@@ -37,6 +37,7 @@ import com.github.restdriver.clientdriver.ClientDriverRule;
 import com.github.restdriver.clientdriver.capture.BodyCapture;
 import com.github.restdriver.clientdriver.capture.JsonBodyCapture;
 import com.seyren.core.util.config.SeyrenConfig;
+import com.seyren.core.util.http.NotificationHttpClient;
 
 public class BigPandaNotificationServiceTest {
 
@@ -49,7 +50,7 @@ public class BigPandaNotificationServiceTest {
     @Before
     public void before() {
         mockSeyrenConfig = mock(SeyrenConfig.class);
-        service = new BigPandaNotificationService(mockSeyrenConfig);
+        service = new BigPandaNotificationService(mockSeyrenConfig, new NotificationHttpClient());
     }
 
     @Test
@@ -36,6 +36,7 @@ import com.seyren.core.domain.SubscriptionType;
 import com.seyren.core.domain.ThresholdAlert;
 import com.seyren.core.domain.ThresholdCheck;
 import com.seyren.core.util.config.SeyrenConfig;
+import com.seyren.core.util.http.NotificationHttpClient;
 
 public class EmfNotificationServiceTest {
 	private NotificationService notificationService;
@@ -47,7 +48,7 @@ public class EmfNotificationServiceTest {
 	@Before
 	public void before() {
 		mockSeyrenConfig = mock(SeyrenConfig.class);
-		notificationService = new EmfNotificationService(mockSeyrenConfig);
+		notificationService = new EmfNotificationService(mockSeyrenConfig, new NotificationHttpClient());
 	}
 
 	@Test
@@ -40,6 +40,7 @@ import com.seyren.core.domain.Check;
 import com.seyren.core.domain.Subscription;
 import com.seyren.core.domain.SubscriptionType;
 import com.seyren.core.util.config.SeyrenConfig;
+import com.seyren.core.util.http.NotificationHttpClient;
 
 public class FlowdockNotificationServiceTest {
     private NotificationService notificationService;
@@ -55,7 +56,7 @@ public class FlowdockNotificationServiceTest {
         when(mockSeyrenConfig.getFlowdockExternalUsername()).thenReturn("Seyren");
         when(mockSeyrenConfig.getFlowdockEmojis()).thenReturn("");
         when(mockSeyrenConfig.getFlowdockTags()).thenReturn("");
-        notificationService = new FlowdockNotificationService(mockSeyrenConfig, clientDriver.getBaseUrl());
+        notificationService = new FlowdockNotificationService(mockSeyrenConfig, clientDriver.getBaseUrl(), new NotificationHttpClient());
     }
     
     @After
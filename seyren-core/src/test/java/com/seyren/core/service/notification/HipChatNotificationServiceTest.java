@@ -33,6 +33,7 @@ import com.seyren.core.domain.Check;
 import com.seyren.core.domain.Subscription;
 import com.seyren.core.domain.SubscriptionType;
 import com.seyren.core.util.config.SeyrenConfig;
+import com.seyren.core.util.http.NotificationHttpClient;
 
 public class HipChatNotificationServiceTest {
     
@@ -45,7 +46,7 @@ public class HipChatNotificationServiceTest {
     @Before
     public void before() {
         seyrenConfig = new SeyrenConfig();
-        notificationService = new HipChatNotificationService(seyrenConfig, clientDriver.getBaseUrl());
+        notificationService = new HipChatNotificationService(seyrenConfig, clientDriver.getBaseUrl(), new NotificationHttpClient());
     }
     
     @Test
@@ -35,6 +35,7 @@ import com.github.restdriver.clientdriver.ClientDriverRule;
 import com.github.restdriver.clientdriver.capture.BodyCapture;
 import com.github.restdriver.clientdriver.capture.JsonBodyCapture;
 import com.seyren.core.util.config.SeyrenConfig;
+import com.seyren.core.util.http.NotificationHttpClient;
 
 public class HttpNotificationServiceTest {
     
@@ -47,7 +48,7 @@ public class HttpNotificationServiceTest {
     @Before
     public void before() {
         mockSeyrenConfig = mock(SeyrenConfig.class);
-        service = new HttpNotificationService(mockSeyrenConfig);
+        service = new HttpNotificationService(mockSeyrenConfig, new NotificationHttpClient());
     }
     
     @Test
@@ -34,6 +34,7 @@ import com.github.restdriver.clientdriver.ClientDriverRule;
 import com.github.restdriver.clientdriver.capture.BodyCapture;
 import com.github.restdriver.clientdriver.capture.JsonBodyCapture;
 import com.seyren.core.util.config.SeyrenConfig;
+import com.seyren.core.util.http.NotificationHttpClient;
 
 public class HubotNotificationServiceTest {
     
@@ -46,7 +47,7 @@ public class HubotNotificationServiceTest {
     @Before
     public void before() {
         mockSeyrenConfig = mock(SeyrenConfig.class);
-        service = new HubotNotificationService(mockSeyrenConfig);
+        service = new HubotNotificationService(mockSeyrenConfig, new NotificationHttpClient());
     }
     
     @Test
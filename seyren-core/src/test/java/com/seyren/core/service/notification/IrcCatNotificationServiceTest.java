@@ -15,6 +15,7 @@ package com.seyren.core.service.notification;
 
 import static org.hamcrest.MatcherAssert.*;
 import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.fail;
 import static org.mockito.Mockito.*;
 
 import java.io.BufferedReader;
@@ -26,26 +27,45 @@ import java.net.Socket;
 import java.util.Arrays;
 import java.util.List;
 import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import com.seyren.core.domain.*;
+import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
 
 import com.google.common.io.Closer;
+import com.seyren.core.exception.NotificationFailedException;
 import com.seyren.core.util.config.SeyrenConfig;
+import com.seyren.core.util.irccat.IrcCatClient;
 
 public class IrcCatNotificationServiceTest {
     
-    private static final int IRCCAT_PORT = 12345;
     private SeyrenConfig mockSeyrenConfig;
-    private NotificationService service;
+    private TcpServer tcpServer;
+    private IrcCatNotificationService service;
     
     @Before
-    public void configureService() {
+    public void configureService() throws Exception {
+        tcpServer = new TcpServer();
+        synchronized (tcpServer) {
+            tcpServer.start();
+            tcpServer.wait(1000); // Wait for up to 1 second while the server socket is being bound.
+        }
         mockSeyrenConfig = mock(SeyrenConfig.class);
+        when(mockSeyrenConfig.getBaseUrl()).thenReturn("http://localhost");
+        when(mockSeyrenConfig.getIrcCatHost()).thenReturn("localhost");
+        when(mockSeyrenConfig.getIrcCatPort()).thenReturn(tcpServer.getPort());
+        when(mockSeyrenConfig.getIrcCatQueueCapacity()).thenReturn(10);
+        when(mockSeyrenConfig.getIrcCatIdleTimeoutSeconds()).thenReturn(60);
         service = new IrcCatNotificationService(mockSeyrenConfig);
     }
     
+    @After
+    public void stopServer() {
+        tcpServer.stop();
+    }
+    
     @Test
     public void notifcationServiceCanOnlyHandleHubotSubscription() {
         assertThat(service.canHandle(SubscriptionType.IRCCAT), is(true));
@@ -59,90 +79,106 @@ public class IrcCatNotificationServiceTest {
     
     @Test
     public void sendNotification() throws Exception {
-        when(mockSeyrenConfig.getBaseUrl()).thenReturn("http://localhost");
-        when(mockSeyrenConfig.getIrcCatHost()).thenReturn("localhost");
-        when(mockSeyrenConfig.getIrcCatPort()).thenReturn(IRCCAT_PORT);
-        TcpServer tcpServer = new TcpServer(IRCCAT_PORT);
-        synchronized (tcpServer) {
-            tcpServer.start();
-            tcpServer.wait(1000); // Wait for up to 1 second while the server socket is being bound.
-        }
+        service.sendNotification(check(), new Subscription().withType(SubscriptionType.IRCCAT).withTarget("#mychannel"), alerts());
         
-        Check check = new Check().withEnabled(true).withName("check-name")
-                .withState(AlertType.ERROR);
+        tcpServer.waitForNumberOfMessage(1, 1000);
         
-        Subscription subscription = new Subscription().withType(
-                SubscriptionType.IRCCAT).withTarget("#mychannel");
+        assertThat(tcpServer.getMessages().size(), is(1));
+        assertThat(tcpServer.getMessages().get(0).startsWith("#mychannel %RED[CRIT]%NORMAL check-name"), is(true));
         
-        Alert alert = new ThresholdAlert()
-                .withWarn(BigDecimal.valueOf(5))
-                .withError(BigDecimal.valueOf(10))
-                .withTarget("the.target.name")
-                .withValue(BigDecimal.valueOf(12))
-                .withFromType(AlertType.WARN)
-                .withToType(AlertType.ERROR);
+        verify(mockSeyrenConfig).getIrcCatHost();
+        verify(mockSeyrenConfig).getIrcCatPort();
+    }
+    
+    @Test
+    public void channelsAndNotificationsShareOneConnection() throws Exception {
+        Subscription subscription = new Subscription().withType(SubscriptionType.IRCCAT).withTarget("#one,#two,#three");
         
-        List<Alert> alerts = Arrays.asList(alert);
+        service.sendNotification(check(), subscription, alerts());
+        service.sendNotification(check(), subscription, alerts());
         
-        service.sendNotification(check, subscription, alerts);
+        tcpServer.waitForNumberOfMessage(6, 1000);
+        
+        assertThat(tcpServer.getMessages().size(), is(6));
+        assertThat(tcpServer.getConnections(), is(1));
+    }
+    
+    @Test
+    public void connectionDroppedByIrcCatIsReopened() throws Exception {
+        Subscription subscription = new Subscription().withType(SubscriptionType.IRCCAT).withTarget("#mychannel");
         
+        service.sendNotification(check(), subscription, alerts());
         tcpServer.waitForNumberOfMessage(1, 1000);
+        tcpServer.dropConnections();
+        service.sendNotification(check(), subscription, alerts());
         
-        assertThat(tcpServer.getMessages().size(), is(1));
+        tcpServer.waitForNumberOfMessage(2, 1000);
         
-        verify(mockSeyrenConfig).getIrcCatHost();
-        verify(mockSeyrenConfig).getIrcCatPort();
+        assertThat(tcpServer.getMessages().size(), is(2));
+        assertThat(tcpServer.getConnections(), is(2));
+    }
+    
+    @Test
+    public void unreachableIrcCatFailsTheNotification() throws Exception {
         tcpServer.stop();
+        IrcCatClient client = new IrcCatClient("localhost", tcpServer.getPort(), 10, 0);
+        service = new IrcCatNotificationService(mockSeyrenConfig, client);
+        
+        try {
+            service.sendNotification(check(), new Subscription().withType(SubscriptionType.IRCCAT).withTarget("#mychannel"), alerts());
+            fail("Expected the notification to fail");
+        } catch (NotificationFailedException e) {
+            // expected
+        } finally {
+            client.shutdown();
+        }
+    }
+    
+    private static Check check() {
+        return new Check().withId("id").withEnabled(true).withName("check-name").withState(AlertType.ERROR);
+    }
+    
+    private static List<Alert> alerts() {
+        Alert alert = new ThresholdAlert()
+                .withWarn(BigDecimal.valueOf(5))
+                .withError(BigDecimal.valueOf(10))
+                .withTarget("the.target.name")
+                .withValue(BigDecimal.valueOf(12))
+                .withFromType(AlertType.WARN)
+                .withToType(AlertType.ERROR);
+        return Arrays.asList(alert);
     }
     
     private static class TcpServer {
         
-        private final int port;
-        
         private volatile boolean shutdown = false;
+        private volatile ServerSocket serverSocket;
         private final List<String> messages = new CopyOnWriteArrayList<String>();
+        private final List<Socket> sockets = new CopyOnWriteArrayList<Socket>();
+        private final AtomicInteger connections = new AtomicInteger();
         private Thread serverThread;
         
-        public TcpServer(int port) {
-            this.port = port;
-        }
-        
         public TcpServer start() {
             serverThread = new Thread(new Runnable() {
                 @Override
                 public void run() {
-                    ServerSocket serverSocket = null;
                     try {
-                        synchronized (this) {
-                            serverSocket = new ServerSocket(port);
-                            this.notifyAll(); // Notify now that the server socket is bound.
+                        synchronized (TcpServer.this) {
+                            serverSocket = new ServerSocket(0);
+                            TcpServer.this.notifyAll(); // Notify now that the server socket is bound.
                         }
                         while (!shutdown) {
-                            Socket socket = serverSocket.accept();
-                            Closer closer = Closer.create();
-                            try {
-                                BufferedReader in = closer.register(new BufferedReader(new InputStreamReader(socket.getInputStream())));
-                                String message = in.readLine();
-                                messages.add(message);
-                                synchronized (this) {
-                                    this.notifyAll();
+                            final Socket socket = serverSocket.accept();
+                            sockets.add(socket);
+                            connections.incrementAndGet();
+                            new Thread(new Runnable() {
+                                @Override
+                                public void run() {
+                                    read(socket);
                                 }
-                            } catch (IOException ioe) {
-                                socket.close();
-                                closer.rethrow(ioe);
-                            } finally {
-                                closer.close();
-                            }
+                            }).start();
                         }
                     } catch (IOException ioe) {
-                    } finally {
-                        if (serverSocket != null && !serverSocket.isClosed()) {
-                            try {
-                                serverSocket.close();
-                            } catch (IOException e) {
-                                throw new RuntimeException(e);
-                            }
-                        }
                     }
                 }
             });
@@ -150,12 +186,32 @@ public class IrcCatNotificationServiceTest {
             return this;
         }
         
+        private void read(Socket socket) {
+            Closer closer = Closer.create();
+            try {
+                BufferedReader in = closer.register(new BufferedReader(new InputStreamReader(socket.getInputStream(), "UTF-8")));
+                String message;
+                while ((message = in.readLine()) != null) {
+                    messages.add(message);
+                    synchronized (this) {
+                        this.notifyAll();
+                    }
+                }
+            } catch (IOException ioe) {
+            } finally {
+                try {
+                    closer.close();
+                } catch (IOException e) {
+                }
+            }
+        }
+        
         public void waitForNumberOfMessage(int n, long timeout)
                 throws InterruptedException {
             long startTime = System.currentTimeMillis();
             while (messages.size() < n) {
                 synchronized (this) {
-                    this.wait(timeout);
+                    this.wait(10);
                 }
                 if (System.currentTimeMillis() - startTime > timeout) {
                     return;
@@ -163,8 +219,28 @@ public class IrcCatNotificationServiceTest {
             }
         }
         
+        public void dropConnections() throws IOException {
+            for (Socket socket : sockets) {
+                socket.close();
+            }
+        }
+        
         public void stop() {
             shutdown = true;
+            try {
+                serverSocket.close();
+                dropConnections();
+            } catch (IOException e) {
+                throw new RuntimeException(e);
+            }
+        }
+        
+        public int getPort() {
+            return serverSocket.getLocalPort();
+        }
+        
+        public int getConnections() {
+            return connections.get();
         }
         
         public List<String> getMessages() {
@@ -23,6 +23,7 @@ import com.seyren.core.domain.AlertType;
 import com.seyren.core.domain.Check;
 import com.seyren.core.domain.Subscription;
 import com.seyren.core.domain.SubscriptionType;
+import com.seyren.core.exception.NotificationRateLimitedException;
 import com.seyren.core.util.config.SeyrenConfig;
 import org.joda.time.DateTime;
 import org.junit.After;
@@ -42,6 +43,7 @@ import static org.hamcrest.Matchers.containsString;
 import static org.hamcrest.Matchers.hasSize;
 import static org.hamcrest.Matchers.is;
 import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
@@ -150,4 +152,29 @@ public class PagerDutyNotificationServiceTest {
         assertThat(node, hasJsonPath("$.details.CHECK", containsString("\"id\":\"123\",\"name\":\"test-check\",")));
         assertThat(node, hasJsonPath("$.details.SEYREN_URL", containsString("/pagerduty")));
     }
+
+    @Test
+    public void providerAskingToSlowDownIsThrownAsRateLimited() {
+        Check check = new Check()
+                .withId("123")
+                .withEnabled(true)
+                .withName("test-check")
+                .withState(AlertType.ERROR);
+        Subscription subscription = new Subscription()
+                .withEnabled(true)
+                .withType(SubscriptionType.PAGERDUTY)
+                .withTarget("servicekey123");
+
+        clientDriver.addExpectation(
+                onRequestTo("/generic/2010-04-15/create_event.json")
+                        .withMethod(ClientDriverRequest.Method.POST),
+                giveEmptyResponse().withStatus(429).withHeader("Retry-After", "7"));
+
+        try {
+            notificationService.sendNotification(check, subscription, new ArrayList<Alert>());
+            fail("Expected the notification to be rate limited");
+        } catch (NotificationRateLimitedException e) {
+            assertThat(e.getRetryAfterMillis(), is(7000L));
+        }
+    }
 }
@@ -24,13 +24,20 @@ import java.util.Arrays;
 import org.apache.commons.lang.SystemUtils;
 import org.junit.Before;
 import org.junit.Test;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+
+import com.google.gson.JsonObject;
 
 import com.seyren.core.domain.Alert;
 import com.seyren.core.domain.AlertType;
 import com.seyren.core.domain.Check;
 import com.seyren.core.domain.Subscription;
 import com.seyren.core.domain.SubscriptionType;
+import com.seyren.core.exception.NotificationPartlyFailedException;
 import com.seyren.core.util.config.SeyrenConfig;
+import com.seyren.core.util.graphite.TargetNameParser;
+import com.seyren.core.util.script.ScriptWorkerPool;
 
 public class ScriptNotificationServiceTest {
     
@@ -44,7 +51,7 @@ public class ScriptNotificationServiceTest {
         when(mockSeyrenConfig.getScriptPath()).thenReturn(Thread.currentThread().getContextClassLoader().getResource("script.py").toString());
         when(mockSeyrenConfig.getBaseUrl()).thenReturn("http://somefakehostname.int");
         
-        notificationService = new ScriptNotificationService(mockSeyrenConfig);
+        notificationService = new ScriptNotificationService(mockSeyrenConfig, new TargetNameParser());
     }
     
     @Test
@@ -76,4 +83,43 @@ public class ScriptNotificationServiceTest {
         
     }
     
+    @Test
+    @SuppressWarnings("unchecked")
+    public void alertsWhichFailedAreReported() throws Exception {
+        ScriptWorkerPool workerPool = mock(ScriptWorkerPool.class);
+        when(workerPool.isEnabled()).thenReturn(true);
+        when(workerPool.call(anyListOf(JsonObject.class))).thenAnswer(new Answer<List<JsonObject>>() {
+            @Override
+            public List<JsonObject> answer(InvocationOnMock invocation) {
+                List<JsonObject> responses = new ArrayList<JsonObject>();
+                for (JsonObject request : (List<JsonObject>) invocation.getArguments()[0]) {
+                    JsonObject response = new JsonObject();
+                    response.addProperty("ok", !request.get("hostname").getAsString().equals("second"));
+                    responses.add(response);
+                }
+                return responses;
+            }
+        });
+        notificationService = new ScriptNotificationService(mockSeyrenConfig, new TargetNameParser(), workerPool);
+        Check check = new Check()
+                .withId("test-id")
+                .withState(AlertType.ERROR);
+        Subscription subscription = new Subscription()
+                .withId("subscription-id")
+                .withType(SubscriptionType.SCRIPT)
+                .withTarget("eos.test.expedia.com/isactive")
+                .withPosition("2");
+        Alert second = new Alert().withTarget("servers.second.cpu").withToType(AlertType.ERROR);
+        List<Alert> alerts = Arrays.asList(
+                new Alert().withTarget("servers.first.cpu").withToType(AlertType.ERROR),
+                second);
+
+        try {
+            notificationService.sendNotification(check, subscription, alerts);
+            fail("Expected the failed alert to be reported");
+        } catch (NotificationPartlyFailedException e) {
+            assertThat(e.getFailedAlerts(), contains(sameInstance(second)));
+        }
+    }
+
 }
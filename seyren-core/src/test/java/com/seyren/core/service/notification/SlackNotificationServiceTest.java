@@ -23,7 +23,9 @@ import java.math.BigDecimal;
 import java.net.URLDecoder;
 import java.net.URLEncoder;
 import java.util.Arrays;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 
 import org.hamcrest.Matchers;
 import org.joda.time.DateTime;
@@ -41,9 +43,10 @@ import com.seyren.core.domain.Check;
 import com.seyren.core.domain.Subscription;
 import com.seyren.core.domain.SubscriptionType;
 import com.seyren.core.util.config.SeyrenConfig;
+import com.seyren.core.util.http.NotificationHttpClient;
 
 public class SlackNotificationServiceTest {
-    private NotificationService notificationService;
+    private SlackNotificationService notificationService;
     private SeyrenConfig mockSeyrenConfig;
 
     @Rule
@@ -57,7 +60,7 @@ public class SlackNotificationServiceTest {
         when(mockSeyrenConfig.getSlackIconUrl()).thenReturn("");
         when(mockSeyrenConfig.getSlackToken()).thenReturn("");
         when(mockSeyrenConfig.getSlackUsername()).thenReturn("Seyren");
-        notificationService = new SlackNotificationService(mockSeyrenConfig, clientDriver.getBaseUrl());
+        notificationService = new SlackNotificationService(mockSeyrenConfig, clientDriver.getBaseUrl(), new NotificationHttpClient());
     }
 
     @After
@@ -174,6 +177,38 @@ public class SlackNotificationServiceTest {
         verify(mockSeyrenConfig).getBaseUrl();
     }
 
+    @Test
+    public void digestListsEveryCheckInOneMessage() {
+        Subscription subscription = new Subscription()
+                .withEnabled(true)
+                .withType(SubscriptionType.SLACK)
+                .withTarget("target!");
+        Alert alert = new Alert()
+                .withValue(new BigDecimal("1.0"))
+                .withTimestamp(new DateTime())
+                .withFromType(AlertType.OK)
+                .withToType(AlertType.ERROR);
+        Map<Check, List<Alert>> alertsByCheck = new LinkedHashMap<Check, List<Alert>>();
+        alertsByCheck.put(new Check().withId("123").withName("first-check").withState(AlertType.ERROR), Arrays.asList(alert));
+        alertsByCheck.put(new Check().withId("456").withName("second-check").withState(AlertType.ERROR), Arrays.asList(alert));
+
+        StringBodyCapture bodyCapture = new StringBodyCapture();
+
+        clientDriver.addExpectation(
+                onRequestTo("/api/chat.postMessage")
+                        .withMethod(ClientDriverRequest.Method.POST)
+                        .capturingBodyIn(bodyCapture),
+                giveEmptyResponse());
+
+        notificationService.sendDigest(subscription, alertsByCheck);
+
+        String content = decode(bodyCapture.getContent());
+        assertThat(content, Matchers.containsString("*2 checks changed state*"));
+        assertThat(content, Matchers.containsString("*ERROR* first-check"));
+        assertThat(content, Matchers.containsString("/#/checks/456"));
+        assertThat(content.indexOf("<!channel>"), is(content.lastIndexOf("<!channel>")));
+    }
+
     String encode(String data) {
         try {
             return URLEncoder.encode(data, "ISO-8859-1");
@@ -0,0 +1,113 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.seyren.core.service.notification;
+
+import static org.hamcrest.MatcherAssert.*;
+import static org.hamcrest.Matchers.*;
+import static org.mockito.Mockito.*;
+
+import java.math.BigDecimal;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+
+import org.joda.time.DateTime;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.snmp4j.CommandResponder;
+import org.snmp4j.CommandResponderEvent;
+import org.snmp4j.PDU;
+import org.snmp4j.Snmp;
+import org.snmp4j.smi.OID;
+import org.snmp4j.smi.UdpAddress;
+import org.snmp4j.transport.DefaultUdpTransportMapping;
+
+import com.seyren.core.domain.Alert;
+import com.seyren.core.domain.AlertType;
+import com.seyren.core.domain.Check;
+import com.seyren.core.domain.Subscription;
+import com.seyren.core.domain.SubscriptionType;
+import com.seyren.core.domain.ThresholdAlert;
+import com.seyren.core.util.config.SeyrenConfig;
+
+public class SnmpTrapNotificationServiceTest {
+
+    private final List<PDU> traps = new CopyOnWriteArrayList<PDU>();
+    private Snmp receiver;
+    private SnmpTrapNotificationService service;
+
+    @Before
+    public void before() throws Exception {
+        DefaultUdpTransportMapping transport = new DefaultUdpTransportMapping(new UdpAddress("127.0.0.1/0"));
+        receiver = new Snmp(transport);
+        receiver.addCommandResponder(new CommandResponder() {
+            @Override
+            public void processPdu(CommandResponderEvent event) {
+                traps.add(event.getPDU());
+            }
+        });
+        receiver.listen();
+
+        SeyrenConfig seyrenConfig = mock(SeyrenConfig.class);
+        when(seyrenConfig.getSnmpOID()).thenReturn("1.3.6.1.4.1.32473.1");
+        when(seyrenConfig.getSnmpHost()).thenReturn("127.0.0.1");
+        when(seyrenConfig.getSnmpPort()).thenReturn(transport.getListenAddress().getPort());
+        when(seyrenConfig.getSnmpCommunity()).thenReturn("public");
+        when(seyrenConfig.getBaseUrl()).thenReturn("http://localhost");
+        service = new SnmpTrapNotificationService(seyrenConfig);
+    }
+
+    @After
+    public void after() throws Exception {
+        service.close();
+        receiver.close();
+    }
+
+    @Test
+    public void trapsOfSeveralNotificationsShareOneSession() throws Exception {
+        Check check = new Check().withId("id").withName("check-name").withState(AlertType.ERROR);
+        Subscription subscription = new Subscription().withType(SubscriptionType.SNMP).withTarget("target");
+
+        service.sendNotification(check, subscription, Arrays.asList(alert("a"), alert("b")));
+        service.sendNotification(check, subscription, Arrays.asList(alert("c")));
+
+        awaitTraps(3);
+        assertThat(traps, hasSize(3));
+        assertThat(traps.get(2).getVariable(new OID("1.3.6.1.4.1.32473.1.4")).toString(), is("c"));
+        assertThat(service.getMetrics().getTraps(), is(3L));
+        assertThat(service.getMetrics().getSessions(), is(1L));
+        assertThat(service.getMetrics().getFailed(), is(0L));
+    }
+
+    private static Alert alert(String target) {
+        return new ThresholdAlert()
+                .withWarn(BigDecimal.ONE)
+                .withError(BigDecimal.TEN)
+                .withTarget(target)
+                .withValue(BigDecimal.TEN)
+                .withFromType(AlertType.OK)
+                .withToType(AlertType.ERROR)
+                .withTimestamp(new DateTime());
+    }
+
+    private void awaitTraps(int count) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(5);
+        while (traps.size() < count && System.currentTimeMillis() < deadline) {
+            Thread.sleep(5);
+        }
+    }
+
+}
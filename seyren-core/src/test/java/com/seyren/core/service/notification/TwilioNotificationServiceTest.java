@@ -35,6 +35,7 @@ import com.github.restdriver.clientdriver.ClientDriverRule;
 import com.github.restdriver.clientdriver.capture.BodyCapture;
 import com.github.restdriver.clientdriver.capture.StringBodyCapture;
 import com.seyren.core.util.config.SeyrenConfig;
+import com.seyren.core.util.http.NotificationHttpClient;
 
 public class TwilioNotificationServiceTest {
     private SeyrenConfig mockSeyrenConfig;
@@ -44,7 +45,7 @@ public class TwilioNotificationServiceTest {
     @Before
     public void before() {
         mockSeyrenConfig = mock(SeyrenConfig.class);
-        service = new TwilioNotificationService(mockSeyrenConfig);
+        service = new TwilioNotificationService(mockSeyrenConfig, new NotificationHttpClient());
     }
     
     @Test
@@ -56,6 +56,7 @@ import com.github.restdriver.clientdriver.capture.BodyCapture;
 import com.github.restdriver.clientdriver.capture.JsonBodyCapture;
 import com.seyren.core.domain.*;
 import com.seyren.core.util.config.SeyrenConfig;
+import com.seyren.core.util.http.NotificationHttpClient;
 
 import static com.github.restdriver.Matchers.hasJsonPath;
 import static com.github.restdriver.clientdriver.RestClientDriver.giveResponse;
@@ -77,7 +78,7 @@ public class VictorOpsNotificationServiceTest {
     public void before() {
         mockSeyrenConfig = mock(SeyrenConfig.class);
         when(mockSeyrenConfig.getVictorOpsRestEndpoint()).thenReturn(clientDriver.getBaseUrl() + "/restapi/");
-        service = new VictorOpsNotificationService(mockSeyrenConfig);
+        service = new VictorOpsNotificationService(mockSeyrenConfig, new NotificationHttpClient());
     }
 
     @Test
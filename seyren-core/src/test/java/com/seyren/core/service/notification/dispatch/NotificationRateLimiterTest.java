@@ -0,0 +1,69 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.seyren.core.service.notification.dispatch;
+
+import static org.hamcrest.MatcherAssert.*;
+import static org.hamcrest.Matchers.*;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+
+import org.junit.After;
+import org.junit.Test;
+
+import com.seyren.core.domain.SubscriptionType;
+
+public class NotificationRateLimiterTest {
+
+    private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor();
+
+    @After
+    public void after() {
+        scheduler.shutdownNow();
+    }
+
+    @Test
+    public void idleBucketsAreDropped() throws Exception {
+        Map<SubscriptionType, Double> budgets = Collections.singletonMap(SubscriptionType.SLACK, 100.0);
+        NotificationRateLimiter rateLimiter = new NotificationRateLimiter(budgets, 1, scheduler, 0);
+        Runnable nothing = new Runnable() {
+            @Override
+            public void run() {
+            }
+        };
+
+        rateLimiter.throttle(SubscriptionType.HTTP, "http://example.com/hook", 20);
+        assertThat(rateLimiter.tryAcquire(SubscriptionType.SLACK, "#ops", Collections.singleton("check"), 0, nothing), is(true));
+        assertThat(rateLimiter.size(), is(2));
+
+        Thread.sleep(50);
+        // Another target, which sweeps the others now that they are blocked no more and full again
+        rateLimiter.tryAcquire(SubscriptionType.HTTP, "http://example.com/other", Collections.singleton("check"), 0, nothing);
+
+        assertThat(rateLimiter.size(), is(0));
+    }
+
+    @Test
+    public void bucketsHoldingNotificationsBackAreKept() throws Exception {
+        NotificationRateLimiter rateLimiter = new NotificationRateLimiter(Collections.<SubscriptionType, Double> emptyMap(), 1, scheduler, 0);
+
+        rateLimiter.throttle(SubscriptionType.HTTP, "http://example.com/hook", 60000);
+        rateLimiter.throttle(SubscriptionType.HTTP, "http://example.com/other", 60000);
+
+        assertThat(rateLimiter.size(), is(2));
+    }
+
+}
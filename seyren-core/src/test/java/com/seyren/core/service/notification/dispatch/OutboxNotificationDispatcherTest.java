@@ -0,0 +1,266 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.seyren.core.service.notification.dispatch;
+
+import static org.hamcrest.MatcherAssert.*;
+import static org.hamcrest.Matchers.is;
+import static org.mockito.Matchers.*;
+import static org.mockito.Mockito.*;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.joda.time.DateTime;
+import org.junit.After;
+import org.junit.Test;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+
+import com.seyren.core.domain.Alert;
+import com.seyren.core.domain.AlertType;
+import com.seyren.core.domain.Check;
+import com.seyren.core.domain.PendingNotification;
+import com.seyren.core.domain.Subscription;
+import com.seyren.core.domain.SubscriptionType;
+import com.seyren.core.domain.ThresholdAlert;
+import com.seyren.core.domain.ThresholdCheck;
+import com.seyren.core.exception.NotificationFailedException;
+import com.seyren.core.exception.NotificationPartlyFailedException;
+import com.seyren.core.service.notification.NotificationService;
+import com.seyren.core.store.NotificationOutboxStore;
+
+public class OutboxNotificationDispatcherTest {
+
+    private final Subscription subscription = new Subscription().withId("sub").withType(SubscriptionType.EMAIL).withTarget("target");
+    private final Check check = new ThresholdCheck().withId("check").withSubscriptions(Arrays.asList(subscription));
+    private final List<Alert> alerts = Arrays.<Alert>asList(new ThresholdAlert()
+            .withTarget("a")
+            .withToType(AlertType.ERROR)
+            .withTimestamp(new DateTime(1000)));
+    private final MemoryOutboxStore store = new MemoryOutboxStore();
+    private final NotificationService service = mock(NotificationService.class);
+    private QueuedNotificationDispatcher queuedDispatcher;
+    private OutboxNotificationDispatcher dispatcher;
+
+    @After
+    public void after() {
+        dispatcher.shutdown();
+        queuedDispatcher.shutdown();
+    }
+
+    @Test
+    public void notificationIsWrittenToTheOutboxAndDeletedOnceSent() throws Exception {
+        when(service.canHandle(SubscriptionType.EMAIL)).thenReturn(true);
+        dispatcher = dispatcher(true, 4);
+
+        dispatcher.dispatch(check, subscription, alerts);
+
+        awaitDone(dispatcher.getMetrics());
+        verify(service).sendNotification(any(Check.class), eq(subscription), anyListOf(Alert.class));
+        assertThat(dispatcher.getMetrics().getWritten(), is(1L));
+        assertThat(dispatcher.getMetrics().getSent(), is(1L));
+        assertThat(store.notifications.isEmpty(), is(true));
+        assertThat(queuedDispatcher.getMetrics().get(SubscriptionType.EMAIL).getSent(), is(1L));
+    }
+
+    @Test
+    public void failedNotificationIsReleasedUntilItIsSent() throws Exception {
+        when(service.canHandle(SubscriptionType.EMAIL)).thenReturn(true);
+        doThrow(new NotificationFailedException("down"))
+                .doNothing()
+                .when(service).sendNotification(any(Check.class), any(Subscription.class), anyListOf(Alert.class));
+        dispatcher = dispatcher(true, 4);
+
+        dispatcher.dispatch(check, subscription, alerts);
+
+        awaitDone(dispatcher.getMetrics());
+        verify(service, times(2)).sendNotification(any(Check.class), any(Subscription.class), anyListOf(Alert.class));
+        assertThat(dispatcher.getMetrics().getRetried(), is(1L));
+        assertThat(dispatcher.getMetrics().getSent(), is(1L));
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void onlyTheAlertsWhichFailedAreKeptInTheOutbox() throws Exception {
+        final Alert failed = new ThresholdAlert().withTarget("b").withToType(AlertType.ERROR).withTimestamp(new DateTime(1000));
+        final List<List<Alert>> received = new ArrayList<List<Alert>>();
+        when(service.canHandle(SubscriptionType.EMAIL)).thenReturn(true);
+        doAnswer(new Answer<Void>() {
+            @Override
+            public Void answer(InvocationOnMock invocation) throws Throwable {
+                List<Alert> given = (List<Alert>) invocation.getArguments()[2];
+                received.add(new ArrayList<Alert>(given));
+                if (received.size() == 1) {
+                    throw new NotificationPartlyFailedException("one failed", Arrays.asList(given.get(1)));
+                }
+                return null;
+            }
+        }).when(service).sendNotification(any(Check.class), any(Subscription.class), anyListOf(Alert.class));
+        dispatcher = dispatcher(true, 4);
+
+        dispatcher.dispatch(check, subscription, Arrays.asList(alerts.get(0), failed));
+
+        awaitDone(dispatcher.getMetrics());
+        assertThat(received.size(), is(2));
+        assertThat(received.get(1).size(), is(1));
+        assertThat(received.get(1).get(0).getTarget(), is("b"));
+        assertThat(dispatcher.getMetrics().getSent(), is(1L));
+    }
+
+    @Test
+    public void sameAlertsAreOnlyWrittenOnceWhilePending() throws Exception {
+        final CountDownLatch release = new CountDownLatch(1);
+        when(service.canHandle(SubscriptionType.EMAIL)).thenReturn(true);
+        // Keeps the first notification pending while the second is dispatched
+        doAnswer(new Answer<Void>() {
+            @Override
+            public Void answer(InvocationOnMock invocation) throws Throwable {
+                release.await();
+                return null;
+            }
+        }).when(service).sendNotification(any(Check.class), any(Subscription.class), anyListOf(Alert.class));
+        dispatcher = dispatcher(true, 4);
+
+        dispatcher.dispatch(check, subscription, alerts);
+        dispatcher.dispatch(check, subscription, new ArrayList<Alert>(alerts));
+
+        assertThat(dispatcher.getMetrics().getWritten(), is(1L));
+        assertThat(dispatcher.getMetrics().getDuplicates(), is(1L));
+        release.countDown();
+        awaitDone(dispatcher.getMetrics());
+    }
+
+    @Test
+    public void notificationLeftByAnotherNodeIsSentOnceItsLeaseExpires() throws Exception {
+        when(service.canHandle(SubscriptionType.EMAIL)).thenReturn(true);
+        store.createPendingNotification(new PendingNotification()
+                .withKey("key")
+                .withCheck(check)
+                .withSubscriptionId("sub")
+                .withAlerts(alerts)
+                .withOwner("gone")
+                .withDue(new DateTime().minusSeconds(1)));
+        dispatcher = dispatcher(true, 4);
+
+        dispatcher.poll();
+
+        awaitDone(dispatcher.getMetrics());
+        verify(service).sendNotification(any(Check.class), eq(subscription), anyListOf(Alert.class));
+        assertThat(store.notifications.isEmpty(), is(true));
+    }
+
+    @Test
+    public void olderNotificationIsDroppedOnceANewerOneOfItsCheckIsSent() throws Exception {
+        when(service.canHandle(SubscriptionType.EMAIL)).thenReturn(true);
+        dispatcher = dispatcher(true, 4);
+        dispatcher.dispatch(check, subscription, Arrays.<Alert>asList(new ThresholdAlert()
+                .withTarget("a")
+                .withToType(AlertType.OK)
+                .withTimestamp(new DateTime(2000))));
+        awaitDone(dispatcher.getMetrics());
+        store.createPendingNotification(new PendingNotification()
+                .withKey("older")
+                .withCheck(check)
+                .withSubscriptionId("sub")
+                .withAlerts(alerts)
+                .withCreated(new DateTime().minusMinutes(1))
+                .withDue(new DateTime().minusSeconds(1)));
+
+        dispatcher.poll();
+
+        long deadline = System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(5);
+        while (dispatcher.getMetrics().getSent() < 2 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(5);
+        }
+        verify(service, times(1)).sendNotification(any(Check.class), any(Subscription.class), anyListOf(Alert.class));
+        assertThat(queuedDispatcher.getMetrics().get(SubscriptionType.EMAIL).getSuperseded(), is(1L));
+        assertThat(store.notifications.isEmpty(), is(true));
+    }
+
+    @Test
+    public void notificationsGoStraightToTheQueueUnlessEnabled() throws Exception {
+        when(service.canHandle(SubscriptionType.EMAIL)).thenReturn(true);
+        dispatcher = dispatcher(false, 4);
+
+        dispatcher.dispatch(check, subscription, alerts);
+
+        NotificationMetrics metrics = queuedDispatcher.getMetrics().get(SubscriptionType.EMAIL);
+        long deadline = System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(5);
+        while (metrics.getSent() == 0 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(5);
+        }
+        verify(service).sendNotification(any(Check.class), eq(subscription), anyListOf(Alert.class));
+        assertThat(store.notifications.isEmpty(), is(true));
+    }
+
+    private OutboxNotificationDispatcher dispatcher(boolean enabled, int maxAttempts) {
+        queuedDispatcher = new QueuedNotificationDispatcher(Arrays.asList(service), 1, 10, maxAttempts, 1);
+        return new OutboxNotificationDispatcher(queuedDispatcher, store, enabled, 10, TimeUnit.SECONDS.toMillis(60), 10, maxAttempts, 1);
+    }
+
+    private static void awaitDone(OutboxMetrics metrics) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(5);
+        while (metrics.getSent() + metrics.getFailed() == 0 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(5);
+        }
+    }
+
+    private static final class MemoryOutboxStore implements NotificationOutboxStore {
+
+        private final Map<String, PendingNotification> notifications = new LinkedHashMap<String, PendingNotification>();
+        private int ids;
+
+        @Override
+        public synchronized boolean createPendingNotification(PendingNotification notification) {
+            for (PendingNotification pending : notifications.values()) {
+                if (pending.getKey().equals(notification.getKey())) {
+                    return false;
+                }
+            }
+            notification.setId(String.valueOf(++ids));
+            notifications.put(notification.getId(), notification);
+            return true;
+        }
+
+        @Override
+        public synchronized List<PendingNotification> claimPendingNotifications(String owner, int limit, DateTime now, DateTime leaseExpiry) {
+            List<PendingNotification> claimed = new ArrayList<PendingNotification>();
+            for (PendingNotification notification : notifications.values()) {
+                if (claimed.size() < limit && !notification.getDue().isAfter(now)) {
+                    notification.setOwner(owner);
+                    notification.setDue(leaseExpiry);
+                    claimed.add(notification);
+                }
+            }
+            return claimed;
+        }
+
+        @Override
+        public synchronized void reschedulePendingNotification(String id, int attempts, DateTime due, List<Alert> alerts) {
+            notifications.get(id).withAttempts(attempts).withDue(due).withAlerts(alerts).setOwner(null);
+        }
+
+        @Override
+        public synchronized void deletePendingNotification(String id) {
+            notifications.remove(id);
+        }
+
+    }
+
+}
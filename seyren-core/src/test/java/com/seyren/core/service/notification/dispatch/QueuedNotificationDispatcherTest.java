@@ -0,0 +1,445 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.seyren.core.service.notification.dispatch;
+
+import static org.hamcrest.MatcherAssert.*;
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.greaterThanOrEqualTo;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.not;
+import static org.hamcrest.Matchers.sameInstance;
+import static org.mockito.Matchers.*;
+import static org.mockito.Mockito.*;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+
+import com.seyren.core.domain.Alert;
+import com.seyren.core.domain.AlertType;
+import com.seyren.core.domain.Check;
+import com.seyren.core.domain.Subscription;
+import com.seyren.core.domain.SubscriptionType;
+import com.seyren.core.domain.ThresholdAlert;
+import com.seyren.core.domain.ThresholdCheck;
+import com.seyren.core.exception.NotificationFailedException;
+import com.seyren.core.exception.NotificationPartlyFailedException;
+import com.seyren.core.exception.NotificationRateLimitedException;
+import com.seyren.core.service.notification.DigestNotificationService;
+import com.seyren.core.service.notification.NotificationService;
+
+public class QueuedNotificationDispatcherTest {
+
+    private final Check check = new ThresholdCheck().withId("check");
+    private final List<Alert> alerts = Arrays.<Alert>asList(new ThresholdAlert());
+    private QueuedNotificationDispatcher dispatcher;
+
+    @After
+    public void after() {
+        dispatcher.shutdown();
+    }
+
+    @Test
+    public void failedNotificationIsRetriedUntilItIsSent() throws Exception {
+        NotificationService service = service(SubscriptionType.EMAIL);
+        doThrow(new NotificationFailedException("down"))
+                .doThrow(new NotificationFailedException("still down"))
+                .doNothing()
+                .when(service).sendNotification(any(Check.class), any(Subscription.class), anyListOf(Alert.class));
+        dispatcher = new QueuedNotificationDispatcher(Arrays.asList(service), 1, 10, 4, 10);
+
+        dispatcher.dispatch(check, subscription(SubscriptionType.EMAIL), alerts);
+
+        NotificationMetrics metrics = dispatcher.getMetrics().get(SubscriptionType.EMAIL);
+        awaitSentOrFailed(metrics);
+        verify(service, times(3)).sendNotification(any(Check.class), any(Subscription.class), anyListOf(Alert.class));
+        assertThat(metrics.getSent(), is(1L));
+        assertThat(metrics.getRetried(), is(2L));
+        assertThat(metrics.getFailed(), is(0L));
+        // Two retries, after 10 then 20ms
+        assertThat(metrics.getMaxLatencyMillis(), greaterThanOrEqualTo(30L));
+    }
+
+    @Test
+    public void retryOnlySendsTheAlertsWhichFailed() throws Exception {
+        final Alert sent = new ThresholdAlert().withTarget("sent");
+        final Alert failed = new ThresholdAlert().withTarget("failed");
+        final List<List<Alert>> received = new ArrayList<List<Alert>>();
+        NotificationService service = service(SubscriptionType.SCRIPT);
+        doAnswer(new Answer<Void>() {
+            @Override
+            @SuppressWarnings("unchecked")
+            public Void answer(InvocationOnMock invocation) throws Throwable {
+                List<Alert> given = (List<Alert>) invocation.getArguments()[2];
+                received.add(new ArrayList<Alert>(given));
+                if (received.size() == 1) {
+                    throw new NotificationPartlyFailedException("one failed", Arrays.asList(failed));
+                }
+                return null;
+            }
+        }).when(service).sendNotification(any(Check.class), any(Subscription.class), anyListOf(Alert.class));
+        dispatcher = new QueuedNotificationDispatcher(Arrays.asList(service), 1, 10, 4, 1);
+
+        dispatcher.dispatch(check, subscription(SubscriptionType.SCRIPT), Arrays.asList(sent, failed));
+
+        awaitSentOrFailed(dispatcher.getMetrics().get(SubscriptionType.SCRIPT));
+        assertThat(received, contains(Arrays.asList(sent, failed), Arrays.asList(failed)));
+    }
+
+    @Test
+    public void notificationIsGivenUpAfterTheLastAttempt() throws Exception {
+        NotificationService service = service(SubscriptionType.SLACK);
+        doThrow(new NotificationFailedException("down"))
+                .when(service).sendNotification(any(Check.class), any(Subscription.class), anyListOf(Alert.class));
+        dispatcher = new QueuedNotificationDispatcher(Arrays.asList(service), 1, 10, 3, 1);
+
+        dispatcher.dispatch(check, subscription(SubscriptionType.SLACK), alerts);
+
+        NotificationMetrics metrics = dispatcher.getMetrics().get(SubscriptionType.SLACK);
+        awaitSentOrFailed(metrics);
+        verify(service, times(3)).sendNotification(any(Check.class), any(Subscription.class), anyListOf(Alert.class));
+        assertThat(metrics.getFailed(), is(1L));
+        assertThat(metrics.getSent(), is(0L));
+    }
+
+    @Test(timeout = 5000)
+    public void slowProviderDoesNotHoldUpOthers() throws Exception {
+        final CountDownLatch release = new CountDownLatch(1);
+        NotificationService slowEmail = service(SubscriptionType.EMAIL);
+        doAnswer(new Answer<Void>() {
+            @Override
+            public Void answer(InvocationOnMock invocation) throws Throwable {
+                release.await();
+                return null;
+            }
+        }).when(slowEmail).sendNotification(any(Check.class), any(Subscription.class), anyListOf(Alert.class));
+        NotificationService slack = service(SubscriptionType.SLACK);
+        dispatcher = new QueuedNotificationDispatcher(Arrays.asList(slowEmail, slack), 1, 10, 1, 1);
+
+        dispatcher.dispatch(check, subscription(SubscriptionType.EMAIL), alerts);
+        dispatcher.dispatch(check, subscription(SubscriptionType.SLACK), alerts);
+
+        awaitSentOrFailed(dispatcher.getMetrics().get(SubscriptionType.SLACK));
+        assertThat(dispatcher.getMetrics().get(SubscriptionType.EMAIL).getSent(), is(0L));
+        release.countDown();
+        awaitSentOrFailed(dispatcher.getMetrics().get(SubscriptionType.EMAIL));
+    }
+
+    @Test(timeout = 5000)
+    public void notificationsAreDroppedWhenTheQueueIsFull() throws Exception {
+        final CountDownLatch started = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        NotificationService service = service(SubscriptionType.EMAIL);
+        doAnswer(new Answer<Void>() {
+            @Override
+            public Void answer(InvocationOnMock invocation) throws Throwable {
+                started.countDown();
+                release.await();
+                return null;
+            }
+        }).when(service).sendNotification(any(Check.class), any(Subscription.class), anyListOf(Alert.class));
+        dispatcher = new QueuedNotificationDispatcher(Arrays.asList(service), 1, 1, 1, 1);
+
+        dispatcher.dispatch(check, subscription(SubscriptionType.EMAIL), alerts);
+        started.await();
+        dispatcher.dispatch(check, subscription(SubscriptionType.EMAIL), alerts);
+        dispatcher.dispatch(check, subscription(SubscriptionType.EMAIL), alerts);
+
+        NotificationMetrics metrics = dispatcher.getMetrics().get(SubscriptionType.EMAIL);
+        assertThat(metrics.getQueueDepth(), is(1L));
+        assertThat(metrics.getRejected(), is(1L));
+        release.countDown();
+    }
+
+    @Test
+    public void servicesAreGivenTheirOwnCopyOfTheAlerts() throws Exception {
+        final List<List<Alert>> received = new ArrayList<List<Alert>>();
+        NotificationService service = service(SubscriptionType.EMAIL);
+        doAnswer(new Answer<Void>() {
+            @Override
+            @SuppressWarnings("unchecked")
+            public Void answer(InvocationOnMock invocation) throws Throwable {
+                received.add((List<Alert>) invocation.getArguments()[2]);
+                return null;
+            }
+        }).when(service).sendNotification(any(Check.class), any(Subscription.class), anyListOf(Alert.class));
+        dispatcher = new QueuedNotificationDispatcher(Arrays.asList(service), 1, 10, 1, 1);
+
+        dispatcher.dispatch(check, subscription(SubscriptionType.EMAIL), alerts);
+
+        awaitSentOrFailed(dispatcher.getMetrics().get(SubscriptionType.EMAIL));
+        assertThat(received.get(0), is(alerts));
+        assertThat(received.get(0), not(sameInstance(alerts)));
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void notificationsToTheSameTargetAreSentAsOneDigest() throws Exception {
+        DigestNotificationService service = mock(DigestNotificationService.class);
+        when(service.canHandle(SubscriptionType.SLACK)).thenReturn(true);
+        dispatcher = new QueuedNotificationDispatcher(Arrays.<NotificationService>asList(service), 1, 10, 1, 1, 50, false);
+
+        dispatcher.dispatch(new ThresholdCheck().withId("a"), subscription(SubscriptionType.SLACK), alerts);
+        dispatcher.dispatch(new ThresholdCheck().withId("b"), subscription(SubscriptionType.SLACK), alerts);
+        dispatcher.dispatch(new ThresholdCheck().withId("c"), subscription(SubscriptionType.SLACK), alerts);
+        dispatcher.dispatch(check, new Subscription().withType(SubscriptionType.SLACK).withTarget("elsewhere"), alerts);
+
+        NotificationMetrics metrics = dispatcher.getMetrics().get(SubscriptionType.SLACK);
+        awaitSent(metrics, 2);
+        ArgumentCaptor<Map> digest = ArgumentCaptor.forClass(Map.class);
+        verify(service).sendDigest(any(Subscription.class), digest.capture());
+        assertThat(digest.getValue().size(), is(3));
+        verify(service).sendNotification(eq(check), any(Subscription.class), anyListOf(Alert.class));
+        assertThat(metrics.getCoalesced(), is(2L));
+    }
+
+    @Test(timeout = 5000)
+    @SuppressWarnings("unchecked")
+    public void untrackedPartOfAFailedDigestIsTriedAgain() throws Exception {
+        DigestNotificationService service = mock(DigestNotificationService.class);
+        when(service.canHandle(SubscriptionType.SLACK)).thenReturn(true);
+        final List<Map<Check, List<Alert>>> digests = new ArrayList<Map<Check, List<Alert>>>();
+        doAnswer(new Answer<Void>() {
+            @Override
+            public Void answer(InvocationOnMock invocation) throws Throwable {
+                digests.add((Map<Check, List<Alert>>) invocation.getArguments()[1]);
+                if (digests.size() == 1) {
+                    throw new NotificationFailedException("down");
+                }
+                return null;
+            }
+        }).when(service).sendDigest(any(Subscription.class), any(Map.class));
+        dispatcher = new QueuedNotificationDispatcher(Arrays.<NotificationService>asList(service), 1, 10, 2, 1, 50, false);
+        final CountDownLatch failed = new CountDownLatch(1);
+        Check tracked = new ThresholdCheck().withId("tracked");
+        Check untracked = new ThresholdCheck().withId("untracked");
+
+        dispatcher.dispatch(tracked, subscription(SubscriptionType.SLACK), alerts, 1, new DeliveryListener() {
+            @Override
+            public void delivered() {
+            }
+
+            @Override
+            public void failed(Exception failure) {
+                failed.countDown();
+            }
+        });
+        dispatcher.dispatch(untracked, subscription(SubscriptionType.SLACK), alerts);
+
+        failed.await();
+        awaitSent(dispatcher.getMetrics().get(SubscriptionType.SLACK), 1);
+        assertThat(digests.size(), is(2));
+        assertThat(digests.get(0).keySet(), contains(tracked, untracked));
+        // The tracked check is left to its caller to try again
+        assertThat(digests.get(1).keySet(), contains(untracked));
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void notificationsOfTheSameCheckAreMergedForServicesWithoutDigests() throws Exception {
+        NotificationService service = service(SubscriptionType.EMAIL);
+        dispatcher = new QueuedNotificationDispatcher(Arrays.asList(service), 1, 10, 1, 1, 50, false);
+
+        dispatcher.dispatch(check, subscription(SubscriptionType.EMAIL), alerts);
+        dispatcher.dispatch(check, subscription(SubscriptionType.EMAIL), alerts);
+
+        awaitSentOrFailed(dispatcher.getMetrics().get(SubscriptionType.EMAIL));
+        ArgumentCaptor<List> sent = ArgumentCaptor.forClass(List.class);
+        verify(service).sendNotification(eq(check), any(Subscription.class), sent.capture());
+        assertThat(sent.getValue().size(), is(2));
+        assertThat(dispatcher.getMetrics().get(SubscriptionType.EMAIL).getCoalesced(), is(1L));
+    }
+
+    @Test(timeout = 5000)
+    public void errorsSkipTheCoalescingWindowWhenConfigured() throws Exception {
+        NotificationService service = service(SubscriptionType.EMAIL);
+        dispatcher = new QueuedNotificationDispatcher(Arrays.asList(service), 1, 10, 1, 1, TimeUnit.HOURS.toMillis(1), true);
+
+        dispatcher.dispatch(check, subscription(SubscriptionType.EMAIL), Arrays.<Alert>asList(new ThresholdAlert().withToType(AlertType.ERROR)));
+        dispatcher.dispatch(check, subscription(SubscriptionType.EMAIL), Arrays.<Alert>asList(new ThresholdAlert().withToType(AlertType.WARN)));
+
+        awaitSentOrFailed(dispatcher.getMetrics().get(SubscriptionType.EMAIL));
+        verify(service, times(1)).sendNotification(any(Check.class), any(Subscription.class), anyListOf(Alert.class));
+    }
+
+    @Test(timeout = 5000)
+    @SuppressWarnings("unchecked")
+    public void errorSkippingTheWindowTakesAlongWhatWasWaitingForItsCheck() throws Exception {
+        NotificationService service = service(SubscriptionType.EMAIL);
+        dispatcher = new QueuedNotificationDispatcher(Arrays.asList(service), 1, 10, 1, 1, TimeUnit.HOURS.toMillis(1), true);
+        Alert warn = new ThresholdAlert().withToType(AlertType.WARN);
+        Alert error = new ThresholdAlert().withToType(AlertType.ERROR);
+
+        dispatcher.dispatch(check, subscription(SubscriptionType.EMAIL), Arrays.asList(warn));
+        dispatcher.dispatch(check, subscription(SubscriptionType.EMAIL), Arrays.asList(error));
+
+        NotificationMetrics metrics = dispatcher.getMetrics().get(SubscriptionType.EMAIL);
+        awaitSentOrFailed(metrics);
+        // Flushes the window, which has nothing left for the check
+        dispatcher.shutdown();
+        ArgumentCaptor<List> sent = ArgumentCaptor.forClass(List.class);
+        verify(service, times(1)).sendNotification(eq(check), any(Subscription.class), sent.capture());
+        assertThat((List<Alert>) sent.getValue(), contains(warn, error));
+        assertThat(metrics.getCoalesced(), is(1L));
+    }
+
+    @Test(timeout = 5000)
+    public void notificationsOverTheBudgetAreHeldBackErrorsFirst() throws Exception {
+        final List<AlertType> sent = Collections.synchronizedList(new ArrayList<AlertType>());
+        NotificationService service = service(SubscriptionType.SLACK);
+        doAnswer(new Answer<Void>() {
+            @Override
+            @SuppressWarnings("unchecked")
+            public Void answer(InvocationOnMock invocation) throws Throwable {
+                sent.add(((List<Alert>) invocation.getArguments()[2]).get(0).getToType());
+                return null;
+            }
+        }).when(service).sendNotification(any(Check.class), any(Subscription.class), anyListOf(Alert.class));
+        Map<SubscriptionType, Double> permitsPerSecond = new EnumMap<SubscriptionType, Double>(SubscriptionType.class);
+        permitsPerSecond.put(SubscriptionType.SLACK, 10.0);
+        dispatcher = new QueuedNotificationDispatcher(Arrays.asList(service), 1, 10, 1, 1, 0, false, permitsPerSecond, 1);
+
+        dispatcher.dispatch(new ThresholdCheck().withId("first"), subscription(SubscriptionType.SLACK),
+                Arrays.<Alert>asList(new ThresholdAlert().withToType(AlertType.WARN)));
+        dispatcher.dispatch(new ThresholdCheck().withId("second"), subscription(SubscriptionType.SLACK),
+                Arrays.<Alert>asList(new ThresholdAlert().withToType(AlertType.WARN)));
+        dispatcher.dispatch(new ThresholdCheck().withId("third"), subscription(SubscriptionType.SLACK),
+                Arrays.<Alert>asList(new ThresholdAlert().withToType(AlertType.ERROR)));
+
+        NotificationMetrics metrics = dispatcher.getMetrics().get(SubscriptionType.SLACK);
+        awaitSent(metrics, 3);
+        assertThat(sent, contains(AlertType.WARN, AlertType.ERROR, AlertType.WARN));
+        assertThat(metrics.getThrottled(), is(2L));
+        // The budget lets one through every 100ms
+        assertThat(metrics.getMaxLatencyMillis(), greaterThanOrEqualTo(150L));
+    }
+
+    @Test(timeout = 5000)
+    public void errorsOnlyGoFirstAcrossChecks() throws Exception {
+        final List<String> sent = Collections.synchronizedList(new ArrayList<String>());
+        NotificationService service = service(SubscriptionType.SLACK);
+        doAnswer(new Answer<Void>() {
+            @Override
+            @SuppressWarnings("unchecked")
+            public Void answer(InvocationOnMock invocation) throws Throwable {
+                sent.add(((Check) invocation.getArguments()[0]).getId() + ":" + ((List<Alert>) invocation.getArguments()[2]).get(0).getToType());
+                return null;
+            }
+        }).when(service).sendNotification(any(Check.class), any(Subscription.class), anyListOf(Alert.class));
+        Map<SubscriptionType, Double> permitsPerSecond = new EnumMap<SubscriptionType, Double>(SubscriptionType.class);
+        permitsPerSecond.put(SubscriptionType.SLACK, 10.0);
+        dispatcher = new QueuedNotificationDispatcher(Arrays.asList(service), 1, 10, 1, 1, 0, false, permitsPerSecond, 1);
+        Check first = new ThresholdCheck().withId("first");
+        Check second = new ThresholdCheck().withId("second");
+
+        dispatcher.dispatch(first, subscription(SubscriptionType.SLACK), Arrays.<Alert>asList(new ThresholdAlert().withToType(AlertType.WARN)));
+        dispatcher.dispatch(second, subscription(SubscriptionType.SLACK), Arrays.<Alert>asList(new ThresholdAlert().withToType(AlertType.WARN)));
+        dispatcher.dispatch(first, subscription(SubscriptionType.SLACK), Arrays.<Alert>asList(new ThresholdAlert().withToType(AlertType.WARN)));
+        dispatcher.dispatch(first, subscription(SubscriptionType.SLACK), Arrays.<Alert>asList(new ThresholdAlert().withToType(AlertType.ERROR)));
+
+        NotificationMetrics metrics = dispatcher.getMetrics().get(SubscriptionType.SLACK);
+        awaitSent(metrics, 4);
+        assertThat(sent, contains("first:WARN", "first:WARN", "first:ERROR", "second:WARN"));
+        assertThat(metrics.getSuperseded(), is(0L));
+    }
+
+    @Test(timeout = 5000)
+    public void retriedNotificationIsDroppedOnceANewerOneOfItsCheckIsSent() throws Exception {
+        final List<AlertType> sent = Collections.synchronizedList(new ArrayList<AlertType>());
+        NotificationService service = service(SubscriptionType.PAGERDUTY);
+        doAnswer(new Answer<Void>() {
+            private boolean failed;
+
+            @Override
+            @SuppressWarnings("unchecked")
+            public Void answer(InvocationOnMock invocation) throws Throwable {
+                AlertType type = ((List<Alert>) invocation.getArguments()[2]).get(0).getToType();
+                if (type == AlertType.ERROR && !failed) {
+                    failed = true;
+                    throw new NotificationFailedException("down");
+                }
+                sent.add(type);
+                return null;
+            }
+        }).when(service).sendNotification(any(Check.class), any(Subscription.class), anyListOf(Alert.class));
+        dispatcher = new QueuedNotificationDispatcher(Arrays.asList(service), 1, 10, 3, 200);
+
+        dispatcher.dispatch(check, subscription(SubscriptionType.PAGERDUTY), Arrays.<Alert>asList(new ThresholdAlert().withToType(AlertType.ERROR)));
+        NotificationMetrics metrics = dispatcher.getMetrics().get(SubscriptionType.PAGERDUTY);
+        while (metrics.getRetried() == 0) {
+            Thread.sleep(5);
+        }
+        dispatcher.dispatch(check, subscription(SubscriptionType.PAGERDUTY), Arrays.<Alert>asList(new ThresholdAlert().withToType(AlertType.OK)));
+
+        while (metrics.getSuperseded() == 0) {
+            Thread.sleep(5);
+        }
+        assertThat(sent, contains(AlertType.OK));
+        assertThat(metrics.getSent(), is(1L));
+        assertThat(metrics.getFailed(), is(0L));
+    }
+
+    @Test(timeout = 5000)
+    public void providerAskingToSlowDownHoldsBackItsTarget() throws Exception {
+        NotificationService service = service(SubscriptionType.EMAIL);
+        doThrow(new NotificationRateLimitedException("slow down", 200))
+                .doNothing()
+                .when(service).sendNotification(any(Check.class), any(Subscription.class), anyListOf(Alert.class));
+        dispatcher = new QueuedNotificationDispatcher(Arrays.asList(service), 1, 10, 2, 1);
+
+        dispatcher.dispatch(check, subscription(SubscriptionType.EMAIL), alerts);
+
+        NotificationMetrics metrics = dispatcher.getMetrics().get(SubscriptionType.EMAIL);
+        awaitSentOrFailed(metrics);
+        assertThat(metrics.getSent(), is(1L));
+        assertThat(metrics.getRateLimited(), is(1L));
+        assertThat(metrics.getMaxLatencyMillis(), greaterThanOrEqualTo(200L));
+    }
+
+    private static NotificationService service(SubscriptionType type) {
+        NotificationService service = mock(NotificationService.class);
+        when(service.canHandle(type)).thenReturn(true);
+        return service;
+    }
+
+    private static Subscription subscription(SubscriptionType type) {
+        return new Subscription().withType(type).withTarget("target");
+    }
+
+    private static void awaitSent(NotificationMetrics metrics, long count) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(5);
+        while (metrics.getSent() < count && System.currentTimeMillis() < deadline) {
+            Thread.sleep(5);
+        }
+    }
+
+    private static void awaitSentOrFailed(NotificationMetrics metrics) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(5);
+        while (metrics.getSent() + metrics.getFailed() == 0 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(5);
+        }
+    }
+
+}
@@ -27,14 +27,22 @@ import com.seyren.core.domain.*;
 import org.joda.time.DateTime;
 import org.junit.Before;
 import org.junit.Test;
+import org.mockito.InOrder;
 import org.mockito.Mockito;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
 
 import com.google.common.base.Optional;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.SettableFuture;
 import com.seyren.core.exception.NotificationFailedException;
 import com.seyren.core.service.checker.TargetChecker;
 import com.seyren.core.service.checker.ValueChecker;
 import com.seyren.core.service.notification.NotificationService;
 import com.seyren.core.store.AlertsStore;
+import com.seyren.core.store.AsyncAlertsStore;
+import com.seyren.core.store.AsyncChecksStore;
 import com.seyren.core.store.ChecksStore;
 
 public class CheckRunnerTest {
@@ -161,9 +169,50 @@ public class CheckRunnerTest {
     	verify(mockAlertsStore, times(1)).getLastAlertForTargetOfCheck("target3", "check1");
     }
 
+    @Test(timeout = 5000)
+    public void issuesAllLastAlertReadsBeforeWaitingForAny() throws Exception {
+        AsyncAlertsStore mockAsyncAlertsStore = mock(AsyncAlertsStore.class);
+        AsyncChecksStore mockAsyncChecksStore = mock(AsyncChecksStore.class);
+        checkRunner = new CheckRunner(mockCheck, mockAlertsStore, mockChecksStore, mockAsyncAlertsStore, mockAsyncChecksStore,
+                mockTargetChecker, mockValueChecker, mockNotificationServices, "60000");
+
+        when(mockCheck.isEnabled()).thenReturn(true);
+        when(mockCheck.getId()).thenReturn("check1");
+        when(mockCheck.getWarn()).thenReturn(new BigDecimal(0.6));
+        when(mockCheck.getError()).thenReturn(new BigDecimal(0.8));
+        Map<String, Optional<BigDecimal>> targetValues = new HashMap<String, Optional<BigDecimal>>();
+        targetValues.put("target1", Optional.of(new BigDecimal(0.2)));
+        targetValues.put("target2", Optional.of(new BigDecimal(0.4)));
+        when(mockTargetChecker.check(mockCheck)).thenReturn(targetValues);
+        when(mockValueChecker.checkValue(any(BigDecimal.class), any(BigDecimal.class), any(BigDecimal.class))).thenReturn(AlertType.OK);
+
+        // Neither read completes until both have been issued, so waiting on one before issuing the other never returns
+        final List<SettableFuture<Alert>> reads = new ArrayList<SettableFuture<Alert>>();
+        when(mockAsyncAlertsStore.getLastAlertForTargetOfCheck(anyString(), eq("check1"))).thenAnswer(new Answer<ListenableFuture<Alert>>() {
+            @Override
+            public ListenableFuture<Alert> answer(InvocationOnMock invocation) {
+                SettableFuture<Alert> read = SettableFuture.create();
+                reads.add(read);
+                if (reads.size() == 2) {
+                    for (SettableFuture<Alert> pending : reads) {
+                        pending.set(null);
+                    }
+                }
+                return read;
+            }
+        });
+        when(mockAsyncChecksStore.updateStateAndLastCheck(eq("check1"), eq(AlertType.OK), any(DateTime.class)))
+                .thenReturn(Futures.<Check>immediateFuture(mockCheck));
+
+        checkRunner.run();
+
+        verify(mockAsyncAlertsStore, times(2)).getLastAlertForTargetOfCheck(anyString(), eq("check1"));
+        verify(mockAsyncChecksStore).updateStateAndLastCheck(eq("check1"), eq(AlertType.OK), any(DateTime.class));
+        verifyZeroInteractions(mockAlertsStore, mockChecksStore);
+    }
+
     @Test
     public void updatesCacheWhenSavingAlert() throws Exception {
-    	Check mockUpdatedCheck = mock(Check.class);
     	BigDecimal warnLevel = new BigDecimal(0.6);
     	BigDecimal errorLevel = new BigDecimal(0.8);
     	Alert initialAlert = new ThresholdAlert()
@@ -187,9 +236,9 @@ public class CheckRunnerTest {
     	when(mockCheck.isAllowNoData()).thenReturn(true);
     	when(mockAlertsStore.getLastAlertForTargetOfCheck("target1", "check1")).thenReturn(initialAlert);
     	when(mockValueChecker.checkValue(any(BigDecimal.class), any(BigDecimal.class), any(BigDecimal.class))).thenReturn(AlertType.WARN);
-    	when(mockCheck.getSubscriptions()).thenReturn(null);
+    	when(mockCheck.getSubscriptions()).thenReturn(new ArrayList<Subscription>());
     	when(mockAlertsStore.createAlert(anyString(), any(Alert.class))).thenReturn(null);
-    	when(mockChecksStore.updateStateAndLastCheck(anyString(), any(AlertType.class), any(DateTime.class))).thenReturn(mockUpdatedCheck);
+    	when(mockChecksStore.updateStateAndLastCheck(anyString(), any(AlertType.class), any(DateTime.class))).thenReturn(mockCheck);
     	
     	checkRunner.run();
     	
@@ -198,7 +247,7 @@ public class CheckRunnerTest {
     	
     	// And it should find that state transitions from OK to WARN, so it should create an alert and getSubscriptions should be called
     	verify(mockAlertsStore, times(1)).createAlert(anyString(), any(Alert.class));
-    	verify(mockUpdatedCheck, times(1)).getSubscriptions();
+    	verify(mockCheck, times(1)).getSubscriptions();
     	
     	
     	checkRunner.run();
@@ -207,7 +256,33 @@ public class CheckRunnerTest {
     	// but no new attempt to retrieve subscriptions
     	verify(mockAlertsStore, times(1)).getLastAlertForTargetOfCheck("target1", "check1");
     	verify(mockAlertsStore, times(2)).createAlert(anyString(), any(Alert.class));
-    	verify(mockUpdatedCheck, times(1)).getSubscriptions();
+    	verify(mockCheck, times(1)).getSubscriptions();
+    }
+
+    @Test
+    public void consecutiveChecksFlagIsWrittenOnceAfterAllTargets() throws Exception {
+        when(mockCheck.isEnabled()).thenReturn(true);
+        when(mockCheck.getId()).thenReturn("check1");
+        when(mockCheck.getWarn()).thenReturn(BigDecimal.valueOf(2));
+        when(mockCheck.getError()).thenReturn(BigDecimal.valueOf(3));
+        when(mockCheck.isEnableConsecutiveChecks()).thenReturn(true);
+        when(mockCheck.getConsecutiveChecks()).thenReturn(3);
+        when(mockCheck.getConsecutiveChecksTolerance()).thenReturn(50);
+        when(mockCheck.isConsecutiveChecksTriggered()).thenReturn(true);
+        Map<String, Optional<BigDecimal>> targetValues = new HashMap<String, Optional<BigDecimal>>();
+        targetValues.put("target1", Optional.of(BigDecimal.ONE));
+        targetValues.put("target2", Optional.of(BigDecimal.ONE));
+        when(mockTargetChecker.check(mockCheck)).thenReturn(targetValues);
+        when(mockAlertsStore.getLastAlertForTargetOfCheck(anyString(), eq("check1"))).thenReturn(new Alert().withToType(AlertType.ERROR));
+        when(mockValueChecker.checkValue(any(BigDecimal.class), any(BigDecimal.class), any(BigDecimal.class))).thenReturn(AlertType.OK);
+        when(mockAlertsStore.getAlerts("check1", 0, 3)).thenReturn(new SeyrenResponse<Alert>().withValues(new ArrayList<Alert>()));
+        when(mockChecksStore.updateStateAndLastCheck(eq("check1"), any(AlertType.class), any(DateTime.class))).thenReturn(mockCheck);
+
+        checkRunner.run();
+
+        // Both targets recovered, but the flag is only written once, with the final value
+        verify(mockChecksStore, times(1)).updateConsecutiveChecksTriggered(anyString(), anyBoolean());
+        verify(mockChecksStore).updateConsecutiveChecksTriggered("check1", false);
     }
 
     @Test
@@ -392,6 +467,40 @@ public class CheckRunnerTest {
         verify(mockNotificationService).sendNotification(eq(mockCheck), eq(mockSubscription), any(List.class));
     }
     
+    @SuppressWarnings("unchecked")
+    @Test
+    public void notificationIsDispatchedBeforeTheAlertAndStateAreWritten() throws Exception {
+        BigDecimal value = BigDecimal.ONE;
+        BigDecimal warn = BigDecimal.valueOf(2);
+        BigDecimal error = BigDecimal.valueOf(3);
+        
+        Subscription mockSubscription = mock(Subscription.class);
+        when(mockSubscription.getType()).thenReturn(SubscriptionType.EMAIL);
+        
+        when(mockCheck.getId()).thenReturn("id");
+        when(mockCheck.isEnabled()).thenReturn(true);
+        when(mockCheck.getWarn()).thenReturn(warn);
+        when(mockCheck.getError()).thenReturn(error);
+        when(mockCheck.getSubscriptions()).thenReturn(Arrays.asList(mockSubscription));
+        
+        Map<String, Optional<BigDecimal>> targetValues = new HashMap<String, Optional<BigDecimal>>();
+        targetValues.put("target", Optional.of(value));
+        when(mockTargetChecker.check(mockCheck)).thenReturn(targetValues);
+        when(mockAlertsStore.getLastAlertForTargetOfCheck("target", "id")).thenReturn(new Alert().withToType(AlertType.WARN));
+        when(mockValueChecker.checkValue(value, warn, error)).thenReturn(AlertType.ERROR);
+        when(mockChecksStore.updateStateAndLastCheck(eq("id"), eq(AlertType.ERROR), any(DateTime.class))).thenReturn(mockCheck);
+        when(mockSubscription.shouldNotify(any(DateTime.class), eq(AlertType.ERROR))).thenReturn(true);
+        when(mockNotificationService.canHandle(SubscriptionType.EMAIL)).thenReturn(true);
+        
+        checkRunner.run();
+        
+        InOrder inOrder = inOrder(mockCheck, mockNotificationService, mockAlertsStore, mockChecksStore);
+        inOrder.verify(mockCheck).setState(AlertType.ERROR);
+        inOrder.verify(mockNotificationService).sendNotification(eq(mockCheck), eq(mockSubscription), any(List.class));
+        inOrder.verify(mockAlertsStore).createAlert(eq("id"), any(Alert.class));
+        inOrder.verify(mockChecksStore).updateStateAndLastCheck(eq("id"), eq(AlertType.ERROR), any(DateTime.class));
+    }
+    
     @SuppressWarnings("unchecked")
     @Test
     public void exceptionWhileSendingNotificationIsHandled() throws Exception {
@@ -16,6 +16,8 @@ package com.seyren.core.util.config;
 import static org.hamcrest.MatcherAssert.*;
 import static org.hamcrest.Matchers.*;
 
+import java.io.File;
+
 import org.junit.Before;
 import org.junit.Test;
 
@@ -48,6 +50,16 @@ public class SeyrenConfigTest {
         assertThat(config.getGraphiteUrl(), is("http://localhost:80"));
     }
 
+    @Test
+    public void defaultOutlierStateFileIsInTheTemporaryDirectory() {
+        assertThat(config.getOutlierStateFile(), is(new File(System.getProperty("java.io.tmpdir"), "seyren-outlier-state.bin").getAbsolutePath()));
+    }
+
+    @Test
+    public void defaultAwsAsgIndexIsRefreshedEveryFiveMinutes() {
+        assertThat(config.getAwsAsgIndexRefreshSeconds(), is(300));
+    }
+
     @Test
     public void defaultGraphsEnable() {
       assertThat(config.isGraphsEnabled(), is(true));
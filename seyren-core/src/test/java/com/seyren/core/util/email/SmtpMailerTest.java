@@ -0,0 +1,280 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.seyren.core.util.email;
+
+import static org.hamcrest.MatcherAssert.*;
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.fail;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CopyOnWriteArraySet;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.mail.MessagingException;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.mail.javamail.JavaMailSenderImpl;
+
+public class SmtpMailerTest {
+
+    private FakeSmtpServer server;
+    private SmtpMailer mailer;
+
+    @Before
+    public void before() throws Exception {
+        server = new FakeSmtpServer();
+    }
+
+    @After
+    public void after() throws Exception {
+        if (mailer != null) {
+            mailer.shutdown();
+        }
+        server.close();
+    }
+
+    @Test(timeout = 10000)
+    public void emailsAreSentOverOneConnection() throws Exception {
+        mailer = new SmtpMailer(mailSender(), 1, 50, TimeUnit.SECONDS.toMillis(60), true);
+
+        mailer.send(email("a@example.com", "first"));
+        mailer.send(email("b@example.com", "second"));
+        mailer.send(email("c@example.com", "third"));
+
+        assertThat(server.messages, hasSize(3));
+        assertThat(server.connections.get(), is(1));
+        assertThat(mailer.getMetrics().getConnections(), is(1L));
+        assertThat(mailer.getMetrics().getEmails(), is(3L));
+        assertThat(mailer.getMetrics().getQueueDepth(), is(0L));
+    }
+
+    @Test(timeout = 10000)
+    public void waitingEmailsWithTheSameContentAreMerged() throws Exception {
+        mailer = new SmtpMailer(mailSender(), 1, 50, TimeUnit.SECONDS.toMillis(60), true);
+        server.delayMillis = 500;
+        ExecutorService senders = Executors.newFixedThreadPool(4);
+        try {
+            List<Future<Void>> sent = new ArrayList<Future<Void>>();
+            sent.add(send(senders, email("a@example.com", "first")));
+            // Held up by the server while the others queue
+            Thread.sleep(200);
+            sent.add(send(senders, email("b@example.com", "alert")));
+            sent.add(send(senders, email("c@example.com", "alert")));
+            sent.add(send(senders, email("d@example.com", "other")));
+            for (Future<Void> future : sent) {
+                future.get();
+            }
+        } finally {
+            senders.shutdown();
+        }
+
+        assertThat(server.messages, hasSize(3));
+        int merged = server.messages.get(1).size() == 2 ? 1 : 2;
+        assertThat(server.messages.get(merged), containsInAnyOrder("<b@example.com>", "<c@example.com>"));
+        // Merged recipients do not see each other
+        assertThat(server.toHeaders.get(0), is("To: a@example.com"));
+        assertThat(server.toHeaders.get(merged), is("To: undisclosed-recipients:;"));
+        assertThat(mailer.getMetrics().getEmails(), is(4L));
+        assertThat(mailer.getMetrics().getMessages(), is(3L));
+    }
+
+    @Test(timeout = 10000)
+    public void rejectedRecipientOnlyFailsItsOwnEmail() throws Exception {
+        mailer = new SmtpMailer(mailSender(), 1, 50, TimeUnit.SECONDS.toMillis(60), true);
+        server.rejected.add("<bad@example.com>");
+        server.delayMillis = 500;
+        ExecutorService senders = Executors.newFixedThreadPool(4);
+        Future<Void> bad;
+        Future<Void> good;
+        try {
+            Future<Void> first = send(senders, email("a@example.com", "first"));
+            Thread.sleep(200);
+            bad = send(senders, email("bad@example.com", "alert"));
+            good = send(senders, email("b@example.com", "alert"));
+            first.get();
+            good.get();
+            try {
+                bad.get();
+                fail("Expected the rejected recipient to fail");
+            } catch (ExecutionException e) {
+                assertThat(e.getCause(), is(instanceOf(MessagingException.class)));
+            }
+        } finally {
+            senders.shutdown();
+        }
+
+        assertThat(server.messages, hasSize(2));
+        assertThat(server.messages.get(1), contains("<b@example.com>"));
+        assertThat(mailer.getMetrics().getFailed(), is(1L));
+    }
+
+    @Test(timeout = 10000, expected = MessagingException.class)
+    public void failureIsReportedToTheSender() throws Exception {
+        mailer = new SmtpMailer(mailSender(), 1, 50, TimeUnit.SECONDS.toMillis(60), true);
+        server.rejectRecipients = true;
+
+        try {
+            mailer.send(email("a@example.com", "first"));
+        } finally {
+            assertThat(mailer.getMetrics().getFailed(), is(1L));
+        }
+    }
+
+    private Future<Void> send(ExecutorService senders, final Email email) {
+        return senders.submit(new Callable<Void>() {
+            @Override
+            public Void call() throws Exception {
+                mailer.send(email);
+                return null;
+            }
+        });
+    }
+
+    private JavaMailSenderImpl mailSender() {
+        JavaMailSenderImpl mailSender = new JavaMailSenderImpl();
+        mailSender.setHost("localhost");
+        mailSender.setPort(server.getPort());
+        return mailSender;
+    }
+
+    private static Email email(String to, String message) {
+        return new Email()
+                .withTo(to)
+                .withFrom("alert@seyren")
+                .withSubject("Seyren alert")
+                .withMessage(message);
+    }
+
+    /**
+     * Understands just enough smtp to accept messages, recording the
+     * recipients of each.
+     */
+    private static final class FakeSmtpServer implements Runnable {
+
+        private final ServerSocket serverSocket = new ServerSocket(0);
+        private final List<List<String>> messages = Collections.synchronizedList(new ArrayList<List<String>>());
+        private final List<String> toHeaders = Collections.synchronizedList(new ArrayList<String>());
+        private final Set<String> rejected = new CopyOnWriteArraySet<String>();
+        private final AtomicInteger connections = new AtomicInteger();
+        private volatile long delayMillis;
+        private volatile boolean rejectRecipients;
+
+        private FakeSmtpServer() throws IOException {
+            Thread thread = new Thread(this, "fake-smtp");
+            thread.setDaemon(true);
+            thread.start();
+        }
+
+        private int getPort() {
+            return serverSocket.getLocalPort();
+        }
+
+        @Override
+        public void run() {
+            while (!serverSocket.isClosed()) {
+                try {
+                    final Socket socket = serverSocket.accept();
+                    connections.incrementAndGet();
+                    Thread session = new Thread(new Runnable() {
+                        @Override
+                        public void run() {
+                            converse(socket);
+                        }
+                    });
+                    session.setDaemon(true);
+                    session.start();
+                } catch (IOException e) {
+                    return;
+                }
+            }
+        }
+
+        private void converse(Socket socket) {
+            try {
+                BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.US_ASCII));
+                OutputStream out = socket.getOutputStream();
+                reply(out, "220 localhost ESMTP");
+                List<String> recipients = new ArrayList<String>();
+                String line;
+                while ((line = in.readLine()) != null) {
+                    String command = line.toUpperCase();
+                    if (command.startsWith("RCPT")) {
+                        String recipient = line.substring(line.indexOf(':') + 1).trim();
+                        if (rejectRecipients || rejected.contains(recipient)) {
+                            reply(out, "550 No such user");
+                        } else {
+                            recipients.add(recipient);
+                            reply(out, "250 OK");
+                        }
+                    } else if (command.startsWith("DATA")) {
+                        reply(out, "354 End data with <CR><LF>.<CR><LF>");
+                        String data;
+                        while (!".".equals(data = in.readLine())) {
+                            // Only the To header of the message is of interest
+                            if (data.startsWith("To:")) {
+                                toHeaders.add(data);
+                            }
+                        }
+                        if (messages.isEmpty() && delayMillis > 0) {
+                            Thread.sleep(delayMillis);
+                        }
+                        messages.add(new ArrayList<String>(recipients));
+                        recipients.clear();
+                        reply(out, "250 OK");
+                    } else if (command.startsWith("QUIT")) {
+                        reply(out, "221 Bye");
+                        break;
+                    } else if (command.startsWith("RSET")) {
+                        recipients.clear();
+                        reply(out, "250 OK");
+                    } else {
+                        reply(out, "250 OK");
+                    }
+                }
+                socket.close();
+            } catch (Exception e) {
+                // The client went away
+            }
+        }
+
+        private static void reply(OutputStream out, String line) throws IOException {
+            out.write((line + "\r\n").getBytes(StandardCharsets.US_ASCII));
+            out.flush();
+        }
+
+        private void close() throws IOException {
+            serverSocket.close();
+        }
+
+    }
+
+}
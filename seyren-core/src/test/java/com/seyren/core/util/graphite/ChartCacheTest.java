@@ -0,0 +1,146 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.seyren.core.util.graphite;
+
+import static org.hamcrest.MatcherAssert.*;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.not;
+import static org.hamcrest.Matchers.sameInstance;
+import static org.junit.Assert.fail;
+import static org.mockito.Matchers.*;
+import static org.mockito.Mockito.*;
+
+import java.math.BigDecimal;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+
+import com.seyren.core.util.graphite.ChartCache.Chart;
+
+public class ChartCacheTest {
+
+    private static final long REFRESH_MILLIS = TimeUnit.DAYS.toMillis(365);
+
+    private GraphiteHttpClient graphiteHttpClient;
+    private ExecutorService executor;
+
+    @Before
+    public void before() {
+        graphiteHttpClient = mock(GraphiteHttpClient.class);
+        executor = Executors.newFixedThreadPool(4);
+    }
+
+    @After
+    public void after() {
+        executor.shutdownNow();
+    }
+
+    @Test
+    public void sameChartIsOnlyRenderedOncePerPeriod() throws Exception {
+        when(graphiteHttpClient.getChart(anyString(), anyString(), anyInt(), anyInt(), anyString(), anyString(), any(LegendState.class),
+                any(AxesState.class), any(BigDecimal.class), any(BigDecimal.class))).thenReturn(new byte[] { 1, 2, 3 });
+        ChartCache chartCache = new ChartCache(graphiteHttpClient, REFRESH_MILLIS, 1024);
+
+        Chart first = getChart(chartCache, "servers.cpu", new BigDecimal("1"));
+        Chart second = getChart(chartCache, "servers.cpu", new BigDecimal("1"));
+        Chart otherThreshold = getChart(chartCache, "servers.cpu", new BigDecimal("2"));
+
+        assertThat(second, is(sameInstance(first)));
+        assertThat(otherThreshold, is(not(sameInstance(first))));
+        assertThat(otherThreshold.getETag(), is(first.getETag()));
+        assertThat(first.getExpires() > System.currentTimeMillis(), is(true));
+        verify(graphiteHttpClient, times(2)).getChart(anyString(), anyString(), anyInt(), anyInt(), anyString(), anyString(),
+                any(LegendState.class), any(AxesState.class), any(BigDecimal.class), any(BigDecimal.class));
+    }
+
+    @Test
+    public void concurrentRequestsForTheSameChartWaitForOneRender() throws Exception {
+        final CountDownLatch rendering = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        when(graphiteHttpClient.getChart(anyString(), anyString(), anyInt(), anyInt(), anyString(), anyString(), any(LegendState.class),
+                any(AxesState.class), any(BigDecimal.class), any(BigDecimal.class))).thenAnswer(new Answer<byte[]>() {
+                    @Override
+                    public byte[] answer(InvocationOnMock invocation) throws Throwable {
+                        rendering.countDown();
+                        release.await(5, TimeUnit.SECONDS);
+                        return new byte[] { 4, 5, 6 };
+                    }
+                });
+        final ChartCache chartCache = new ChartCache(graphiteHttpClient, REFRESH_MILLIS, 1024);
+
+        Callable<Chart> request = new Callable<Chart>() {
+            @Override
+            public Chart call() throws Exception {
+                return getChart(chartCache, "servers.cpu", null);
+            }
+        };
+        Future<Chart> first = executor.submit(request);
+        assertThat(rendering.await(5, TimeUnit.SECONDS), is(true));
+        Future<Chart> second = executor.submit(request);
+        Future<Chart> third = executor.submit(request);
+        Thread.sleep(100);
+        release.countDown();
+
+        assertThat(second.get(5, TimeUnit.SECONDS), is(sameInstance(first.get(5, TimeUnit.SECONDS))));
+        assertThat(third.get(5, TimeUnit.SECONDS), is(sameInstance(first.get())));
+        verify(graphiteHttpClient, times(1)).getChart(anyString(), anyString(), anyInt(), anyInt(), anyString(), anyString(),
+                any(LegendState.class), any(AxesState.class), any(BigDecimal.class), any(BigDecimal.class));
+    }
+
+    @Test
+    public void chartsAreEvictedOnceTheyExceedTheSizeBound() throws Exception {
+        when(graphiteHttpClient.getChart(anyString(), anyString(), anyInt(), anyInt(), anyString(), anyString(), any(LegendState.class),
+                any(AxesState.class), any(BigDecimal.class), any(BigDecimal.class))).thenReturn(new byte[600]);
+        ChartCache chartCache = new ChartCache(graphiteHttpClient, REFRESH_MILLIS, 1000);
+
+        getChart(chartCache, "servers.a", null);
+        getChart(chartCache, "servers.b", null);
+        getChart(chartCache, "servers.a", null);
+
+        verify(graphiteHttpClient, times(2)).getChart(anyString(), eq("servers.a"), anyInt(), anyInt(), anyString(), anyString(),
+                any(LegendState.class), any(AxesState.class), any(BigDecimal.class), any(BigDecimal.class));
+    }
+
+    @Test
+    public void failedRendersAreNotCached() throws Exception {
+        when(graphiteHttpClient.getChart(anyString(), anyString(), anyInt(), anyInt(), anyString(), anyString(), any(LegendState.class),
+                any(AxesState.class), any(BigDecimal.class), any(BigDecimal.class)))
+                .thenThrow(new GraphiteReadException("Failed to read from Graphite", null))
+                .thenReturn(new byte[] { 7 });
+        ChartCache chartCache = new ChartCache(graphiteHttpClient, REFRESH_MILLIS, 1024);
+
+        try {
+            getChart(chartCache, "servers.cpu", null);
+            fail("Expected the Graphite failure to be thrown");
+        } catch (GraphiteReadException e) {
+            assertThat(e.getMessage(), is("Failed to read from Graphite"));
+        }
+
+        assertThat(getChart(chartCache, "servers.cpu", null).getBytes(), is(new byte[] { 7 }));
+    }
+
+    private static Chart getChart(ChartCache chartCache, String target, BigDecimal warn) throws Exception {
+        return chartCache.getChart("http://graphite", target, 300, 200, "-1hours", "now", LegendState.SHOW, AxesState.SHOW, warn, null);
+    }
+
+}
@@ -0,0 +1,53 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.seyren.core.util.graphite;
+
+import static org.hamcrest.MatcherAssert.*;
+import static org.hamcrest.Matchers.*;
+
+import org.junit.Test;
+
+import com.seyren.core.util.graphite.TargetNameParser.TargetName;
+
+public class TargetNameParserTest {
+
+    private final TargetNameParser parser = new TargetNameParser();
+
+    @Test
+    public void ipWrittenWithDashesIsFound() {
+        assertThat(parser.getIp("stats.gauges.10-0-0-12.cpu"), is("10.0.0.12"));
+        assertThat(parser.getIp("servers.ip-10-20-30-40_ec2_internal.load"), is("10.20.30.40"));
+    }
+
+    @Test
+    public void targetWithoutIpHasNone() {
+        assertThat(parser.getIp("servers.web01.cpu"), is(nullValue()));
+        assertThat(parser.getIp(null), is(nullValue()));
+    }
+
+    @Test
+    public void segmentsAreCountedFromOne() {
+        TargetName targetName = parser.parse("servers.web01.cpu.total");
+
+        assertThat(targetName.getSegmentCount(), is(4));
+        assertThat(targetName.getSegment(1), is("servers"));
+        assertThat(targetName.getSegment(2), is("web01"));
+    }
+
+    @Test
+    public void sameTargetIsParsedOnce() {
+        assertThat(parser.parse("servers.web01.cpu"), is(sameInstance(parser.parse(new String("servers.web01.cpu")))));
+    }
+
+}
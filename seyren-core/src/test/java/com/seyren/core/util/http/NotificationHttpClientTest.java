@@ -0,0 +1,125 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.seyren.core.util.http;
+
+import static org.hamcrest.MatcherAssert.*;
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.util.HashSet;
+import java.util.Set;
+
+import org.apache.http.HttpResponse;
+import org.apache.http.client.methods.HttpPost;
+import org.apache.http.util.EntityUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.seyren.core.exception.NotificationRateLimitedException;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+public class NotificationHttpClientTest {
+
+    private final Set<Integer> clientPorts = new HashSet<Integer>();
+    private HttpServer server;
+    private NotificationHttpClient httpClient;
+
+    @Before
+    public void before() throws IOException {
+        server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        server.createContext("/", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                synchronized (clientPorts) {
+                    clientPorts.add(exchange.getRemoteAddress().getPort());
+                }
+                byte[] body = "ok".getBytes("UTF-8");
+                if (exchange.getRequestURI().getPath().equals("/limited")) {
+                    exchange.getResponseHeaders().add("Retry-After", "7");
+                    exchange.sendResponseHeaders(429, body.length);
+                } else {
+                    exchange.sendResponseHeaders(200, body.length);
+                }
+                OutputStream out = exchange.getResponseBody();
+                out.write(body);
+                out.close();
+            }
+        });
+        server.start();
+        httpClient = new NotificationHttpClient();
+    }
+
+    @After
+    public void after() {
+        httpClient.close();
+        server.stop(0);
+    }
+
+    @Test
+    public void connectionIsReusedAcrossNotifications() throws Exception {
+        for (int i = 0; i < 3; i++) {
+            HttpResponse response = httpClient.execute(new HttpPost(url()));
+            assertThat(EntityUtils.toString(response.getEntity()), is("ok"));
+        }
+
+        assertThat(clientPorts, hasSize(1));
+        assertThat(httpClient.getPoolStats().getLeased(), is(0));
+        assertThat(httpClient.getPoolStats().getAvailable(), is(1));
+        assertThat(httpClient.getPoolStatsByHost().keySet(), contains("http://localhost:" + server.getAddress().getPort()));
+    }
+
+    @Test
+    public void unsupportedTlsProtocolsAreIgnored() throws Exception {
+        httpClient.close();
+        httpClient = new NotificationHttpClient(10, 2, 1000, 1000, "TLSv0.9, TLSv1.2");
+
+        HttpResponse response = httpClient.execute(new HttpPost(url()));
+
+        assertThat(response.getStatusLine().getStatusCode(), is(200));
+    }
+
+    @Test
+    public void tooManyRequestsIsThrownWithTheRetryAfter() throws Exception {
+        try {
+            httpClient.execute(new HttpPost(url("/limited")));
+            fail("Expected the request to be rate limited");
+        } catch (NotificationRateLimitedException e) {
+            assertThat(e.getRetryAfterMillis(), is(7000L));
+        }
+
+        assertThat(httpClient.getPoolStats().getLeased(), is(0));
+    }
+
+    @Test
+    public void retryAfterIsReadAsSecondsOrAsADate() {
+        assertThat(NotificationHttpClient.retryAfterMillis(" 120 "), is(120000L));
+        assertThat(NotificationHttpClient.retryAfterMillis("Thu, 01 Jan 1970 00:00:00 GMT"), is(0L));
+        assertThat(NotificationHttpClient.retryAfterMillis("soon"), is(0L));
+    }
+
+    private String url() {
+        return url("/notify");
+    }
+
+    private String url(String path) {
+        return "http://localhost:" + server.getAddress().getPort() + path;
+    }
+
+}
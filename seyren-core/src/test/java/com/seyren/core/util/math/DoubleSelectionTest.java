@@ -0,0 +1,61 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.seyren.core.util.math;
+
+import static org.hamcrest.MatcherAssert.*;
+import static org.hamcrest.Matchers.*;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.Test;
+
+public class DoubleSelectionTest {
+
+    @Test
+    public void selectsTheSameValueAsSorting() {
+        Random random = new Random(7);
+        for (int round = 0; round < 500; round++) {
+            int length = 1 + random.nextInt(50);
+            double[] values = new double[length + random.nextInt(3)];
+            for (int i = 0; i < values.length; i++) {
+                // Few distinct values, so that the runs of equal ones are exercised too
+                values[i] = random.nextBoolean() ? random.nextInt(4) : random.nextDouble() * 100 - 50;
+            }
+            double[] sorted = Arrays.copyOf(values, length);
+            Arrays.sort(sorted);
+            int k = random.nextInt(length);
+
+            assertThat(DoubleSelection.select(values, length, k), is(sorted[k]));
+        }
+    }
+
+    @Test
+    public void medianOfEvenLengthIsTheMeanOfTheMiddleValues() {
+        assertThat(DoubleSelection.median(new double[] { 4, 1, 3, 2 }, 4), is(2.5));
+        assertThat(DoubleSelection.median(new double[] { 5, 1, 3 }, 3), is(3.0));
+        assertThat(DoubleSelection.median(new double[] { 0, 0, 0, 0, 0, 0 }, 6), is(0.0));
+    }
+
+    @Test
+    public void onlyTheGivenLengthIsConsidered() {
+        assertThat(DoubleSelection.median(new double[] { 3, 1, 2, 100, 100 }, 3), is(2.0));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsIndexOutOfRange() {
+        DoubleSelection.select(new double[] { 1, 2 }, 2, 2);
+    }
+
+}
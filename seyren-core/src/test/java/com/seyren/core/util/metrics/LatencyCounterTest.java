@@ -0,0 +1,61 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.seyren.core.util.metrics;
+
+import static org.hamcrest.MatcherAssert.*;
+import static org.hamcrest.Matchers.*;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+
+public class LatencyCounterTest {
+
+    @Test
+    public void nothingRecordedAveragesToZero() {
+        LatencyCounter counter = new LatencyCounter();
+
+        assertThat(counter.getCount(), is(0L));
+        assertThat(counter.getAverageMillis(), is(0L));
+        assertThat(counter.getMaxMillis(), is(0L));
+    }
+
+    @Test
+    public void maximumIsKeptAcrossThreads() throws Exception {
+        final LatencyCounter counter = new LatencyCounter();
+        List<Thread> threads = new ArrayList<Thread>();
+        for (int t = 0; t < 4; t++) {
+            final int offset = t;
+            Thread thread = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    for (int i = 0; i < 1000; i++) {
+                        counter.record(i * 4 + offset);
+                    }
+                }
+            });
+            threads.add(thread);
+            thread.start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+
+        assertThat(counter.getCount(), is(4000L));
+        assertThat(counter.getMaxMillis(), is(3999L));
+        assertThat(counter.getAverageMillis(), is(1999L));
+    }
+
+}
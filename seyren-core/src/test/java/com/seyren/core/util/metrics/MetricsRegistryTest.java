@@ -0,0 +1,67 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.seyren.core.util.metrics;
+
+import static org.hamcrest.MatcherAssert.*;
+import static org.hamcrest.Matchers.*;
+
+import java.util.Arrays;
+import java.util.Map;
+
+import org.junit.Test;
+
+import com.seyren.core.domain.SubscriptionType;
+import com.seyren.core.service.notification.dispatch.DispatchMetrics;
+
+public class MetricsRegistryTest {
+
+    @Test
+    public void everyServiceIsPublishedByName() {
+        final Metrics mail = new Metrics("mail");
+        Counter sent = mail.counter("sent");
+        LatencyCounter latency = mail.latency("emails");
+        sent.add(3);
+        latency.record(10);
+        latency.record(30);
+
+        MetricsRegistry registry = new MetricsRegistry(Arrays.<Metered> asList(metered(new DispatchMetrics()), metered(mail)));
+        Map<String, Map<String, Object>> snapshot = registry.snapshot();
+
+        assertThat(snapshot.keySet(), contains("mail", "notifications"));
+        assertThat(snapshot.get("mail"), hasEntry("sent", (Object) 3L));
+        assertThat(snapshot.get("mail"), hasEntry("emails", (Object) 2L));
+        assertThat(snapshot.get("mail"), hasEntry("averageLatencyMillis", (Object) 20L));
+        assertThat(snapshot.get("mail"), hasEntry("maxLatencyMillis", (Object) 30L));
+        assertThat(snapshot.get("notifications").keySet(), hasItem(SubscriptionType.EMAIL.name()));
+        assertThat(registry.snapshot("mail"), is(snapshot.get("mail")));
+        assertThat(registry.snapshot("sms"), is(nullValue()));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void metricsMayOnlyBeDefinedOnce() {
+        Metrics metrics = new Metrics("mail");
+        metrics.counter("sent");
+        metrics.counter("sent");
+    }
+
+    private static Metered metered(final Metrics metrics) {
+        return new Metered() {
+            @Override
+            public Metrics getMetrics() {
+                return metrics;
+            }
+        };
+    }
+
+}
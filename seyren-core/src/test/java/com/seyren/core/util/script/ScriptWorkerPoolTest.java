@@ -0,0 +1,124 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.seyren.core.util.script;
+
+import static org.hamcrest.MatcherAssert.*;
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.fail;
+import static org.junit.Assume.assumeTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeoutException;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.google.gson.JsonObject;
+
+public class ScriptWorkerPoolTest {
+
+    private ScriptWorkerPool pool;
+
+    @Before
+    public void before() throws Exception {
+        assumeTrue(isPython3Available());
+        String script = new File(getClass().getResource("/script-worker.py").toURI()).getPath();
+        pool = new ScriptWorkerPool(Arrays.asList("python3", script, "--worker"), 1, 2000);
+    }
+
+    @After
+    public void after() {
+        if (pool != null) {
+            pool.close();
+        }
+    }
+
+    @Test
+    public void requestsAreAnsweredByTheSameProcess() throws Exception {
+        List<JsonObject> first = pool.call(requests("host1", "host2"));
+        List<JsonObject> second = pool.call(requests("host3"));
+
+        assertThat(first, hasSize(2));
+        assertThat(first.get(0).get("ok").getAsBoolean(), is(true));
+        assertThat(first.get(1).get("id").getAsLong(), is(2L));
+        assertThat(second.get(0).get("id").getAsLong(), is(3L));
+        assertThat(pool.getStarted(), is(1L));
+    }
+
+    @Test
+    public void failedRequestIsReported() throws Exception {
+        List<JsonObject> responses = pool.call(requests("host1", "fail"));
+
+        assertThat(responses.get(0).get("ok").getAsBoolean(), is(true));
+        assertThat(responses.get(1).get("ok").getAsBoolean(), is(false));
+        assertThat(responses.get(1).get("error").getAsString(), is("cannot notify fail"));
+    }
+
+    @Test
+    public void crashedProcessIsRestarted() throws Exception {
+        try {
+            pool.call(requests("crash"));
+            fail("Expected the crash to be reported");
+        } catch (IOException e) {
+            // expected
+        }
+
+        List<JsonObject> responses = pool.call(requests("host1"));
+
+        assertThat(responses.get(0).get("ok").getAsBoolean(), is(true));
+        assertThat(pool.getStarted(), is(2L));
+    }
+
+    @Test
+    public void hungProcessTimesOutAndIsReplaced() throws Exception {
+        try {
+            pool.call(requests("hang"));
+            fail("Expected a timeout");
+        } catch (TimeoutException e) {
+            // expected
+        }
+
+        List<JsonObject> responses = pool.call(requests("host1"));
+
+        assertThat(responses.get(0).get("ok").getAsBoolean(), is(true));
+        assertThat(pool.getStarted(), is(2L));
+    }
+
+    private static List<JsonObject> requests(String... hostnames) {
+        List<JsonObject> requests = new ArrayList<JsonObject>();
+        for (String hostname : hostnames) {
+            JsonObject request = new JsonObject();
+            request.addProperty("hostname", hostname);
+            requests.add(request);
+        }
+        return requests;
+    }
+
+    private static boolean isPython3Available() {
+        try {
+            return new ProcessBuilder("python3", "--version").redirectErrorStream(true).start().waitFor() == 0;
+        } catch (IOException e) {
+            return false;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+
+}
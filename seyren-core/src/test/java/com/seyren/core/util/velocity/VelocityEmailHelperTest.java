@@ -18,20 +18,29 @@ import static org.hamcrest.Matchers.*;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.when;
 
+import java.io.File;
 import java.math.BigDecimal;
 import java.util.Arrays;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 
 import com.seyren.core.domain.*;
+import org.apache.commons.io.FileUtils;
 import org.joda.time.DateTime;
 import org.junit.Before;
+import org.junit.Rule;
 import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
 
 import com.seyren.core.util.config.SeyrenConfig;
 import com.seyren.core.util.email.EmailHelper;
 
 public class VelocityEmailHelperTest {
     
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
     private EmailHelper emailHelper;
     
     @Before
@@ -175,6 +184,8 @@ public class VelocityEmailHelperTest {
         SeyrenConfig mockConfiguration = mock(SeyrenConfig.class);
         when(mockConfiguration.getEmailTemplateFileName()).thenReturn("test-email-template.vm");
         when(mockConfiguration.getEmailSubjectTemplateFileName()).thenReturn("test-email-template.vm");
+        when(mockConfiguration.getEmailDigestTemplateFileName()).thenReturn("test-email-template.vm");
+        when(mockConfiguration.getEmailDigestSubjectTemplateFileName()).thenReturn("test-email-template.vm");
         EmailHelper emailHelper = new VelocityEmailHelper(mockConfiguration);
         String body = emailHelper.createBody(null, null, null);
         assertThat(body, containsString("Test content."));
@@ -208,13 +219,79 @@ public class VelocityEmailHelperTest {
         assertThat(subject, is("Seyren alert: test-check"));
     }
 
+    @Test
+    public void digestListsEveryCheck() {
+        Check first = new ThresholdCheck()
+                .withWarn(new BigDecimal("2.0"))
+                .withError(new BigDecimal("3.0"))
+                .withId("123")
+                .withName("first-check");
+        Check second = new ThresholdCheck()
+                .withWarn(new BigDecimal("5.0"))
+                .withError(new BigDecimal("6.0"))
+                .withId("456")
+                .withName("second-check");
+        Subscription subscription = new Subscription()
+                .withType(SubscriptionType.EMAIL)
+                .withTarget("some@email.com");
+        Map<Check, List<Alert>> alertsByCheck = new LinkedHashMap<Check, List<Alert>>();
+        alertsByCheck.put(first, Arrays.asList(new Alert()
+                .withTarget("first.value")
+                .withValue(new BigDecimal("2.5"))
+                .withTimestamp(new DateTime())
+                .withFromType(AlertType.OK)
+                .withToType(AlertType.WARN)));
+        alertsByCheck.put(second, Arrays.asList(new Alert()
+                .withTarget("second.value")
+                .withValue(new BigDecimal("7.0"))
+                .withTimestamp(new DateTime())
+                .withFromType(AlertType.OK)
+                .withToType(AlertType.ERROR)));
+
+        String subject = emailHelper.createDigestSubject(subscription, alertsByCheck);
+        String body = emailHelper.createDigestBody(subscription, alertsByCheck);
+
+        assertThat(subject, is("Seyren alert: 2 checks changed state"));
+        assertThat(body, containsString("#/checks/123"));
+        assertThat(body, containsString("first.value"));
+        assertThat(body, containsString("#/checks/456"));
+        assertThat(body, containsString("second.value"));
+        assertThat(body.indexOf("first-check"), lessThan(body.indexOf("second-check")));
+    }
+
     @Test
     public void subjectTemplateLocationShouldBeConfigurable() {
         SeyrenConfig mockConfiguration = mock(SeyrenConfig.class);
         when(mockConfiguration.getEmailSubjectTemplateFileName()).thenReturn("test-email-template.vm");
+        when(mockConfiguration.getEmailDigestTemplateFileName()).thenReturn("test-email-template.vm");
+        when(mockConfiguration.getEmailDigestSubjectTemplateFileName()).thenReturn("test-email-template.vm");
         when(mockConfiguration.getEmailTemplateFileName()).thenReturn("test-email-template.vm");
         EmailHelper emailHelper = new VelocityEmailHelper(mockConfiguration);
         String subject = emailHelper.createSubject(null, null, null);
         assertThat(subject, containsString("Test content."));
     }
+
+    @Test
+    public void templateFromTheFilesystemIsReloadedWhenItChanges() throws Exception {
+        File template = folder.newFile("template.vm");
+        FileUtils.writeStringToFile(template, "Before $CHECK.name");
+        template.setLastModified(1000000000000L);
+        SeyrenConfig mockConfiguration = mock(SeyrenConfig.class);
+        when(mockConfiguration.getEmailTemplateFileName()).thenReturn(template.getAbsolutePath());
+        when(mockConfiguration.getEmailSubjectTemplateFileName()).thenReturn("test-email-template.vm");
+        when(mockConfiguration.getEmailDigestTemplateFileName()).thenReturn("test-email-template.vm");
+        when(mockConfiguration.getEmailDigestSubjectTemplateFileName()).thenReturn("test-email-template.vm");
+        when(mockConfiguration.getEmailTemplateReloadSeconds()).thenReturn(1);
+        EmailHelper emailHelper = new VelocityEmailHelper(mockConfiguration);
+        Check check = new ThresholdCheck().withName("test-check");
+
+        assertThat(emailHelper.createBody(check, null, null), is("Before test-check"));
+
+        FileUtils.writeStringToFile(template, "After $CHECK.name");
+        template.setLastModified(1000000060000L);
+        // Not checked again within the reload interval
+        assertThat(emailHelper.createBody(check, null, null), is("Before test-check"));
+        Thread.sleep(1100);
+        assertThat(emailHelper.createBody(check, null, null), is("After test-check"));
+    }
 }
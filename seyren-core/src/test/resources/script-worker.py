@@ -0,0 +1,21 @@
+#!/usr/bin/python
+
+# Stub of a script run with SCRIPT_WORKERS, answering requests on stdin
+import json
+import sys
+import time
+
+for line in iter(sys.stdin.readline, ''):
+    request = json.loads(line)
+    hostname = request['hostname']
+    if hostname == 'crash':
+        sys.exit(1)
+    if hostname == 'hang':
+        time.sleep(60)
+    sys.stderr.write('notifying %s\n' % hostname)
+    sys.stdout.write('not a response\n')
+    response = {'id': request['id'], 'ok': hostname != 'fail'}
+    if hostname == 'fail':
+        response['error'] = 'cannot notify ' + hostname
+    sys.stdout.write(json.dumps(response) + '\n')
+    sys.stdout.flush()
@@ -0,0 +1,36 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.seyren.local;
+
+import javax.inject.Inject;
+import javax.inject.Named;
+
+import org.springframework.context.annotation.Conditional;
+
+import com.seyren.core.store.InlineAsyncStore;
+
+/**
+ * The embedded store never waits on I/O, so its async operations simply run
+ * on the calling thread and return completed futures.
+ */
+@Named
+@Conditional(LocalStoreCondition.class)
+public class AsyncLocalStore extends InlineAsyncStore {
+
+    @Inject
+    public AsyncLocalStore(LocalStore localStore) {
+        super(localStore, localStore, localStore);
+    }
+
+}
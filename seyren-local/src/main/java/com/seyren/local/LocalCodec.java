@@ -0,0 +1,103 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.seyren.local;
+
+import java.io.IOException;
+
+import com.fasterxml.jackson.annotation.JsonAutoDetect.Visibility;
+import com.fasterxml.jackson.annotation.PropertyAccessor;
+import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.JsonDeserializer;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.PropertyName;
+import com.fasterxml.jackson.databind.introspect.Annotated;
+import com.fasterxml.jackson.databind.introspect.AnnotatedMethod;
+import com.fasterxml.jackson.databind.introspect.JacksonAnnotationIntrospector;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.fasterxml.jackson.datatype.joda.JodaModule;
+
+/**
+ * Serialises the domain objects kept by the {@link LocalStore}. Fields are
+ * written directly rather than through the getters used by the API, so that
+ * everything an object holds survives a round trip. Custom (de)serialisers
+ * declared on those accessors are ignored along with them.
+ */
+class LocalCodec {
+
+    private final ObjectMapper mapper;
+
+    LocalCodec() {
+        mapper = new ObjectMapper();
+        mapper.registerModule(new JodaModule());
+        mapper.setAnnotationIntrospector(new FieldsOnlyIntrospector());
+        mapper.setVisibility(PropertyAccessor.ALL, Visibility.NONE);
+        mapper.setVisibility(PropertyAccessor.FIELD, Visibility.ANY);
+        mapper.configure(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES, false);
+    }
+
+    byte[] write(Object value) {
+        try {
+            return mapper.writeValueAsBytes(value);
+        } catch (IOException e) {
+            throw new RuntimeException("Failed to serialise " + value, e);
+        }
+    }
+
+    <T> T read(byte[] bytes, Class<T> type) {
+        try {
+            return mapper.readValue(bytes, type);
+        } catch (IOException e) {
+            throw new RuntimeException("Failed to deserialise " + type.getSimpleName(), e);
+        }
+    }
+
+    JsonNode readTree(byte[] bytes) {
+        try {
+            return mapper.readTree(bytes);
+        } catch (IOException e) {
+            throw new RuntimeException("Failed to deserialise a local store record", e);
+        }
+    }
+
+    ObjectNode createObjectNode() {
+        return mapper.createObjectNode();
+    }
+
+    private static class FieldsOnlyIntrospector extends JacksonAnnotationIntrospector {
+
+        private static final long serialVersionUID = 1L;
+
+        @Override
+        public Object findSerializer(Annotated a) {
+            return a instanceof AnnotatedMethod ? null : super.findSerializer(a);
+        }
+
+        @Override
+        public Class<? extends JsonDeserializer<?>> findDeserializer(Annotated a) {
+            return a instanceof AnnotatedMethod ? null : super.findDeserializer(a);
+        }
+
+        @Override
+        public PropertyName findNameForSerialization(Annotated a) {
+            return a instanceof AnnotatedMethod ? null : super.findNameForSerialization(a);
+        }
+
+        @Override
+        public PropertyName findNameForDeserialization(Annotated a) {
+            return a instanceof AnnotatedMethod ? null : super.findNameForDeserialization(a);
+        }
+    }
+
+}
@@ -0,0 +1,912 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.seyren.local;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.regex.Pattern;
+
+import javax.annotation.PreDestroy;
+import javax.inject.Inject;
+import javax.inject.Named;
+
+import org.apache.commons.lang.Validate;
+import org.joda.time.DateTime;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Conditional;
+import org.springframework.security.crypto.password.PasswordEncoder;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.seyren.core.domain.Alert;
+import com.seyren.core.domain.AlertType;
+import com.seyren.core.domain.Check;
+import com.seyren.core.domain.PendingNotification;
+import com.seyren.core.domain.SeyrenResponse;
+import com.seyren.core.domain.Subscription;
+import com.seyren.core.domain.SubscriptionPermissions;
+import com.seyren.core.domain.User;
+import com.seyren.core.store.AlertsStore;
+import com.seyren.core.store.ChecksStore;
+import com.seyren.core.store.NotificationOutboxStore;
+import com.seyren.core.store.PermissionsStore;
+import com.seyren.core.store.ReadPurpose;
+import com.seyren.core.store.SubscriptionsStore;
+import com.seyren.core.store.UserStore;
+import com.seyren.core.util.config.SeyrenConfig;
+
+/**
+ * Embedded store for single node deployments and for benchmarking the
+ * evaluation engine without a database round trip. Selected with
+ * {@code SEYREN_STORE=local}.
+ *
+ * Everything is held in memory, indexed for the lookups the check runners
+ * make, and every change is appended to a {@link MappedLog} under
+ * {@code LOCAL_STORE_PATH} which is replayed on startup. The log is rewritten
+ * with only the live records once more than half of it is obsolete, in the
+ * background so that writes carry on meanwhile.
+ *
+ * Objects are kept in their serialised form, so every read hands out a fresh
+ * copy just like a database would.
+ */
+@Named
+@Conditional(LocalStoreCondition.class)
+public class LocalStore implements ChecksStore, AlertsStore, SubscriptionsStore, PermissionsStore, UserStore, NotificationOutboxStore {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(LocalStore.class);
+
+    private static final byte CHECK = 1;
+    private static final byte CHECK_DELETED = 2;
+    private static final byte ALERT = 3;
+    private static final byte ALERTS_DELETED = 4;
+    private static final byte USER = 5;
+    private static final byte PERMISSIONS = 6;
+    private static final byte NOTIFICATION = 7;
+    private static final byte NOTIFICATION_DELETED = 8;
+
+    private final LocalCodec codec = new LocalCodec();
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+    private final Map<String, StoredCheck> checks = new LinkedHashMap<String, StoredCheck>();
+    private final Map<String, StoredAlert> alertsById = new HashMap<String, StoredAlert>();
+    private final Map<String, List<StoredAlert>> alertsByCheck = new HashMap<String, List<StoredAlert>>();
+    private final Map<String, StoredAlert> lastAlerts = new HashMap<String, StoredAlert>();
+    private final Map<String, byte[]> users = new LinkedHashMap<String, byte[]>();
+    private final Map<String, byte[]> permissions = new HashMap<String, byte[]>();
+    private final Map<String, StoredNotification> notifications = new LinkedHashMap<String, StoredNotification>();
+    private final Set<String> notificationKeys = new HashSet<String>();
+    private final MappedLog log;
+    private final int compactionThreshold;
+    private final ExecutorService compactor;
+    private final Condition compactionDone = lock.writeLock().newCondition();
+    private long liveBytes;
+    private boolean compacting;
+
+    @Inject
+    public LocalStore(PasswordEncoder passwordEncoder,
+                      @Value("${admin.username}") String adminUsername,
+                      @Value("${admin.password}") String adminPassword,
+                      SeyrenConfig seyrenConfig) {
+        this(new File(seyrenConfig.getLocalStorePath()), seyrenConfig.getLocalStoreSegmentSizeMb() * 1024 * 1024,
+                seyrenConfig.isLocalStoreFsync());
+        if (getUser(adminUsername) == null) {
+            User admin = new User(adminUsername, passwordEncoder.encode(adminPassword));
+            admin.setRoles(new HashSet<String>(Arrays.asList("USER", "ADMIN")));
+            addUser(admin);
+        }
+    }
+
+    LocalStore(File directory, int segmentSize, boolean fsync) {
+        this(directory, segmentSize, fsync, Executors.newSingleThreadExecutor(
+                new ThreadFactoryBuilder().setNameFormat("local-store-compaction").setDaemon(true).build()));
+    }
+
+    LocalStore(File directory, int segmentSize, boolean fsync, ExecutorService compactor) {
+        this.log = new MappedLog(directory, segmentSize, fsync);
+        this.compactionThreshold = segmentSize;
+        this.compactor = compactor;
+        try {
+            log.open(new MappedLog.Visitor() {
+                @Override
+                public void visit(byte type, byte[] payload) {
+                    apply(type, payload);
+                }
+            });
+        } catch (IOException e) {
+            throw new RuntimeException("Failed to open the local store at " + directory, e);
+        }
+        LOGGER.info("Loaded {} checks, {} alerts and {} users from {}", checks.size(), alertsById.size(), users.size(), directory);
+    }
+
+    @PreDestroy
+    public void preDestroy() {
+        lock.writeLock().lock();
+        try {
+            while (compacting) {
+                compactionDone.awaitUninterruptibly();
+            }
+            log.close();
+        } finally {
+            lock.writeLock().unlock();
+        }
+        compactor.shutdown();
+    }
+
+    @Override
+    public SeyrenResponse getChecksByPattern(List<String> checkFields, List<Pattern> patterns, Boolean enabled) {
+        Validate.notNull(checkFields, "Fields may not be null.");
+        Validate.notNull(patterns, "Patterns may not be null.");
+        Validate.notEmpty(checkFields, "Fields may not be empty");
+        Validate.notEmpty(patterns, "Patterns may not be empty");
+        Validate.isTrue(checkFields.size() == patterns.size(), String.format("Fields[%s] have same number of elements as patterns[%s].  " +
+                "fieldsSize[%d] != fieldsSize[%d]", checkFields, patterns, checkFields.size(), patterns.size()));
+
+        List<Check> matches = new ArrayList<Check>();
+        for (byte[] bytes : checkBytes(enabled, null, null)) {
+            JsonNode document = codec.readTree(bytes);
+            boolean matching = true;
+            for (int i = 0; i < checkFields.size() && matching; i++) {
+                matching = anyMatches(document, checkFields.get(i).split("\\."), 0, patterns.get(i));
+            }
+            if (matching) {
+                matches.add(codec.read(bytes, Check.class));
+            }
+        }
+        return new SeyrenResponse<Check>()
+                .withValues(matches)
+                .withTotal(matches.size());
+    }
+
+    @Override
+    public SeyrenResponse<Check> getChecks(Boolean enabled, Boolean live) {
+        return getChecks(enabled, live, ReadPurpose.EVALUATION);
+    }
+
+    @Override
+    public SeyrenResponse<Check> getChecks(Boolean enabled, Boolean live, ReadPurpose purpose) {
+        return checksResponse(checkBytes(enabled, live, null));
+    }
+
+    @Override
+    public SeyrenResponse<Check> getChecksByState(Set<String> states, Boolean enabled) {
+        return checksResponse(checkBytes(enabled, null, states));
+    }
+
+    @Override
+    public Check getCheck(String checkId) {
+        return getCheck(checkId, ReadPurpose.EVALUATION);
+    }
+
+    @Override
+    public Check getCheck(String checkId, ReadPurpose purpose) {
+        byte[] bytes;
+        lock.readLock().lock();
+        try {
+            StoredCheck stored = checks.get(checkId);
+            bytes = stored == null ? null : stored.bytes;
+        } finally {
+            lock.readLock().unlock();
+        }
+        return bytes == null ? null : codec.read(bytes, Check.class);
+    }
+
+    @Override
+    public void deleteCheck(String checkId) {
+        write(CHECK_DELETED, codec.write(checkId));
+    }
+
+    @Override
+    public Check createCheck(Check check) {
+        check.setId(newId());
+        write(CHECK, codec.write(check));
+        return check;
+    }
+
+    @Override
+    public Check saveCheck(Check check) {
+        lock.writeLock().lock();
+        try {
+            StoredCheck stored = checks.get(check.getId());
+            if (stored == null) {
+                return check;
+            }
+            // Subscriptions and the consecutive checks trigger are managed separately
+            Check saved = codec.read(codec.write(check), Check.class);
+            saved.setSubscriptions(stored.check.getSubscriptions());
+            saved.setConsecutiveChecksTriggered(stored.check.isConsecutiveChecksTriggered());
+            append(CHECK, codec.write(saved));
+            return check;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public Check updateStateAndLastCheck(String checkId, AlertType state, DateTime lastCheck) {
+        lock.writeLock().lock();
+        try {
+            Check check = storedCheckCopy(checkId);
+            if (check == null) {
+                return null;
+            }
+            check.setState(state);
+            check.setLastCheck(lastCheck);
+            return appendCheck(check);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public Check updateConsecutiveChecksTriggered(String checkId, Boolean consecutiveChecksTriggered) {
+        lock.writeLock().lock();
+        try {
+            Check check = storedCheckCopy(checkId);
+            if (check == null) {
+                return null;
+            }
+            check.setConsecutiveChecksTriggered(consecutiveChecksTriggered);
+            return appendCheck(check);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public Alert createAlert(String checkId, Alert alert) {
+        alert.setId(newId());
+        alert.setCheckId(checkId);
+        write(ALERT, codec.write(alert));
+        return alert;
+    }
+
+    @Override
+    public SeyrenResponse<Alert> getAlerts(String checkId, int start, int items) {
+        return getAlerts(checkId, start, items, ReadPurpose.EVALUATION);
+    }
+
+    @Override
+    public SeyrenResponse<Alert> getAlerts(String checkId, int start, int items, ReadPurpose purpose) {
+        List<byte[]> page = new ArrayList<byte[]>();
+        int total;
+        lock.readLock().lock();
+        try {
+            List<StoredAlert> alerts = alertsByCheck.get(checkId);
+            total = alerts == null ? 0 : alerts.size();
+            for (int i = total - 1 - start; i >= 0 && page.size() < items; i--) {
+                page.add(alerts.get(i).bytes);
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+        return alertsResponse(page, start, items, total);
+    }
+
+    @Override
+    public SeyrenResponse<Alert> getAlerts(int start, int items) {
+        List<byte[]> page = new ArrayList<byte[]>();
+        int total;
+        lock.readLock().lock();
+        try {
+            total = alertsById.size();
+            // Merge the per check histories, newest first, up to the end of the page
+            PriorityQueue<Cursor> cursors = new PriorityQueue<Cursor>();
+            for (List<StoredAlert> alerts : alertsByCheck.values()) {
+                if (!alerts.isEmpty()) {
+                    cursors.add(new Cursor(alerts));
+                }
+            }
+            for (int i = 0; i < start + items && !cursors.isEmpty(); i++) {
+                Cursor cursor = cursors.poll();
+                if (i >= start) {
+                    page.add(cursor.current().bytes);
+                }
+                if (cursor.advance()) {
+                    cursors.add(cursor);
+                }
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+        return alertsResponse(page, start, items, total);
+    }
+
+    @Override
+    public void deleteAlerts(String checkId, DateTime before) {
+        ObjectNode deletion = codec.createObjectNode();
+        deletion.put("checkId", checkId);
+        if (before != null) {
+            deletion.put("before", before.getMillis());
+        }
+        write(ALERTS_DELETED, codec.write(deletion));
+    }
+
+    @Override
+    public Alert getLastAlertForTargetOfCheck(String target, String checkId) {
+        byte[] bytes;
+        lock.readLock().lock();
+        try {
+            StoredAlert last = lastAlerts.get(targetKey(checkId, target));
+            bytes = last == null ? null : last.bytes;
+        } finally {
+            lock.readLock().unlock();
+        }
+        return bytes == null ? null : codec.read(bytes, Alert.class);
+    }
+
+    @Override
+    public Subscription createSubscription(String checkId, Subscription subscription) {
+        subscription.setId(newId());
+        lock.writeLock().lock();
+        try {
+            Check check = storedCheckCopy(checkId);
+            if (check != null) {
+                check.getSubscriptions().add(subscription);
+                appendCheck(check);
+            }
+            return subscription;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public void deleteSubscription(String checkId, String subscriptionId) {
+        lock.writeLock().lock();
+        try {
+            Check check = storedCheckCopy(checkId);
+            if (check != null && removeSubscription(check, subscriptionId) >= 0) {
+                appendCheck(check);
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public void updateSubscription(String checkId, Subscription subscription) {
+        lock.writeLock().lock();
+        try {
+            Check check = storedCheckCopy(checkId);
+            if (check == null) {
+                return;
+            }
+            int index = removeSubscription(check, subscription.getId());
+            if (index >= 0) {
+                check.getSubscriptions().add(index, subscription);
+                appendCheck(check);
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public SubscriptionPermissions getPermissions(String name) {
+        byte[] bytes;
+        lock.readLock().lock();
+        try {
+            bytes = permissions.get(name);
+        } finally {
+            lock.readLock().unlock();
+        }
+        return bytes == null ? new SubscriptionPermissions() : codec.read(bytes, SubscriptionPermissions.class);
+    }
+
+    @Override
+    public void createPermissions(String name, String[] subscriptions) {
+        SubscriptionPermissions subscriptionPermissions = new SubscriptionPermissions();
+        subscriptionPermissions.setName(name);
+        subscriptionPermissions.setWriteTypes(subscriptions);
+        write(PERMISSIONS, codec.write(subscriptionPermissions));
+    }
+
+    @Override
+    public void updatePermissions(String name, String[] subscriptions) {
+        lock.writeLock().lock();
+        try {
+            if (permissions.containsKey(name)) {
+                createPermissions(name, subscriptions);
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public User addUser(User user) {
+        user.setId(newId());
+        write(USER, codec.write(user));
+        return user;
+    }
+
+    @Override
+    public String[] autoCompleteUsers(String userPattern) {
+        Pattern p = Pattern.compile(userPattern + ".*");
+        List<String> matches = new ArrayList<String>();
+        lock.readLock().lock();
+        try {
+            for (String username : users.keySet()) {
+                if (p.matcher(username).find()) {
+                    matches.add(username);
+                }
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+        return matches.toArray(new String[matches.size()]);
+    }
+
+    @Override
+    public User getUser(String username) {
+        byte[] bytes;
+        lock.readLock().lock();
+        try {
+            bytes = users.get(username);
+        } finally {
+            lock.readLock().unlock();
+        }
+        return bytes == null ? null : codec.read(bytes, User.class);
+    }
+
+    @Override
+    public boolean createPendingNotification(PendingNotification notification) {
+        lock.writeLock().lock();
+        try {
+            if (notificationKeys.contains(notification.getKey())) {
+                return false;
+            }
+            notification.setId(newId());
+            append(NOTIFICATION, codec.write(notification));
+            return true;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public List<PendingNotification> claimPendingNotifications(String owner, int limit, DateTime now, DateTime leaseExpiry) {
+        lock.writeLock().lock();
+        try {
+            List<StoredNotification> due = new ArrayList<StoredNotification>();
+            for (StoredNotification stored : notifications.values()) {
+                if (stored.due <= now.getMillis()) {
+                    due.add(stored);
+                }
+            }
+            Collections.sort(due, new Comparator<StoredNotification>() {
+                @Override
+                public int compare(StoredNotification a, StoredNotification b) {
+                    return Long.compare(a.due, b.due);
+                }
+            });
+            List<PendingNotification> claimed = new ArrayList<PendingNotification>();
+            for (StoredNotification stored : due.subList(0, Math.min(limit, due.size()))) {
+                PendingNotification notification = codec.read(stored.bytes, PendingNotification.class);
+                notification.setDue(leaseExpiry);
+                notification.setOwner(owner);
+                byte[] bytes = codec.write(notification);
+                append(NOTIFICATION, bytes);
+                claimed.add(codec.read(bytes, PendingNotification.class));
+            }
+            return claimed;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public void reschedulePendingNotification(String id, int attempts, DateTime due, List<Alert> alerts) {
+        lock.writeLock().lock();
+        try {
+            StoredNotification stored = notifications.get(id);
+            if (stored == null) {
+                return;
+            }
+            PendingNotification notification = codec.read(stored.bytes, PendingNotification.class);
+            notification.setAttempts(attempts);
+            notification.setDue(due);
+            notification.setAlerts(alerts);
+            notification.setOwner(null);
+            append(NOTIFICATION, codec.write(notification));
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public void deletePendingNotification(String id) {
+        lock.writeLock().lock();
+        try {
+            if (notifications.containsKey(id)) {
+                append(NOTIFICATION_DELETED, codec.write(id));
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    private void write(byte type, byte[] payload) {
+        lock.writeLock().lock();
+        try {
+            append(type, payload);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Logs a change and applies it to the indexes. Must hold the write lock.
+     */
+    private void append(byte type, byte[] payload) {
+        try {
+            log.append(type, payload);
+        } catch (IOException e) {
+            throw new RuntimeException("Failed to write to the local store", e);
+        }
+        apply(type, payload);
+        if (!compacting && log.size() > compactionThreshold && log.size() > 2 * liveBytes) {
+            startCompaction();
+        }
+    }
+
+    private Check appendCheck(Check check) {
+        byte[] bytes = codec.write(check);
+        append(CHECK, bytes);
+        return codec.read(bytes, Check.class);
+    }
+
+    private Check storedCheckCopy(String checkId) {
+        StoredCheck stored = checks.get(checkId);
+        return stored == null ? null : codec.read(stored.bytes, Check.class);
+    }
+
+    private void apply(byte type, byte[] payload) {
+        switch (type) {
+            case CHECK:
+                Check check = codec.read(payload, Check.class);
+                StoredCheck previous = checks.put(check.getId(), new StoredCheck(check, payload));
+                liveBytes += recordSize(payload) - (previous == null ? 0 : recordSize(previous.bytes));
+                break;
+            case CHECK_DELETED:
+                String checkId = codec.read(payload, String.class);
+                StoredCheck deleted = checks.remove(checkId);
+                if (deleted != null) {
+                    liveBytes -= recordSize(deleted.bytes);
+                }
+                removeAlerts(checkId, null);
+                break;
+            case ALERT:
+                addAlert(codec.read(payload, Alert.class), payload);
+                break;
+            case ALERTS_DELETED:
+                JsonNode deletion = codec.readTree(payload);
+                JsonNode before = deletion.get("before");
+                removeAlerts(deletion.get("checkId").asText(), before == null ? null : before.asLong());
+                break;
+            case USER:
+                User user = codec.read(payload, User.class);
+                liveBytes += recordSize(payload) - recordSize(users.put(user.getUsername(), payload));
+                break;
+            case PERMISSIONS:
+                SubscriptionPermissions subscriptionPermissions = codec.read(payload, SubscriptionPermissions.class);
+                liveBytes += recordSize(payload) - recordSize(permissions.put(subscriptionPermissions.getName(), payload));
+                break;
+            case NOTIFICATION:
+                StoredNotification notification = new StoredNotification(codec.read(payload, PendingNotification.class), payload);
+                StoredNotification replaced = notifications.put(notification.id, notification);
+                notificationKeys.add(notification.key);
+                liveBytes += recordSize(payload) - (replaced == null ? 0 : recordSize(replaced.bytes));
+                break;
+            case NOTIFICATION_DELETED:
+                StoredNotification sent = notifications.remove(codec.read(payload, String.class));
+                if (sent != null) {
+                    notificationKeys.remove(sent.key);
+                    liveBytes -= recordSize(sent.bytes);
+                }
+                break;
+            default:
+                LOGGER.warn("Skipping local store record of unknown type {}", type);
+        }
+    }
+
+    private void addAlert(Alert alert, byte[] payload) {
+        if (alertsById.containsKey(alert.getId())) {
+            // Replayed twice after an interrupted compaction
+            return;
+        }
+        StoredAlert stored = new StoredAlert(alert, payload);
+        alertsById.put(stored.id, stored);
+        liveBytes += recordSize(payload);
+
+        List<StoredAlert> alerts = alertsByCheck.get(stored.checkId);
+        if (alerts == null) {
+            alerts = new ArrayList<StoredAlert>();
+            alertsByCheck.put(stored.checkId, alerts);
+        }
+        // Alerts nearly always arrive in timestamp order, so look for the position from the end
+        int index = alerts.size();
+        while (index > 0 && alerts.get(index - 1).timestamp > stored.timestamp) {
+            index--;
+        }
+        alerts.add(index, stored);
+
+        String key = targetKey(stored.checkId, stored.target);
+        StoredAlert last = lastAlerts.get(key);
+        if (last == null || last.timestamp <= stored.timestamp) {
+            lastAlerts.put(key, stored);
+        }
+    }
+
+    private void removeAlerts(String checkId, Long before) {
+        List<StoredAlert> alerts = alertsByCheck.get(checkId);
+        if (alerts == null) {
+            return;
+        }
+        int removed = 0;
+        // Alerts are kept oldest first, so the ones to go are a prefix
+        while (removed < alerts.size() && (before == null || alerts.get(removed).timestamp < before)) {
+            StoredAlert alert = alerts.get(removed++);
+            alertsById.remove(alert.id);
+            liveBytes -= recordSize(alert.bytes);
+            String key = targetKey(alert.checkId, alert.target);
+            // Anything left for the target is newer, so it would already be the last alert
+            if (lastAlerts.get(key) == alert) {
+                lastAlerts.remove(key);
+            }
+        }
+        if (removed == alerts.size()) {
+            alertsByCheck.remove(checkId);
+        } else {
+            alerts.subList(0, removed).clear();
+        }
+    }
+
+    /**
+     * Snapshots the live records and leaves writing them to the compactor.
+     * Must hold the write lock.
+     */
+    private void startCompaction() {
+        final List<MappedLog.Record> records = new ArrayList<MappedLog.Record>();
+        for (byte[] user : users.values()) {
+            records.add(new MappedLog.Record(USER, user));
+        }
+        for (byte[] permission : permissions.values()) {
+            records.add(new MappedLog.Record(PERMISSIONS, permission));
+        }
+        for (StoredCheck check : checks.values()) {
+            records.add(new MappedLog.Record(CHECK, check.bytes));
+        }
+        for (List<StoredAlert> alerts : alertsByCheck.values()) {
+            for (StoredAlert alert : alerts) {
+                records.add(new MappedLog.Record(ALERT, alert.bytes));
+            }
+        }
+        for (StoredNotification notification : notifications.values()) {
+            records.add(new MappedLog.Record(NOTIFICATION, notification.bytes));
+        }
+        final MappedLog.Compaction compaction;
+        try {
+            compaction = log.startCompaction();
+        } catch (IOException e) {
+            throw new RuntimeException("Failed to compact the local store", e);
+        }
+        compacting = true;
+        compactor.execute(new Runnable() {
+            @Override
+            public void run() {
+                compact(compaction, records);
+            }
+        });
+    }
+
+    private void compact(MappedLog.Compaction compaction, List<MappedLog.Record> records) {
+        boolean written = false;
+        try {
+            compaction.write(records);
+            written = true;
+        } catch (IOException e) {
+            LOGGER.warn("Failed to compact the local store", e);
+        } finally {
+            lock.writeLock().lock();
+            try {
+                if (written) {
+                    log.finishCompaction(compaction);
+                } else {
+                    compaction.abandon();
+                }
+            } finally {
+                compacting = false;
+                compactionDone.signalAll();
+                lock.writeLock().unlock();
+            }
+        }
+    }
+
+    private List<byte[]> checkBytes(Boolean enabled, Boolean live, Set<String> states) {
+        List<byte[]> result = new ArrayList<byte[]>();
+        lock.readLock().lock();
+        try {
+            for (StoredCheck stored : checks.values()) {
+                Check check = stored.check;
+                if (enabled != null && check.isEnabled() != enabled) {
+                    continue;
+                }
+                if (live != null && check.isLive() != live) {
+                    continue;
+                }
+                if (states != null && (check.getState() == null || !states.contains(check.getState().toString()))) {
+                    continue;
+                }
+                result.add(stored.bytes);
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+        return result;
+    }
+
+    private SeyrenResponse<Check> checksResponse(List<byte[]> checkBytes) {
+        List<Check> values = new ArrayList<Check>(checkBytes.size());
+        for (byte[] bytes : checkBytes) {
+            values.add(codec.read(bytes, Check.class));
+        }
+        return new SeyrenResponse<Check>()
+                .withValues(values)
+                .withTotal(values.size());
+    }
+
+    private SeyrenResponse<Alert> alertsResponse(List<byte[]> page, int start, int items, int total) {
+        List<Alert> values = new ArrayList<Alert>(page.size());
+        for (byte[] bytes : page) {
+            values.add(codec.read(bytes, Alert.class));
+        }
+        return new SeyrenResponse<Alert>()
+                .withValues(values)
+                .withItems(items)
+                .withStart(start)
+                .withTotal(total);
+    }
+
+    /**
+     * Matches like a Mongo regular expression query: any value found along the
+     * dotted path, through arrays, may match.
+     */
+    private static boolean anyMatches(JsonNode node, String[] path, int depth, Pattern pattern) {
+        if (node == null || node.isNull()) {
+            return false;
+        }
+        if (node.isArray()) {
+            for (JsonNode element : node) {
+                if (anyMatches(element, path, depth, pattern)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+        if (depth == path.length) {
+            return node.isValueNode() && pattern.matcher(node.asText()).find();
+        }
+        return anyMatches(node.get(path[depth]), path, depth + 1, pattern);
+    }
+
+    private static int removeSubscription(Check check, String subscriptionId) {
+        List<Subscription> subscriptions = check.getSubscriptions();
+        for (int i = 0; i < subscriptions.size(); i++) {
+            if (subscriptions.get(i).getId().equals(subscriptionId)) {
+                subscriptions.remove(i);
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private static String targetKey(String checkId, String target) {
+        return checkId + '|' + target;
+    }
+
+    private static int recordSize(byte[] payload) {
+        return payload == null ? 0 : MappedLog.HEADER_SIZE + payload.length;
+    }
+
+    private static String newId() {
+        return UUID.randomUUID().toString().replace("-", "");
+    }
+
+    private static final class StoredCheck {
+        final Check check;
+        final byte[] bytes;
+
+        StoredCheck(Check check, byte[] bytes) {
+            this.check = check;
+            this.bytes = bytes;
+        }
+    }
+
+    private static final class StoredAlert {
+        final String id;
+        final String checkId;
+        final String target;
+        final long timestamp;
+        final byte[] bytes;
+
+        StoredAlert(Alert alert, byte[] bytes) {
+            this.id = alert.getId();
+            this.checkId = alert.getCheckId();
+            this.target = alert.getTarget();
+            this.timestamp = alert.getTimestamp() == null ? 0 : alert.getTimestamp().getMillis();
+            this.bytes = bytes;
+        }
+    }
+
+    private static final class StoredNotification {
+        final String id;
+        final String key;
+        final long due;
+        final byte[] bytes;
+
+        StoredNotification(PendingNotification notification, byte[] bytes) {
+            this.id = notification.getId();
+            this.key = notification.getKey();
+            this.due = notification.getDue() == null ? 0 : notification.getDue().getMillis();
+            this.bytes = bytes;
+        }
+    }
+
+    /**
+     * Walks one check's alert history from the newest alert backwards.
+     */
+    private static final class Cursor implements Comparable<Cursor> {
+        private final List<StoredAlert> alerts;
+        private int index;
+
+        Cursor(List<StoredAlert> alerts) {
+            this.alerts = alerts;
+            this.index = alerts.size() - 1;
+        }
+
+        StoredAlert current() {
+            return alerts.get(index);
+        }
+
+        boolean advance() {
+            return --index >= 0;
+        }
+
+        @Override
+        public int compareTo(Cursor other) {
+            return Long.compare(other.current().timestamp, current().timestamp);
+        }
+    }
+
+}
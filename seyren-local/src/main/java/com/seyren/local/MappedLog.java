@@ -0,0 +1,317 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.seyren.local;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.FilenameFilter;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.zip.CRC32;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Append-only log of records kept in fixed size, memory-mapped segment files.
+ *
+ * Each record is laid out as {@code length, crc32, type, payload}, where the
+ * length covers the type and the payload. A zero length marks the end of the
+ * written part of a segment, since segments are created zero-filled. A record
+ * whose length or checksum does not add up is treated as a torn write: replay
+ * stops there and the next append overwrites it.
+ *
+ * Not thread-safe; callers serialise access, except to the writing of a
+ * {@link Compaction}.
+ */
+class MappedLog implements Closeable {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(MappedLog.class);
+
+    static final int HEADER_SIZE = 4 + 4 + 1;
+
+    private static final String SUFFIX = ".log";
+
+    /**
+     * Receives the records of the log, oldest first.
+     */
+    interface Visitor {
+        void visit(byte type, byte[] payload);
+    }
+
+    private final File directory;
+    private final int segmentSize;
+    private final boolean fsync;
+    private final List<File> segments = new ArrayList<File>();
+    private MappedByteBuffer current;
+    private int nextSegment;
+    private long size;
+
+    MappedLog(File directory, int segmentSize, boolean fsync) {
+        this.directory = directory;
+        this.segmentSize = segmentSize;
+        this.fsync = fsync;
+    }
+
+    /**
+     * Opens the log, passing every intact record to the visitor, and positions
+     * it for appending after the last one.
+     */
+    void open(Visitor visitor) throws IOException {
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("Could not create " + directory);
+        }
+        File[] files = directory.listFiles(new FilenameFilter() {
+            @Override
+            public boolean accept(File dir, String name) {
+                return name.endsWith(SUFFIX);
+            }
+        });
+        if (files == null) {
+            throw new IOException("Could not list " + directory);
+        }
+        Arrays.sort(files);
+        segments.addAll(Arrays.asList(files));
+        if (!segments.isEmpty()) {
+            nextSegment = segmentNumber(segments.get(segments.size() - 1)) + 1;
+        }
+
+        for (int i = 0; i < segments.size(); i++) {
+            MappedByteBuffer buffer = map(segments.get(i), segments.get(i).length());
+            boolean torn = !replay(segments.get(i), buffer, visitor);
+            size += buffer.position();
+            if (i == segments.size() - 1) {
+                if (torn) {
+                    clearFrom(buffer);
+                }
+                current = buffer;
+            }
+        }
+        if (current == null) {
+            roll(0);
+        }
+    }
+
+    /**
+     * Appends a record, moving on to a new segment when it does not fit.
+     */
+    void append(byte type, byte[] payload) throws IOException {
+        int recordSize = HEADER_SIZE + payload.length;
+        if (current.remaining() < recordSize) {
+            roll(recordSize);
+        }
+        put(current, type, payload);
+        size += recordSize;
+        if (fsync) {
+            current.force();
+        }
+    }
+
+    /**
+     * Bytes taken by the records of every segment.
+     */
+    long size() {
+        return size;
+    }
+
+    /**
+     * Starts replacing the log with a snapshot of its live records. Appends go
+     * on in a new segment while {@link Compaction#write(Iterable)} writes the
+     * snapshot, away from the caller's lock, to segments numbered between the
+     * obsolete ones and that one. An interruption at any point leaves a log
+     * which replays to the same state, only with duplicates.
+     */
+    Compaction startCompaction() throws IOException {
+        int slot = nextSegment++;
+        roll(0);
+        return new Compaction(slot, new ArrayList<File>(segments.subList(0, segments.size() - 1)), size);
+    }
+
+    /**
+     * Swaps the segments written by the compaction in for the obsolete ones.
+     */
+    void finishCompaction(Compaction compaction) {
+        long previousSize = size;
+        segments.removeAll(compaction.obsolete);
+        segments.addAll(0, compaction.written);
+        size = compaction.writtenSize + size - compaction.obsoleteSize;
+        for (File file : compaction.obsolete) {
+            if (!file.delete()) {
+                LOGGER.warn("Could not delete compacted log segment {}", file);
+            }
+        }
+        LOGGER.info("Compacted local store log from {} to {} bytes", previousSize, size);
+    }
+
+    void force() {
+        if (current != null) {
+            current.force();
+        }
+    }
+
+    @Override
+    public void close() {
+        force();
+        current = null;
+    }
+
+    private void roll(int minimumSize) throws IOException {
+        if (current != null) {
+            current.force();
+        }
+        File file = new File(directory, String.format("%010d%s", nextSegment++, SUFFIX));
+        current = map(file, Math.max(segmentSize, minimumSize + HEADER_SIZE));
+        segments.add(file);
+    }
+
+    private static void put(MappedByteBuffer buffer, byte type, byte[] payload) {
+        CRC32 crc = new CRC32();
+        crc.update(type);
+        crc.update(payload);
+        buffer.putInt(payload.length + 1);
+        buffer.putInt((int) crc.getValue());
+        buffer.put(type);
+        buffer.put(payload);
+    }
+
+    private static MappedByteBuffer map(File file, long length) throws IOException {
+        RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        try {
+            if (raf.length() < length) {
+                raf.setLength(length);
+            }
+            return raf.getChannel().map(MapMode.READ_WRITE, 0, length);
+        } finally {
+            // The mapping stays valid once the channel is closed
+            raf.close();
+        }
+    }
+
+    /**
+     * @return false if replay stopped at a torn record rather than at the end
+     */
+    private static boolean replay(File file, MappedByteBuffer buffer, Visitor visitor) {
+        while (buffer.remaining() >= HEADER_SIZE) {
+            int start = buffer.position();
+            int length = buffer.getInt();
+            if (length == 0) {
+                buffer.position(start);
+                return true;
+            }
+            int checksum = buffer.getInt();
+            if (length < 1 || length > buffer.remaining()) {
+                LOGGER.warn("Ignoring torn record at {} of {}", start, file);
+                buffer.position(start);
+                return false;
+            }
+            byte type = buffer.get();
+            byte[] payload = new byte[length - 1];
+            buffer.get(payload);
+            CRC32 crc = new CRC32();
+            crc.update(type);
+            crc.update(payload);
+            if ((int) crc.getValue() != checksum) {
+                LOGGER.warn("Ignoring record with a bad checksum at {} of {}", start, file);
+                buffer.position(start);
+                return false;
+            }
+            visitor.visit(type, payload);
+        }
+        return true;
+    }
+
+    private static void clearFrom(MappedByteBuffer buffer) {
+        int position = buffer.position();
+        while (buffer.hasRemaining()) {
+            buffer.put((byte) 0);
+        }
+        buffer.position(position);
+    }
+
+    private static int segmentNumber(File file) {
+        String name = file.getName();
+        int end = name.indexOf('-');
+        // Compacted segments are numbered after the slot they were written for
+        return Integer.parseInt(name.substring(0, end < 0 ? name.length() - SUFFIX.length() : end));
+    }
+
+    /**
+     * Segments being written with a snapshot of the live records. Touches no
+     * state of the log, so it can be written while appends go on.
+     */
+    final class Compaction {
+        private final int slot;
+        private final List<File> obsolete;
+        private final long obsoleteSize;
+        private final List<File> written = new ArrayList<File>();
+        private long writtenSize;
+
+        private Compaction(int slot, List<File> obsolete, long obsoleteSize) {
+            this.slot = slot;
+            this.obsolete = obsolete;
+            this.obsoleteSize = obsoleteSize;
+        }
+
+        void write(Iterable<Record> records) throws IOException {
+            MappedByteBuffer buffer = null;
+            for (Record record : records) {
+                int recordSize = HEADER_SIZE + record.payload.length;
+                if (buffer == null || buffer.remaining() < recordSize) {
+                    if (buffer != null) {
+                        buffer.force();
+                    }
+                    File file = new File(directory, String.format("%010d-%010d%s", slot, written.size(), SUFFIX));
+                    buffer = map(file, Math.max(segmentSize, recordSize + HEADER_SIZE));
+                    written.add(file);
+                }
+                put(buffer, record.type, record.payload);
+                writtenSize += recordSize;
+            }
+            if (buffer != null) {
+                buffer.force();
+            }
+        }
+
+        /**
+         * Removes whatever was written, leaving the obsolete segments in place.
+         */
+        void abandon() {
+            for (File file : written) {
+                if (!file.delete()) {
+                    LOGGER.warn("Could not delete abandoned log segment {}", file);
+                }
+            }
+        }
+    }
+
+    /**
+     * A record to be written by {@link Compaction#write(Iterable)}.
+     */
+    static final class Record {
+        final byte type;
+        final byte[] payload;
+
+        Record(byte type, byte[] payload) {
+            this.type = type;
+            this.payload = payload;
+        }
+    }
+
+}
@@ -0,0 +1,304 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.seyren.local;
+
+import static org.hamcrest.MatcherAssert.*;
+import static org.hamcrest.Matchers.*;
+
+import java.io.File;
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.regex.Pattern;
+
+import org.joda.time.DateTime;
+import org.joda.time.LocalTime;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.google.common.util.concurrent.MoreExecutors;
+import com.google.common.util.concurrent.Uninterruptibles;
+import com.seyren.core.domain.Alert;
+import com.seyren.core.domain.AlertType;
+import com.seyren.core.domain.Check;
+import com.seyren.core.domain.OutlierCheck;
+import com.seyren.core.domain.PendingNotification;
+import com.seyren.core.domain.SeyrenResponse;
+import com.seyren.core.domain.Subscription;
+import com.seyren.core.domain.SubscriptionType;
+import com.seyren.core.domain.ThresholdAlert;
+import com.seyren.core.domain.ThresholdCheck;
+import com.seyren.core.domain.User;
+
+public class LocalStoreTest {
+
+    private static final int SEGMENT_SIZE = 64 * 1024;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private File directory;
+    private LocalStore store;
+
+    @Before
+    public void before() throws Exception {
+        directory = folder.newFolder("store");
+        store = new LocalStore(directory, SEGMENT_SIZE, false);
+    }
+
+    @After
+    public void after() {
+        store.preDestroy();
+    }
+
+    @Test
+    public void checksSurviveARestart() {
+        Check created = store.createCheck(thresholdCheck("cpu"));
+        store.createSubscription(created.getId(), new Subscription()
+                .withTarget("ops@example.com")
+                .withType(SubscriptionType.EMAIL)
+                .withFromTime(new LocalTime(9, 0))
+                .withToTime(new LocalTime(17, 30))
+                .withEnabled(true));
+        store.updateStateAndLastCheck(created.getId(), AlertType.WARN, new DateTime(1500000000000L));
+        store.createCheck(new OutlierCheck()
+                .withAbsoluteDiff(new BigDecimal("2.5"))
+                .withRelativeDiff(0.3)
+                .withAsgName("asg")
+                .withName("outlier")
+                .withEnabled(true)
+                .withState(AlertType.OK));
+
+        restart();
+
+        ThresholdCheck check = (ThresholdCheck) store.getCheck(created.getId());
+        assertThat(check.getName(), is("cpu"));
+        assertThat(check.getWarn(), is(new BigDecimal("0.1")));
+        assertThat(check.getState(), is(AlertType.WARN));
+        assertThat(check.getLastCheck().getMillis(), is(1500000000000L));
+        assertThat(check.getSubscriptions(), hasSize(1));
+        assertThat(check.getSubscriptions().get(0).getToTime(), is(new LocalTime(17, 30)));
+        assertThat(store.getChecks(true, null).getValues(), hasSize(2));
+        OutlierCheck outlier = (OutlierCheck) store.getChecksByState(Collections.singleton("OK"), null).getValues().get(0);
+        assertThat(outlier.getAsgName(), is("asg"));
+    }
+
+    @Test
+    public void readsHandOutCopies() {
+        Check created = store.createCheck(thresholdCheck("cpu"));
+
+        store.getCheck(created.getId()).setName("changed");
+
+        assertThat(store.getCheck(created.getId()).getName(), is("cpu"));
+    }
+
+    @Test
+    public void lastAlertIsTheNewestForTheTarget() {
+        Check check = store.createCheck(thresholdCheck("cpu"));
+        store.createAlert(check.getId(), alert("a", 1000, AlertType.WARN));
+        store.createAlert(check.getId(), alert("a", 3000, AlertType.ERROR));
+        store.createAlert(check.getId(), alert("a", 2000, AlertType.OK));
+        store.createAlert(check.getId(), alert("b", 4000, AlertType.WARN));
+
+        assertThat(store.getLastAlertForTargetOfCheck("a", check.getId()).getToType(), is(AlertType.ERROR));
+        assertThat(store.getLastAlertForTargetOfCheck("c", check.getId()), is(nullValue()));
+
+        store.deleteAlerts(check.getId(), new DateTime(3500));
+        restart();
+
+        assertThat(store.getLastAlertForTargetOfCheck("a", check.getId()), is(nullValue()));
+        assertThat(store.getLastAlertForTargetOfCheck("b", check.getId()).getToType(), is(AlertType.WARN));
+    }
+
+    @Test
+    public void alertsAreListedNewestFirst() {
+        Check first = store.createCheck(thresholdCheck("first"));
+        Check second = store.createCheck(thresholdCheck("second"));
+        for (int i = 0; i < 5; i++) {
+            store.createAlert(first.getId(), alert("a", i * 10, AlertType.WARN));
+            store.createAlert(second.getId(), alert("a", i * 10 + 5, AlertType.WARN));
+        }
+
+        SeyrenResponse<Alert> page = store.getAlerts(2, 3);
+        SeyrenResponse<Alert> checkPage = store.getAlerts(first.getId(), 1, 2);
+
+        assertThat(page.getTotal(), is(10));
+        assertThat(timestamps(page), contains(35L, 30L, 25L));
+        assertThat(checkPage.getTotal(), is(5));
+        assertThat(timestamps(checkPage), contains(30L, 20L));
+    }
+
+    @Test
+    public void checksAreFoundByPattern() {
+        store.createCheck(thresholdCheck("web cpu").withTarget("servers.web*.cpu"));
+        store.createCheck(thresholdCheck("db cpu").withTarget("servers.db*.cpu"));
+
+        SeyrenResponse<?> response = store.getChecksByPattern(Arrays.asList("name", "target"),
+                Arrays.asList(Pattern.compile("cpu"), Pattern.compile("web")), null);
+
+        assertThat(response.getTotal(), is(1));
+        assertThat(((Check) response.getValues().get(0)).getName(), is("web cpu"));
+    }
+
+    @Test
+    public void deletingACheckRemovesItsAlerts() {
+        Check check = store.createCheck(thresholdCheck("cpu"));
+        store.createAlert(check.getId(), alert("a", 1000, AlertType.WARN));
+
+        store.deleteCheck(check.getId());
+        restart();
+
+        assertThat(store.getCheck(check.getId()), is(nullValue()));
+        assertThat(store.getAlerts(0, 10).getTotal(), is(0));
+    }
+
+    @Test
+    public void logIsCompactedOnceMostOfItIsObsolete() {
+        store.preDestroy();
+        store = new LocalStore(directory, SEGMENT_SIZE, false, MoreExecutors.sameThreadExecutor());
+        Check check = store.createCheck(thresholdCheck("cpu"));
+        for (int i = 0; i < 1000; i++) {
+            store.updateStateAndLastCheck(check.getId(), AlertType.OK, new DateTime(i));
+        }
+
+        assertThat(directory.listFiles().length, lessThan(3));
+        restart();
+        assertThat(store.getCheck(check.getId()).getLastCheck().getMillis(), is(999L));
+    }
+
+    @Test
+    public void writesCarryOnWhileTheLogIsCompacted() throws Exception {
+        ExecutorService compactor = Executors.newSingleThreadExecutor();
+        final CountDownLatch release = new CountDownLatch(1);
+        compactor.execute(new Runnable() {
+            @Override
+            public void run() {
+                Uninterruptibles.awaitUninterruptibly(release);
+            }
+        });
+        store.preDestroy();
+        store = new LocalStore(directory, SEGMENT_SIZE, false, compactor);
+        Check check = store.createCheck(thresholdCheck("cpu"));
+        for (int i = 0; i < 1000; i++) {
+            store.updateStateAndLastCheck(check.getId(), AlertType.OK, new DateTime(i));
+        }
+        int segments = directory.listFiles().length;
+
+        release.countDown();
+        restart();
+
+        assertThat(directory.listFiles().length, lessThan(segments));
+        assertThat(store.getCheck(check.getId()).getLastCheck().getMillis(), is(999L));
+    }
+
+    @Test
+    public void usersAndPermissionsAreStored() {
+        User user = new User("alice", "secret");
+        user.setRoles(Collections.singleton("USER"));
+        store.addUser(user);
+        store.addUser(new User("bob", "secret"));
+        store.createPermissions("alice", new String[] {"EMAIL"});
+        store.updatePermissions("alice", new String[] {"EMAIL", "SLACK"});
+        restart();
+
+        assertThat(store.getUser("alice").getPassword(), is("secret"));
+        assertThat(store.getUser("alice").getRoles(), contains("USER"));
+        assertThat(store.autoCompleteUsers("al"), is(new String[] {"alice"}));
+        assertThat(store.getPermissions("alice").getWrite(), is(new String[] {"EMAIL", "SLACK"}));
+        assertThat(store.getPermissions("nobody").getWrite(), is(emptyArray()));
+    }
+
+    @Test
+    public void pendingNotificationsAreLeasedAndSurviveARestart() {
+        Check check = thresholdCheck("cpu").withSubscriptions(Arrays.asList(new Subscription()
+                .withId("sub")
+                .withTarget("ops@example.com")
+                .withType(SubscriptionType.EMAIL)));
+        PendingNotification notification = new PendingNotification()
+                .withKey("key")
+                .withCheck(check)
+                .withSubscriptionId("sub")
+                .withAlerts(Arrays.asList(alert("a", 1000, AlertType.ERROR)))
+                .withDue(new DateTime(1000));
+        assertThat(store.createPendingNotification(notification), is(true));
+        assertThat(store.createPendingNotification(new PendingNotification().withKey("key").withDue(new DateTime(1000))), is(false));
+
+        List<PendingNotification> claimed = store.claimPendingNotifications("node", 10, new DateTime(2000), new DateTime(5000));
+        assertThat(claimed, hasSize(1));
+        assertThat(store.claimPendingNotifications("other", 10, new DateTime(3000), new DateTime(6000)), is(empty()));
+        restart();
+
+        // The first node went away, its lease runs out
+        claimed = store.claimPendingNotifications("other", 10, new DateTime(5000), new DateTime(9000));
+        assertThat(claimed, hasSize(1));
+        PendingNotification resumed = claimed.get(0);
+        assertThat(resumed.getOwner(), is("other"));
+        assertThat(resumed.getSubscription().getTarget(), is("ops@example.com"));
+        assertThat(resumed.getAlerts().get(0).getToType(), is(AlertType.ERROR));
+
+        store.reschedulePendingNotification(resumed.getId(), 1, new DateTime(7000), Collections.<Alert>emptyList());
+        assertThat(store.claimPendingNotifications("other", 10, new DateTime(6000), new DateTime(9000)), is(empty()));
+        PendingNotification rescheduled = store.claimPendingNotifications("other", 10, new DateTime(7000), new DateTime(9000)).get(0);
+        assertThat(rescheduled.getAttempts(), is(1));
+        assertThat(rescheduled.getAlerts(), is(empty()));
+
+        store.deletePendingNotification(resumed.getId());
+        restart();
+        assertThat(store.claimPendingNotifications("other", 10, new DateTime(10000), new DateTime(20000)), is(empty()));
+        assertThat(store.createPendingNotification(new PendingNotification().withKey("key").withDue(new DateTime(1000))), is(true));
+    }
+
+    private void restart() {
+        store.preDestroy();
+        store = new LocalStore(directory, SEGMENT_SIZE, false);
+    }
+
+    private static ThresholdCheck thresholdCheck(String name) {
+        return (ThresholdCheck) new ThresholdCheck()
+                .withWarn(new BigDecimal("0.1"))
+                .withError(new BigDecimal("20"))
+                .withName(name)
+                .withTarget("servers.*.cpu")
+                .withEnabled(true)
+                .withState(AlertType.OK);
+    }
+
+    private static Alert alert(String target, long timestamp, AlertType toType) {
+        return new ThresholdAlert()
+                .withWarn(new BigDecimal("0.1"))
+                .withError(new BigDecimal("20"))
+                .withTarget(target)
+                .withValue(BigDecimal.ONE)
+                .withFromType(AlertType.OK)
+                .withToType(toType)
+                .withTimestamp(new DateTime(timestamp));
+    }
+
+    private static List<Long> timestamps(SeyrenResponse<Alert> response) {
+        List<Long> timestamps = new ArrayList<Long>();
+        for (Alert alert : response.getValues()) {
+            timestamps.add(alert.getTimestamp().getMillis());
+        }
+        return timestamps;
+    }
+
+}
@@ -0,0 +1,132 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.seyren.local;
+
+import static org.hamcrest.MatcherAssert.*;
+import static org.hamcrest.Matchers.*;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class MappedLogTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void recordsAreReplayedInOrderAcrossSegments() throws Exception {
+        File directory = folder.newFolder();
+        MappedLog log = new MappedLog(directory, 64, false);
+        log.open(new Collector());
+        for (int i = 0; i < 10; i++) {
+            log.append((byte) 1, ("record" + i).getBytes("UTF-8"));
+        }
+        log.close();
+
+        Collector collector = new Collector();
+        new MappedLog(directory, 64, false).open(collector);
+
+        assertThat(directory.listFiles().length, greaterThan(1));
+        assertThat(collector.records, hasSize(10));
+        assertThat(collector.records.get(9), is("record9"));
+    }
+
+    @Test
+    public void tornRecordIsDroppedAndOverwritten() throws Exception {
+        File directory = folder.newFolder();
+        MappedLog log = new MappedLog(directory, 1024, false);
+        log.open(new Collector());
+        log.append((byte) 1, "first".getBytes("UTF-8"));
+        log.append((byte) 1, "second".getBytes("UTF-8"));
+        log.close();
+
+        // Corrupt the payload of the second record as if the write was cut short
+        File segment = directory.listFiles()[0];
+        RandomAccessFile raf = new RandomAccessFile(segment, "rw");
+        raf.seek(2 * MappedLog.HEADER_SIZE + "first".length() + 2);
+        raf.write('X');
+        raf.close();
+
+        Collector collector = new Collector();
+        MappedLog reopened = new MappedLog(directory, 1024, false);
+        reopened.open(collector);
+        reopened.append((byte) 1, "third".getBytes("UTF-8"));
+        reopened.close();
+        assertThat(collector.records, contains("first"));
+
+        collector = new Collector();
+        new MappedLog(directory, 1024, false).open(collector);
+        assertThat(collector.records, contains("first", "third"));
+    }
+
+    @Test
+    public void compactionKeepsWhatIsAppendedMeanwhile() throws Exception {
+        File directory = folder.newFolder();
+        MappedLog log = new MappedLog(directory, 64, false);
+        log.open(new Collector());
+        for (int i = 0; i < 10; i++) {
+            log.append((byte) 1, ("record" + i).getBytes("UTF-8"));
+        }
+        MappedLog.Compaction compaction = log.startCompaction();
+        log.append((byte) 1, "later".getBytes("UTF-8"));
+        compaction.write(Arrays.asList(new MappedLog.Record((byte) 2, "live".getBytes("UTF-8"))));
+        log.finishCompaction(compaction);
+        log.append((byte) 1, "last".getBytes("UTF-8"));
+        log.close();
+
+        Collector collector = new Collector();
+        new MappedLog(directory, 64, false).open(collector);
+
+        assertThat(directory.listFiles().length, is(2));
+        assertThat(collector.records, contains("live", "later", "last"));
+    }
+
+    @Test
+    public void interruptedCompactionReplaysTheSnapshotBeforeLaterRecords() throws Exception {
+        File directory = folder.newFolder();
+        MappedLog log = new MappedLog(directory, 64, false);
+        log.open(new Collector());
+        log.append((byte) 1, "first".getBytes("UTF-8"));
+        MappedLog.Compaction compaction = log.startCompaction();
+        log.append((byte) 1, "later".getBytes("UTF-8"));
+        compaction.write(Arrays.asList(new MappedLog.Record((byte) 2, "live".getBytes("UTF-8"))));
+        log.close();
+
+        Collector collector = new Collector();
+        new MappedLog(directory, 64, false).open(collector);
+
+        assertThat(collector.records, contains("first", "live", "later"));
+    }
+
+    private static class Collector implements MappedLog.Visitor {
+        private final List<String> records = new ArrayList<String>();
+
+        @Override
+        public void visit(byte type, byte[] payload) {
+            try {
+                records.add(new String(payload, "UTF-8"));
+            } catch (Exception e) {
+                throw new RuntimeException(e);
+            }
+        }
+    }
+
+}
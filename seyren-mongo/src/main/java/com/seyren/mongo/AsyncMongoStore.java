@@ -0,0 +1,308 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.seyren.mongo;
+
+import static com.seyren.mongo.NiceDBObject.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.regex.Pattern;
+
+import javax.annotation.PreDestroy;
+import javax.inject.Inject;
+import javax.inject.Named;
+
+import org.bson.Document;
+import org.bson.conversions.Bson;
+import org.bson.types.ObjectId;
+import org.joda.time.DateTime;
+import org.springframework.context.annotation.Conditional;
+
+import com.google.common.base.Function;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.SettableFuture;
+import com.mongodb.BasicDBObject;
+import com.mongodb.ConnectionString;
+import com.mongodb.ReadPreference;
+import com.mongodb.WriteConcern;
+import com.mongodb.async.SingleResultCallback;
+import com.mongodb.async.client.MongoClient;
+import com.mongodb.async.client.MongoClients;
+import com.mongodb.async.client.MongoCollection;
+import com.mongodb.async.client.MongoDatabase;
+import com.mongodb.client.model.FindOneAndUpdateOptions;
+import com.mongodb.client.model.ReturnDocument;
+import com.mongodb.client.result.DeleteResult;
+import com.mongodb.client.result.UpdateResult;
+import com.seyren.core.domain.Alert;
+import com.seyren.core.domain.AlertType;
+import com.seyren.core.domain.Check;
+import com.seyren.core.domain.SeyrenResponse;
+import com.seyren.core.domain.Subscription;
+import com.seyren.core.store.AsyncAlertsStore;
+import com.seyren.core.store.AsyncChecksStore;
+import com.seyren.core.store.AsyncSubscriptionsStore;
+import com.seyren.core.store.ReadPurpose;
+import com.seyren.core.util.config.SeyrenConfig;
+import com.seyren.mongo.codec.DecimalStorage;
+import com.seyren.mongo.codec.SeyrenCodecProvider;
+
+/**
+ * Mongo implementation of the async store interfaces, built on the driver's
+ * asynchronous client so that no thread is held while a round trip is in flight.
+ *
+ * Where one call needs several round trips that do not depend on each other
+ * (a page of results and its total, or a check and its alerts) they are issued
+ * together. Schema setup is left to {@link MongoStore}.
+ */
+@Named
+@Conditional(MongoStoreCondition.class)
+public class AsyncMongoStore implements AsyncChecksStore, AsyncAlertsStore, AsyncSubscriptionsStore {
+
+    private static final FindOneAndUpdateOptions RETURN_UPDATED = new FindOneAndUpdateOptions().returnDocument(ReturnDocument.AFTER);
+
+    private final MongoMapper mapper = new MongoMapper();
+    private final MongoClient mongoClient;
+    private final MongoDatabase database;
+    private final DecimalStorage decimalStorage;
+    private final Map<ReadPurpose, ReadPreference> readPreferences;
+
+    @Inject
+    public AsyncMongoStore(SeyrenConfig seyrenConfig) {
+        ConnectionString connectionString = new ConnectionString(seyrenConfig.getMongoUrl());
+        this.mongoClient = MongoClients.create(connectionString);
+        MongoDatabase database = mongoClient.getDatabase(connectionString.getDatabase());
+        SettableFuture<Document> buildInfo = SettableFuture.create();
+        database.runCommand(new Document("buildInfo", 1), callback(buildInfo));
+        this.decimalStorage = DecimalStorage.forServer(Futures.getUnchecked(buildInfo));
+        this.database = database
+                .withCodecRegistry(SeyrenCodecProvider.codecRegistry(decimalStorage))
+                .withWriteConcern(WriteConcern.ACKNOWLEDGED);
+        this.readPreferences = MongoReadPreferences.fromConfig(seyrenConfig);
+    }
+
+    /**
+     * Constructor used for TDD
+     * @param database The mocked async Mongo database
+     */
+    protected AsyncMongoStore(MongoDatabase database) {
+        this.mongoClient = null;
+        this.database = database;
+        this.decimalStorage = DecimalStorage.DECIMAL128;
+        this.readPreferences = MongoReadPreferences.primary();
+    }
+
+    @PreDestroy
+    public void preDestroy() {
+        if (mongoClient != null) {
+            mongoClient.close();
+        }
+    }
+
+    private MongoCollection<Check> getCheckDocuments(ReadPurpose purpose) {
+        return database.getCollection("checks", Check.class).withReadPreference(readPreferences.get(purpose));
+    }
+
+    private MongoCollection<Alert> getAlertDocuments(ReadPurpose purpose) {
+        return database.getCollection("alerts", Alert.class).withReadPreference(readPreferences.get(purpose));
+    }
+
+    @Override
+    public ListenableFuture<SeyrenResponse<Check>> getChecksByPattern(List<String> checkFields, List<Pattern> patterns, Boolean enabled) {
+        return findChecks(MongoQueries.checksByPattern(checkFields, patterns, enabled), ReadPurpose.LISTING);
+    }
+
+    @Override
+    public ListenableFuture<SeyrenResponse<Check>> getChecks(Boolean enabled, Boolean live, ReadPurpose purpose) {
+        return findChecks(MongoQueries.checks(enabled, live), purpose);
+    }
+
+    @Override
+    public ListenableFuture<SeyrenResponse<Check>> getChecksByState(Set<String> states, Boolean enabled) {
+        return findChecks(MongoQueries.checksByState(states, enabled), ReadPurpose.LISTING);
+    }
+
+    private ListenableFuture<SeyrenResponse<Check>> findChecks(Bson query, ReadPurpose purpose) {
+        MongoCollection<Check> collection = getCheckDocuments(purpose);
+        SettableFuture<ArrayList<Check>> checks = SettableFuture.create();
+        SettableFuture<Long> total = SettableFuture.create();
+        collection.find(query).into(new ArrayList<Check>(), callback(checks));
+        collection.count(query, callback(total));
+        return response(checks, total, null, null);
+    }
+
+    @Override
+    public ListenableFuture<Check> getCheck(String checkId, ReadPurpose purpose) {
+        SettableFuture<Check> check = SettableFuture.create();
+        getCheckDocuments(purpose).find(forId(checkId)).first(callback(check));
+        return check;
+    }
+
+    @Override
+    public ListenableFuture<Void> deleteCheck(String checkId) {
+        SettableFuture<DeleteResult> check = SettableFuture.create();
+        SettableFuture<DeleteResult> alerts = SettableFuture.create();
+        getCheckDocuments(ReadPurpose.EVALUATION).deleteOne(forId(checkId), callback(check));
+        getAlertDocuments(ReadPurpose.EVALUATION).deleteMany(MongoQueries.alerts(checkId, null), callback(alerts));
+        return done(Futures.<Object>allAsList(check, alerts));
+    }
+
+    @Override
+    public ListenableFuture<Check> createCheck(final Check check) {
+        check.setId(ObjectId.get().toString());
+        SettableFuture<Void> inserted = SettableFuture.create();
+        getCheckDocuments(ReadPurpose.EVALUATION).insertOne(check, callback(inserted));
+        return then(inserted, check);
+    }
+
+    @Override
+    public ListenableFuture<Check> saveCheck(Check check) {
+        SettableFuture<UpdateResult> updated = SettableFuture.create();
+        getCheckDocuments(ReadPurpose.EVALUATION).updateOne(forId(check.getId()), MongoQueries.saveCheck(check, decimalStorage), callback(updated));
+        return then(updated, check);
+    }
+
+    @Override
+    public ListenableFuture<Check> updateStateAndLastCheck(String checkId, AlertType state, DateTime lastCheck) {
+        SettableFuture<Check> check = SettableFuture.create();
+        getCheckDocuments(ReadPurpose.EVALUATION).findOneAndUpdate(forId(checkId),
+                MongoQueries.updateStateAndLastCheck(state, lastCheck), RETURN_UPDATED, callback(check));
+        return check;
+    }
+
+    @Override
+    public ListenableFuture<Check> updateConsecutiveChecksTriggered(String checkId, Boolean consecutiveChecksTriggered) {
+        SettableFuture<Check> check = SettableFuture.create();
+        getCheckDocuments(ReadPurpose.EVALUATION).findOneAndUpdate(forId(checkId),
+                MongoQueries.updateConsecutiveChecksTriggered(consecutiveChecksTriggered), RETURN_UPDATED, callback(check));
+        return check;
+    }
+
+    @Override
+    public ListenableFuture<Alert> createAlert(String checkId, Alert alert) {
+        alert.setId(ObjectId.get().toString());
+        alert.setCheckId(checkId);
+        SettableFuture<Void> inserted = SettableFuture.create();
+        getAlertDocuments(ReadPurpose.EVALUATION).insertOne(alert, callback(inserted));
+        return then(inserted, alert);
+    }
+
+    @Override
+    public ListenableFuture<SeyrenResponse<Alert>> getAlerts(String checkId, int start, int items, ReadPurpose purpose) {
+        return findAlerts(object("checkId", checkId), start, items, purpose);
+    }
+
+    @Override
+    public ListenableFuture<SeyrenResponse<Alert>> getAlerts(int start, int items) {
+        return findAlerts(new BasicDBObject(), start, items, ReadPurpose.HISTORY);
+    }
+
+    private ListenableFuture<SeyrenResponse<Alert>> findAlerts(Bson query, int start, int items, ReadPurpose purpose) {
+        MongoCollection<Alert> collection = getAlertDocuments(purpose);
+        SettableFuture<ArrayList<Alert>> alerts = SettableFuture.create();
+        SettableFuture<Long> total = SettableFuture.create();
+        collection.find(query).sort(MongoQueries.newestFirst()).skip(start).limit(items)
+                .into(new ArrayList<Alert>(), callback(alerts));
+        collection.count(query, callback(total));
+        return response(alerts, total, start, items);
+    }
+
+    @Override
+    public ListenableFuture<Void> deleteAlerts(String checkId, DateTime before) {
+        SettableFuture<DeleteResult> deleted = SettableFuture.create();
+        getAlertDocuments(ReadPurpose.EVALUATION).deleteMany(MongoQueries.alerts(checkId, before), callback(deleted));
+        return done(deleted);
+    }
+
+    @Override
+    public ListenableFuture<Alert> getLastAlertForTargetOfCheck(String target, String checkId) {
+        SettableFuture<Alert> alert = SettableFuture.create();
+        getAlertDocuments(ReadPurpose.EVALUATION).find(MongoQueries.lastAlert(target, checkId))
+                .sort(MongoQueries.newestFirst()).limit(1).first(callback(alert));
+        return alert;
+    }
+
+    @Override
+    public ListenableFuture<Subscription> createSubscription(String checkId, Subscription subscription) {
+        subscription.setId(ObjectId.get().toString());
+        SettableFuture<UpdateResult> updated = SettableFuture.create();
+        getCheckDocuments(ReadPurpose.EVALUATION).updateOne(forId(checkId),
+                MongoQueries.pushSubscription(mapper.subscriptionToDBObject(subscription)), callback(updated));
+        return then(updated, subscription);
+    }
+
+    @Override
+    public ListenableFuture<Void> deleteSubscription(String checkId, String subscriptionId) {
+        SettableFuture<UpdateResult> updated = SettableFuture.create();
+        getCheckDocuments(ReadPurpose.EVALUATION).updateOne(forId(checkId), MongoQueries.pullSubscription(subscriptionId), callback(updated));
+        return done(updated);
+    }
+
+    @Override
+    public ListenableFuture<Void> updateSubscription(String checkId, Subscription subscription) {
+        SettableFuture<UpdateResult> updated = SettableFuture.create();
+        getCheckDocuments(ReadPurpose.EVALUATION).updateOne(MongoQueries.checkWithSubscription(checkId, subscription.getId()),
+                MongoQueries.setSubscription(mapper.subscriptionToDBObject(subscription)), callback(updated));
+        return done(updated);
+    }
+
+    private static <T> SingleResultCallback<T> callback(final SettableFuture<T> future) {
+        return new SingleResultCallback<T>() {
+            @Override
+            public void onResult(T result, Throwable t) {
+                if (t != null) {
+                    future.setException(t);
+                } else {
+                    future.set(result);
+                }
+            }
+        };
+    }
+
+    private static <T> ListenableFuture<SeyrenResponse<T>> response(final ListenableFuture<? extends List<T>> values, final ListenableFuture<Long> total,
+                                                                    final Integer start, final Integer items) {
+        return Futures.transform(Futures.<Object>allAsList(values, total), new Function<List<Object>, SeyrenResponse<T>>() {
+            @Override
+            public SeyrenResponse<T> apply(List<Object> ignored) {
+                SeyrenResponse<T> response = new SeyrenResponse<T>()
+                        .withValues(Futures.getUnchecked(values))
+                        .withTotal(Futures.getUnchecked(total).intValue());
+                if (start != null) {
+                    response.withStart(start);
+                }
+                if (items != null) {
+                    response.withItems(items);
+                }
+                return response;
+            }
+        });
+    }
+
+    private static <T> ListenableFuture<T> then(ListenableFuture<?> future, final T value) {
+        return Futures.transform(future, new Function<Object, T>() {
+            @Override
+            public T apply(Object ignored) {
+                return value;
+            }
+        });
+    }
+
+    private static ListenableFuture<Void> done(ListenableFuture<?> future) {
+        return then(future, (Void) null);
+    }
+
+}
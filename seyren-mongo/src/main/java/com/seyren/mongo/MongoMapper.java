@@ -18,6 +18,7 @@ import java.util.*;
 
 import com.google.common.base.Strings;
 import com.seyren.core.domain.*;
+import org.bson.types.Decimal128;
 import org.bson.types.ObjectId;
 import org.joda.time.DateTime;
 import org.joda.time.LocalTime;
@@ -25,8 +26,19 @@ import org.joda.time.LocalTime;
 import com.mongodb.BasicDBList;
 import com.mongodb.BasicDBObject;
 import com.mongodb.DBObject;
+import com.seyren.mongo.codec.DecimalStorage;
 
 public class MongoMapper {
+
+    private final DecimalStorage decimalStorage;
+
+    public MongoMapper() {
+        this(DecimalStorage.DECIMAL128);
+    }
+
+    public MongoMapper(DecimalStorage decimalStorage) {
+        this.decimalStorage = decimalStorage;
+    }
     
     public Check checkFrom(DBObject dbo) {
         String id = dbo.get("_id").toString();
@@ -52,6 +64,7 @@ public class MongoMapper {
         Integer consecutiveChecksTolerance = getInteger(dbo, "consecutiveChecksTolerance");
         Boolean consecutiveChecksTriggered = getBooleanValue(dbo, "consecutiveChecksTriggered");
         String asgName = getString(dbo,"asgName");
+        String algorithm = getString(dbo,"algorithm");
 
         String checkType = getString(dbo,"checkType");
         Check check = null;
@@ -75,6 +88,7 @@ public class MongoMapper {
                     .withRelativeDiff(relativeDiff)
                     .withMinConsecutiveViolations(minConsecutiveViolations)
                     .withAsgName(asgName);
+            ((OutlierCheck) check).setAlgorithm(algorithm);
         }
 
         check = check.withId(id)
@@ -237,10 +251,10 @@ public class MongoMapper {
             map.put("checkType","threshold");
             ThresholdCheck thresholdCheck = (ThresholdCheck)check;
             if (thresholdCheck.getWarn() != null) {
-                map.put("warn", thresholdCheck.getWarn().toPlainString());
+                map.put("warn", decimalStorage.toStored(thresholdCheck.getWarn()));
             }
             if (thresholdCheck.getError() != null) {
-                map.put("error", thresholdCheck.getError().toPlainString());
+                map.put("error", decimalStorage.toStored(thresholdCheck.getError()));
             }
         }
 
@@ -249,7 +263,7 @@ public class MongoMapper {
             OutlierCheck outlierCheck = (OutlierCheck)check;
             map.put("checkType","outlier");
             if (outlierCheck.getAbsoluteDiff() != null) {
-                map.put("absoluteDiff", outlierCheck.getAbsoluteDiff().toPlainString());
+                map.put("absoluteDiff", decimalStorage.toStored(outlierCheck.getAbsoluteDiff()));
             }
 
             if(outlierCheck.getRelativeDiff() !=null )
@@ -267,6 +281,11 @@ public class MongoMapper {
                 map.put("asgName", outlierCheck.getAsgName());
             }
 
+            if(outlierCheck.getAlgorithm()!=null)
+            {
+                map.put("algorithm", outlierCheck.getAlgorithm());
+            }
+
         }
         map.put("enabled", check.isEnabled());
         map.put("live", check.isLive());
@@ -335,7 +354,7 @@ public class MongoMapper {
         map.put("target", alert.getTarget());
         map.put("targetHash", alert.getTargetHash());
         if (alert.getValue() != null) {
-            map.put("value", alert.getValue().toPlainString());
+            map.put("value", decimalStorage.toStored(alert.getValue()));
         }
         if(alert instanceof ThresholdAlert)
         {
@@ -343,10 +362,10 @@ public class MongoMapper {
 
             map.put("alertType","threshold");
             if (thresholdAlert.getWarn() != null) {
-                map.put("warn", thresholdAlert.getWarn().toPlainString());
+                map.put("warn", decimalStorage.toStored(thresholdAlert.getWarn()));
             }
             if (thresholdAlert.getError() != null) {
-                map.put("error", thresholdAlert.getError().toPlainString());
+                map.put("error", decimalStorage.toStored(thresholdAlert.getError()));
             }
         }
 
@@ -355,7 +374,7 @@ public class MongoMapper {
             OutlierAlert outlierAlert = (OutlierAlert)alert;
             map.put("alertType","outlier");
             if (outlierAlert.getAbsoluteDiff() != null) {
-                map.put("absoluteDiff", outlierAlert.getAbsoluteDiff().toPlainString());
+                map.put("absoluteDiff", decimalStorage.toStored(outlierAlert.getAbsoluteDiff()));
             }
 
             if(outlierAlert.getRelativeDiff() !=null )
@@ -431,6 +450,12 @@ public class MongoMapper {
         if (result == null) {
             return null;
         }
+        if (result instanceof Decimal128) {
+            return ((Decimal128) result).bigDecimalValue();
+        }
+        if (result instanceof Double) {
+            return BigDecimal.valueOf((Double) result);
+        }
         return new BigDecimal(result.toString());
     }
     
@@ -0,0 +1,161 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.seyren.mongo;
+
+import static com.seyren.mongo.NiceDBObject.*;
+
+import java.util.Date;
+import java.util.List;
+import java.util.Set;
+import java.util.regex.Pattern;
+
+import org.apache.commons.lang.Validate;
+import org.joda.time.DateTime;
+
+import com.google.common.base.Strings;
+import com.mongodb.BasicDBObject;
+import com.mongodb.DBObject;
+import com.seyren.core.domain.AlertType;
+import com.seyren.core.domain.Check;
+import com.seyren.core.domain.OutlierCheck;
+import com.seyren.core.domain.ThresholdCheck;
+import com.seyren.core.util.hashing.TargetHash;
+import com.seyren.mongo.codec.DecimalStorage;
+
+/**
+ * Query and update documents shared by {@link MongoStore} and {@link AsyncMongoStore}.
+ */
+final class MongoQueries {
+
+    private MongoQueries() {
+    }
+
+    static BasicDBObject checks(Boolean enabled, Boolean live) {
+        BasicDBObject query = new BasicDBObject();
+        if (enabled != null) {
+            query.put("enabled", enabled);
+        }
+        if (live != null) {
+            query.put("live", live);
+        }
+        return query;
+    }
+
+    static BasicDBObject checksByState(Set<String> states, Boolean enabled) {
+        BasicDBObject query = new BasicDBObject();
+        query.put("state", object("$in", states.toArray()));
+        if (enabled != null) {
+            query.put("enabled", enabled);
+        }
+        return query;
+    }
+
+    static BasicDBObject checksByPattern(List<String> checkFields, List<Pattern> patterns, Boolean enabled) {
+        Validate.notNull(checkFields, "Fields may not be null.");
+        Validate.notNull(patterns, "Patterns may not be null.");
+        Validate.notEmpty(checkFields, "Fields may not be empty");
+        Validate.notEmpty(patterns, "Patterns may not be empty");
+        Validate.isTrue(checkFields.size() == patterns.size(), String.format("Fields[%s] have same number of elements as patterns[%s].  " +
+                "fieldsSize[%d] != fieldsSize[%d]", checkFields, patterns, checkFields.size(), patterns.size()));
+
+        BasicDBObject query = new BasicDBObject();
+        for (int i = 0; i < checkFields.size(); i++) {
+            query.put(checkFields.get(i), patterns.get(i));
+        }
+        if (enabled != null) {
+            query.put("enabled", enabled);
+        }
+        return query;
+    }
+
+    static BasicDBObject saveCheck(Check check, DecimalStorage decimalStorage) {
+        DateTime lastCheck = check.getLastCheck();
+
+        NiceDBObject partialObject = object("name", check.getName())
+                .with("description", check.getDescription())
+                .with("target", check.getTarget())
+                .with("graphiteBaseUrl", check.getGraphiteBaseUrl())
+                .with("from", Strings.emptyToNull(check.getFrom()))
+                .with("until", Strings.emptyToNull(check.getUntil()))
+                .with("enabled", check.isEnabled())
+                .with("live", check.isLive())
+                .with("allowNoData", check.isAllowNoData())
+                .with("lastCheck", lastCheck == null ? null : new Date(lastCheck.getMillis()))
+                .with("state", check.getState() == null ? null : check.getState().toString())
+                .with("enableConsecutiveChecks", check.isEnableConsecutiveChecks())
+                .with("consecutiveChecks", check.getConsecutiveChecks())
+                .with("consecutiveChecksTolerance", check.getConsecutiveChecksTolerance());
+
+        if (check instanceof ThresholdCheck) {
+            ThresholdCheck thresholdCheck = (ThresholdCheck) check;
+            partialObject
+                    .with("checkType", "threshold")
+                    .with("warn", decimalStorage.toStored(thresholdCheck.getWarn()))
+                    .with("error", decimalStorage.toStored(thresholdCheck.getError()));
+        } else {
+            OutlierCheck outlierCheck = (OutlierCheck) check;
+            partialObject
+                    .with("checkType", "outlier")
+                    .with("absoluteDiff", decimalStorage.toStored(outlierCheck.getAbsoluteDiff()))
+                    .with("relativeDiff", outlierCheck.getRelativeDiff())
+                    .with("minConsecutiveViolations", outlierCheck.getMinConsecutiveViolations())
+                    .with("asgName", outlierCheck.getAsgName())
+                    .with("algorithm", outlierCheck.getAlgorithm());
+        }
+
+        return object("$set", partialObject);
+    }
+
+    static BasicDBObject updateStateAndLastCheck(AlertType state, DateTime lastCheck) {
+        return object("$set", object("lastCheck", new Date(lastCheck.getMillis()))
+                .with("state", state.toString()));
+    }
+
+    static BasicDBObject updateConsecutiveChecksTriggered(Boolean consecutiveChecksTriggered) {
+        return object("$set", object("consecutiveChecksTriggered", consecutiveChecksTriggered));
+    }
+
+    static BasicDBObject alerts(String checkId, DateTime before) {
+        NiceDBObject query = object("checkId", checkId);
+        if (before != null) {
+            query.put("timestamp", object("$lt", new Date(before.getMillis())));
+        }
+        return query;
+    }
+
+    static BasicDBObject lastAlert(String target, String checkId) {
+        return object("checkId", checkId).with("targetHash", TargetHash.create(target));
+    }
+
+    static BasicDBObject newestFirst() {
+        return object("timestamp", -1);
+    }
+
+    static BasicDBObject pushSubscription(DBObject subscription) {
+        return object("$push", object("subscriptions", subscription));
+    }
+
+    static BasicDBObject pullSubscription(String subscriptionId) {
+        return object("$pull", object("subscriptions", forId(subscriptionId)));
+    }
+
+    static BasicDBObject checkWithSubscription(String checkId, String subscriptionId) {
+        return forId(checkId).with("subscriptions", object("$elemMatch", forId(subscriptionId)));
+    }
+
+    static BasicDBObject setSubscription(DBObject subscription) {
+        return object("$set", object("subscriptions.$", subscription));
+    }
+
+}
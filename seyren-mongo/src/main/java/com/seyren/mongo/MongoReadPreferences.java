@@ -0,0 +1,58 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.seyren.mongo;
+
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import com.mongodb.ReadPreference;
+import com.mongodb.TagSet;
+import com.seyren.core.store.ReadPurpose;
+import com.seyren.core.util.config.SeyrenConfig;
+
+/**
+ * Resolves the configured read preference for each {@link ReadPurpose}.
+ */
+final class MongoReadPreferences {
+
+    private MongoReadPreferences() {
+    }
+
+    static Map<ReadPurpose, ReadPreference> fromConfig(SeyrenConfig seyrenConfig) {
+        int maxStalenessSeconds = seyrenConfig.getMongoMaxStalenessSeconds();
+        Map<ReadPurpose, ReadPreference> readPreferences = new EnumMap<ReadPurpose, ReadPreference>(ReadPurpose.class);
+        readPreferences.put(ReadPurpose.EVALUATION, readPreference(seyrenConfig.getMongoEvaluationReadPreference(), maxStalenessSeconds));
+        readPreferences.put(ReadPurpose.LISTING, readPreference(seyrenConfig.getMongoListingReadPreference(), maxStalenessSeconds));
+        readPreferences.put(ReadPurpose.HISTORY, readPreference(seyrenConfig.getMongoHistoryReadPreference(), maxStalenessSeconds));
+        return readPreferences;
+    }
+
+    static Map<ReadPurpose, ReadPreference> primary() {
+        Map<ReadPurpose, ReadPreference> readPreferences = new EnumMap<ReadPurpose, ReadPreference>(ReadPurpose.class);
+        for (ReadPurpose purpose : ReadPurpose.values()) {
+            readPreferences.put(purpose, ReadPreference.primary());
+        }
+        return readPreferences;
+    }
+
+    private static ReadPreference readPreference(String name, int maxStalenessSeconds) {
+        if (maxStalenessSeconds > 0 && !ReadPreference.primary().getName().equalsIgnoreCase(name)) {
+            return ReadPreference.valueOf(name, Collections.<TagSet>emptyList(), maxStalenessSeconds, TimeUnit.SECONDS);
+        }
+        return ReadPreference.valueOf(name);
+    }
+
+}
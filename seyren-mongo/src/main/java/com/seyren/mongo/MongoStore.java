@@ -18,36 +18,52 @@ import static com.seyren.mongo.NiceDBObject.*;
 import java.util.*;
 import java.util.regex.Pattern;
 
+import javax.annotation.PreDestroy;
 import javax.inject.Inject;
 import javax.inject.Named;
 
-import com.google.common.base.Strings;
 import com.seyren.core.domain.*;
 import com.seyren.core.store.*;
-import org.apache.commons.lang.Validate;
+import org.bson.Document;
+import org.bson.conversions.Bson;
 import org.bson.types.ObjectId;
 import org.joda.time.DateTime;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import com.mongodb.BasicDBObject;
-import com.mongodb.Bytes;
 import com.mongodb.DB;
 import com.mongodb.DBCollection;
 import com.mongodb.DBCursor;
 import com.mongodb.DBObject;
 import com.mongodb.MongoClient;
 import com.mongodb.MongoClientURI;
-import com.mongodb.MongoCommandException;
+import com.mongodb.ErrorCategory;
 import com.mongodb.MongoException;
+import com.mongodb.MongoWriteException;
+import com.mongodb.ReadPreference;
 import com.mongodb.WriteConcern;
+import com.mongodb.client.MongoCollection;
+import com.mongodb.client.MongoDatabase;
+import com.mongodb.client.model.FindOneAndUpdateOptions;
+import com.mongodb.client.model.ReturnDocument;
 import com.seyren.core.util.config.SeyrenConfig;
-import com.seyren.core.util.hashing.TargetHash;
+import com.seyren.mongo.codec.DecimalStorage;
+import com.seyren.mongo.codec.SeyrenCodecProvider;
+import com.seyren.mongo.migration.AddTargetHashToAlertsMigration;
+import com.seyren.mongo.migration.ConvertDecimalStringsMigration;
+import com.seyren.mongo.migration.CreateIndicesMigration;
+import com.seyren.mongo.migration.CreateOutboxIndicesMigration;
+import com.seyren.mongo.migration.DropOldIndicesMigration;
+import com.seyren.mongo.migration.MongoMigration;
+import com.seyren.mongo.migration.MongoMigrator;
 import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Conditional;
 import org.springframework.security.crypto.password.PasswordEncoder;
 
 @Named
-public class MongoStore implements ChecksStore, AlertsStore, SubscriptionsStore, PermissionsStore, UserStore {
+@Conditional(MongoStoreCondition.class)
+public class MongoStore implements ChecksStore, AlertsStore, SubscriptionsStore, PermissionsStore, UserStore, NotificationOutboxStore {
 
     private static final Logger LOGGER = LoggerFactory.getLogger(MongoStore.class);
     private final String adminUsername;
@@ -55,8 +71,12 @@ public class MongoStore implements ChecksStore, AlertsStore, SubscriptionsStore,
     private final String serviceProvider;
     private PasswordEncoder passwordEncoder;
     private SeyrenConfig seyrenConfig;
+    private DecimalStorage decimalStorage = DecimalStorage.DECIMAL128;
     private MongoMapper mapper = new MongoMapper();
     private DB mongo;
+    private MongoDatabase database;
+    private MongoMigrator migrator;
+    private Map<ReadPurpose, ReadPreference> readPreferences;
 
     @Inject
     public MongoStore(PasswordEncoder passwordEncoder,
@@ -68,6 +88,8 @@ public class MongoStore implements ChecksStore, AlertsStore, SubscriptionsStore,
         this.adminPassword = adminPassword;
         this.serviceProvider = serviceProvider;
         this.seyrenConfig = seyrenConfig;
+        this.readPreferences = MongoReadPreferences.fromConfig(seyrenConfig);
+        LOGGER.info("Mongo read preferences: {}", readPreferences);
         try {
             String uri = seyrenConfig.getMongoUrl();
             MongoClientURI mongoClientUri = new MongoClientURI(uri);
@@ -75,6 +97,12 @@ public class MongoStore implements ChecksStore, AlertsStore, SubscriptionsStore,
             DB mongoDB = mongoClient.getDB(mongoClientUri.getDatabase());
             mongoDB.setWriteConcern(WriteConcern.ACKNOWLEDGED);
             this.mongo = mongoDB;
+            MongoDatabase database = mongoClient.getDatabase(mongoClientUri.getDatabase());
+            this.decimalStorage = DecimalStorage.forServer(database.runCommand(new Document("buildInfo", 1)));
+            this.mapper = new MongoMapper(decimalStorage);
+            this.database = database
+                    .withCodecRegistry(SeyrenCodecProvider.codecRegistry(decimalStorage))
+                    .withWriteConcern(WriteConcern.ACKNOWLEDGED);
             bootstrapMongo();
         } catch (Exception e) {
             throw new RuntimeException(e);
@@ -84,30 +112,42 @@ public class MongoStore implements ChecksStore, AlertsStore, SubscriptionsStore,
     /**
      * Constructor used for TDD
      * @param mongo The mocked Mongo DB
+     * @param database The mocked Mongo database used for checks and alerts
      * @param seyrenConfig The mocked Seyren config
      */
-    protected MongoStore(DB mongo, SeyrenConfig seyrenConfig) {
+    protected MongoStore(DB mongo, MongoDatabase database, SeyrenConfig seyrenConfig) {
         this.seyrenConfig = seyrenConfig;
         this.adminUsername = null;
         this.adminPassword = null;
         this.serviceProvider = null;
         this.mongo = mongo;
+        this.database = database;
+        this.readPreferences = MongoReadPreferences.primary();
     }
 
     private void bootstrapMongo() {
-        LOGGER.info("Bootstrapping Mongo indexes. Depending on the number of checks and alerts you've got it may take a little while.");
         try {
-            createIndices();
-            removeOldIndices();
-            addTargetHashToAlerts();
             createAdminUser();
         } catch (MongoException e) {
-            LOGGER.error("Failure while bootstrapping Mongo indexes.\n"
-                    + "If you've hit this problem it's possible that you have two checks which are named the same and violate an index which we've tried to add.\n"
-                    + "Please correct the problem by removing the clash. If it's something else, please let us know on Github!", e);
-            throw new RuntimeException("Failed to bootstrap Mongo indexes. Please refer to the logs for more information.", e);
+            LOGGER.error("Failure while bootstrapping Mongo.", e);
+            throw new RuntimeException("Failed to bootstrap Mongo. Please refer to the logs for more information.", e);
+        }
+        LOGGER.info("Applying any outstanding Mongo migrations in the background.");
+        migrator = new MongoMigrator(mongo, Arrays.<MongoMigration>asList(
+                new CreateIndicesMigration(),
+                new DropOldIndicesMigration(),
+                new AddTargetHashToAlertsMigration(),
+                new ConvertDecimalStringsMigration(4, "checks", decimalStorage, "warn", "error", "absoluteDiff"),
+                new ConvertDecimalStringsMigration(5, "alerts", decimalStorage, "value", "warn", "error", "absoluteDiff"),
+                new CreateOutboxIndicesMigration()));
+        migrator.start();
+    }
+
+    @PreDestroy
+    public void preDestroy() {
+        if (migrator != null) {
+            migrator.stop();
         }
-        LOGGER.info("Done bootstrapping Mongo indexes.");
     }
 
     private void createAdminUser() {
@@ -120,47 +160,24 @@ public class MongoStore implements ChecksStore, AlertsStore, SubscriptionsStore,
         }
     }
 
-    private void createIndices() {
-        LOGGER.info("Ensuring that we have all the indices we need");
-        getChecksCollection().createIndex(new BasicDBObject("name", 1), new BasicDBObject("unique", true));
-        getChecksCollection().createIndex(new BasicDBObject("enabled", 1).append("live", 1));
-        getAlertsCollection().createIndex(new BasicDBObject("timestamp", -1));
-        getAlertsCollection().createIndex(new BasicDBObject("checkId", 1).append("targetHash", 1));
+    private DBCollection getChecksCollection() {
+        return mongo.getCollection("checks");
     }
 
-    private void removeOldIndices() {
-        LOGGER.info("Dropping old indices");
-        try {
-            getAlertsCollection().dropIndex(new BasicDBObject("checkId", 1).append("target", 1));
-        } catch (MongoCommandException e) {
-            if (e.getCode() != 27) {
-                // 27 is the code which appears when the index doesn't exist (which we're happy with, anything else is bad news)
-                throw e;
-            }
-        }
+    private DBCollection getAlertsCollection() {
+        return mongo.getCollection("alerts");
     }
 
-    private void addTargetHashToAlerts() {
-        LOGGER.info("Adding targetHash field to any alerts which don't have it");
-        DBCursor alerts = getAlertsCollection().find(new BasicDBObject("targetHash", new BasicDBObject("$exists", false)));
-        alerts.addOption(Bytes.QUERYOPTION_NOTIMEOUT);
-        int alertCount = alerts.count();
-        if (alertCount > 0) {
-            LOGGER.info("Found {} alert(s) which need updating", alertCount);
-        }
-        while (alerts.hasNext()) {
-            DBObject alertObject = alerts.next();
-            Alert alert = mapper.alertFrom(alertObject);
-            getAlertsCollection().save(mapper.alertToDBObject(alert));
-        }
+    private MongoCollection<Check> getCheckDocuments(ReadPurpose purpose) {
+        return database.getCollection("checks", Check.class).withReadPreference(readPreferences.get(purpose));
     }
 
-    private DBCollection getChecksCollection() {
-        return mongo.getCollection("checks");
+    private MongoCollection<Alert> getAlertDocuments(ReadPurpose purpose) {
+        return database.getCollection("alerts", Alert.class).withReadPreference(readPreferences.get(purpose));
     }
 
-    private DBCollection getAlertsCollection() {
-        return mongo.getCollection("alerts");
+    private MongoCollection<PendingNotification> getOutboxDocuments() {
+        return database.getCollection("outbox", PendingNotification.class);
     }
 
     private DBCollection getPermissionsCollection() {
@@ -172,92 +189,73 @@ public class MongoStore implements ChecksStore, AlertsStore, SubscriptionsStore,
     }
 
     protected SeyrenResponse executeQueryAndCollectResponse(DBObject query) {
-        List<Check> checks = new ArrayList<Check>();
-        DBCursor dbc = getChecksCollection().find(query);
-        while (dbc.hasNext()) {
-            checks.add(mapper.checkFrom(dbc.next()));
-        }
-        dbc.close();
+        Bson filter = toBson(query);
+        MongoCollection<Check> collection = getCheckDocuments(ReadPurpose.LISTING);
+        List<Check> checks = collection.find(filter).into(new ArrayList<Check>());
 
         return new SeyrenResponse<Check>()
                 .withValues(checks)
-                .withTotal(dbc.count());
+                .withTotal((int) collection.count(filter));
     }
 
     @Override
     public SeyrenResponse<Check> getChecks(Boolean enabled, Boolean live) {
+        return getChecks(enabled, live, ReadPurpose.EVALUATION);
+    }
+
+    @Override
+    public SeyrenResponse<Check> getChecks(Boolean enabled, Boolean live, ReadPurpose purpose) {
+        MongoCollection<Check> collection = getCheckDocuments(purpose);
         List<Check> checks = new ArrayList<Check>();
-        DBObject query = new BasicDBObject();
-        if (enabled != null) {
-            query.put("enabled", enabled);
-        }
-        if (live != null) {
-            query.put("live", live);
-        }
-        DBCursor dbc = getChecksCollection().find(query);
-        while (dbc.hasNext()) {
-            try
-            {
-                checks.add(mapper.checkFrom(dbc.next()));
-            }
-            catch (Exception e)
-            {
-                LOGGER.error("Exception while mapping check ",e);
+        BasicDBObject query = MongoQueries.checks(enabled, live);
+        try {
+            collection.find(query).into(checks);
+        } catch (Exception e) {
+            // Decode failures abort the whole batch, so fall back to mapping one check at a time
+            LOGGER.error("Exception while decoding checks, mapping them individually", e);
+            checks.clear();
+            DBCursor dbc = getChecksCollection().find(query).setReadPreference(readPreferences.get(purpose));
+            while (dbc.hasNext()) {
+                try
+                {
+                    checks.add(mapper.checkFrom(dbc.next()));
+                }
+                catch (Exception me)
+                {
+                    LOGGER.error("Exception while mapping check ", me);
+                }
             }
+            dbc.close();
         }
         return new SeyrenResponse<Check>()
                 .withValues(checks)
-                .withTotal(dbc.count());
+                .withTotal((int) collection.count(query));
     }
 
     @Override
     public SeyrenResponse<Check> getChecksByState(Set<String> states, Boolean enabled) {
-        List<Check> checks = new ArrayList<Check>();
-
-        DBObject query = new BasicDBObject();
-        query.put("state", object("$in", states.toArray()));
-        if (enabled != null) {
-            query.put("enabled", enabled);
-        }
-        DBCursor dbc = getChecksCollection().find(query);
-
-        while (dbc.hasNext()) {
-            checks.add(mapper.checkFrom(dbc.next()));
-        }
-        dbc.close();
+        BasicDBObject query = MongoQueries.checksByState(states, enabled);
+        MongoCollection<Check> collection = getCheckDocuments(ReadPurpose.LISTING);
+        List<Check> checks = collection.find(query).into(new ArrayList<Check>());
 
         return new SeyrenResponse<Check>()
                 .withValues(checks)
-                .withTotal(dbc.count());
+                .withTotal((int) collection.count(query));
     }
 
     @Override
     public SeyrenResponse getChecksByPattern(List<String> checkFields, List<Pattern> patterns, Boolean enabled) {
-        Validate.notNull(checkFields, "Fields may not be null.");
-        Validate.notNull(patterns, "Patterns may not be null.");
-        Validate.notEmpty(checkFields, "Fields may not be empty");
-        Validate.notEmpty(patterns, "Patterns may not be empty");
-        Validate.isTrue(checkFields.size() == patterns.size(), String.format("Fields[%s] have same number of elements as patterns[%s].  " +
-                "fieldsSize[%d] != fieldsSize[%d]", checkFields, patterns, checkFields.size(), patterns.size()));
-
-        DBObject query = new BasicDBObject();
-        for (int i = 0; i < checkFields.size(); i++) {
-            query.put(checkFields.get(i), patterns.get(i));
-        }
-        if (enabled != null) {
-            query.put("enabled", enabled);
-        }
-
-        return executeQueryAndCollectResponse(query);
+        return executeQueryAndCollectResponse(MongoQueries.checksByPattern(checkFields, patterns, enabled));
     }
 
     @Override
     public Check getCheck(String checkId) {
-        DBObject dbo = getChecksCollection().findOne(object("_id", checkId));
-        if (dbo == null) {
-            return null;
-        }
-        return mapper.checkFrom(dbo);
+        return getCheck(checkId, ReadPurpose.EVALUATION);
+    }
+
+    @Override
+    public Check getCheck(String checkId, ReadPurpose purpose) {
+        return getCheckDocuments(purpose).find(forId(checkId)).first();
     }
 
     @Override
@@ -269,72 +267,19 @@ public class MongoStore implements ChecksStore, AlertsStore, SubscriptionsStore,
     @Override
     public Check createCheck(Check check) {
         check.setId(ObjectId.get().toString());
-        getChecksCollection().insert(mapper.checkToDBObject(check));
+        getCheckDocuments(ReadPurpose.EVALUATION).insertOne(check);
         return check;
     }
 
     @Override
     public Check saveCheck(Check check) {
-        DBObject findObject = forId(check.getId());
-
-        DateTime lastCheck = check.getLastCheck();
-
-        DBObject partialObject = object("name", check.getName())
-                .with("description", check.getDescription())
-                .with("target", check.getTarget())
-                .with("graphiteBaseUrl", check.getGraphiteBaseUrl())
-                .with("from", Strings.emptyToNull(check.getFrom()))
-                .with("until", Strings.emptyToNull(check.getUntil()))
-                .with("enabled", check.isEnabled())
-                .with("live", check.isLive())
-                .with("allowNoData", check.isAllowNoData())
-                .with("lastCheck", lastCheck == null ? null : new Date(lastCheck.getMillis()))
-                .with("state", check.getState().toString())
-                .with("enableConsecutiveChecks", check.isEnableConsecutiveChecks())
-                .with("consecutiveChecks", check.getConsecutiveChecks())
-                .with("consecutiveChecksTolerance", check.getConsecutiveChecksTolerance());
-
-
-        if(check instanceof ThresholdCheck)
-        {
-            ThresholdCheck thresholdCheck = (ThresholdCheck)check;
-
-            partialObject = ((NiceDBObject)partialObject)
-                    .with("checkType","threshold")
-                    .with("warn", thresholdCheck.getWarn().toPlainString())
-                    .with("error", thresholdCheck.getError().toPlainString());
-        }
-        else
-        {
-            OutlierCheck outlierCheck = (OutlierCheck)check;
-            partialObject = ((NiceDBObject)partialObject)
-                    .with("checkType","outlier")
-                    .with("absoluteDiff", outlierCheck.getAbsoluteDiff().toPlainString())
-                    .with("relativeDiff", outlierCheck.getRelativeDiff())
-                    .with("minConsecutiveViolations",outlierCheck.getMinConsecutiveViolations())
-                    .with("asgName",outlierCheck.getAsgName());
-
-        }
-
-
-        DBObject setObject = object("$set", partialObject);
-
-        getChecksCollection().update(findObject, setObject);
-
+        getChecksCollection().update(forId(check.getId()), MongoQueries.saveCheck(check, decimalStorage));
         return check;
     }
 
     @Override
     public Check updateStateAndLastCheck(String checkId, AlertType state, DateTime lastCheck) {
-        DBObject findObject = forId(checkId);
-
-        DBObject partialObject = object("lastCheck", new Date(lastCheck.getMillis()))
-                .with("state", state.toString());
-
-        DBObject setObject = object("$set", partialObject);
-
-        getChecksCollection().update(findObject, setObject);
-
+        getChecksCollection().update(forId(checkId), MongoQueries.updateStateAndLastCheck(state, lastCheck));
         return getCheck(checkId);
     }
 
@@ -342,88 +287,67 @@ public class MongoStore implements ChecksStore, AlertsStore, SubscriptionsStore,
     public Alert createAlert(String checkId, Alert alert) {
         alert.setId(ObjectId.get().toString());
         alert.setCheckId(checkId);
-        getAlertsCollection().insert(mapper.alertToDBObject(alert));
+        getAlertDocuments(ReadPurpose.EVALUATION).insertOne(alert);
         return alert;
     }
 
     @Override
     public SeyrenResponse<Alert> getAlerts(String checkId, int start, int items) {
-        DBCursor dbc = getAlertsCollection().find(object("checkId", checkId)).sort(object("timestamp", -1)).skip(start).limit(items);
-        List<Alert> alerts = new ArrayList<Alert>();
-        while (dbc.hasNext()) {
-            alerts.add(mapper.alertFrom(dbc.next()));
-        }
-        dbc.close();
+        return getAlerts(checkId, start, items, ReadPurpose.EVALUATION);
+    }
+
+    @Override
+    public SeyrenResponse<Alert> getAlerts(String checkId, int start, int items, ReadPurpose purpose) {
+        Bson query = object("checkId", checkId);
+        MongoCollection<Alert> collection = getAlertDocuments(purpose);
+        List<Alert> alerts = collection.find(query).sort(MongoQueries.newestFirst()).skip(start).limit(items)
+                .into(new ArrayList<Alert>());
         return new SeyrenResponse<Alert>()
                 .withValues(alerts)
                 .withItems(items)
                 .withStart(start)
-                .withTotal(dbc.count());
+                .withTotal((int) collection.count(query));
     }
 
     @Override
     public SeyrenResponse<Alert> getAlerts(int start, int items) {
-        DBCursor dbc = getAlertsCollection().find().sort(object("timestamp", -1)).skip(start).limit(items);
-        List<Alert> alerts = new ArrayList<Alert>();
-        while (dbc.hasNext()) {
-            alerts.add(mapper.alertFrom(dbc.next()));
-        }
-        dbc.close();
+        MongoCollection<Alert> collection = getAlertDocuments(ReadPurpose.HISTORY);
+        List<Alert> alerts = collection.find().sort(MongoQueries.newestFirst()).skip(start).limit(items)
+                .into(new ArrayList<Alert>());
         return new SeyrenResponse<Alert>()
                 .withValues(alerts)
                 .withItems(items)
                 .withStart(start)
-                .withTotal(dbc.count());
+                .withTotal((int) collection.count());
     }
 
     @Override
     public void deleteAlerts(String checkId, DateTime before) {
-        DBObject query = object("checkId", checkId);
-
-        if (before != null) {
-            query.put("timestamp", object("$lt", new Date(before.getMillis())));
-        }
-
-        getAlertsCollection().remove(query);
+        getAlertsCollection().remove(MongoQueries.alerts(checkId, before));
     }
 
     @Override
     public Alert getLastAlertForTargetOfCheck(String target, String checkId) {
-        DBObject query = object("checkId", checkId).with("targetHash", TargetHash.create(target));
-        DBCursor cursor = getAlertsCollection().find(query).sort(object("timestamp", -1)).limit(1);
-        try {
-            while (cursor.hasNext()) {
-                return mapper.alertFrom(cursor.next());
-            }
-        } finally {
-            cursor.close();
-        }
-        return null;
+        return getAlertDocuments(ReadPurpose.EVALUATION).find(MongoQueries.lastAlert(target, checkId))
+                .sort(MongoQueries.newestFirst()).limit(1).first();
     }
 
     @Override
     public Subscription createSubscription(String checkId, Subscription subscription) {
         subscription.setId(ObjectId.get().toString());
-        DBObject check = forId(checkId);
-        DBObject query = object("$push", object("subscriptions", mapper.subscriptionToDBObject(subscription)));
-        getChecksCollection().update(check, query);
+        getChecksCollection().update(forId(checkId), MongoQueries.pushSubscription(mapper.subscriptionToDBObject(subscription)));
         return subscription;
     }
 
     @Override
     public void deleteSubscription(String checkId, String subscriptionId) {
-        DBObject check = forId(checkId);
-        BasicDBObject subscription = object("$pull", object("subscriptions", forId(subscriptionId)));
-        getChecksCollection().update(check, subscription);
+        getChecksCollection().update(forId(checkId), MongoQueries.pullSubscription(subscriptionId));
     }
 
     @Override
     public void updateSubscription(String checkId, Subscription subscription) {
-        DBObject subscriptionObject = mapper.subscriptionToDBObject(subscription);
-        DBObject subscriptionFindObject = forId(subscription.getId());
-        DBObject checkFindObject = forId(checkId).with("subscriptions", object("$elemMatch", subscriptionFindObject));
-        DBObject updateObject = object("$set", object("subscriptions.$", subscriptionObject));
-        getChecksCollection().update(checkFindObject, updateObject);
+        getChecksCollection().update(MongoQueries.checkWithSubscription(checkId, subscription.getId()),
+                MongoQueries.setSubscription(mapper.subscriptionToDBObject(subscription)));
     }
 
     @Override
@@ -483,17 +407,57 @@ public class MongoStore implements ChecksStore, AlertsStore, SubscriptionsStore,
 
     @Override
     public Check updateConsecutiveChecksTriggered(String checkId, Boolean consecutiveChecksTriggered) {
-        DBObject findObject = forId(checkId);
+        getChecksCollection().update(forId(checkId), MongoQueries.updateConsecutiveChecksTriggered(consecutiveChecksTriggered));
+        return getCheck(checkId);
+    }
 
-        DBObject partialObject = object("consecutiveChecksTriggered", consecutiveChecksTriggered);
+    @Override
+    public boolean createPendingNotification(PendingNotification notification) {
+        notification.setId(ObjectId.get().toString());
+        try {
+            getOutboxDocuments().insertOne(notification);
+            return true;
+        } catch (MongoWriteException e) {
+            if (e.getError().getCategory() == ErrorCategory.DUPLICATE_KEY) {
+                return false;
+            }
+            throw e;
+        }
+    }
 
-        DBObject setObject = object("$set", partialObject);
+    @Override
+    public List<PendingNotification> claimPendingNotifications(String owner, int limit, DateTime now, DateTime leaseExpiry) {
+        Bson query = object("due", object("$lte", now.toDate()));
+        Bson lease = object("$set", object("due", leaseExpiry.toDate()).with("owner", owner));
+        FindOneAndUpdateOptions options = new FindOneAndUpdateOptions()
+                .sort(object("due", 1))
+                .returnDocument(ReturnDocument.AFTER);
+        // One at a time, so that each notification is leased to a single node
+        List<PendingNotification> claimed = new ArrayList<PendingNotification>();
+        while (claimed.size() < limit) {
+            PendingNotification notification = getOutboxDocuments().findOneAndUpdate(query, lease, options);
+            if (notification == null) {
+                break;
+            }
+            claimed.add(notification);
+        }
+        return claimed;
+    }
 
-        getChecksCollection().update(findObject, setObject);
+    @Override
+    public void reschedulePendingNotification(String id, int attempts, DateTime due, List<Alert> alerts) {
+        getOutboxDocuments().updateOne(forId(id), object("$set", object("attempts", attempts).with("due", due.toDate()).with("alerts", alerts))
+                .with("$unset", object("owner", "")));
+    }
 
-        return getCheck(checkId);
+    @Override
+    public void deletePendingNotification(String id) {
+        getOutboxDocuments().deleteOne(forId(id));
     }
 
+    private static Bson toBson(DBObject query) {
+        return query instanceof Bson ? (Bson) query : new BasicDBObject(query.toMap());
+    }
 
     /**
      * Set the configuartion - mainly for purposes of TDD
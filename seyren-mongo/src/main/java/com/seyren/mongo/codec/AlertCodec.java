@@ -0,0 +1,163 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.seyren.mongo.codec;
+
+import static com.seyren.mongo.codec.BsonValues.*;
+
+import java.math.BigDecimal;
+
+import org.bson.BsonReader;
+import org.bson.BsonType;
+import org.bson.BsonWriter;
+import org.bson.codecs.Codec;
+import org.bson.codecs.DecoderContext;
+import org.bson.codecs.EncoderContext;
+import org.joda.time.DateTime;
+
+import com.seyren.core.domain.Alert;
+import com.seyren.core.domain.AlertType;
+import com.seyren.core.domain.OutlierAlert;
+import com.seyren.core.domain.ThresholdAlert;
+
+/**
+ * Decodes alerts straight from the BSON stream, without building an
+ * intermediate DBObject. Values are written as the {@link DecimalStorage}
+ * says; double and string values left behind by older versions are still
+ * understood.
+ */
+public class AlertCodec implements Codec<Alert> {
+
+    private final DecimalStorage decimalStorage;
+
+    public AlertCodec() {
+        this(DecimalStorage.DECIMAL128);
+    }
+
+    public AlertCodec(DecimalStorage decimalStorage) {
+        this.decimalStorage = decimalStorage;
+    }
+
+    @Override
+    public Alert decode(BsonReader reader, DecoderContext decoderContext) {
+        String id = null, checkId = null, target = null, alertType = null;
+        BigDecimal value = null, warn = null, error = null, absoluteDiff = null;
+        Double relativeDiff = null;
+        Integer consecutiveAlertCount = null;
+        AlertType fromType = null, toType = null;
+        DateTime timestamp = null;
+
+        reader.readStartDocument();
+        while (reader.readBsonType() != BsonType.END_OF_DOCUMENT) {
+            String field = reader.readName();
+            switch (field) {
+                case "_id":
+                    id = readId(reader);
+                    break;
+                case "checkId":
+                    checkId = readString(reader);
+                    break;
+                case "value":
+                    value = readBigDecimal(reader);
+                    break;
+                case "target":
+                    target = readString(reader);
+                    break;
+                case "fromType":
+                    fromType = readAlertType(reader);
+                    break;
+                case "toType":
+                    toType = readAlertType(reader);
+                    break;
+                case "timestamp":
+                    timestamp = readDateTime(reader);
+                    break;
+                case "alertType":
+                    alertType = readString(reader);
+                    break;
+                case "warn":
+                    warn = readBigDecimal(reader);
+                    break;
+                case "error":
+                    error = readBigDecimal(reader);
+                    break;
+                case "absoluteDiff":
+                    absoluteDiff = readBigDecimal(reader);
+                    break;
+                case "relativeDiff":
+                    relativeDiff = readDouble(reader);
+                    break;
+                case "consecutiveAlertCount":
+                    consecutiveAlertCount = readInteger(reader);
+                    break;
+                default:
+                    reader.skipValue();
+            }
+        }
+        reader.readEndDocument();
+
+        Alert alert;
+        if (alertType == null || alertType.equalsIgnoreCase("threshold")) {
+            alert = new ThresholdAlert()
+                    .withWarn(warn)
+                    .withError(error);
+        } else {
+            alert = new OutlierAlert()
+                    .withAbsoluteDiff(absoluteDiff)
+                    .withRelativeDiff(relativeDiff)
+                    .withConsecutiveAlertCount(consecutiveAlertCount);
+        }
+
+        return alert.withId(id)
+                .withCheckId(checkId)
+                .withValue(value)
+                .withTarget(target)
+                .withFromType(fromType)
+                .withToType(toType)
+                .withTimestamp(timestamp);
+    }
+
+    @Override
+    public void encode(BsonWriter writer, Alert alert, EncoderContext encoderContext) {
+        writer.writeStartDocument();
+        writeString(writer, "_id", alert.getId());
+        writeString(writer, "checkId", alert.getCheckId());
+        writeString(writer, "target", alert.getTarget());
+        writeString(writer, "targetHash", alert.getTargetHash());
+        decimalStorage.write(writer, "value", alert.getValue());
+
+        if (alert instanceof ThresholdAlert) {
+            ThresholdAlert thresholdAlert = (ThresholdAlert) alert;
+            writer.writeString("alertType", "threshold");
+            decimalStorage.write(writer, "warn", thresholdAlert.getWarn());
+            decimalStorage.write(writer, "error", thresholdAlert.getError());
+        } else if (alert instanceof OutlierAlert) {
+            OutlierAlert outlierAlert = (OutlierAlert) alert;
+            writer.writeString("alertType", "outlier");
+            decimalStorage.write(writer, "absoluteDiff", outlierAlert.getAbsoluteDiff());
+            writeDouble(writer, "relativeDiff", outlierAlert.getRelativeDiff());
+            writeInteger(writer, "consecutiveAlertCount", outlierAlert.getConsecutiveAlertCount());
+        }
+
+        writeAlertType(writer, "fromType", alert.getFromType());
+        writeAlertType(writer, "toType", alert.getToType());
+        writeDateTime(writer, "timestamp", alert.getTimestamp());
+        writer.writeEndDocument();
+    }
+
+    @Override
+    public Class<Alert> getEncoderClass() {
+        return Alert.class;
+    }
+
+}
@@ -0,0 +1,192 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.seyren.mongo.codec;
+
+import java.math.BigDecimal;
+
+import org.bson.BsonReader;
+import org.bson.BsonWriter;
+import org.joda.time.DateTime;
+
+import com.seyren.core.domain.AlertType;
+
+/**
+ * Lenient readers for the current value of a {@link BsonReader}.
+ *
+ * Documents written by older versions of Seyren store numbers as strings, so
+ * every numeric reader accepts strings as well as the native BSON types.
+ */
+final class BsonValues {
+
+    private BsonValues() {
+    }
+
+    static String readId(BsonReader reader) {
+        switch (reader.getCurrentBsonType()) {
+            case OBJECT_ID:
+                return reader.readObjectId().toHexString();
+            case STRING:
+                return reader.readString();
+            case NULL:
+                reader.readNull();
+                return null;
+            default:
+                reader.skipValue();
+                return null;
+        }
+    }
+
+    static String readString(BsonReader reader) {
+        switch (reader.getCurrentBsonType()) {
+            case STRING:
+                return reader.readString();
+            case NULL:
+                reader.readNull();
+                return null;
+            default:
+                reader.skipValue();
+                return null;
+        }
+    }
+
+    static BigDecimal readBigDecimal(BsonReader reader) {
+        switch (reader.getCurrentBsonType()) {
+            case DECIMAL128:
+                return reader.readDecimal128().bigDecimalValue();
+            case DOUBLE:
+                return BigDecimal.valueOf(reader.readDouble());
+            case INT32:
+                return BigDecimal.valueOf(reader.readInt32());
+            case INT64:
+                return BigDecimal.valueOf(reader.readInt64());
+            case STRING:
+                return new BigDecimal(reader.readString());
+            case NULL:
+                reader.readNull();
+                return null;
+            default:
+                reader.skipValue();
+                return null;
+        }
+    }
+
+    static Double readDouble(BsonReader reader) {
+        switch (reader.getCurrentBsonType()) {
+            case DOUBLE:
+                return reader.readDouble();
+            case INT32:
+                return (double) reader.readInt32();
+            case INT64:
+                return (double) reader.readInt64();
+            case STRING:
+                return Double.valueOf(reader.readString());
+            case NULL:
+                reader.readNull();
+                return null;
+            default:
+                reader.skipValue();
+                return null;
+        }
+    }
+
+    static Integer readInteger(BsonReader reader) {
+        switch (reader.getCurrentBsonType()) {
+            case INT32:
+                return reader.readInt32();
+            case INT64:
+                return (int) reader.readInt64();
+            case DOUBLE:
+                return (int) reader.readDouble();
+            case NULL:
+                reader.readNull();
+                return null;
+            default:
+                reader.skipValue();
+                return null;
+        }
+    }
+
+    static Boolean readBoolean(BsonReader reader) {
+        switch (reader.getCurrentBsonType()) {
+            case BOOLEAN:
+                return reader.readBoolean();
+            case NULL:
+                reader.readNull();
+                return null;
+            default:
+                reader.skipValue();
+                return null;
+        }
+    }
+
+    static boolean readBoolean(BsonReader reader, boolean defaultValue) {
+        Boolean value = readBoolean(reader);
+        return value == null ? defaultValue : value;
+    }
+
+    static DateTime readDateTime(BsonReader reader) {
+        switch (reader.getCurrentBsonType()) {
+            case DATE_TIME:
+                return new DateTime(reader.readDateTime());
+            case NULL:
+                reader.readNull();
+                return null;
+            default:
+                reader.skipValue();
+                return null;
+        }
+    }
+
+    static AlertType readAlertType(BsonReader reader) {
+        String value = readString(reader);
+        return value == null ? null : AlertType.valueOf(value);
+    }
+
+    static void writeString(BsonWriter writer, String name, String value) {
+        if (value != null) {
+            writer.writeString(name, value);
+        }
+    }
+
+    static void writeDouble(BsonWriter writer, String name, Double value) {
+        if (value != null) {
+            writer.writeDouble(name, value);
+        }
+    }
+
+    static void writeAlertType(BsonWriter writer, String name, AlertType value) {
+        if (value != null) {
+            writer.writeString(name, value.toString());
+        }
+    }
+
+    static void writeInteger(BsonWriter writer, String name, Integer value) {
+        if (value != null) {
+            writer.writeInt32(name, value);
+        }
+    }
+
+    static void writeBoolean(BsonWriter writer, String name, Boolean value) {
+        if (value != null) {
+            writer.writeBoolean(name, value);
+        }
+    }
+
+    static void writeDateTime(BsonWriter writer, String name, DateTime value) {
+        if (value != null) {
+            writer.writeDateTime(name, value.getMillis());
+        }
+    }
+
+}
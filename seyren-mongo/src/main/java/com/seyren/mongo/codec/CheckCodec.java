@@ -0,0 +1,248 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.seyren.mongo.codec;
+
+import static com.seyren.mongo.codec.BsonValues.*;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.bson.BsonReader;
+import org.bson.BsonType;
+import org.bson.BsonWriter;
+import org.bson.codecs.Codec;
+import org.bson.codecs.DecoderContext;
+import org.bson.codecs.EncoderContext;
+import org.joda.time.DateTime;
+
+import com.google.common.base.Strings;
+import com.seyren.core.domain.AlertType;
+import com.seyren.core.domain.Check;
+import com.seyren.core.domain.OutlierCheck;
+import com.seyren.core.domain.Subscription;
+import com.seyren.core.domain.ThresholdCheck;
+
+/**
+ * Decodes checks straight from the BSON stream, without building an
+ * intermediate DBObject. Thresholds are written as the {@link DecimalStorage}
+ * says; double and string values left behind by older versions are still
+ * understood.
+ */
+public class CheckCodec implements Codec<Check> {
+
+    private final SubscriptionCodec subscriptionCodec = new SubscriptionCodec();
+    private final DecimalStorage decimalStorage;
+
+    public CheckCodec() {
+        this(DecimalStorage.DECIMAL128);
+    }
+
+    public CheckCodec(DecimalStorage decimalStorage) {
+        this.decimalStorage = decimalStorage;
+    }
+
+    @Override
+    public Check decode(BsonReader reader, DecoderContext decoderContext) {
+        String id = null, name = null, description = null, graphiteBaseUrl = null, target = null, from = null, until = null;
+        boolean enabled = false, live = false, allowNoData = false;
+        AlertType state = null;
+        DateTime lastCheck = null;
+        List<Subscription> subscriptions = new ArrayList<Subscription>();
+        Boolean enableConsecutiveChecks = null, consecutiveChecksTriggered = null;
+        Integer consecutiveChecks = null, consecutiveChecksTolerance = null;
+        String checkType = null;
+        BigDecimal warn = null, error = null, absoluteDiff = null;
+        Double relativeDiff = null;
+        Integer minConsecutiveViolations = null;
+        String asgName = null;
+        String algorithm = null;
+
+        reader.readStartDocument();
+        while (reader.readBsonType() != BsonType.END_OF_DOCUMENT) {
+            String field = reader.readName();
+            switch (field) {
+                case "_id":
+                    id = readId(reader);
+                    break;
+                case "name":
+                    name = readString(reader);
+                    break;
+                case "description":
+                    description = readString(reader);
+                    break;
+                case "graphiteBaseUrl":
+                    graphiteBaseUrl = readString(reader);
+                    break;
+                case "target":
+                    target = readString(reader);
+                    break;
+                case "from":
+                    from = Strings.emptyToNull(readString(reader));
+                    break;
+                case "until":
+                    until = Strings.emptyToNull(readString(reader));
+                    break;
+                case "enabled":
+                    enabled = readBoolean(reader, false);
+                    break;
+                case "live":
+                    live = readBoolean(reader, false);
+                    break;
+                case "allowNoData":
+                    allowNoData = readBoolean(reader, false);
+                    break;
+                case "state":
+                    state = readAlertType(reader);
+                    break;
+                case "lastCheck":
+                    lastCheck = readDateTime(reader);
+                    break;
+                case "subscriptions":
+                    if (reader.getCurrentBsonType() == BsonType.ARRAY) {
+                        reader.readStartArray();
+                        while (reader.readBsonType() != BsonType.END_OF_DOCUMENT) {
+                            subscriptions.add(subscriptionCodec.decode(reader, decoderContext));
+                        }
+                        reader.readEndArray();
+                    } else {
+                        reader.skipValue();
+                    }
+                    break;
+                case "enableConsecutiveChecks":
+                    enableConsecutiveChecks = readBoolean(reader);
+                    break;
+                case "consecutiveChecks":
+                    consecutiveChecks = readInteger(reader);
+                    break;
+                case "consecutiveChecksTolerance":
+                    consecutiveChecksTolerance = readInteger(reader);
+                    break;
+                case "consecutiveChecksTriggered":
+                    consecutiveChecksTriggered = readBoolean(reader);
+                    break;
+                case "checkType":
+                    checkType = readString(reader);
+                    break;
+                case "warn":
+                    warn = readBigDecimal(reader);
+                    break;
+                case "error":
+                    error = readBigDecimal(reader);
+                    break;
+                case "absoluteDiff":
+                    absoluteDiff = readBigDecimal(reader);
+                    break;
+                case "relativeDiff":
+                    relativeDiff = readDouble(reader);
+                    break;
+                case "minConsecutiveViolations":
+                    minConsecutiveViolations = readInteger(reader);
+                    break;
+                case "asgName":
+                    asgName = readString(reader);
+                    break;
+                case "algorithm":
+                    algorithm = readString(reader);
+                    break;
+                default:
+                    reader.skipValue();
+            }
+        }
+        reader.readEndDocument();
+
+        Check check;
+        if (checkType == null || checkType.equalsIgnoreCase("threshold")) {
+            check = new ThresholdCheck()
+                    .withWarn(warn)
+                    .withError(error);
+        } else {
+            check = new OutlierCheck()
+                    .withAbsoluteDiff(absoluteDiff)
+                    .withRelativeDiff(relativeDiff)
+                    .withMinConsecutiveViolations(minConsecutiveViolations)
+                    .withAsgName(asgName);
+            ((OutlierCheck) check).setAlgorithm(algorithm);
+        }
+
+        return check.withId(id)
+                .withName(name)
+                .withDescription(description)
+                .withTarget(target)
+                .withGraphiteBaseUrl(graphiteBaseUrl)
+                .withFrom(from)
+                .withUntil(until)
+                .withEnabled(enabled)
+                .withLive(live)
+                .withAllowNoData(allowNoData)
+                .withState(state)
+                .withLastCheck(lastCheck)
+                .withSubscriptions(subscriptions)
+                .withEnableConsecutiveChecks(enableConsecutiveChecks)
+                .withConsecutiveChecks(consecutiveChecks)
+                .withConsecutiveChecksTolerance(consecutiveChecksTolerance)
+                .withConsecutiveChecksTriggered(consecutiveChecksTriggered);
+    }
+
+    @Override
+    public void encode(BsonWriter writer, Check check, EncoderContext encoderContext) {
+        writer.writeStartDocument();
+        writeString(writer, "_id", check.getId());
+        writeString(writer, "name", check.getName());
+        writeString(writer, "description", check.getDescription());
+        writeString(writer, "graphiteBaseUrl", check.getGraphiteBaseUrl());
+        writeString(writer, "target", check.getTarget());
+        writeString(writer, "from", check.getFrom());
+        writeString(writer, "until", check.getUntil());
+
+        if (check instanceof ThresholdCheck) {
+            ThresholdCheck thresholdCheck = (ThresholdCheck) check;
+            writer.writeString("checkType", "threshold");
+            decimalStorage.write(writer, "warn", thresholdCheck.getWarn());
+            decimalStorage.write(writer, "error", thresholdCheck.getError());
+        } else if (check instanceof OutlierCheck) {
+            OutlierCheck outlierCheck = (OutlierCheck) check;
+            writer.writeString("checkType", "outlier");
+            decimalStorage.write(writer, "absoluteDiff", outlierCheck.getAbsoluteDiff());
+            writeDouble(writer, "relativeDiff", outlierCheck.getRelativeDiff());
+            writeInteger(writer, "minConsecutiveViolations", outlierCheck.getMinConsecutiveViolations());
+            writeString(writer, "asgName", outlierCheck.getAsgName());
+            writeString(writer, "algorithm", outlierCheck.getAlgorithm());
+        }
+
+        writer.writeBoolean("enabled", check.isEnabled());
+        writer.writeBoolean("live", check.isLive());
+        writer.writeBoolean("allowNoData", check.isAllowNoData());
+        writeAlertType(writer, "state", check.getState());
+        writeDateTime(writer, "lastCheck", check.getLastCheck());
+        if (check.getSubscriptions() != null && !check.getSubscriptions().isEmpty()) {
+            writer.writeStartArray("subscriptions");
+            for (Subscription subscription : check.getSubscriptions()) {
+                subscriptionCodec.encode(writer, subscription, encoderContext);
+            }
+            writer.writeEndArray();
+        }
+        writeBoolean(writer, "enableConsecutiveChecks", check.isEnableConsecutiveChecks());
+        writeInteger(writer, "consecutiveChecks", check.getConsecutiveChecks());
+        writeInteger(writer, "consecutiveChecksTolerance", check.getConsecutiveChecksTolerance());
+        writeBoolean(writer, "consecutiveChecksTriggered", check.isConsecutiveChecksTriggered());
+        writer.writeEndDocument();
+    }
+
+    @Override
+    public Class<Check> getEncoderClass() {
+        return Check.class;
+    }
+
+}
@@ -0,0 +1,82 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.seyren.mongo.codec;
+
+import java.math.BigDecimal;
+import java.math.MathContext;
+import java.util.List;
+
+import org.bson.BsonWriter;
+import org.bson.Document;
+import org.bson.types.Decimal128;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * How decimal fields (thresholds, values, diffs) are stored.
+ *
+ * Decimal128 keeps them exact and numeric, but needs MongoDB 3.4. Older
+ * servers, such as the embedded one the integration tests run against, get
+ * plain strings as older versions of Seyren wrote them. Either is read back.
+ */
+public enum DecimalStorage {
+
+    DECIMAL128 {
+        @Override
+        public Object toStored(BigDecimal value) {
+            return value == null ? null : new Decimal128(value.round(MathContext.DECIMAL128));
+        }
+    },
+
+    STRING {
+        @Override
+        public Object toStored(BigDecimal value) {
+            return value == null ? null : value.toPlainString();
+        }
+    };
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(DecimalStorage.class);
+
+    /**
+     * @return the value as it is stored in a document, or null
+     */
+    public abstract Object toStored(BigDecimal value);
+
+    void write(BsonWriter writer, String name, BigDecimal value) {
+        Object stored = toStored(value);
+        if (stored instanceof Decimal128) {
+            writer.writeDecimal128(name, (Decimal128) stored);
+        } else if (stored != null) {
+            writer.writeString(name, (String) stored);
+        }
+    }
+
+    /**
+     * @param buildInfo the server's reply to {@code buildInfo}
+     */
+    public static DecimalStorage forServer(Document buildInfo) {
+        Object versionArray = buildInfo.get("versionArray");
+        if (versionArray instanceof List && ((List<?>) versionArray).size() >= 2) {
+            List<?> version = (List<?>) versionArray;
+            int major = ((Number) version.get(0)).intValue();
+            int minor = ((Number) version.get(1)).intValue();
+            if (major > 3 || (major == 3 && minor >= 4)) {
+                return DECIMAL128;
+            }
+        }
+        LOGGER.warn("MongoDB {} does not support Decimal128, storing decimals as strings", buildInfo.get("version"));
+        return STRING;
+    }
+
+}
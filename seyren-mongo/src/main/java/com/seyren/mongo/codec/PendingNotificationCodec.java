@@ -0,0 +1,134 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.seyren.mongo.codec;
+
+import static com.seyren.mongo.codec.BsonValues.*;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.bson.BsonReader;
+import org.bson.BsonType;
+import org.bson.BsonWriter;
+import org.bson.codecs.Codec;
+import org.bson.codecs.DecoderContext;
+import org.bson.codecs.EncoderContext;
+
+import com.seyren.core.domain.Alert;
+import com.seyren.core.domain.PendingNotification;
+
+/**
+ * Writes outbox notifications with the check and the alerts embedded, using
+ * the same codecs as their own collections.
+ */
+public class PendingNotificationCodec implements Codec<PendingNotification> {
+
+    private final CheckCodec checkCodec;
+    private final AlertCodec alertCodec;
+
+    public PendingNotificationCodec() {
+        this(DecimalStorage.DECIMAL128);
+    }
+
+    public PendingNotificationCodec(DecimalStorage decimalStorage) {
+        this.checkCodec = new CheckCodec(decimalStorage);
+        this.alertCodec = new AlertCodec(decimalStorage);
+    }
+
+    @Override
+    public PendingNotification decode(BsonReader reader, DecoderContext decoderContext) {
+        PendingNotification notification = new PendingNotification();
+        List<Alert> alerts = new ArrayList<Alert>();
+
+        reader.readStartDocument();
+        while (reader.readBsonType() != BsonType.END_OF_DOCUMENT) {
+            String field = reader.readName();
+            switch (field) {
+                case "_id":
+                    notification.setId(readId(reader));
+                    break;
+                case "key":
+                    notification.setKey(readString(reader));
+                    break;
+                case "check":
+                    if (reader.getCurrentBsonType() == BsonType.DOCUMENT) {
+                        notification.setCheck(checkCodec.decode(reader, decoderContext));
+                    } else {
+                        reader.skipValue();
+                    }
+                    break;
+                case "subscriptionId":
+                    notification.setSubscriptionId(readString(reader));
+                    break;
+                case "alerts":
+                    if (reader.getCurrentBsonType() == BsonType.ARRAY) {
+                        reader.readStartArray();
+                        while (reader.readBsonType() != BsonType.END_OF_DOCUMENT) {
+                            alerts.add(alertCodec.decode(reader, decoderContext));
+                        }
+                        reader.readEndArray();
+                    } else {
+                        reader.skipValue();
+                    }
+                    break;
+                case "attempts":
+                    Integer attempts = readInteger(reader);
+                    notification.setAttempts(attempts == null ? 0 : attempts);
+                    break;
+                case "due":
+                    notification.setDue(readDateTime(reader));
+                    break;
+                case "owner":
+                    notification.setOwner(readString(reader));
+                    break;
+                case "created":
+                    notification.setCreated(readDateTime(reader));
+                    break;
+                default:
+                    reader.skipValue();
+            }
+        }
+        reader.readEndDocument();
+
+        return notification.withAlerts(alerts);
+    }
+
+    @Override
+    public void encode(BsonWriter writer, PendingNotification notification, EncoderContext encoderContext) {
+        writer.writeStartDocument();
+        writeString(writer, "_id", notification.getId());
+        writeString(writer, "key", notification.getKey());
+        if (notification.getCheck() != null) {
+            writer.writeName("check");
+            checkCodec.encode(writer, notification.getCheck(), encoderContext);
+        }
+        writeString(writer, "subscriptionId", notification.getSubscriptionId());
+        writer.writeStartArray("alerts");
+        for (Alert alert : notification.getAlerts()) {
+            alertCodec.encode(writer, alert, encoderContext);
+        }
+        writer.writeEndArray();
+        writer.writeInt32("attempts", notification.getAttempts());
+        writeDateTime(writer, "due", notification.getDue());
+        writeString(writer, "owner", notification.getOwner());
+        writeDateTime(writer, "created", notification.getCreated());
+        writer.writeEndDocument();
+    }
+
+    @Override
+    public Class<PendingNotification> getEncoderClass() {
+        return PendingNotification.class;
+    }
+
+}
@@ -0,0 +1,71 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.seyren.mongo.codec;
+
+import org.bson.codecs.Codec;
+import org.bson.codecs.configuration.CodecProvider;
+import org.bson.codecs.configuration.CodecRegistries;
+import org.bson.codecs.configuration.CodecRegistry;
+
+import com.mongodb.MongoClient;
+import com.seyren.core.domain.Alert;
+import com.seyren.core.domain.Check;
+import com.seyren.core.domain.PendingNotification;
+import com.seyren.core.domain.Subscription;
+
+/**
+ * Provides the Seyren domain codecs for a class and any of its subclasses,
+ * so that e.g. a {@code ThresholdCheck} is written with the {@link CheckCodec}.
+ */
+public class SeyrenCodecProvider implements CodecProvider {
+
+    private final CheckCodec checkCodec;
+    private final AlertCodec alertCodec;
+    private final SubscriptionCodec subscriptionCodec = new SubscriptionCodec();
+    private final PendingNotificationCodec pendingNotificationCodec;
+
+    public SeyrenCodecProvider(DecimalStorage decimalStorage) {
+        this.checkCodec = new CheckCodec(decimalStorage);
+        this.alertCodec = new AlertCodec(decimalStorage);
+        this.pendingNotificationCodec = new PendingNotificationCodec(decimalStorage);
+    }
+
+    /**
+     * @return the driver's default registry with the Seyren codecs in front of it
+     */
+    public static CodecRegistry codecRegistry(DecimalStorage decimalStorage) {
+        return CodecRegistries.fromRegistries(
+                CodecRegistries.fromProviders(new SeyrenCodecProvider(decimalStorage)),
+                MongoClient.getDefaultCodecRegistry());
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public <T> Codec<T> get(Class<T> clazz, CodecRegistry registry) {
+        if (Check.class.isAssignableFrom(clazz)) {
+            return (Codec<T>) checkCodec;
+        }
+        if (Alert.class.isAssignableFrom(clazz)) {
+            return (Codec<T>) alertCodec;
+        }
+        if (Subscription.class.isAssignableFrom(clazz)) {
+            return (Codec<T>) subscriptionCodec;
+        }
+        if (PendingNotification.class.isAssignableFrom(clazz)) {
+            return (Codec<T>) pendingNotificationCodec;
+        }
+        return null;
+    }
+
+}
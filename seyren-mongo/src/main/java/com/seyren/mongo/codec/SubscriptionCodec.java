@@ -0,0 +1,150 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.seyren.mongo.codec;
+
+import static com.seyren.mongo.codec.BsonValues.*;
+
+import org.bson.BsonReader;
+import org.bson.BsonType;
+import org.bson.BsonWriter;
+import org.bson.codecs.Codec;
+import org.bson.codecs.DecoderContext;
+import org.bson.codecs.EncoderContext;
+import org.bson.types.ObjectId;
+import org.joda.time.LocalTime;
+
+import com.seyren.core.domain.Subscription;
+import com.seyren.core.domain.SubscriptionType;
+
+/**
+ * Reads and writes the subscriptions embedded in a check document. The
+ * layout is the same as the one written by {@link com.seyren.mongo.MongoMapper}.
+ */
+public class SubscriptionCodec implements Codec<Subscription> {
+
+    @Override
+    public Subscription decode(BsonReader reader, DecoderContext decoderContext) {
+        Subscription subscription = new Subscription();
+        Integer fromHour = null, fromMin = null, toHour = null, toMin = null;
+
+        reader.readStartDocument();
+        while (reader.readBsonType() != BsonType.END_OF_DOCUMENT) {
+            String name = reader.readName();
+            switch (name) {
+                case "_id":
+                    subscription.setId(readId(reader));
+                    break;
+                case "target":
+                    subscription.setTarget(readString(reader));
+                    break;
+                case "type":
+                    String type = readString(reader);
+                    subscription.setType(type == null ? null : SubscriptionType.valueOf(type));
+                    break;
+                case "su":
+                    subscription.setSu(readBoolean(reader, false));
+                    break;
+                case "mo":
+                    subscription.setMo(readBoolean(reader, false));
+                    break;
+                case "tu":
+                    subscription.setTu(readBoolean(reader, false));
+                    break;
+                case "we":
+                    subscription.setWe(readBoolean(reader, false));
+                    break;
+                case "th":
+                    subscription.setTh(readBoolean(reader, false));
+                    break;
+                case "fr":
+                    subscription.setFr(readBoolean(reader, false));
+                    break;
+                case "sa":
+                    subscription.setSa(readBoolean(reader, false));
+                    break;
+                case "ignoreWarn":
+                    subscription.setIgnoreWarn(readBoolean(reader, false));
+                    break;
+                case "ignoreError":
+                    subscription.setIgnoreError(readBoolean(reader, false));
+                    break;
+                case "ignoreOk":
+                    subscription.setIgnoreOk(readBoolean(reader, false));
+                    break;
+                case "fromHour":
+                    fromHour = readInteger(reader);
+                    break;
+                case "fromMin":
+                    fromMin = readInteger(reader);
+                    break;
+                case "toHour":
+                    toHour = readInteger(reader);
+                    break;
+                case "toMin":
+                    toMin = readInteger(reader);
+                    break;
+                case "enabled":
+                    subscription.setEnabled(readBoolean(reader, false));
+                    break;
+                case "position":
+                    subscription.setPosition(readString(reader));
+                    break;
+                default:
+                    reader.skipValue();
+            }
+        }
+        reader.readEndDocument();
+
+        subscription.setFromTime(fromHour == null || fromMin == null ? null : new LocalTime(fromHour, fromMin));
+        subscription.setToTime(toHour == null || toMin == null ? null : new LocalTime(toHour, toMin));
+        return subscription;
+    }
+
+    @Override
+    public void encode(BsonWriter writer, Subscription subscription, EncoderContext encoderContext) {
+        writer.writeStartDocument();
+        writer.writeString("_id", subscription.getId() == null ? new ObjectId().toHexString() : subscription.getId());
+        writeString(writer, "target", subscription.getTarget());
+        if (subscription.getType() != null) {
+            writer.writeString("type", subscription.getType().toString());
+        }
+        writer.writeBoolean("su", subscription.isSu());
+        writer.writeBoolean("mo", subscription.isMo());
+        writer.writeBoolean("tu", subscription.isTu());
+        writer.writeBoolean("we", subscription.isWe());
+        writer.writeBoolean("th", subscription.isTh());
+        writer.writeBoolean("fr", subscription.isFr());
+        writer.writeBoolean("sa", subscription.isSa());
+        writer.writeBoolean("ignoreWarn", subscription.isIgnoreWarn());
+        writer.writeBoolean("ignoreError", subscription.isIgnoreError());
+        writer.writeBoolean("ignoreOk", subscription.isIgnoreOk());
+        if (subscription.getFromTime() != null) {
+            writer.writeInt32("fromHour", subscription.getFromTime().getHourOfDay());
+            writer.writeInt32("fromMin", subscription.getFromTime().getMinuteOfHour());
+        }
+        if (subscription.getToTime() != null) {
+            writer.writeInt32("toHour", subscription.getToTime().getHourOfDay());
+            writer.writeInt32("toMin", subscription.getToTime().getMinuteOfHour());
+        }
+        writer.writeBoolean("enabled", subscription.isEnabled());
+        writeString(writer, "position", subscription.getPosition());
+        writer.writeEndDocument();
+    }
+
+    @Override
+    public Class<Subscription> getEncoderClass() {
+        return Subscription.class;
+    }
+
+}
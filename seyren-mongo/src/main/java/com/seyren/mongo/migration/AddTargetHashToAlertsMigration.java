@@ -0,0 +1,93 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.seyren.mongo.migration;
+
+import static com.seyren.mongo.NiceDBObject.*;
+
+import com.mongodb.BulkWriteOperation;
+import com.mongodb.DB;
+import com.mongodb.DBCollection;
+import com.mongodb.DBCursor;
+import com.mongodb.DBObject;
+import com.seyren.core.util.hashing.TargetHash;
+
+/**
+ * Adds the targetHash field to alerts written before it existed.
+ *
+ * Alerts are walked in _id order in short, bounded queries rather than one long
+ * no-timeout cursor, and each batch is written with a single bulk update.
+ */
+public class AddTargetHashToAlertsMigration implements MongoMigration {
+
+    private static final int DEFAULT_BATCH_SIZE = 1000;
+
+    private final int batchSize;
+
+    public AddTargetHashToAlertsMigration() {
+        this(DEFAULT_BATCH_SIZE);
+    }
+
+    AddTargetHashToAlertsMigration(int batchSize) {
+        this.batchSize = batchSize;
+    }
+
+    @Override
+    public int getVersion() {
+        return 3;
+    }
+
+    @Override
+    public String getDescription() {
+        return "Add targetHash to alerts";
+    }
+
+    @Override
+    public void migrate(DB mongo, MigrationContext context) {
+        DBCollection alerts = mongo.getCollection("alerts");
+        context.setEstimatedTotal(alerts.count(object("targetHash", object("$exists", false))));
+
+        Object lastId = context.getCheckpoint();
+        while (true) {
+            DBObject query = object("targetHash", object("$exists", false));
+            if (lastId != null) {
+                query.put("_id", object("$gt", lastId));
+            }
+
+            DBCursor cursor = alerts.find(query, object("target", 1)).sort(object("_id", 1)).limit(batchSize);
+            BulkWriteOperation bulk = alerts.initializeUnorderedBulkOperation();
+            int count = 0;
+            try {
+                while (cursor.hasNext()) {
+                    DBObject alert = cursor.next();
+                    lastId = alert.get("_id");
+                    String targetHash = TargetHash.create((String) alert.get("target"));
+                    bulk.find(forId(lastId)).updateOne(object("$set", object("targetHash", targetHash)));
+                    count++;
+                }
+            } finally {
+                cursor.close();
+            }
+
+            if (count == 0) {
+                return;
+            }
+            bulk.execute();
+
+            if (!context.checkpoint(lastId, count)) {
+                return;
+            }
+        }
+    }
+
+}
@@ -0,0 +1,156 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.seyren.mongo.migration;
+
+import static com.seyren.mongo.NiceDBObject.*;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.mongodb.BasicDBObject;
+import com.mongodb.BulkWriteOperation;
+import com.mongodb.DB;
+import com.mongodb.DBCollection;
+import com.mongodb.DBCursor;
+import com.mongodb.DBObject;
+import com.seyren.mongo.codec.DecimalStorage;
+
+/**
+ * Rewrites numbers that older versions stored as strings or doubles (warn,
+ * error, value...) as Decimal128, so that they can be read without parsing and
+ * without losing precision.
+ *
+ * The codecs still accept strings and doubles, so documents are usable while
+ * this runs. Servers without Decimal128 keep storing strings, so there is
+ * nothing to do on them.
+ */
+public class ConvertDecimalStringsMigration implements MongoMigration {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(ConvertDecimalStringsMigration.class);
+
+    private static final int DEFAULT_BATCH_SIZE = 1000;
+    private static final int BSON_DOUBLE = 1;
+    private static final int BSON_STRING = 2;
+
+    private final int version;
+    private final String collectionName;
+    private final DecimalStorage decimalStorage;
+    private final String[] fields;
+    private final int batchSize;
+
+    public ConvertDecimalStringsMigration(int version, String collectionName, DecimalStorage decimalStorage, String... fields) {
+        this(version, collectionName, decimalStorage, DEFAULT_BATCH_SIZE, fields);
+    }
+
+    ConvertDecimalStringsMigration(int version, String collectionName, DecimalStorage decimalStorage, int batchSize, String... fields) {
+        this.version = version;
+        this.collectionName = collectionName;
+        this.decimalStorage = decimalStorage;
+        this.fields = fields;
+        this.batchSize = batchSize;
+    }
+
+    @Override
+    public int getVersion() {
+        return version;
+    }
+
+    @Override
+    public String getDescription() {
+        return "Store numeric fields of " + collectionName + " as Decimal128";
+    }
+
+    @Override
+    public void migrate(DB mongo, MigrationContext context) {
+        if (decimalStorage != DecimalStorage.DECIMAL128) {
+            LOGGER.info("Leaving numeric fields of {} as strings, the server does not support Decimal128", collectionName);
+            return;
+        }
+        DBCollection collection = mongo.getCollection(collectionName);
+        context.setEstimatedTotal(collection.count(stringFieldsQuery()));
+
+        DBObject projection = new BasicDBObject();
+        for (String field : fields) {
+            projection.put(field, 1);
+        }
+
+        Object lastId = context.getCheckpoint();
+        while (true) {
+            DBObject query = stringFieldsQuery();
+            if (lastId != null) {
+                query.put("_id", object("$gt", lastId));
+            }
+
+            DBCursor cursor = collection.find(query, projection).sort(object("_id", 1)).limit(batchSize);
+            BulkWriteOperation bulk = collection.initializeUnorderedBulkOperation();
+            int seen = 0;
+            int count = 0;
+            try {
+                while (cursor.hasNext()) {
+                    DBObject document = cursor.next();
+                    lastId = document.get("_id");
+                    seen++;
+                    DBObject set = toDecimals(document);
+                    if (!set.keySet().isEmpty()) {
+                        bulk.find(forId(lastId)).updateOne(object("$set", set));
+                        count++;
+                    }
+                }
+            } finally {
+                cursor.close();
+            }
+
+            if (seen == 0) {
+                return;
+            }
+            if (count > 0) {
+                bulk.execute();
+            }
+
+            if (!context.checkpoint(lastId, count)) {
+                return;
+            }
+        }
+    }
+
+    private DBObject stringFieldsQuery() {
+        List<DBObject> clauses = new ArrayList<DBObject>();
+        for (String field : fields) {
+            clauses.add(object(field, object("$type", BSON_STRING)));
+            clauses.add(object(field, object("$type", BSON_DOUBLE)));
+        }
+        return object("$or", clauses);
+    }
+
+    private DBObject toDecimals(DBObject document) {
+        DBObject set = new BasicDBObject();
+        for (String field : fields) {
+            Object value = document.get(field);
+            if (value instanceof String || value instanceof Double) {
+                try {
+                    BigDecimal decimal = value instanceof Double ? BigDecimal.valueOf((Double) value) : new BigDecimal((String) value);
+                    set.put(field, decimalStorage.toStored(decimal));
+                } catch (NumberFormatException e) {
+                    LOGGER.warn("Leaving unparseable {} '{}' of {} {} as it is", field, value, collectionName, document.get("_id"));
+                }
+            }
+        }
+        return set;
+    }
+
+}
@@ -0,0 +1,51 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.seyren.mongo.migration;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.mongodb.BasicDBObject;
+import com.mongodb.DB;
+import com.mongodb.MongoException;
+
+public class CreateIndicesMigration implements MongoMigration {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(CreateIndicesMigration.class);
+
+    @Override
+    public int getVersion() {
+        return 1;
+    }
+
+    @Override
+    public String getDescription() {
+        return "Create check and alert indices";
+    }
+
+    @Override
+    public void migrate(DB mongo, MigrationContext context) {
+        try {
+            mongo.getCollection("checks").createIndex(new BasicDBObject("name", 1), new BasicDBObject("unique", true));
+            mongo.getCollection("checks").createIndex(new BasicDBObject("enabled", 1).append("live", 1));
+            mongo.getCollection("alerts").createIndex(new BasicDBObject("timestamp", -1));
+            mongo.getCollection("alerts").createIndex(new BasicDBObject("checkId", 1).append("targetHash", 1));
+        } catch (MongoException e) {
+            LOGGER.error("If you've hit this problem it's possible that you have two checks which are named the same and violate an index which we've tried to add.\n"
+                    + "Please correct the problem by removing the clash. If it's something else, please let us know on Github!");
+            throw e;
+        }
+    }
+
+}
@@ -0,0 +1,38 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.seyren.mongo.migration;
+
+import com.mongodb.BasicDBObject;
+import com.mongodb.DB;
+
+public class CreateOutboxIndicesMigration implements MongoMigration {
+
+    @Override
+    public int getVersion() {
+        return 6;
+    }
+
+    @Override
+    public String getDescription() {
+        return "Create notification outbox indices";
+    }
+
+    @Override
+    public void migrate(DB mongo, MigrationContext context) {
+        // The unique key is what stops the same alerts being written twice
+        mongo.getCollection("outbox").createIndex(new BasicDBObject("key", 1), new BasicDBObject("unique", true));
+        mongo.getCollection("outbox").createIndex(new BasicDBObject("due", 1));
+    }
+
+}
@@ -0,0 +1,44 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.seyren.mongo.migration;
+
+import com.mongodb.BasicDBObject;
+import com.mongodb.DB;
+import com.mongodb.MongoCommandException;
+
+public class DropOldIndicesMigration implements MongoMigration {
+
+    @Override
+    public int getVersion() {
+        return 2;
+    }
+
+    @Override
+    public String getDescription() {
+        return "Drop the old checkId/target alert index";
+    }
+
+    @Override
+    public void migrate(DB mongo, MigrationContext context) {
+        try {
+            mongo.getCollection("alerts").dropIndex(new BasicDBObject("checkId", 1).append("target", 1));
+        } catch (MongoCommandException e) {
+            if (e.getCode() != 27) {
+                // 27 is the code which appears when the index doesn't exist (which we're happy with, anything else is bad news)
+                throw e;
+            }
+        }
+    }
+
+}
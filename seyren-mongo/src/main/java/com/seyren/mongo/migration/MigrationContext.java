@@ -0,0 +1,113 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.seyren.mongo.migration;
+
+import static com.seyren.mongo.NiceDBObject.*;
+
+import java.util.Date;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.mongodb.DBCollection;
+import com.mongodb.WriteResult;
+
+/**
+ * Handle given to a running {@link MongoMigration} which persists its progress
+ * and keeps this node's lease on the migration alive.
+ */
+public class MigrationContext {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(MigrationContext.class);
+
+    private final DBCollection migrationsCollection;
+    private final MongoMigration migration;
+    private final String owner;
+    private final long leaseMillis;
+    private Object checkpoint;
+    private long processed;
+    private long estimatedTotal = -1;
+    private boolean stopped;
+
+    MigrationContext(DBCollection migrationsCollection, MongoMigration migration, String owner, long leaseMillis,
+                     Object checkpoint, long processed) {
+        this.migrationsCollection = migrationsCollection;
+        this.migration = migration;
+        this.owner = owner;
+        this.leaseMillis = leaseMillis;
+        this.checkpoint = checkpoint;
+        this.processed = processed;
+    }
+
+    /**
+     * @return the last position recorded by {@link #checkpoint(Object, long)}, or null if the
+     * migration has not made any progress yet
+     */
+    public Object getCheckpoint() {
+        return checkpoint;
+    }
+
+    public long getProcessed() {
+        return processed;
+    }
+
+    public void setEstimatedTotal(long estimatedTotal) {
+        this.estimatedTotal = estimatedTotal;
+        if (estimatedTotal > 0) {
+            LOGGER.info("Migration {} ({}) has roughly {} document(s) left to process",
+                    migration.getVersion(), migration.getDescription(), estimatedTotal);
+        }
+    }
+
+    /**
+     * Records that a batch has been written and renews the lease.
+     *
+     * @param position the position to resume from (usually the last _id written)
+     * @param batchSize the number of documents written since the last checkpoint
+     * @return false if the migration should stop, either because this node was shut down
+     * or because another node has taken over the lease
+     */
+    public boolean checkpoint(Object position, long batchSize) {
+        this.checkpoint = position;
+        this.processed += batchSize;
+
+        WriteResult result = migrationsCollection.update(
+                forId(migration.getVersion()).with("owner", owner),
+                object("$set", object("checkpoint", position)
+                        .with("processed", processed)
+                        .with("leaseExpiresAt", new Date(System.currentTimeMillis() + leaseMillis))));
+
+        if (result.getN() == 0) {
+            LOGGER.warn("Lost lease on migration {} ({}), stopping", migration.getVersion(), migration.getDescription());
+            stopped = true;
+            return false;
+        }
+
+        if (estimatedTotal > 0) {
+            LOGGER.info("Migration {} ({}) processed {} of ~{}", migration.getVersion(), migration.getDescription(), processed, estimatedTotal);
+        } else {
+            LOGGER.info("Migration {} ({}) processed {}", migration.getVersion(), migration.getDescription(), processed);
+        }
+
+        if (Thread.currentThread().isInterrupted()) {
+            stopped = true;
+        }
+        return !stopped;
+    }
+
+    boolean isStopped() {
+        return stopped;
+    }
+
+}
@@ -0,0 +1,34 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.seyren.mongo.migration;
+
+import com.mongodb.DB;
+
+/**
+ * A single, versioned change to the Mongo schema or data.
+ *
+ * Migrations are applied once per database in ascending version order by the
+ * {@link MongoMigrator}. Long running migrations should work in batches and
+ * call {@link MigrationContext#checkpoint(Object, long)} after each one so that
+ * an interrupted run can be resumed by any node.
+ */
+public interface MongoMigration {
+
+    int getVersion();
+
+    String getDescription();
+
+    void migrate(DB mongo, MigrationContext context);
+
+}
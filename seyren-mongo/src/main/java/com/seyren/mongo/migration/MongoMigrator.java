@@ -0,0 +1,226 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.seyren.mongo.migration;
+
+import static com.seyren.mongo.NiceDBObject.*;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.mongodb.DB;
+import com.mongodb.DBCollection;
+import com.mongodb.DBCursor;
+import com.mongodb.DBObject;
+import com.mongodb.DuplicateKeyException;
+
+/**
+ * Applies pending {@link MongoMigration}s on a background thread.
+ *
+ * Progress is recorded in the "migrations" collection, one document per version. A node
+ * has to hold the lease on a migration before running it, so only one node does the work
+ * while the others carry on serving requests. Once every migration is complete a boot costs
+ * a single query against that collection. A migration which fails is tried again with
+ * exponential backoff, its record left FAILED with the error in the meantime.
+ */
+public class MongoMigrator {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(MongoMigrator.class);
+
+    static final String RUNNING = "RUNNING";
+    static final String COMPLETE = "COMPLETE";
+    static final String FAILED = "FAILED";
+
+    private static final long DEFAULT_LEASE_MILLIS = 5 * 60 * 1000L;
+    // Failed migrations are retried after the lease, doubled each time up to 16 leases
+    private static final int MAX_BACKOFF_DOUBLINGS = 4;
+
+    private final DB mongo;
+    private final List<MongoMigration> migrations;
+    private final String owner;
+    private final long leaseMillis;
+    private final ScheduledExecutorService executor;
+    private volatile boolean complete;
+    private int failures;
+
+    public MongoMigrator(DB mongo, List<MongoMigration> migrations) {
+        this(mongo, migrations, DEFAULT_LEASE_MILLIS);
+    }
+
+    MongoMigrator(DB mongo, List<MongoMigration> migrations, long leaseMillis) {
+        this.mongo = mongo;
+        this.migrations = new ArrayList<MongoMigration>(migrations);
+        Collections.sort(this.migrations, new Comparator<MongoMigration>() {
+            @Override
+            public int compare(MongoMigration a, MongoMigration b) {
+                return a.getVersion() < b.getVersion() ? -1 : (a.getVersion() == b.getVersion() ? 0 : 1);
+            }
+        });
+        this.owner = ManagementFactory.getRuntimeMXBean().getName() + "/" + UUID.randomUUID();
+        this.leaseMillis = leaseMillis;
+        this.executor = Executors.newSingleThreadScheduledExecutor(new ThreadFactoryBuilder().setNameFormat("seyren.mongo-migrator-%s")
+                .setDaemon(true).build());
+    }
+
+    public void start() {
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                runPendingMigrations();
+            }
+        });
+    }
+
+    public void stop() {
+        executor.shutdownNow();
+    }
+
+    /**
+     * @return true once every known migration has been applied to the database
+     */
+    public boolean isComplete() {
+        return complete;
+    }
+
+    void runPendingMigrations() {
+        try {
+            Set<Integer> completed = getCompletedVersions();
+            for (MongoMigration migration : migrations) {
+                if (completed.contains(migration.getVersion())) {
+                    continue;
+                }
+                if (!apply(migration)) {
+                    return;
+                }
+            }
+            complete = true;
+            LOGGER.info("Mongo schema is up to date");
+        } catch (Exception e) {
+            LOGGER.error("Failure while running Mongo migrations, retrying in {}s", TimeUnit.MILLISECONDS.toSeconds(leaseMillis), e);
+            retryLater(leaseMillis);
+        }
+    }
+
+    private boolean apply(MongoMigration migration) {
+        DBObject record = claim(migration);
+        if (record == null) {
+            LOGGER.info("Migration {} ({}) is being run by another node, checking again in {}s",
+                    migration.getVersion(), migration.getDescription(), TimeUnit.MILLISECONDS.toSeconds(leaseMillis));
+            retryLater(leaseMillis);
+            return false;
+        }
+
+        Number processed = (Number) record.get("processed");
+        MigrationContext context = new MigrationContext(getMigrationsCollection(), migration, owner, leaseMillis,
+                record.get("checkpoint"), processed == null ? 0 : processed.longValue());
+
+        LOGGER.info("Running migration {} ({})", migration.getVersion(), migration.getDescription());
+        try {
+            migration.migrate(mongo, context);
+        } catch (RuntimeException e) {
+            long retryDelayMillis = leaseMillis << Math.min(failures++, MAX_BACKOFF_DOUBLINGS);
+            LOGGER.error("Migration {} ({}) failed, retrying in {}s", migration.getVersion(), migration.getDescription(),
+                    TimeUnit.MILLISECONDS.toSeconds(retryDelayMillis), e);
+            getMigrationsCollection().update(forId(migration.getVersion()).with("owner", owner),
+                    object("$set", object("state", FAILED).with("error", String.valueOf(e.getMessage())).with("failedAt", new Date()))
+                            .with("$inc", object("failures", 1))
+                            .with("$unset", object("leaseExpiresAt", "")));
+            retryLater(retryDelayMillis);
+            return false;
+        }
+
+        if (context.isStopped()) {
+            return false;
+        }
+
+        getMigrationsCollection().update(forId(migration.getVersion()).with("owner", owner),
+                object("$set", object("state", COMPLETE).with("completedAt", new Date()).with("processed", context.getProcessed()))
+                        .with("$unset", object("leaseExpiresAt", "").with("checkpoint", "").with("error", "")));
+        failures = 0;
+        LOGGER.info("Migration {} ({}) complete", migration.getVersion(), migration.getDescription());
+        return true;
+    }
+
+    /**
+     * Takes the lease on a migration if nobody else holds a live one.
+     *
+     * @return the migration record, or null if another node is running it
+     */
+    private DBObject claim(MongoMigration migration) {
+        try {
+            getMigrationsCollection().insert(forId(migration.getVersion())
+                    .with("description", migration.getDescription())
+                    .with("state", RUNNING)
+                    .with("processed", 0L));
+        } catch (DuplicateKeyException e) {
+            // Already recorded by an earlier or concurrent run
+        }
+
+        Date now = new Date();
+        DBObject query = forId(migration.getVersion())
+                .with("state", object("$ne", COMPLETE))
+                .with("$or", Arrays.asList(
+                        object("leaseExpiresAt", object("$exists", false)),
+                        object("leaseExpiresAt", object("$lt", now)),
+                        object("owner", owner)));
+        DBObject update = object("$set", object("state", RUNNING)
+                .with("owner", owner)
+                .with("leaseExpiresAt", new Date(now.getTime() + leaseMillis)));
+
+        return getMigrationsCollection().findAndModify(query, null, null, false, update, true, false);
+    }
+
+    private Set<Integer> getCompletedVersions() {
+        Set<Integer> versions = new HashSet<Integer>();
+        DBCursor cursor = getMigrationsCollection().find(object("state", COMPLETE), object("_id", 1));
+        try {
+            while (cursor.hasNext()) {
+                versions.add(((Number) cursor.next().get("_id")).intValue());
+            }
+        } finally {
+            cursor.close();
+        }
+        return versions;
+    }
+
+    private void retryLater(long delayMillis) {
+        if (!executor.isShutdown()) {
+            executor.schedule(new Runnable() {
+                @Override
+                public void run() {
+                    runPendingMigrations();
+                }
+            }, delayMillis, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    private DBCollection getMigrationsCollection() {
+        return mongo.getCollection("migrations");
+    }
+
+}
@@ -0,0 +1,209 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.seyren.mongo;
+
+import static org.hamcrest.MatcherAssert.*;
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.notNullValue;
+import static org.mockito.Matchers.*;
+import static org.mockito.Mockito.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+
+import org.bson.conversions.Bson;
+import org.joda.time.DateTime;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+
+import com.google.common.util.concurrent.ListenableFuture;
+import com.mongodb.BasicDBObject;
+import com.mongodb.DBObject;
+import com.mongodb.ReadPreference;
+import com.mongodb.async.SingleResultCallback;
+import com.mongodb.async.client.FindIterable;
+import com.mongodb.async.client.MongoCollection;
+import com.mongodb.async.client.MongoDatabase;
+import com.mongodb.client.model.FindOneAndUpdateOptions;
+import com.mongodb.client.result.DeleteResult;
+import com.seyren.core.domain.Alert;
+import com.seyren.core.domain.AlertType;
+import com.seyren.core.domain.Check;
+import com.seyren.core.domain.SeyrenResponse;
+import com.seyren.core.domain.ThresholdAlert;
+import com.seyren.core.domain.ThresholdCheck;
+import com.seyren.core.store.ReadPurpose;
+
+public class AsyncMongoStoreTest {
+
+    private static final String CHECK_ID = "5a1b2c3d4e5f60718293a4b5";
+
+    private MongoCollection<Check> checks;
+    private MongoCollection<Alert> alerts;
+    private FindIterable<Check> foundChecks;
+    private AsyncMongoStore store;
+
+    @Before
+    @SuppressWarnings("unchecked")
+    public void before() {
+        MongoDatabase database = mock(MongoDatabase.class);
+        checks = mock(MongoCollection.class);
+        alerts = mock(MongoCollection.class);
+        foundChecks = mock(FindIterable.class);
+        when(database.getCollection("checks", Check.class)).thenReturn(checks);
+        when(database.getCollection("alerts", Alert.class)).thenReturn(alerts);
+        when(checks.withReadPreference(any(ReadPreference.class))).thenReturn(checks);
+        when(alerts.withReadPreference(any(ReadPreference.class))).thenReturn(alerts);
+        when(checks.find(any(Bson.class))).thenReturn(foundChecks);
+        store = new AsyncMongoStore(database);
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void checkIsReturnedOnceTheDriverAnswers() throws Exception {
+        Check check = new ThresholdCheck().withId(CHECK_ID);
+        ArgumentCaptor<SingleResultCallback> callback = ArgumentCaptor.forClass(SingleResultCallback.class);
+
+        ListenableFuture<Check> future = store.getCheck(CHECK_ID, ReadPurpose.EVALUATION);
+        verify(foundChecks).first(callback.capture());
+        assertThat(future.isDone(), is(false));
+        callback.getValue().onResult(check, null);
+
+        assertThat(future.get(), is(check));
+        ArgumentCaptor<Bson> query = ArgumentCaptor.forClass(Bson.class);
+        verify(checks).find(query.capture());
+        assertThat(((DBObject) query.getValue()).get("_id"), is((Object) CHECK_ID));
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void checkFailsWithTheDriversError() throws Exception {
+        RuntimeException error = new RuntimeException("timed out");
+        doAnswer(answerWith(null, error)).when(foundChecks).first(any(SingleResultCallback.class));
+
+        ListenableFuture<Check> future = store.getCheck(CHECK_ID, ReadPurpose.EVALUATION);
+
+        assertThat(causeOf(future), is((Throwable) error));
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void checksAreReturnedWithTheirTotal() throws Exception {
+        final Check check = new ThresholdCheck().withId(CHECK_ID);
+        doAnswer(new Answer<Void>() {
+            @Override
+            public Void answer(InvocationOnMock invocation) {
+                List<Check> target = (List<Check>) invocation.getArguments()[0];
+                target.add(check);
+                ((SingleResultCallback<List<Check>>) invocation.getArguments()[1]).onResult(target, null);
+                return null;
+            }
+        }).when(foundChecks).into(any(ArrayList.class), any(SingleResultCallback.class));
+        doAnswer(answerWith(12L, null)).when(checks).count(any(Bson.class), any(SingleResultCallback.class));
+
+        SeyrenResponse<Check> response = store.getChecks(true, null, ReadPurpose.LISTING).get();
+
+        assertThat(response.getValues(), contains(check));
+        assertThat(response.getTotal(), is(12));
+        ArgumentCaptor<Bson> query = ArgumentCaptor.forClass(Bson.class);
+        verify(checks).count(query.capture(), any(SingleResultCallback.class));
+        assertThat(query.getValue(), is((Bson) new BasicDBObject("enabled", true)));
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void checksFailWhenTheirTotalCannotBeCounted() throws Exception {
+        RuntimeException error = new RuntimeException("count failed");
+        doAnswer(answerWith(null, error)).when(checks).count(any(Bson.class), any(SingleResultCallback.class));
+
+        ListenableFuture<SeyrenResponse<Check>> future = store.getChecks(true, null, ReadPurpose.LISTING);
+
+        assertThat(causeOf(future), is((Throwable) error));
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void alertIsReturnedOnceInserted() throws Exception {
+        Alert alert = new ThresholdAlert();
+        ArgumentCaptor<SingleResultCallback> callback = ArgumentCaptor.forClass(SingleResultCallback.class);
+
+        ListenableFuture<Alert> future = store.createAlert(CHECK_ID, alert);
+        verify(alerts).insertOne(same(alert), callback.capture());
+        assertThat(future.isDone(), is(false));
+        callback.getValue().onResult(null, null);
+
+        assertThat(future.get(), is(alert));
+        assertThat(alert.getCheckId(), is(CHECK_ID));
+        assertThat(alert.getId(), is(notNullValue()));
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void stateIsUpdatedWithOneRoundTrip() throws Exception {
+        DateTime lastCheck = new DateTime(1500000000000L);
+        Check updated = new ThresholdCheck().withId(CHECK_ID);
+        doAnswer(answerWith(updated, null)).when(checks).findOneAndUpdate(any(Bson.class), any(Bson.class),
+                any(FindOneAndUpdateOptions.class), any(SingleResultCallback.class));
+
+        Check check = store.updateStateAndLastCheck(CHECK_ID, AlertType.ERROR, lastCheck).get();
+
+        assertThat(check, is(updated));
+        ArgumentCaptor<Bson> update = ArgumentCaptor.forClass(Bson.class);
+        verify(checks).findOneAndUpdate(any(Bson.class), update.capture(), any(FindOneAndUpdateOptions.class),
+                any(SingleResultCallback.class));
+        assertThat(update.getValue(), is((Bson) MongoQueries.updateStateAndLastCheck(AlertType.ERROR, lastCheck)));
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void deletingACheckFailsWhenItsAlertsCannotBeDeleted() throws Exception {
+        RuntimeException error = new RuntimeException("not primary");
+        doAnswer(answerWith(DeleteResult.acknowledged(1), null)).when(checks).deleteOne(any(Bson.class), any(SingleResultCallback.class));
+        doAnswer(answerWith(null, error)).when(alerts).deleteMany(any(Bson.class), any(SingleResultCallback.class));
+
+        ListenableFuture<Void> future = store.deleteCheck(CHECK_ID);
+
+        assertThat(causeOf(future), is((Throwable) error));
+        verify(alerts).deleteMany(eq((Bson) MongoQueries.alerts(CHECK_ID, null)), any(SingleResultCallback.class));
+    }
+
+    // Answers the callback which is the last argument of the stubbed call
+    private static Answer<Void> answerWith(final Object result, final Throwable t) {
+        return new Answer<Void>() {
+            @Override
+            @SuppressWarnings("unchecked")
+            public Void answer(InvocationOnMock invocation) {
+                Object[] arguments = invocation.getArguments();
+                ((SingleResultCallback<Object>) arguments[arguments.length - 1]).onResult(result, t);
+                return null;
+            }
+        };
+    }
+
+    private static Throwable causeOf(ListenableFuture<?> future) throws InterruptedException {
+        assertThat(future.isDone(), is(true));
+        try {
+            future.get();
+        } catch (ExecutionException e) {
+            return e.getCause();
+        }
+        throw new AssertionError("The future did not fail");
+    }
+
+}
@@ -37,7 +37,7 @@ public class MockCheckRunnerFactory extends CheckRunnerFactory {
 								  TargetChecker targetChecker,
 								  ValueChecker valueChecker,
 								  List<NotificationService>  notificationServices, SeyrenConfig seyrenConfig) {
-		super(mongoStore, mongoStore, targetChecker, valueChecker, notificationServices, seyrenConfig,new AWSOutlierDetector(new AWSManager( new AmazonEC2Client(new DefaultAWSCredentialsProviderChain()) , new AmazonAutoScalingClient(new DefaultAWSCredentialsProviderChain())) , new MeanValueOutlierDetectorAlgorithm()));
+		super(mongoStore, mongoStore, targetChecker, valueChecker, notificationServices, seyrenConfig,new AWSOutlierDetector(new AWSManager( new AmazonEC2Client(new DefaultAWSCredentialsProviderChain()) , new AmazonAutoScalingClient(new DefaultAWSCredentialsProviderChain()), 0) , new MeanValueOutlierDetectorAlgorithm()));
 	}
 
 }
@@ -0,0 +1,140 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.seyren.mongo;
+
+import static org.hamcrest.MatcherAssert.*;
+import static org.hamcrest.Matchers.*;
+
+import java.math.BigDecimal;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.regex.Pattern;
+
+import org.bson.types.Decimal128;
+import org.joda.time.DateTime;
+import org.junit.Test;
+
+import com.google.common.collect.ImmutableSet;
+import com.mongodb.BasicDBObject;
+import com.mongodb.DBObject;
+import com.seyren.core.domain.AlertType;
+import com.seyren.core.domain.OutlierCheck;
+import com.seyren.core.domain.ThresholdCheck;
+import com.seyren.core.util.hashing.TargetHash;
+import com.seyren.mongo.codec.DecimalStorage;
+
+public class MongoQueriesTest {
+
+    @Test
+    public void checksAreOnlyFilteredOnTheGivenFlags() {
+        assertThat(MongoQueries.checks(null, null).keySet(), is(empty()));
+        assertThat(MongoQueries.checks(true, null), is(new BasicDBObject("enabled", true)));
+        assertThat(MongoQueries.checks(false, true), is(new BasicDBObject("enabled", false).append("live", true)));
+    }
+
+    @Test
+    public void checksByStateMatchAnyOfTheStates() {
+        BasicDBObject query = MongoQueries.checksByState(ImmutableSet.of("ERROR", "WARN"), null);
+
+        Object[] states = (Object[]) ((DBObject) query.get("state")).get("$in");
+        assertThat(Arrays.asList(states), containsInAnyOrder((Object) "ERROR", "WARN"));
+        assertThat(query.containsField("enabled"), is(false));
+    }
+
+    @Test
+    public void checksByPatternMatchEachFieldWithItsPattern() {
+        Pattern name = Pattern.compile("^web");
+        Pattern target = Pattern.compile("cpu");
+
+        BasicDBObject query = MongoQueries.checksByPattern(Arrays.asList("name", "target"), Arrays.asList(name, target), true);
+
+        assertThat(query.get("name"), is((Object) name));
+        assertThat(query.get("target"), is((Object) target));
+        assertThat(query.get("enabled"), is((Object) true));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void checksByPatternNeedAPatternForEachField() {
+        MongoQueries.checksByPattern(Arrays.asList("name", "target"), Collections.singletonList(Pattern.compile("web")), null);
+    }
+
+    @Test
+    public void savedThresholdCheckStoresItsDecimals() {
+        ThresholdCheck check = new ThresholdCheck().withWarn(new BigDecimal("0.1")).withError(new BigDecimal("20"));
+        check.setName("name");
+
+        DBObject set = (DBObject) MongoQueries.saveCheck(check, DecimalStorage.DECIMAL128).get("$set");
+
+        assertThat(set.get("checkType"), is((Object) "threshold"));
+        assertThat(set.get("name"), is((Object) "name"));
+        assertThat(set.get("warn"), is((Object) new Decimal128(new BigDecimal("0.1"))));
+        assertThat(((DBObject) MongoQueries.saveCheck(check, DecimalStorage.STRING).get("$set")).get("error"), is((Object) "20"));
+    }
+
+    @Test
+    public void savedOutlierCheckStoresItsASG() {
+        OutlierCheck check = new OutlierCheck();
+        check.setAsgName("web-asg");
+        check.setFrom("");
+
+        DBObject set = (DBObject) MongoQueries.saveCheck(check, DecimalStorage.DECIMAL128).get("$set");
+
+        assertThat(set.get("checkType"), is((Object) "outlier"));
+        assertThat(set.get("asgName"), is((Object) "web-asg"));
+        assertThat(set.get("from"), is(nullValue()));
+        assertThat(set.containsField("warn"), is(false));
+    }
+
+    @Test
+    public void stateAndLastCheckAreSetTogether() {
+        DateTime lastCheck = new DateTime(1500000000000L);
+
+        DBObject set = (DBObject) MongoQueries.updateStateAndLastCheck(AlertType.WARN, lastCheck).get("$set");
+
+        assertThat(set.get("state"), is((Object) "WARN"));
+        assertThat(set.get("lastCheck"), is((Object) new Date(1500000000000L)));
+    }
+
+    @Test
+    public void alertsAreOnlyLimitedInTimeWhenAskedTo() {
+        assertThat(MongoQueries.alerts("id", null), is(new BasicDBObject("checkId", "id")));
+
+        DBObject timestamp = (DBObject) MongoQueries.alerts("id", new DateTime(1500000000000L)).get("timestamp");
+        assertThat(timestamp.get("$lt"), is((Object) new Date(1500000000000L)));
+    }
+
+    @Test
+    public void lastAlertIsFoundByTargetHash() {
+        BasicDBObject query = MongoQueries.lastAlert("servers.web1.cpu", "id");
+
+        assertThat(query.get("checkId"), is((Object) "id"));
+        assertThat(query.get("targetHash"), is((Object) TargetHash.create("servers.web1.cpu")));
+    }
+
+    @Test
+    public void subscriptionIsUpdatedInPlace() {
+        BasicDBObject subscription = new BasicDBObject("_id", "sub");
+
+        BasicDBObject query = MongoQueries.checkWithSubscription("id", "sub");
+        BasicDBObject update = MongoQueries.setSubscription(subscription);
+
+        assertThat(query.get("_id"), is((Object) "id"));
+        assertThat(((DBObject) query.get("subscriptions")).get("$elemMatch"), is((Object) new BasicDBObject("_id", "sub")));
+        assertThat(((DBObject) update.get("$set")).get("subscriptions.$"), is((Object) subscription));
+        assertThat(((DBObject) MongoQueries.pullSubscription("sub").get("$pull")).get("subscriptions"),
+                is((Object) new BasicDBObject("_id", "sub")));
+    }
+
+}
@@ -0,0 +1,268 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.seyren.mongo.codec;
+
+import static org.hamcrest.MatcherAssert.*;
+import static org.hamcrest.Matchers.*;
+
+import java.math.BigDecimal;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+import org.bson.BasicBSONEncoder;
+import org.bson.BsonBinaryReader;
+import org.bson.BsonBinaryWriter;
+import org.bson.BsonDocument;
+import org.bson.BsonType;
+import org.bson.Document;
+import org.bson.codecs.BsonDocumentCodec;
+import org.bson.codecs.Codec;
+import org.bson.codecs.DecoderContext;
+import org.bson.codecs.EncoderContext;
+import org.bson.io.BasicOutputBuffer;
+import org.joda.time.DateTime;
+import org.joda.time.LocalTime;
+import org.junit.Test;
+
+import com.mongodb.BasicDBList;
+import com.mongodb.BasicDBObject;
+import com.seyren.core.domain.Alert;
+import com.seyren.core.domain.AlertType;
+import com.seyren.core.domain.Check;
+import com.seyren.core.domain.OutlierAlert;
+import com.seyren.core.domain.OutlierCheck;
+import com.seyren.core.domain.PendingNotification;
+import com.seyren.core.domain.Subscription;
+import com.seyren.core.domain.SubscriptionType;
+import com.seyren.core.domain.ThresholdAlert;
+import com.seyren.core.domain.ThresholdCheck;
+
+public class CheckCodecTest {
+
+    @Test
+    public void thresholdCheckSurvivesRoundTrip() {
+        Check check = new ThresholdCheck()
+                .withWarn(new BigDecimal("0.1"))
+                .withError(new BigDecimal("20"))
+                .withId("5a1b2c3d4e5f60718293a4b5")
+                .withName("name")
+                .withTarget("servers.*.cpu")
+                .withFrom("-10min")
+                .withEnabled(true)
+                .withState(AlertType.WARN)
+                .withLastCheck(new DateTime(1500000000000L))
+                .withSubscriptions(Arrays.asList(new Subscription()
+                        .withId("sub")
+                        .withTarget("ops@example.com")
+                        .withType(SubscriptionType.EMAIL)
+                        .withMo(true)
+                        .withFromTime(new LocalTime(9, 0))
+                        .withToTime(new LocalTime(17, 30))
+                        .withEnabled(true)))
+                .withConsecutiveChecks(3);
+
+        ThresholdCheck result = (ThresholdCheck) roundTrip(new CheckCodec(), check);
+
+        assertThat(result.getId(), is("5a1b2c3d4e5f60718293a4b5"));
+        assertThat(result.getWarn(), is(new BigDecimal("0.1")));
+        assertThat(result.getError().compareTo(new BigDecimal("20")), is(0));
+        assertThat(result.getFrom(), is("-10min"));
+        assertThat(result.getUntil(), is(nullValue()));
+        assertThat(result.isEnabled(), is(true));
+        assertThat(result.getState(), is(AlertType.WARN));
+        assertThat(result.getLastCheck().getMillis(), is(1500000000000L));
+        assertThat(result.getConsecutiveChecks(), is(3));
+        assertThat(result.getSubscriptions(), hasSize(1));
+        Subscription subscription = result.getSubscriptions().get(0);
+        assertThat(subscription.getType(), is(SubscriptionType.EMAIL));
+        assertThat(subscription.isMo(), is(true));
+        assertThat(subscription.isTu(), is(false));
+        assertThat(subscription.getToTime(), is(new LocalTime(17, 30)));
+    }
+
+    @Test
+    public void outlierCheckSurvivesRoundTrip() {
+        Check check = new OutlierCheck()
+                .withAbsoluteDiff(new BigDecimal("2.5"))
+                .withRelativeDiff(0.3)
+                .withMinConsecutiveViolations(2)
+                .withAlgorithm("mad")
+                .withAsgName("my-asg")
+                .withId("id")
+                .withState(AlertType.OK);
+
+        OutlierCheck result = (OutlierCheck) roundTrip(new CheckCodec(), check);
+
+        assertThat(result.getAbsoluteDiff(), is(new BigDecimal("2.5")));
+        assertThat(result.getRelativeDiff(), is(0.3));
+        assertThat(result.getMinConsecutiveViolations(), is(2));
+        assertThat(result.getAsgName(), is("my-asg"));
+        assertThat(result.getAlgorithm(), is("mad"));
+    }
+
+    @Test
+    public void checkWithStringThresholdsWrittenByOlderVersionsIsDecoded() {
+        BasicDBList subscriptions = new BasicDBList();
+        subscriptions.add(new BasicDBObject("_id", "sub").append("type", "EMAIL").append("su", true).append("enabled", true));
+        BasicDBObject legacy = new BasicDBObject("_id", "id")
+                .append("name", "legacy")
+                .append("warn", "1.50")
+                .append("error", "3")
+                .append("enabled", true)
+                .append("state", "OK")
+                .append("subscriptions", subscriptions);
+
+        ThresholdCheck result = (ThresholdCheck) new CheckCodec().decode(reader(new BasicBSONEncoder().encode(legacy)),
+                DecoderContext.builder().build());
+
+        assertThat(result.getWarn(), is(new BigDecimal("1.50")));
+        assertThat(result.getError(), is(new BigDecimal("3")));
+        assertThat(result.getSubscriptions().get(0).isSu(), is(true));
+        assertThat(result.getSubscriptions().get(0).getFromTime(), is(nullValue()));
+    }
+
+    @Test
+    public void alertsSurviveRoundTrip() {
+        Alert threshold = new ThresholdAlert()
+                .withWarn(new BigDecimal("1"))
+                .withError(new BigDecimal("2"))
+                .withId("id")
+                .withCheckId("check")
+                .withValue(new BigDecimal("1.25"))
+                .withTarget("target")
+                .withFromType(AlertType.OK)
+                .withToType(AlertType.WARN)
+                .withTimestamp(new DateTime(1500000000000L));
+        Alert outlier = new OutlierAlert()
+                .withAbsoluteDiff(new BigDecimal("4"))
+                .withConsecutiveAlertCount(6)
+                .withId("id")
+                .withValue(new BigDecimal("7"))
+                .withFromType(AlertType.OK)
+                .withToType(AlertType.ERROR)
+                .withTimestamp(new DateTime(1500000000000L));
+
+        ThresholdAlert thresholdResult = (ThresholdAlert) roundTrip(new AlertCodec(), threshold);
+        OutlierAlert outlierResult = (OutlierAlert) roundTrip(new AlertCodec(), outlier);
+
+        assertThat(thresholdResult.getValue(), is(new BigDecimal("1.25")));
+        assertThat(thresholdResult.getCheckId(), is("check"));
+        assertThat(thresholdResult.getToType(), is(AlertType.WARN));
+        assertThat(thresholdResult.getTimestamp().getMillis(), is(1500000000000L));
+        assertThat(outlierResult.getConsecutiveAlertCount(), is(6));
+        assertThat(outlierResult.getToType(), is(AlertType.ERROR));
+    }
+
+    @Test
+    public void pendingNotificationSurvivesRoundTrip() {
+        PendingNotification notification = new PendingNotification()
+                .withId("5a1b2c3d4e5f60718293a4b7")
+                .withKey("key")
+                .withCheck(new ThresholdCheck()
+                        .withWarn(new BigDecimal("1"))
+                        .withError(new BigDecimal("2"))
+                        .withId("check")
+                        .withState(AlertType.ERROR)
+                        .withSubscriptions(Arrays.asList(new Subscription()
+                                .withId("sub")
+                                .withTarget("ops@example.com")
+                                .withType(SubscriptionType.EMAIL))))
+                .withSubscriptionId("sub")
+                .withAlerts(Arrays.<Alert>asList(new ThresholdAlert()
+                        .withValue(new BigDecimal("3"))
+                        .withFromType(AlertType.OK)
+                        .withToType(AlertType.ERROR)
+                        .withTimestamp(new DateTime(1500000000000L))))
+                .withAttempts(2)
+                .withDue(new DateTime(1500000060000L))
+                .withOwner("node");
+
+        PendingNotification result = roundTrip(new PendingNotificationCodec(), notification);
+
+        assertThat(result.getId(), is("5a1b2c3d4e5f60718293a4b7"));
+        assertThat(result.getKey(), is("key"));
+        assertThat(result.getSubscription().getTarget(), is("ops@example.com"));
+        assertThat(((ThresholdCheck) result.getCheck()).getError(), is(new BigDecimal("2")));
+        assertThat(result.getAlerts(), hasSize(1));
+        assertThat(result.getAlerts().get(0).getToType(), is(AlertType.ERROR));
+        assertThat(result.getAttempts(), is(2));
+        assertThat(result.getDue().getMillis(), is(1500000060000L));
+        assertThat(result.getOwner(), is("node"));
+        assertThat(result.getCreated(), is(nullValue()));
+    }
+
+    @Test
+    public void decimalsAreStoredExactly() {
+        Check check = new ThresholdCheck()
+                .withWarn(new BigDecimal("0.1000000000000000055511151231257827"))
+                .withError(new BigDecimal("12345678901234567890.5"))
+                .withId("id")
+                .withState(AlertType.OK);
+
+        BasicOutputBuffer buffer = new BasicOutputBuffer();
+        new CheckCodec().encode(new BsonBinaryWriter(buffer), check, EncoderContext.builder().build());
+        BsonDocument document = new BsonDocumentCodec().decode(reader(buffer.toByteArray()), DecoderContext.builder().build());
+        ThresholdCheck result = (ThresholdCheck) new CheckCodec().decode(reader(buffer.toByteArray()), DecoderContext.builder().build());
+
+        assertThat(document.get("warn").getBsonType(), is(BsonType.DECIMAL128));
+        assertThat(result.getWarn(), is(new BigDecimal("0.1000000000000000055511151231257827")));
+        assertThat(result.getError(), is(new BigDecimal("12345678901234567890.5")));
+    }
+
+    @Test
+    public void decimalsAreStoredAsStringsOnServersWithoutDecimal128() {
+        Alert alert = new ThresholdAlert()
+                .withWarn(new BigDecimal("1"))
+                .withError(new BigDecimal("2"))
+                .withValue(new BigDecimal("1.25"))
+                .withFromType(AlertType.OK)
+                .withToType(AlertType.WARN)
+                .withTimestamp(new DateTime(1500000000000L));
+
+        BasicOutputBuffer buffer = new BasicOutputBuffer();
+        new AlertCodec(DecimalStorage.STRING).encode(new BsonBinaryWriter(buffer), alert, EncoderContext.builder().build());
+        BsonDocument document = new BsonDocumentCodec().decode(reader(buffer.toByteArray()), DecoderContext.builder().build());
+        Alert result = new AlertCodec().decode(reader(buffer.toByteArray()), DecoderContext.builder().build());
+
+        assertThat(document.getString("value").getValue(), is("1.25"));
+        assertThat(result.getValue(), is(new BigDecimal("1.25")));
+        assertThat(DecimalStorage.forServer(new Document("version", "3.2.22").append("versionArray", Arrays.asList(3, 2, 22, 0))),
+                is(DecimalStorage.STRING));
+        assertThat(DecimalStorage.forServer(new Document("version", "3.4.0").append("versionArray", Arrays.asList(3, 4, 0, 0))),
+                is(DecimalStorage.DECIMAL128));
+    }
+
+    @Test
+    public void checksAndAlertsWithoutStatesAreEncoded() {
+        Check check = roundTrip(new CheckCodec(), new ThresholdCheck().withId("id").withName("new"));
+        Alert alert = roundTrip(new AlertCodec(), new ThresholdAlert().withId("id").withValue(new BigDecimal("1")));
+
+        assertThat(check.getName(), is("new"));
+        assertThat(check.getState(), is(nullValue()));
+        assertThat(alert.getFromType(), is(nullValue()));
+        assertThat(alert.getToType(), is(nullValue()));
+        assertThat(alert.getTimestamp(), is(nullValue()));
+    }
+
+    private static <T> T roundTrip(Codec<T> codec, T value) {
+        BasicOutputBuffer buffer = new BasicOutputBuffer();
+        codec.encode(new BsonBinaryWriter(buffer), value, EncoderContext.builder().build());
+        return codec.decode(reader(buffer.toByteArray()), DecoderContext.builder().build());
+    }
+
+    private static BsonBinaryReader reader(byte[] bytes) {
+        return new BsonBinaryReader(ByteBuffer.wrap(bytes));
+    }
+
+}
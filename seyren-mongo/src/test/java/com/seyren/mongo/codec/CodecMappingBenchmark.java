@@ -0,0 +1,171 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.seyren.mongo.codec;
+
+import java.math.BigDecimal;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.bson.BsonBinaryReader;
+import org.bson.BsonBinaryWriter;
+import org.bson.codecs.Codec;
+import org.bson.codecs.DecoderContext;
+import org.bson.codecs.EncoderContext;
+import org.bson.io.BasicOutputBuffer;
+import org.joda.time.DateTime;
+import org.joda.time.LocalTime;
+
+import com.mongodb.DBCollection;
+import com.mongodb.DBObject;
+import com.mongodb.DefaultDBDecoder;
+import com.mongodb.DefaultDBEncoder;
+import com.seyren.core.domain.Alert;
+import com.seyren.core.domain.AlertType;
+import com.seyren.core.domain.Check;
+import com.seyren.core.domain.Subscription;
+import com.seyren.core.domain.SubscriptionType;
+import com.seyren.core.domain.ThresholdAlert;
+import com.seyren.core.domain.ThresholdCheck;
+import com.seyren.mongo.MongoMapper;
+
+/**
+ * Compares decoding checks and alerts through DBObject and {@link MongoMapper}
+ * with decoding them through the BSON codecs, starting from the same wire bytes.
+ *
+ * Not a unit test; run the main method with the test classpath.
+ */
+public class CodecMappingBenchmark {
+
+    private static final int WARMUP = 200000;
+    private static final int ITERATIONS = 1000000;
+
+    private static final DecoderContext DECODER_CONTEXT = DecoderContext.builder().build();
+
+    public static void main(String[] args) {
+        final MongoMapper mapper = new MongoMapper();
+        final DefaultDBDecoder dbDecoder = new DefaultDBDecoder();
+        final CheckCodec checkCodec = new CheckCodec();
+        final AlertCodec alertCodec = new AlertCodec();
+
+        final byte[] checkAsStrings = new DefaultDBEncoder().encode(mapperCheckWithStringThresholds(mapper));
+        final byte[] checkAsDecimal128 = encode(checkCodec, check());
+        final byte[] alertAsStrings = new DefaultDBEncoder().encode(mapperAlertWithStringValues(mapper));
+        final byte[] alertAsDecimal128 = encode(alertCodec, alert());
+
+        run("check via DBObject", new Runnable() {
+            @Override
+            public void run() {
+                mapper.checkFrom(dbDecoder.decode(checkAsStrings, (DBCollection) null));
+            }
+        });
+        run("check via codec", new Runnable() {
+            @Override
+            public void run() {
+                checkCodec.decode(new BsonBinaryReader(ByteBuffer.wrap(checkAsDecimal128)), DECODER_CONTEXT);
+            }
+        });
+        run("alert via DBObject", new Runnable() {
+            @Override
+            public void run() {
+                mapper.alertFrom(dbDecoder.decode(alertAsStrings, (DBCollection) null));
+            }
+        });
+        run("alert via codec", new Runnable() {
+            @Override
+            public void run() {
+                alertCodec.decode(new BsonBinaryReader(ByteBuffer.wrap(alertAsDecimal128)), DECODER_CONTEXT);
+            }
+        });
+    }
+
+    private static void run(String name, Runnable decode) {
+        for (int i = 0; i < WARMUP; i++) {
+            decode.run();
+        }
+        long start = System.nanoTime();
+        for (int i = 0; i < ITERATIONS; i++) {
+            decode.run();
+        }
+        long elapsed = System.nanoTime() - start;
+        System.out.println(String.format("%-20s %8.1f ns/op", name, (double) elapsed / ITERATIONS));
+    }
+
+    private static Check check() {
+        List<Subscription> subscriptions = new ArrayList<Subscription>();
+        for (int i = 0; i < 3; i++) {
+            subscriptions.add(new Subscription()
+                    .withId("sub" + i)
+                    .withTarget("team" + i + "@example.com")
+                    .withType(SubscriptionType.EMAIL)
+                    .withMo(true).withTu(true).withWe(true).withTh(true).withFr(true)
+                    .withFromTime(new LocalTime(0, 0))
+                    .withToTime(new LocalTime(23, 59))
+                    .withEnabled(true));
+        }
+        return new ThresholdCheck()
+                .withWarn(new BigDecimal("80.5"))
+                .withError(new BigDecimal("95"))
+                .withId("5a1b2c3d4e5f60718293a4b5")
+                .withName("CPU usage")
+                .withDescription("CPU usage across the web tier")
+                .withTarget("maxSeries(servers.web*.cpu.total)")
+                .withGraphiteBaseUrl("http://graphite.example.com")
+                .withEnabled(true)
+                .withLive(false)
+                .withState(AlertType.OK)
+                .withLastCheck(new DateTime(1500000000000L))
+                .withSubscriptions(subscriptions)
+                .withEnableConsecutiveChecks(false)
+                .withConsecutiveChecks(0)
+                .withConsecutiveChecksTolerance(0)
+                .withConsecutiveChecksTriggered(false);
+    }
+
+    private static Alert alert() {
+        return new ThresholdAlert()
+                .withWarn(new BigDecimal("80.5"))
+                .withError(new BigDecimal("95"))
+                .withId("5a1b2c3d4e5f60718293a4b6")
+                .withCheckId("5a1b2c3d4e5f60718293a4b5")
+                .withValue(new BigDecimal("87.25"))
+                .withTarget("servers.web01.cpu.total")
+                .withFromType(AlertType.OK)
+                .withToType(AlertType.WARN)
+                .withTimestamp(new DateTime(1500000000000L));
+    }
+
+    // The DBObject path is measured against documents as older versions wrote them
+    private static DBObject mapperCheckWithStringThresholds(MongoMapper mapper) {
+        DBObject dbo = mapper.checkToDBObject(check());
+        dbo.put("warn", "80.5");
+        dbo.put("error", "95");
+        return dbo;
+    }
+
+    private static DBObject mapperAlertWithStringValues(MongoMapper mapper) {
+        DBObject dbo = mapper.alertToDBObject(alert());
+        dbo.put("value", "87.25");
+        dbo.put("warn", "80.5");
+        dbo.put("error", "95");
+        return dbo;
+    }
+
+    private static <T> byte[] encode(Codec<T> codec, T value) {
+        BasicOutputBuffer buffer = new BasicOutputBuffer();
+        codec.encode(new BsonBinaryWriter(buffer), value, EncoderContext.builder().build());
+        return buffer.toByteArray();
+    }
+
+}
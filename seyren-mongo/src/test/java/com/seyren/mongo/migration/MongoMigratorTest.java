@@ -0,0 +1,120 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.seyren.mongo.migration;
+
+import static org.hamcrest.MatcherAssert.*;
+import static org.hamcrest.Matchers.is;
+import static org.mockito.Matchers.*;
+import static org.mockito.Mockito.*;
+
+import java.util.Arrays;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+
+import com.mongodb.BasicDBObject;
+import com.mongodb.DB;
+import com.mongodb.DBCollection;
+import com.mongodb.DBCursor;
+import com.mongodb.DBObject;
+import com.mongodb.WriteResult;
+
+public class MongoMigratorTest {
+
+    private DB mongo;
+    private DBCollection migrations;
+    private DBCursor completedCursor;
+    private MongoMigration migration;
+    private MongoMigrator migrator;
+
+    @Before
+    public void before() {
+        mongo = mock(DB.class);
+        migrations = mock(DBCollection.class);
+        completedCursor = mock(DBCursor.class);
+        migration = mock(MongoMigration.class);
+        when(migration.getVersion()).thenReturn(1);
+        when(migration.getDescription()).thenReturn("test migration");
+        when(mongo.getCollection("migrations")).thenReturn(migrations);
+        when(migrations.find(any(DBObject.class), any(DBObject.class))).thenReturn(completedCursor);
+        when(migrations.update(any(DBObject.class), any(DBObject.class))).thenReturn(mock(WriteResult.class));
+        migrator = new MongoMigrator(mongo, Arrays.asList(migration));
+    }
+
+    @After
+    public void after() {
+        migrator.stop();
+    }
+
+    @Test
+    public void completedMigrationsAreNotRunAgain() {
+        when(completedCursor.hasNext()).thenReturn(true, false);
+        when(completedCursor.next()).thenReturn(new BasicDBObject("_id", 1));
+
+        migrator.runPendingMigrations();
+
+        verify(migration, never()).migrate(any(DB.class), any(MigrationContext.class));
+        verify(migrations, never()).findAndModify(any(DBObject.class), any(DBObject.class), any(DBObject.class), anyBoolean(),
+                any(DBObject.class), anyBoolean(), anyBoolean());
+        assertThat(migrator.isComplete(), is(true));
+    }
+
+    @Test
+    public void migrationHeldByAnotherNodeIsNotRun() {
+        when(migrations.findAndModify(any(DBObject.class), any(DBObject.class), any(DBObject.class), anyBoolean(),
+                any(DBObject.class), anyBoolean(), anyBoolean())).thenReturn(null);
+
+        migrator.runPendingMigrations();
+
+        verify(migration, never()).migrate(any(DB.class), any(MigrationContext.class));
+        assertThat(migrator.isComplete(), is(false));
+    }
+
+    @Test
+    public void claimedMigrationIsRunAndMarkedComplete() {
+        when(migrations.findAndModify(any(DBObject.class), any(DBObject.class), any(DBObject.class), anyBoolean(),
+                any(DBObject.class), anyBoolean(), anyBoolean())).thenReturn(new BasicDBObject("_id", 1).append("processed", 0L));
+
+        migrator.runPendingMigrations();
+
+        verify(migration).migrate(eq(mongo), any(MigrationContext.class));
+        ArgumentCaptor<DBObject> update = ArgumentCaptor.forClass(DBObject.class);
+        verify(migrations).update(any(DBObject.class), update.capture());
+        assertThat(((DBObject) update.getValue().get("$set")).get("state"), is((Object) MongoMigrator.COMPLETE));
+        assertThat(migrator.isComplete(), is(true));
+    }
+
+    @Test(timeout = 5000)
+    public void failedMigrationIsRetried() throws Exception {
+        migrator.stop();
+        migrator = new MongoMigrator(mongo, Arrays.asList(migration), 50);
+        when(migrations.findAndModify(any(DBObject.class), any(DBObject.class), any(DBObject.class), anyBoolean(),
+                any(DBObject.class), anyBoolean(), anyBoolean())).thenReturn(new BasicDBObject("_id", 1).append("processed", 0L));
+        doThrow(new RuntimeException("boom")).doNothing().when(migration).migrate(eq(mongo), any(MigrationContext.class));
+
+        migrator.runPendingMigrations();
+        while (!migrator.isComplete()) {
+            Thread.sleep(5);
+        }
+
+        verify(migration, times(2)).migrate(eq(mongo), any(MigrationContext.class));
+        ArgumentCaptor<DBObject> update = ArgumentCaptor.forClass(DBObject.class);
+        verify(migrations, times(2)).update(any(DBObject.class), update.capture());
+        assertThat(((DBObject) update.getAllValues().get(0).get("$set")).get("state"), is((Object) MongoMigrator.FAILED));
+        assertThat(((DBObject) update.getAllValues().get(1).get("$set")).get("state"), is((Object) MongoMigrator.COMPLETE));
+    }
+
+}
@@ -20,6 +20,7 @@
             absoluteDiff : null,
             minConsecutiveViolations : null,
             asgName : null,
+            algorithm : null,
             type : null
 
         };